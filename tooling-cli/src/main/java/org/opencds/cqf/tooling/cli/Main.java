@@ -13,6 +13,9 @@ package org.opencds.cqf.tooling.cli;
         - | = OR (typically used for shorthand args)
 
     Note:
+        - The following flags can be given to any operation:
+            - -threads=N = the number of tasks run concurrently (default: the number of available processors)
+            - -virtualthreads = run tasks on virtual threads (Java 21+), still limited to -threads concurrent tasks
         - The default output directory is src/main/java/resources/org/opencds/cqf/tooling/{package}/output
             - If an output directory path is specified in the params, it MUST NOT have any spaces
         - The default encoding for org.opencds.cqf.qdm.output is JSON
@@ -236,9 +239,13 @@ package org.opencds.cqf.tooling.cli;
 //import org.opencds.cqf.tooling.operations.ExecutableOperation;
 //import org.opencds.cqf.tooling.operations.Operation;
 //import org.reflections.Reflections;
+import org.opencds.cqf.tooling.common.TaskExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 //import java.lang.reflect.InvocationTargetException;
 //import java.util.HashMap;
 //import java.util.Map;
@@ -295,6 +302,26 @@ public class Main {
             throw new IllegalArgumentException("Invalid operation: " + operation);
         }
 
-        OperationFactory.createOperation(operation.substring(1)).execute(args);
+        OperationFactory.createOperation(operation.substring(1)).execute(applyExecutionArgs(args));
+    }
+
+    // Applies (and removes) the flags configuring the shared TaskExecutor, so operations never see them
+    static String[] applyExecutionArgs(String[] args) {
+        List<String> remaining = new ArrayList<>();
+        for (String arg : args) {
+            String lower = arg.toLowerCase();
+            if (lower.startsWith("-threads=")) {
+                int threads = Integer.parseInt(arg.substring("-threads=".length()).trim());
+                if (threads < 1) {
+                    throw new IllegalArgumentException("-threads must be at least 1");
+                }
+                System.setProperty(TaskExecutor.THREADS_PROPERTY, Integer.toString(threads));
+            } else if (lower.equals("-virtualthreads")) {
+                System.setProperty(TaskExecutor.VIRTUAL_THREADS_PROPERTY, "true");
+            } else {
+                remaining.add(arg);
+            }
+        }
+        return remaining.toArray(new String[0]);
     }
 }
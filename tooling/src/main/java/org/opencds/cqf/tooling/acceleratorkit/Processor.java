@@ -5,21 +5,22 @@ import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import jakarta.annotation.Nonnull;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
 import org.hl7.fhir.r4.model.CanonicalType;
 import org.hl7.fhir.r4.model.CodeSystem;
 import org.hl7.fhir.r4.model.CodeType;
@@ -40,7 +41,11 @@ import org.hl7.fhir.r4.model.UriType;
 import org.hl7.fhir.r4.model.UsageContext;
 import org.hl7.fhir.r4.model.ValueSet;
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.common.TaskExecutor;
+import org.opencds.cqf.tooling.common.TaskReport;
+import org.opencds.cqf.tooling.terminology.SheetRow;
 import org.opencds.cqf.tooling.terminology.SpreadsheetHelper;
+import org.opencds.cqf.tooling.terminology.SpreadsheetStreamReader;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,6 +60,7 @@ public class Processor extends Operation {
     private static final Logger logger = LoggerFactory.getLogger(Processor.class);
     private String pathToSpreadsheet; // -pathtospreadsheet (-pts)
     private String encoding = "json"; // -encoding (-e)
+    private boolean parallel = false; // -parallel (-p)
     private String scopes; // -scopes (-s)
 
     // Data Elements
@@ -113,7 +119,7 @@ public class Processor extends Operation {
     private List<String> igResourceFragments = new ArrayList<>();
     private CanonicalResourceAtlas atlas;
 
-    private Row currentInputOptionParentRow;
+    private SheetRow currentInputOptionParentRow;
 
     private class RetrieveInfo {
         public RetrieveInfo(StructureDefinition structureDefinition, String terminologyIdentifier, DictionaryFhirElementPath fhirElementPath) {
@@ -173,6 +179,10 @@ public class Processor extends Operation {
                 case "tc":
                     testCaseInput = value;
                     break; // -testcases (-tc)
+                case "parallel":
+                case "p":
+                    parallel = Boolean.parseBoolean(value);
+                    break; // -parallel (-p)
                 default:
                     throw new IllegalArgumentException("Unknown flag: " + flag);
             }
@@ -185,39 +195,40 @@ public class Processor extends Operation {
         registerScopes();
         registerCodeSystems();
 
-        Workbook workbook = SpreadsheetHelper.getWorkbook(pathToSpreadsheet);
+        // sheets are streamed rather than loading the whole workbook, which can be very large for data dictionaries
+        try (SpreadsheetStreamReader workbook = new SpreadsheetStreamReader(pathToSpreadsheet)) {
+            loadConfig(workbook);
 
-        loadConfig(workbook);
+            // loadFHIRModel();
 
-        // loadFHIRModel();
-
-        if (scopes == null) {
-            processScope(workbook, null);
-        } else {
-            for (String scope : scopes.split(",")) {
-                processScope(workbook, scope);
+            if (scopes == null) {
+                processScope(workbook, null);
+            } else {
+                for (String scope : scopes.split(",")) {
+                    processScope(workbook, scope);
+                }
             }
         }
     }
 
-    private void loadConfig(Workbook workbook) {
+    private void loadConfig(SpreadsheetStreamReader workbook) {
         // Load the "CONFIG" page of the spreadsheet if it is present
-        Sheet sheet = workbook.getSheet("CONFIG");
-        if (sheet == null) {
+        if (!workbook.hasSheet("CONFIG")) {
             logger.info("Sheet {} not found in the Workbook, so no processing was done.", "CONFIG");
             return;
         }
 
-        Iterator<Row> it = sheet.rowIterator();
-        while (it.hasNext()) {
-            Row row = it.next();
+        for (SheetRow row : workbook.readRows("CONFIG")) {
             int headerRow = 1;
             if (row.getRowNum() <= headerRow) {
                 continue;
             }
 
-            String key = SpreadsheetHelper.getCellAsString(row.getCell(0));
-            String value = SpreadsheetHelper.getCellAsString(row.getCell(1));
+            String key = row.getCellAsString(0);
+            String value = row.getCellAsString(1);
+            if (key == null) {
+                continue;
+            }
 
             switch (key) {
                 case "publisher": this.publisher = value; break;
@@ -308,7 +319,7 @@ public class Processor extends Operation {
     // fhirModelStructureDefinitions = loader.loadPaths(inputPath, resourcePaths);
     // }
 
-    private void processScope(Workbook workbook, String scope) {
+    private void processScope(SpreadsheetStreamReader workbook, String scope) {
         // reset variables
         elementMap = new LinkedHashMap<>();
         profileExtensions = new ArrayList<>();
@@ -335,8 +346,35 @@ public class Processor extends Operation {
         }
 
         // process workbook
+        List<String> pages = new ArrayList<>();
         for (String page : dataElementPages.split(",")) {
-            processDataElementPage(workbook, page.trim(), scope);
+            page = page.trim();
+            if (workbook.hasSheet(page)) {
+                pages.add(page);
+            } else {
+                logger.info("Sheet {} not found in the Workbook, so no processing was done.", page);
+            }
+        }
+        if (parallel) {
+            // The sheets are parsed concurrently and the elements of each sheet are created concurrently, but they
+            // are merged in page order as the questionnaire link ids, activity codes and concepts depend on the order
+            // in which the rows are seen. Sheets are read a batch (one per thread) at a time, so at most one batch
+            // of sheets is held in memory.
+            int batchSize = TaskExecutor.getShared().getParallelism();
+            for (int start = 0; start < pages.size(); start += batchSize) {
+                List<String> batch = pages.subList(start, Math.min(start + batchSize, pages.size()));
+                List<List<SheetRow>> pageRows = readSheets(workbook, batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    List<SheetRow> rows = pageRows.get(i);
+                    // release the rows of the sheet once it is processed
+                    pageRows.set(i, null);
+                    processDataElementPage(batch.get(i), scope, rows);
+                }
+            }
+        } else {
+            for (String page : pages) {
+                processDataElementPage(page, scope, handler -> workbook.readSheet(page, handler));
+            }
         }
 
         // process element map
@@ -597,17 +635,17 @@ public class Processor extends Operation {
         return activityCode + ".DE" + nextId.toString();
     }
 
-    private String getActivityID(Row row, HashMap<String, Integer> colIds) {
+    private String getActivityID(SheetRow row, HashMap<String, Integer> colIds) {
         String activityID = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "ActivityID"));
         return activityID;
     }
 
-    private String getDataElementID(Row row, HashMap<String, Integer> colIds) {
+    private String getDataElementID(SheetRow row, HashMap<String, Integer> colIds) {
         String dataElementID = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "DataElementID"));
         return dataElementID;
     }
 
-    private String getDataElementLabel(Row row, HashMap<String, Integer> colIds) {
+    private String getDataElementLabel(SheetRow row, HashMap<String, Integer> colIds) {
         String dataElementLabel = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "DataElementLabel"));
         dataElementLabel = dataElementLabel
                 .replace("?", "")
@@ -615,7 +653,7 @@ public class Processor extends Operation {
         return dataElementLabel;
     }
 
-    private String getLabel(Row row, HashMap<String, Integer> colIds) {
+    private String getLabel(SheetRow row, HashMap<String, Integer> colIds) {
         String label = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "Label"));
         label = label
                 .replace("?", "")
@@ -623,7 +661,7 @@ public class Processor extends Operation {
         return label;
     }
 
-    private String getName(Row row, HashMap<String, Integer> colIds) {
+    private String getName(SheetRow row, HashMap<String, Integer> colIds) {
         String name = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "Name"));
         name = name
                 .replace("?", "")
@@ -631,7 +669,7 @@ public class Processor extends Operation {
         return name;
     }
 
-    private String getMasterDataType(Row row, HashMap<String, Integer> colIds) {
+    private String getMasterDataType(SheetRow row, HashMap<String, Integer> colIds) {
         String masterDataType = null;
         String activityID = getActivityID(row, colIds);
         if (activityID != null && !activityID.isEmpty()) {
@@ -642,7 +680,7 @@ public class Processor extends Operation {
         return masterDataType;
     }
 
-    private String getMultipleChoiceType(Row row, HashMap<String, Integer> colIds) {
+    private String getMultipleChoiceType(SheetRow row, HashMap<String, Integer> colIds) {
         String multipleChoiceType = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "MultipleChoiceType"));
         return multipleChoiceType;
     }
@@ -658,7 +696,7 @@ public class Processor extends Operation {
         return result;
     }
 
-    private String getCodeComments(Row row, HashMap<String, Integer> colIds, String colName) {
+    private String getCodeComments(SheetRow row, HashMap<String, Integer> colIds, String colName) {
         String comments = SpreadsheetHelper.getCellAsString(row, getColId(colIds, colName));
         comments = cleanseCodeComments(comments);
         return comments;
@@ -686,7 +724,7 @@ public class Processor extends Operation {
         return codes;
     }
 
-    private List<DictionaryCode> getTerminologyCodes(String codeSystemKey, String id, String label, Row row, HashMap<String, Integer> colIds) {
+    private List<DictionaryCode> getTerminologyCodes(String codeSystemKey, String id, String label, SheetRow row, HashMap<String, Integer> colIds) {
         List<DictionaryCode> codes = new ArrayList<>();
         String system = supportedCodeSystems.get(codeSystemKey);
         String codeListString = SpreadsheetHelper.getCellAsString(row, getColId(colIds, codeSystemKey));
@@ -711,7 +749,8 @@ public class Processor extends Operation {
         return cleanseCodes(codes);
     }
 
-    private List<DictionaryCode> getFhirCodes(String id, String label, Row row, HashMap<String, Integer> colIds) {
+    private List<DictionaryCode> getFhirCodes(String id, String label, SheetRow row, HashMap<String, Integer> colIds,
+            String parentLabel, BiConsumer<String, List<CodeSystem.ConceptDefinitionComponent>> conceptSink) {
         List<DictionaryCode> codes = new ArrayList<>();
         // If this is an input option with a custom code, add codes for the input options
         String system = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "FhirCodeSystem"));
@@ -724,17 +763,6 @@ public class Processor extends Operation {
         if (display == null || display.isEmpty()) {
             display = label;
         }
-        String parentId = null;
-        String parentLabel = null;
-        String parentName = getDataElementLabel(currentInputOptionParentRow, colIds).trim();
-        if (parentName != null && !parentName.trim().isEmpty()) {
-            parentName = parentName.trim();
-            DictionaryElement currentElement = elementMap.get(parentName);
-            if (currentElement != null) {
-                parentId = currentElement.getId();
-                parentLabel = currentElement.getDataElementLabel();
-            }
-        }
         if (system != null && !system.isEmpty()) {
             String codeListString = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "FhirR4Code"));
             // If there is no code, use the data element label, prefixed with the parentLabel, if there is one
@@ -750,12 +778,7 @@ public class Processor extends Operation {
             }
 
             if (system.startsWith(projectCodeSystemBase)) {
-                CodeSystem codeSystem = resolveCodeSystem(system);
-                if (codeSystem == null) {
-                    codeSystem = createCodeSystem("concept-codes", String.format("%sConceptCodes", contentId), projectCodeSystemBase, String.format("%s Concept Codes", contentId),
-                            "Set of codes representing all concepts used in the implementation guide");
-                }
-
+                List<CodeSystem.ConceptDefinitionComponent> concepts = new ArrayList<>();
                 for (DictionaryCode code : codes) {
                     CodeSystem.ConceptDefinitionComponent concept = new CodeSystem.ConceptDefinitionComponent();
                     concept.setCode(code.getCode());
@@ -764,14 +787,24 @@ public class Processor extends Operation {
                     String definition = parentLabel != null ? String.format("%s - %s", parentLabel, code.getLabel())
                             : code.getLabel();
                     concept.setDefinition(definition);
-                    codeSystem.addConcept(concept);
+                    concepts.add(concept);
                 }
+                conceptSink.accept(system, concepts);
             }
         }
         return cleanseCodes(codes);
     }
 
-    private List<DictionaryCode> getOpenMRSCodes(String elementId, String elementLabel, Row row, HashMap<String, Integer> colIds) {
+    private void addProjectConcepts(String system, List<CodeSystem.ConceptDefinitionComponent> concepts) {
+        CodeSystem codeSystem = resolveCodeSystem(system);
+        if (codeSystem == null) {
+            codeSystem = createCodeSystem("concept-codes", String.format("%sConceptCodes", contentId), projectCodeSystemBase, String.format("%s Concept Codes", contentId),
+                    "Set of codes representing all concepts used in the implementation guide");
+        }
+        concepts.forEach(codeSystem::addConcept);
+    }
+
+    private List<DictionaryCode> getOpenMRSCodes(String elementId, String elementLabel, SheetRow row, HashMap<String, Integer> colIds) {
         List<DictionaryCode> codes = new ArrayList<>();
         String system = openMRSSystem;
         String parent = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "OpenMRSEntityParent"));
@@ -787,12 +820,6 @@ public class Processor extends Operation {
         return cleanseCodes(codes);
     }
 
-    private List<DictionaryCode> getPrimaryCodes(String elementId, String elementLabel, Row row, HashMap<String, Integer> colIds) {
-        List<DictionaryCode> codes;
-        codes = getDataElementCodes(row, colIds, elementId, elementLabel);
-        return codes;
-    }
-
     private DictionaryCode getCode(String system, String id, String label, String display, String codeValue, String parent, String equivalence) {
         DictionaryCode code = new DictionaryCode();
         code.setId(id);
@@ -805,7 +832,7 @@ public class Processor extends Operation {
         return code;
     }
 
-    private DictionaryFhirElementPath getFhirElementPath(Row row, HashMap<String, Integer> colIds) {
+    private DictionaryFhirElementPath getFhirElementPath(SheetRow row, HashMap<String, Integer> colIds) {
         DictionaryFhirElementPath fhirType = null;
         String resource = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "FhirR4Resource"));
 
@@ -826,24 +853,12 @@ public class Processor extends Operation {
         return -1;
     }
 
-    private DictionaryElement createDataElement(String page, String group, Row row, HashMap<String, Integer> colIds) {
-        String type = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "Type"));
-        if (type != null) {
-            type = type.trim();
-            if (type.equals("Coding")) {
-                String choiceType = getMultipleChoiceType(row, colIds);
-                if (choiceType != null) {
-                    choiceType = choiceType.trim();
-                    type = type + " - " + choiceType;
-                }
-            }
-        }
+    private DictionaryElement createDataElement(String page, String group, SheetRow row, HashMap<String, Integer> colIds) {
         String name = getName(row, colIds);
         if (name.isEmpty()) {
             return null;
         }
         name = name.trim();
-        String label = name;
 
         // TODO: should we throw if a duplicate is found within the same scope?
         // TODO: (core, anc, sti, fp, etc)
@@ -855,6 +870,29 @@ public class Processor extends Operation {
         String activity = getActivityID(row, colIds);
         Coding activityCoding = getActivityCoding(activity);
         //String id = getNextElementId(activityCoding.getCode());
+
+        return createDataElement(page, group, row, colIds, name, this::addProjectConcepts);
+    }
+
+    /**
+     * Creates the data element for a row, without updating any shared state, so elements can be created
+     * concurrently. The concepts the codes of the element add to the project code system are passed to the sink.
+     */
+    private DictionaryElement createDataElement(String page, String group, SheetRow row, HashMap<String, Integer> colIds,
+            String name, BiConsumer<String, List<CodeSystem.ConceptDefinitionComponent>> conceptSink) {
+        String type = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "Type"));
+        if (type != null) {
+            type = type.trim();
+            if (type.equals("Coding")) {
+                String choiceType = getMultipleChoiceType(row, colIds);
+                if (choiceType != null) {
+                    choiceType = choiceType.trim();
+                    type = type + " - " + choiceType;
+                }
+            }
+        }
+        String label = name;
+        String activity = getActivityID(row, colIds);
         String id = getDataElementID(row, colIds);
 
         DictionaryElement e = new DictionaryElement(id, name);
@@ -881,7 +919,8 @@ public class Processor extends Operation {
         e.setContext(SpreadsheetHelper.getCellAsString(row, getColId(colIds, "Context")));
         e.setSelector(SpreadsheetHelper.getCellAsString(row, getColId(colIds, "Selector")));
         //TODO: Get all codes specified on the element, create a valueset and bind to it. Required
-        e.setPrimaryCodes(getPrimaryCodes(id, name, row, colIds));
+        // The row is its own input option parent, and is not in the element map yet
+        e.setPrimaryCodes(getDataElementCodes(row, colIds, id, name, null, conceptSink));
 
         DictionaryFhirElementPath fhirElementPath = getFhirElementPath(row, colIds);
         if (fhirElementPath != null) {
@@ -901,7 +940,7 @@ public class Processor extends Operation {
         return e;
     }
 
-    private void addInputOptionToParentElement(Row row, HashMap<String, Integer> colIds) {
+    private void addInputOptionToParentElement(SheetRow row, HashMap<String, Integer> colIds) {
         String parentId = getDataElementID(currentInputOptionParentRow, colIds).trim();
         String parentName = getDataElementLabel(currentInputOptionParentRow, colIds).trim();
 
@@ -940,7 +979,8 @@ public class Processor extends Operation {
                     String optionLabel = getDataElementLabel(row, colIds);
                     List<DictionaryCode> inputOptionCodes = getDataElementCodes(row, colIds,
                             optionId != null && !optionId.isEmpty() ? optionId : parentId,
-                            optionLabel != null && !optionLabel.isEmpty() ? optionLabel : parentName);
+                            optionLabel != null && !optionLabel.isEmpty() ? optionLabel : parentName,
+                            parentElement.getDataElementLabel(), this::addProjectConcepts);
 
                     if (!valueSetNameMap.containsKey(inputOptionValueSetName)) {
                         valueSetNameMap.put(inputOptionValueSetName, optionId);
@@ -963,7 +1003,8 @@ public class Processor extends Operation {
         }
     }
 
-    private List<DictionaryCode> getDataElementCodes(Row row, HashMap<String, Integer> colIds, String elementId, String elementLabel) {
+    private List<DictionaryCode> getDataElementCodes(SheetRow row, HashMap<String, Integer> colIds, String elementId, String elementLabel,
+            String parentLabel, BiConsumer<String, List<CodeSystem.ConceptDefinitionComponent>> conceptSink) {
         List<DictionaryCode> codes = new ArrayList<>();
 
         if (enableOpenMRS) {
@@ -975,7 +1016,7 @@ public class Processor extends Operation {
         // FHIR choices
         //String fhirCodeSystem = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "FhirCodeSystem"));
         //if (fhirCodeSystem != null && !fhirCodeSystem.isEmpty()) {
-            List<DictionaryCode> fhirCodes = getFhirCodes(elementId, elementLabel, row, colIds);
+            List<DictionaryCode> fhirCodes = getFhirCodes(elementId, elementLabel, row, colIds, parentLabel, conceptSink);
             codes.addAll(fhirCodes);
         //}
 
@@ -1006,208 +1047,307 @@ public class Processor extends Operation {
         return codes;
     }
 
-    private void processDataElementPage(Workbook workbook, String page, String scope) {
-        Sheet sheet = workbook.getSheet(page);
-        if (sheet == null) {
-            logger.info("Sheet {} not found in the Workbook, so no processing was done.", page);
-            return;
+    private List<List<SheetRow>> readSheets(SpreadsheetStreamReader workbook, List<String> pages) {
+        List<List<SheetRow>> pageRows = new ArrayList<>(Collections.nCopies(pages.size(), null));
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < pages.size(); i++) {
+            int index = i;
+            tasks.add(() -> {
+                pageRows.set(index, workbook.readRows(pages.get(index)));
+                return null;
+            });
         }
+        runTasks("readSheets", tasks);
+        return pageRows;
+    }
 
+    private void processDataElementPage(String page, String scope, Consumer<SpreadsheetStreamReader.RowHandler> rows) {
         questionnaireItemLinkIdCounter = 1;
-        Questionnaire questionnaire = createQuestionnaireForPage(sheet);
+        Questionnaire questionnaire = createQuestionnaireForPage(page);
 
-        Iterator<Row> it = sheet.rowIterator();
         HashMap<String, Integer> colIds = new LinkedHashMap<>();
-        String currentGroup = null;
-        while (it.hasNext()) {
-            Row row = it.next();
-            int headerRow = 1;
-            // Skip rows prior to header row
-            if (row.getRowNum() < headerRow) {
+        rows.accept(row -> processDataElementRow(page, scope, row, colIds, questionnaire));
+        questionnaires.add(questionnaire);
+    }
+
+    /**
+     * Processes the rows of a page in parallel mode. A serial pre-pass over the rows does everything that depends on
+     * the order of the rows (the column ids, the duplicate check, the activity codes and the questionnaire link
+     * ids); the data elements and their questionnaire items are then created concurrently, and merged (together
+     * with the input options, which update their parent element) in row order, so the result is the same as
+     * processing the rows one at a time.
+     */
+    private void processDataElementPage(String page, String scope, List<SheetRow> rows) {
+        int linkId = 1;
+        Questionnaire questionnaire = createQuestionnaireForPage(page);
+
+        HashMap<String, Integer> colIds = new LinkedHashMap<>();
+        List<PageRow> pageRows = new ArrayList<>();
+        Set<String> names = new HashSet<>(elementMap.keySet());
+        SheetRow parentRow = null;
+        for (SheetRow row : rows) {
+            String masterDataType = getDataElementRowType(scope, row, colIds);
+            if (masterDataType == null) {
+                continue;
+            }
+            switch (masterDataType) {
+                case "Data Element":
+                case "Slice":
+                    parentRow = row;
+                    String name = getName(row, colIds);
+                    if (!name.isEmpty() && names.add(name.trim())) {
+                        getActivityCoding(getActivityID(row, colIds));
+                        pageRows.add(new PageRow(row, row, name.trim(), linkId++));
+                    }
+                    break;
+                case "Input Option":
+                    pageRows.add(new PageRow(row, parentRow, null, 0));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (PageRow pageRow : pageRows) {
+            if (pageRow.name != null) {
+                tasks.add(() -> {
+                    pageRow.element = createDataElement(page, null, pageRow.row, colIds, pageRow.name, pageRow.concepts::put);
+                    pageRow.questionnaireItem = createQuestionnaireItem(pageRow.element, pageRow.linkId);
+                    return null;
+                });
+            }
+        }
+        runTasks("createDataElements", tasks);
+
+        for (PageRow pageRow : pageRows) {
+            currentInputOptionParentRow = pageRow.parentRow;
+            if (pageRow.name == null) {
+                addInputOptionToParentElement(pageRow.row, colIds);
                 continue;
             }
-            // Create column id map
-            else if (row.getRowNum() == headerRow) {
-                Iterator<Cell> colIt = row.cellIterator();
-                while (colIt.hasNext()) {
-                    Cell cell = colIt.next();
-                    String header = SpreadsheetHelper.getCellAsString(cell)
-                            .toLowerCase()
-                            .trim()
-                            .replace("–", "-");
-                    switch (header) {
-                        case "[anc] data element id":
-                        case "data element id":
-                            colIds.put("DataElementID", cell.getColumnIndex());
-                            break;
-                        case "[anc] activity id":
-                        case "activity id":
-                            colIds.put("ActivityID", cell.getColumnIndex());
-                            break;
-                        case "core, fp, sti":
-                        case "scope":
-                            colIds.put("Scope", cell.getColumnIndex());
-                            break;
-                        case "context":
-                            colIds.put("Context", cell.getColumnIndex());
-                            break;
-                        case "selector":
-                            colIds.put("Selector", cell.getColumnIndex());
-                            break;
-                        case "in new dd":
-                            colIds.put("InNewDD", cell.getColumnIndex());
-                            break;
+            pageRow.concepts.forEach(this::addProjectConcepts);
+            elementMap.put(pageRow.element.getName(), pageRow.element);
+            elementsById.put(pageRow.element.getId(), pageRow.element);
+            questionnaire.getItem().add(pageRow.questionnaireItem);
+        }
+        questionnaires.add(questionnaire);
+    }
+
+    // A row of a page processed in parallel mode: a data element (with a name) or an input option of the parent row
+    private static class PageRow {
+        private final SheetRow row;
+        private final SheetRow parentRow;
+        private final String name;
+        private final int linkId;
+        private final Map<String, List<CodeSystem.ConceptDefinitionComponent>> concepts = new LinkedHashMap<>();
+        private DictionaryElement element;
+        private Questionnaire.QuestionnaireItemComponent questionnaireItem;
+
+        private PageRow(SheetRow row, SheetRow parentRow, String name, int linkId) {
+            this.row = row;
+            this.parentRow = parentRow;
+            this.name = name;
+            this.linkId = linkId;
+        }
+    }
+
+    private void processDataElementRow(String page, String scope, SheetRow row, HashMap<String, Integer> colIds,
+                                       Questionnaire questionnaire) {
+        String currentGroup = null;
+        String masterDataType = getDataElementRowType(scope, row, colIds);
+        if (masterDataType != null) {
+            switch (masterDataType) {
+                case "Data Element":
+                case "Slice":
+                    currentInputOptionParentRow = row;
+                    DictionaryElement e = createDataElement(page, currentGroup, row, colIds);
+                    if (e != null) {
+                        elementMap.put(e.getName(), e);
+                        elementsById.put(e.getId(), e);
+                        updateQuestionnaireForDataElement(e, questionnaire);
+                    }
+                    break;
+                case "Input Option":
+                    addInputOptionToParentElement(row, colIds);
+                    break;
+                case "Calculation":
+                case "UI Element":
+                    break;
+                default:
+                    // Currently unsupported/undocumented
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Records the column ids from the header row.
+     *
+     * @return The master data type of a data row in scope, or null if the row is not processed
+     */
+    private String getDataElementRowType(String scope, SheetRow row, HashMap<String, Integer> colIds) {
+        int headerRow = 1;
+        // Skip rows prior to header row
+        if (row.getRowNum() < headerRow) {
+            return null;
+        }
+        // Create column id map
+        else if (row.getRowNum() == headerRow) {
+            for (Map.Entry<Integer, String> cell : row.getCells().entrySet()) {
+                String header = SpreadsheetHelper.protectedString(cell.getValue(), true)
+                        .toLowerCase()
+                        .trim()
+                        .replace("–", "-");
+                switch (header) {
+                    case "[anc] data element id":
+                    case "data element id":
+                        colIds.put("DataElementID", cell.getKey());
+                        break;
+                    case "[anc] activity id":
+                    case "activity id":
+                        colIds.put("ActivityID", cell.getKey());
+                        break;
+                    case "core, fp, sti":
+                    case "scope":
+                        colIds.put("Scope", cell.getKey());
+                        break;
+                    case "context":
+                        colIds.put("Context", cell.getKey());
+                        break;
+                    case "selector":
+                        colIds.put("Selector", cell.getKey());
+                        break;
+                    case "in new dd":
+                        colIds.put("InNewDD", cell.getKey());
+                        break;
 //                        case "master data type":
-//                            colIds.put("MasterDataType", cell.getColumnIndex());
+//                            colIds.put("MasterDataType", cell.getKey());
 //                            break;
 //                        case "master data element label":
-//                            colIds.put("Name", cell.getColumnIndex());
-//                            colIds.put("Label", cell.getColumnIndex());
+//                            colIds.put("Name", cell.getKey());
+//                            colIds.put("Label", cell.getKey());
 //                            break;
 //                        case "data element parent for input options":
-//                            colIds.put("InputOptionParent", cell.getColumnIndex());
+//                            colIds.put("InputOptionParent", cell.getKey());
 //                            break;
-                        // no group column in old or new spreadsheet? Ask Bryn?
-                        // case "group": colIds.put("Group", cell.getColumnIndex()); break;
-                        // case "data element name": colIds.put("Name", cell.getColumnIndex()); break;
-                        case "due":
-                            colIds.put("Due", cell.getColumnIndex());
-                            break;
-                        // no frequency column in new master spreadsheet?
-                        // case "frequency": colIds.put("Due", cell.getColumnIndex()); break;
-                        // relevance not used in FHIR?
-                        // case "relevance": colIds.put("Relevance", cell.getColumnIndex()); break;
-                        // info icon not used in FHIR?
-                        //case "info icon": colIds.put("InfoIcon", cell.getColumnIndex()); break;
-                        case "description and definition":
-                        case "description": colIds.put("Description", cell.getColumnIndex()); break;
-                        case "data element label":
-                            colIds.put("DataElementLabel", cell.getColumnIndex());
-                            colIds.put("Name", cell.getColumnIndex());
-                            colIds.put("Label", cell.getColumnIndex());
-                            break;
-                        case "data element name": colIds.put("DataElementName", cell.getColumnIndex()); break;
-                        case "notes": colIds.put("Notes", cell.getColumnIndex()); break;
-                        case "data type": colIds.put("Type", cell.getColumnIndex()); break;
-                        case "multiple choice":
-                        case "multiple choice type":
-                        case "multiple choice (if applicable)":
-                        case "multiple choice type ?(if applicable)":
-                            colIds.put("MultipleChoiceType", cell.getColumnIndex()); break;
-                        case "input options": colIds.put("Choices", cell.getColumnIndex()); break;
-                        case "calculation": colIds.put("Calculation", cell.getColumnIndex()); break;
-                        case "validation required": colIds.put("Constraint", cell.getColumnIndex()); break;
-                        case "required": colIds.put("Required", cell.getColumnIndex()); break;
-                        case "editable": colIds.put("Editable", cell.getColumnIndex()); break;
-                        case "custom profile id": colIds.put("CustomProfileId", cell.getColumnIndex()); break;
-                        case "binding or custom value set name or reference": colIds.put("CustomValueSetName", cell.getColumnIndex()); break;
-                        case "binding strength": colIds.put("BindingStrength", cell.getColumnIndex()); break;
-                        case "ucum": colIds.put("UnitOfMeasure", cell.getColumnIndex()); break;
-                        case "extension needed": colIds.put("ExtensionNeeded", cell.getColumnIndex()); break;
-
-                        // fhir resource details
-                        case "master data element path": colIds.put("MasterDataElementPath", cell.getColumnIndex()); break;
-                        case "hl7 fhir r4 - resource": colIds.put("FhirR4Resource", cell.getColumnIndex()); break;
-                        case "hl7 fhir r4 - resource type": colIds.put("FhirR4ResourceType", cell.getColumnIndex()); break;
-                        case "hl7 fhir r4 - base profile": colIds.put("FhirR4BaseProfile", cell.getColumnIndex()); break;
-                        case "hl7 fhir r4 - version number": colIds.put("FhirR4VersionNumber", cell.getColumnIndex()); break;
-                        case "hl7 fhir r4 - additional fhir mapping details": colIds.put("FhirR4AdditionalFHIRMappingDetails", cell.getColumnIndex()); break;
-
-                        // terminology
-                        case "fhir code system": colIds.put("FhirCodeSystem", cell.getColumnIndex()); break;
-                        case "hl7 fhir r4 code": colIds.put("FhirR4Code", cell.getColumnIndex()); break;
-                        case "hl7 fhir r4 code display": colIds.put("FhirR4CodeDisplay", cell.getColumnIndex()); break;
-                        case "hl7 fhir r4 code definition": colIds.put("FhirR4CodeDefinition", cell.getColumnIndex()); break;
-                        case "icd-10-who":
-                        case "icd-10 code":
-                        case "icd-10?code": colIds.put("ICD-10", cell.getColumnIndex()); break;
-                        case "icd-10?comments / considerations": colIds.put("ICD-10Comments", cell.getColumnIndex()); break;
-                        case "icf?code": colIds.put("ICF", cell.getColumnIndex()); break;
-                        case "icf?comments / considerations": colIds.put("ICFComments", cell.getColumnIndex()); break;
-                        case "ichi?code":
-                        case "ichi (beta 3)?code": colIds.put("ICHI", cell.getColumnIndex()); break;
-                        case "ichi?comments / considerations": colIds.put("ICHIComments", cell.getColumnIndex()); break;
-                        case "snomed-ct":
-                        case "snomed-ct code":
-                        case "snomed ct":
-                        case "snomed ct?code":
-                        case "snomed ct international version?code": colIds.put("SNOMED-CT", cell.getColumnIndex()); break;
-                        case "snomed ct international version?comments / considerations": colIds.put("SNOMEDComments", cell.getColumnIndex()); break;
-                        case "loinc":
-                        case "loinc code":
-                        case "loinc version 2.68?code": colIds.put("LOINC", cell.getColumnIndex()); break;
-                        case "loinc version 2.68?comments / considerations": colIds.put("LOINCComments", cell.getColumnIndex()); break;
-                        case "rxnorm":
-                        case "rxnorm code":
-                        case "rxnorm?code": colIds.put("RxNorm", cell.getColumnIndex()); break;
-                        case "rxnorm?comments / considerations": colIds.put("RXNormComments", cell.getColumnIndex()); break;
-                        case "icd-11":
-                        case "icd-11 code":
-                        case "icd-11?code":colIds.put("ICD-11", cell.getColumnIndex()); break;
-                        case "icd-11?comments / considerations": colIds.put("ICD-11Comments", cell.getColumnIndex()); break;
-                        case "ciel": colIds.put("CIEL", cell.getColumnIndex()); break;
-                        case "openmrs entity parent": colIds.put("OpenMRSEntityParent", cell.getColumnIndex()); break;
-                        case "openmrs entity": colIds.put("OpenMRSEntity", cell.getColumnIndex()); break;
-                        case "openmrs entity id": colIds.put("OpenMRSEntityId", cell.getColumnIndex()); break;
-                        case "cpt":
-                        case "cpt code":
-                        case "cpt?code": colIds.put("CPT", cell.getColumnIndex()); break;
-                        case "cpt?comments / considerations": colIds.put("CPTComments", cell.getColumnIndex()); break;
-                        case "hcpcs":
-                        case "hcpcs code":
-                        case "hcpcs?code":
-                        case "hcpcs level ii code":
-                        case "hcpcs?level ii code": colIds.put("HCPCS", cell.getColumnIndex()); break;
-                        case "hcpcs?comments / considerations": colIds.put("HCPCSComments", cell.getColumnIndex()); break;
-                        case "ndc":
-                        case "ndc code":
-                        case "ndc?code": colIds.put("NDC", cell.getColumnIndex()); break;
-                        case "ndc?comments / considerations": colIds.put("NDCComments", cell.getColumnIndex()); break;
-                    }
+                    // no group column in old or new spreadsheet? Ask Bryn?
+                    // case "group": colIds.put("Group", cell.getKey()); break;
+                    // case "data element name": colIds.put("Name", cell.getKey()); break;
+                    case "due":
+                        colIds.put("Due", cell.getKey());
+                        break;
+                    // no frequency column in new master spreadsheet?
+                    // case "frequency": colIds.put("Due", cell.getKey()); break;
+                    // relevance not used in FHIR?
+                    // case "relevance": colIds.put("Relevance", cell.getKey()); break;
+                    // info icon not used in FHIR?
+                    //case "info icon": colIds.put("InfoIcon", cell.getKey()); break;
+                    case "description and definition":
+                    case "description": colIds.put("Description", cell.getKey()); break;
+                    case "data element label":
+                        colIds.put("DataElementLabel", cell.getKey());
+                        colIds.put("Name", cell.getKey());
+                        colIds.put("Label", cell.getKey());
+                        break;
+                    case "data element name": colIds.put("DataElementName", cell.getKey()); break;
+                    case "notes": colIds.put("Notes", cell.getKey()); break;
+                    case "data type": colIds.put("Type", cell.getKey()); break;
+                    case "multiple choice":
+                    case "multiple choice type":
+                    case "multiple choice (if applicable)":
+                    case "multiple choice type ?(if applicable)":
+                        colIds.put("MultipleChoiceType", cell.getKey()); break;
+                    case "input options": colIds.put("Choices", cell.getKey()); break;
+                    case "calculation": colIds.put("Calculation", cell.getKey()); break;
+                    case "validation required": colIds.put("Constraint", cell.getKey()); break;
+                    case "required": colIds.put("Required", cell.getKey()); break;
+                    case "editable": colIds.put("Editable", cell.getKey()); break;
+                    case "custom profile id": colIds.put("CustomProfileId", cell.getKey()); break;
+                    case "binding or custom value set name or reference": colIds.put("CustomValueSetName", cell.getKey()); break;
+                    case "binding strength": colIds.put("BindingStrength", cell.getKey()); break;
+                    case "ucum": colIds.put("UnitOfMeasure", cell.getKey()); break;
+                    case "extension needed": colIds.put("ExtensionNeeded", cell.getKey()); break;
+
+                    // fhir resource details
+                    case "master data element path": colIds.put("MasterDataElementPath", cell.getKey()); break;
+                    case "hl7 fhir r4 - resource": colIds.put("FhirR4Resource", cell.getKey()); break;
+                    case "hl7 fhir r4 - resource type": colIds.put("FhirR4ResourceType", cell.getKey()); break;
+                    case "hl7 fhir r4 - base profile": colIds.put("FhirR4BaseProfile", cell.getKey()); break;
+                    case "hl7 fhir r4 - version number": colIds.put("FhirR4VersionNumber", cell.getKey()); break;
+                    case "hl7 fhir r4 - additional fhir mapping details": colIds.put("FhirR4AdditionalFHIRMappingDetails", cell.getKey()); break;
+
+                    // terminology
+                    case "fhir code system": colIds.put("FhirCodeSystem", cell.getKey()); break;
+                    case "hl7 fhir r4 code": colIds.put("FhirR4Code", cell.getKey()); break;
+                    case "hl7 fhir r4 code display": colIds.put("FhirR4CodeDisplay", cell.getKey()); break;
+                    case "hl7 fhir r4 code definition": colIds.put("FhirR4CodeDefinition", cell.getKey()); break;
+                    case "icd-10-who":
+                    case "icd-10 code":
+                    case "icd-10?code": colIds.put("ICD-10", cell.getKey()); break;
+                    case "icd-10?comments / considerations": colIds.put("ICD-10Comments", cell.getKey()); break;
+                    case "icf?code": colIds.put("ICF", cell.getKey()); break;
+                    case "icf?comments / considerations": colIds.put("ICFComments", cell.getKey()); break;
+                    case "ichi?code":
+                    case "ichi (beta 3)?code": colIds.put("ICHI", cell.getKey()); break;
+                    case "ichi?comments / considerations": colIds.put("ICHIComments", cell.getKey()); break;
+                    case "snomed-ct":
+                    case "snomed-ct code":
+                    case "snomed ct":
+                    case "snomed ct?code":
+                    case "snomed ct international version?code": colIds.put("SNOMED-CT", cell.getKey()); break;
+                    case "snomed ct international version?comments / considerations": colIds.put("SNOMEDComments", cell.getKey()); break;
+                    case "loinc":
+                    case "loinc code":
+                    case "loinc version 2.68?code": colIds.put("LOINC", cell.getKey()); break;
+                    case "loinc version 2.68?comments / considerations": colIds.put("LOINCComments", cell.getKey()); break;
+                    case "rxnorm":
+                    case "rxnorm code":
+                    case "rxnorm?code": colIds.put("RxNorm", cell.getKey()); break;
+                    case "rxnorm?comments / considerations": colIds.put("RXNormComments", cell.getKey()); break;
+                    case "icd-11":
+                    case "icd-11 code":
+                    case "icd-11?code":colIds.put("ICD-11", cell.getKey()); break;
+                    case "icd-11?comments / considerations": colIds.put("ICD-11Comments", cell.getKey()); break;
+                    case "ciel": colIds.put("CIEL", cell.getKey()); break;
+                    case "openmrs entity parent": colIds.put("OpenMRSEntityParent", cell.getKey()); break;
+                    case "openmrs entity": colIds.put("OpenMRSEntity", cell.getKey()); break;
+                    case "openmrs entity id": colIds.put("OpenMRSEntityId", cell.getKey()); break;
+                    case "cpt":
+                    case "cpt code":
+                    case "cpt?code": colIds.put("CPT", cell.getKey()); break;
+                    case "cpt?comments / considerations": colIds.put("CPTComments", cell.getKey()); break;
+                    case "hcpcs":
+                    case "hcpcs code":
+                    case "hcpcs?code":
+                    case "hcpcs level ii code":
+                    case "hcpcs?level ii code": colIds.put("HCPCS", cell.getKey()); break;
+                    case "hcpcs?comments / considerations": colIds.put("HCPCSComments", cell.getKey()); break;
+                    case "ndc":
+                    case "ndc code":
+                    case "ndc?code": colIds.put("NDC", cell.getKey()); break;
+                    case "ndc?comments / considerations": colIds.put("NDCComments", cell.getKey()); break;
                 }
-                continue;
             }
+            return null;
+        }
 
-            String rowScope = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "Scope"));
-            boolean scopeIsNull = scope == null;
-            boolean scopeMatchesRowScope = rowScope != null && scope.toLowerCase().equals(rowScope.toLowerCase());
-
-            String inNewDD = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "InNewDD"));
-            boolean shouldInclude = inNewDD == null || inNewDD.equals("ST") || inNewDD.equals("1");
-
-            if (shouldInclude && (scopeIsNull || scopeMatchesRowScope)) {
-                String masterDataType = getMasterDataType(row, colIds);
-                if (masterDataType != null) {
-                    switch (masterDataType) {
-                        case "Data Element":
-                        case "Slice":
-                            currentInputOptionParentRow = row;
-                            DictionaryElement e = createDataElement(page, currentGroup, row, colIds);
-                            if (e != null) {
-                                elementMap.put(e.getName(), e);
-                                elementsById.put(e.getId(), e);
-                                updateQuestionnaireForDataElement(e, questionnaire);
-                            }
-                            break;
-                        case "Input Option":
-                            addInputOptionToParentElement(row, colIds);
-                            break;
-                        case "Calculation":
-                        case "UI Element":
-                            break;
-                        default:
-                            // Currently unsupported/undocumented
-                            break;
-                    }
-                }
-            }
+        String rowScope = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "Scope"));
+        boolean scopeIsNull = scope == null;
+        boolean scopeMatchesRowScope = rowScope != null && scope.toLowerCase().equals(rowScope.toLowerCase());
+
+        String inNewDD = SpreadsheetHelper.getCellAsString(row, getColId(colIds, "InNewDD"));
+        boolean shouldInclude = inNewDD == null || inNewDD.equals("ST") || inNewDD.equals("1");
+
+        if (shouldInclude && (scopeIsNull || scopeMatchesRowScope)) {
+            return getMasterDataType(row, colIds);
         }
-        questionnaires.add(questionnaire);
+        return null;
     }
 
-    private Questionnaire createQuestionnaireForPage(Sheet sheet) {
+    private Questionnaire createQuestionnaireForPage(String sheetName) {
         Questionnaire questionnaire = new Questionnaire();
-        Coding activityCoding = getActivityCoding(sheet.getSheetName());
+        Coding activityCoding = getActivityCoding(sheetName);
         questionnaire.setId(toUpperId(activityCoding.getCode()));
 
         questionnaire.getExtension().add(
@@ -1221,7 +1361,7 @@ public class Processor extends Operation {
 
         questionnaire.setUrl(String.format("%s/Questionnaire/%s", canonicalBase, questionnaire.getId()));
         questionnaire.setName(questionnaire.getId());
-        questionnaire.setTitle(sheet.getSheetName());
+        questionnaire.setTitle(sheetName);
         questionnaire.setStatus(Enumerations.PublicationStatus.ACTIVE);
         questionnaire.setExperimental(false);
         questionnaire.setDescription("TODO: description goes here");
@@ -1299,8 +1439,14 @@ public class Processor extends Operation {
     }
 
     private void updateQuestionnaireForDataElement(DictionaryElement dataElement, Questionnaire questionnaire) {
+        questionnaire.getItem().add(createQuestionnaireItem(dataElement, questionnaireItemLinkIdCounter));
+
+        questionnaireItemLinkIdCounter = questionnaireItemLinkIdCounter + 1;
+    }
+
+    private Questionnaire.QuestionnaireItemComponent createQuestionnaireItem(DictionaryElement dataElement, int linkId) {
         Questionnaire.QuestionnaireItemComponent questionnaireItem = new Questionnaire.QuestionnaireItemComponent();
-        questionnaireItem.setLinkId(String.valueOf(questionnaireItemLinkIdCounter));
+        questionnaireItem.setLinkId(String.valueOf(linkId));
         String definition = dataElement.getId();
         questionnaireItem.setDefinition(definition);
         questionnaireItem.setText(dataElement.getDescription() != null ? dataElement.getDescription() : dataElement.getDataElementLabel());
@@ -1311,9 +1457,7 @@ public class Processor extends Operation {
             logger.info(String.format("Unable to determine questionnaire item type for item '%s'.", dataElement.getDataElementLabel()));
         }
 
-        questionnaire.getItem().add(questionnaireItem);
-
-        questionnaireItemLinkIdCounter = questionnaireItemLinkIdCounter + 1;
+        return questionnaireItem;
     }
 
     private void processElementMap() {
@@ -2757,14 +2901,53 @@ public class Processor extends Operation {
         }
     }
 
+    /**
+     * Writes the resources to the path. In parallel mode the resources are encoded and written concurrently; each
+     * resource has its own file, so the output is the same as writing them one at a time. If several resources map
+     * to the same file, only the last one is written, as it would overwrite the others anyway.
+     */
+    private void writeResources(String path, List<? extends Resource> resources) {
+        if (!parallel) {
+            for (Resource resource : resources) {
+                writeResource(path, resource);
+            }
+            return;
+        }
+
+        Map<String, Resource> resourcesByFileName = new LinkedHashMap<>();
+        for (Resource resource : resources) {
+            resourcesByFileName.put(resource.getResourceType().toString().toLowerCase() + "-" + resource.getIdElement().getIdPart(), resource);
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Resource resource : resourcesByFileName.values()) {
+            tasks.add(() -> {
+                writeResource(path, resource);
+                return null;
+            });
+        }
+        runTasks("writeResources", tasks);
+    }
+
+    private void runTasks(String name, List<Callable<Void>> tasks) {
+        TaskReport report = TaskExecutor.getShared().execute(name, tasks, true);
+        for (TaskReport.TaskResult result : report.getFailures()) {
+            if (result.getFailure() instanceof RuntimeException) {
+                throw (RuntimeException) result.getFailure();
+            }
+            throw new IllegalArgumentException(String.format("Error in %s: %s", result.getName(), result.getFailure().getMessage()), result.getFailure());
+        }
+        if (!report.getCancelled().isEmpty()) {
+            throw new IllegalStateException(String.format("%s was interrupted", name));
+        }
+    }
+
     public void writeExtensions(String scopePath) {
         if (extensions != null && extensions.size() > 0) {
             String extensionsPath = getExtensionsPath(scopePath);
             ensureExtensionsPath(scopePath);
 
+            writeResources(extensionsPath, extensions);
             for (StructureDefinition sd : extensions) {
-                writeResource(extensionsPath, sd);
-
                 // Generate JSON fragment for inclusion in the IG:
                 /*
                     "StructureDefinition/<id>": {
@@ -2832,9 +3015,7 @@ public class Processor extends Operation {
         if (examples != null && examples.size() > 0) {
             String examplesPath = getExamplesPath(scopePath);
             ensureExamplesPath(scopePath);
-            for (Map.Entry<String, Resource> entry : examples.entrySet()) {
-                writeResource(examplesPath, entry.getValue());
-            }
+            writeResources(examplesPath, new ArrayList<>(examples.values()));
         }
     }
 
@@ -2845,9 +3026,7 @@ public class Processor extends Operation {
             for (Map.Entry<String, List<Resource>> entry : testCases.entrySet()) {
                 String testPath = getTestPath(scopePath, entry.getKey());
                 ensureTestPath(scopePath, entry.getKey());
-                for (Resource r : entry.getValue()) {
-                    writeResource(testPath, r);
-                }
+                writeResources(testPath, entry.getValue());
             }
         }
     }
@@ -2859,10 +3038,10 @@ public class Processor extends Operation {
 
             Comparator<ElementDefinition> compareById = Comparator.comparing(Element::getId);
 
+            writeResources(profilesPath, profiles);
             for (StructureDefinition sd : profiles) {
                 //sd.getDifferential().getElement().sort(compareById);
                 indexProfile(sd);
-                writeResource(profilesPath, sd);
 
                 // Generate JSON fragment for inclusion in the IG:
                 /*
@@ -2894,9 +3073,8 @@ public class Processor extends Operation {
             String codeSystemPath = getCodeSystemPath(scopePath);
             ensureCodeSystemPath(scopePath);
 
+            writeResources(codeSystemPath, codeSystems);
             for (CodeSystem cs : codeSystems) {
-                writeResource(codeSystemPath, cs);
-
                 // Generate JSON fragment for inclusion in the IG:
                 /*
                     "CodeSystem/<id>": {
@@ -2954,9 +3132,8 @@ public class Processor extends Operation {
             String questionnairePath = getQuestionnairePath(scopePath);
             ensureQuestionnairePath(scopePath);
 
+            writeResources(questionnairePath, questionnaires);
             for (Questionnaire q : questionnaires) {
-                writeResource(questionnairePath, q);
-
                 // Generate JSON fragment for inclusion in the IG:
                 /*
                     "Questionnaire/<id>": {
@@ -2986,9 +3163,8 @@ public class Processor extends Operation {
             String valueSetPath = getValueSetPath(scopePath);
             ensureValueSetPath(scopePath);
 
+            writeResources(valueSetPath, valueSets);
             for (ValueSet vs : valueSets) {
-                writeResource(valueSetPath, vs);
-
                 // Generate JSON fragment for inclusion in the IG:
                 /*
                     "ValueSet/<id>": {
@@ -3018,9 +3194,8 @@ public class Processor extends Operation {
             String conceptMapPath = getConceptMapPath(scopePath);
             ensureConceptMapPath(scopePath);
 
+            writeResources(conceptMapPath, new ArrayList<>(conceptMaps.values()));
             for (ConceptMap cm : conceptMaps.values()) {
-                writeResource(conceptMapPath, cm);
-
                 // Generate JSON fragment for inclusion in the IG:
                 /*
                     "ConceptMap/<id>": {
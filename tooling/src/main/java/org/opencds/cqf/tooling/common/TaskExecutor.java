@@ -0,0 +1,278 @@
+package org.opencds.cqf.tooling.common;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs batches of tasks on a bounded, shared pool of threads.
+ * <p>
+ * The parallelism defaults to the number of available processors and can be set with the cqf.tooling.threads
+ * system property (or the -threads=N command line flag). Setting cqf.tooling.threads.virtual=true (or
+ * -virtualthreads) runs each task on a virtual thread when the runtime supports them, still limited to the
+ * configured number of concurrent tasks.
+ * <p>
+ * Submission blocks once the pool has a small backlog of queued tasks, so large batches do not build up an
+ * unbounded queue; batches can also be streamed from an iterator, which is only advanced as tasks can be queued. Batches submitted from within a running task are run inline on the calling thread, so nested
+ * batches can never wait on a pool that their own callers are occupying. Every batch produces a {@link TaskReport}
+ * with the failure and duration of each task; a batch can be cancelled by interrupting the submitting thread, or
+ * on its first failure.
+ */
+public class TaskExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(TaskExecutor.class);
+
+    public static final String THREADS_PROPERTY = "cqf.tooling.threads";
+    public static final String VIRTUAL_THREADS_PROPERTY = "cqf.tooling.threads.virtual";
+
+    private static volatile TaskExecutor shared;
+
+    // The executor running a task on the current thread, if any
+    private static final ThreadLocal<TaskExecutor> running = new ThreadLocal<>();
+
+    private final int parallelism;
+    private final boolean virtualThreads;
+    private final ExecutorService executorService;
+    private final Semaphore permits;
+
+    public TaskExecutor(int parallelism, boolean virtualThreads) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        ExecutorService virtualThreadExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
+        if (virtualThreadExecutor != null) {
+            this.virtualThreads = true;
+            this.executorService = virtualThreadExecutor;
+            this.permits = new Semaphore(parallelism);
+        } else {
+            this.virtualThreads = false;
+            this.executorService = Executors.newFixedThreadPool(parallelism, newThreadFactory());
+            // At most one queued task per worker, so the submitting thread does not race ahead of the pool
+            this.permits = new Semaphore(parallelism * 2);
+        }
+    }
+
+    /**
+     * @return The executor shared by the tooling, created from the system properties on first use
+     */
+    public static TaskExecutor getShared() {
+        TaskExecutor executor = shared;
+        if (executor == null) {
+            synchronized (TaskExecutor.class) {
+                if (shared == null) {
+                    shared = new TaskExecutor(getConfiguredParallelism(), Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY));
+                }
+                executor = shared;
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Replaces the shared executor. Batches already running on the previous executor are allowed to finish.
+     */
+    public static synchronized void configure(int parallelism, boolean virtualThreads) {
+        TaskExecutor previous = shared;
+        shared = new TaskExecutor(parallelism, virtualThreads);
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * @return The parallelism set with the cqf.tooling.threads system property, or the number of available processors
+     */
+    public static int getConfiguredParallelism() {
+        return Math.max(1, Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    /**
+     * Runs the tasks and waits for all of them to complete.
+     *
+     * @param name The name of the batch, used in the report
+     * @param tasks The tasks; each is named after the batch and its position in the list
+     */
+    public TaskReport execute(String name, List<? extends Callable<?>> tasks) {
+        return execute(name, tasks, false);
+    }
+
+    public TaskReport execute(String name, List<? extends Callable<?>> tasks, boolean cancelOnFailure) {
+        Map<String, Callable<?>> namedTasks = new LinkedHashMap<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            namedTasks.put(name + "#" + i, tasks.get(i));
+        }
+        return execute(name, namedTasks, cancelOnFailure);
+    }
+
+    /**
+     * Runs the tasks and waits for all of them to complete.
+     *
+     * @param name The name of the batch, used in the report
+     * @param tasks The tasks by name, in submission order
+     * @param cancelOnFailure Whether to cancel the remaining tasks when a task fails
+     */
+    public TaskReport execute(String name, Map<String, ? extends Callable<?>> tasks, boolean cancelOnFailure) {
+        List<Map.Entry<String, ? extends Callable<?>>> entries = new ArrayList<>(tasks.entrySet());
+        return execute(name, entries.iterator(), Map.Entry::getKey, Map.Entry::getValue, cancelOnFailure);
+    }
+
+    /**
+     * Runs the tasks as they are produced by the iterator and waits for all of them to complete. The iterator is
+     * only advanced as the pool has room for another task, so the tasks of a large stream (e.g. a file per task) are
+     * never all held at once.
+     *
+     * @param name The name of the batch, used in the report
+     * @param tasks The tasks; each is named after the batch and its position in the stream
+     * @param cancelOnFailure Whether to stop producing and cancel the remaining tasks when a task fails
+     */
+    public TaskReport execute(String name, Iterator<? extends Callable<?>> tasks, boolean cancelOnFailure) {
+        AtomicInteger count = new AtomicInteger();
+        return execute(name, tasks, task -> name + "#" + count.getAndIncrement(), task -> task, cancelOnFailure);
+    }
+
+    private <T> TaskReport execute(String name, Iterator<T> tasks, Function<T, String> namer,
+            Function<T, Callable<?>> callable, boolean cancelOnFailure) {
+        long start = System.nanoTime();
+        List<String> names = new ArrayList<>();
+        Map<Integer, TaskReport.TaskResult> results = new ConcurrentHashMap<>();
+        AtomicBoolean failed = new AtomicBoolean();
+
+        if (running.get() != null) {
+            while (tasks.hasNext() && !(cancelOnFailure && failed.get())) {
+                T task = tasks.next();
+                names.add(namer.apply(task));
+                run(names.get(names.size() - 1), callable.apply(task), names.size() - 1, results, failed);
+            }
+        } else {
+            submitAndWait(tasks, namer, callable, names, results, failed, cancelOnFailure);
+        }
+
+        List<TaskReport.TaskResult> report = new ArrayList<>(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            TaskReport.TaskResult result = results.get(i);
+            report.add(result != null ? result : new TaskReport.TaskResult(names.get(i), 0, null, true));
+        }
+        return new TaskReport(name, report, System.nanoTime() - start);
+    }
+
+    private <T> void submitAndWait(Iterator<T> tasks, Function<T, String> namer, Function<T, Callable<?>> callable,
+            List<String> names, Map<Integer, TaskReport.TaskResult> results, AtomicBoolean failed, boolean cancelOnFailure) {
+        // Only the tasks not yet done are held, so a long stream does not accumulate completed futures
+        Set<FutureTask<Void>> pending = ConcurrentHashMap.newKeySet();
+        try {
+            while (!(cancelOnFailure && failed.get())) {
+                permits.acquire();
+                if (!tasks.hasNext() || (cancelOnFailure && failed.get())) {
+                    permits.release();
+                    break;
+                }
+                T task = tasks.next();
+                String taskName = namer.apply(task);
+                Callable<?> taskCallable = callable.apply(task);
+                int index = names.size();
+                names.add(taskName);
+                FutureTask<Void> future = new FutureTask<Void>(() -> run(taskName, taskCallable, index, results, failed), null) {
+                    @Override
+                    protected void done() {
+                        // Also called when the task is cancelled before it starts
+                        pending.remove(this);
+                        permits.release();
+                    }
+                };
+                pending.add(future);
+                try {
+                    executorService.execute(future);
+                } catch (RejectedExecutionException e) {
+                    future.cancel(false);
+                    throw e;
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                for (FutureTask<Void> future : new ArrayList<>(pending)) {
+                    if (cancelOnFailure && failed.get()) {
+                        future.cancel(true);
+                    }
+                    try {
+                        future.get();
+                    } catch (CancellationException e) {
+                        // reported as cancelled
+                    } catch (ExecutionException e) {
+                        // run records the failure of the task itself
+                        logger.debug("Unexpected task failure", e.getCause());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            new ArrayList<>(pending).forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(String name, Callable<?> task, int index, Map<Integer, TaskReport.TaskResult> results, AtomicBoolean failed) {
+        TaskExecutor previous = running.get();
+        running.set(this);
+        long start = System.nanoTime();
+        try {
+            task.call();
+            results.put(index, new TaskReport.TaskResult(name, System.nanoTime() - start, null, false));
+        } catch (InterruptedException e) {
+            results.put(index, new TaskReport.TaskResult(name, System.nanoTime() - start, null, true));
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            failed.set(true);
+            results.put(index, new TaskReport.TaskResult(name, System.nanoTime() - start, e, false));
+        } finally {
+            running.set(previous);
+        }
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "cqf-tooling-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("Virtual threads are not supported by this runtime, using a pool of platform threads instead");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.opencds.cqf.tooling.common;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The outcome of a batch of tasks run by the {@link TaskExecutor}: one {@link TaskResult} per task, in submission
+ * order, with its duration and failure (if any).
+ */
+public class TaskReport {
+
+    /**
+     * The outcome of a single task.
+     */
+    public static class TaskResult {
+        private final String name;
+        private final long durationNanos;
+        private final Throwable failure;
+        private final boolean cancelled;
+
+        TaskResult(String name, long durationNanos, Throwable failure, boolean cancelled) {
+            this.name = name;
+            this.durationNanos = durationNanos;
+            this.failure = failure;
+            this.cancelled = cancelled;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDuration(TimeUnit unit) {
+            return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return The exception thrown by the task, or null if it completed normally or was cancelled
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return true if the task was cancelled before it completed
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isSuccessful() {
+            return failure == null && !cancelled;
+        }
+
+        @Override
+        public String toString() {
+            String outcome = cancelled ? "CANCELLED" : failure == null ? "OK" : "FAILED: " + failure;
+            return String.format("%s (%d ms) %s", name, getDuration(TimeUnit.MILLISECONDS), outcome);
+        }
+    }
+
+    private final String name;
+    private final List<TaskResult> results;
+    private final long elapsedNanos;
+
+    TaskReport(String name, List<TaskResult> results, long elapsedNanos) {
+        this.name = name;
+        this.results = Collections.unmodifiableList(results);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<TaskResult> getResults() {
+        return results;
+    }
+
+    public List<TaskResult> getFailures() {
+        return results.stream().filter(result -> result.getFailure() != null).collect(Collectors.toList());
+    }
+
+    public List<TaskResult> getCancelled() {
+        return results.stream().filter(TaskResult::isCancelled).collect(Collectors.toList());
+    }
+
+    /**
+     * @return true if every task completed normally
+     */
+    public boolean isSuccessful() {
+        return results.stream().allMatch(TaskResult::isSuccessful);
+    }
+
+    /**
+     * @return The wall-clock time taken by the batch
+     */
+    public long getElapsed(TimeUnit unit) {
+        return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return The sum of the durations of the tasks (greater than the elapsed time when tasks ran concurrently)
+     */
+    public long getTotalTaskTime(TimeUnit unit) {
+        return unit.convert(results.stream().mapToLong(result -> result.durationNanos).sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return The slowest task of the batch, or null if the batch was empty
+     */
+    public TaskResult getSlowest() {
+        return results.stream().max((left, right) -> Long.compare(left.durationNanos, right.durationNanos)).orElse(null);
+    }
+
+    @Override
+    public String toString() {
+        TaskResult slowest = getSlowest();
+        return String.format("%s: %d task(s), %d failed, %d cancelled in %d ms (task time %d ms%s)", name, results.size(),
+                getFailures().size(), getCancelled().size(), getElapsed(TimeUnit.MILLISECONDS),
+                getTotalTaskTime(TimeUnit.MILLISECONDS), slowest == null ? "" : ", slowest " + slowest.getName()
+                        + " " + slowest.getDuration(TimeUnit.MILLISECONDS) + " ms");
+    }
+}
@@ -1,54 +1,55 @@
 package org.opencds.cqf.tooling.common;
 
-import org.opencds.cqf.tooling.utilities.LogUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 public class ThreadUtils {
     protected static final Logger logger = LoggerFactory.getLogger(ThreadUtils.class);
     /**
      * Executes a list of tasks concurrently using a thread pool.
      * <p>
-     * This method takes a list of Callable tasks and executes them concurrently using a thread pool. It utilizes
-     * an ExecutorService with a cached thread pool configuration to manage the execution of the tasks.
-     * The method waits for all tasks to complete before returning.
+     * This method takes a list of Callable tasks and executes them concurrently on the shared, bounded
+     * {@link TaskExecutor}. The method waits for all tasks to complete before returning. A failed task does not
+     * stop the others; every failure is logged and reported in the returned {@link TaskReport}.
      *
      * @param tasks A list of Callable tasks to execute concurrently.
+     * @return The outcome of each task
      */
-    public static void executeTasks(List<Callable<Void>> tasks) {
+    public static TaskReport executeTasks(List<Callable<Void>> tasks) {
+        return executeTasks("executeTasks", tasks);
+    }
+
+    /**
+     * Executes a named list of tasks concurrently, see {@link #executeTasks(List)}.
+     *
+     * @param name The name of the batch, used in the log and the report
+     * @param tasks A list of Callable tasks to execute concurrently.
+     * @return The outcome of each task
+     */
+    public static TaskReport executeTasks(String name, List<Callable<Void>> tasks) {
         if (tasks == null || tasks.isEmpty()){
-            return;
+            return new TaskReport(name, Collections.emptyList(), 0);
         }
 
-        //let OS handle threading:
-        ExecutorService executorService = Executors.newCachedThreadPool();// Submit tasks and obtain futures
-        try {
-            List<Future<Void>> futures = new ArrayList<>();
-            for (Callable<Void> task : tasks) {
-                futures.add(executorService.submit(task));
-            }
-
-            // Wait for all tasks to complete
-            for (Future<Void> future : futures) {
-                future.get();
-            }
-        } catch (Exception e) {
-            logger.error("ThreadUtils.executeTasks", e);
-        } finally {
-            executorService.shutdown();
+        TaskReport report = TaskExecutor.getShared().execute(name, tasks);
+        for (TaskReport.TaskResult failure : report.getFailures()) {
+            logger.error("ThreadUtils.executeTasks: " + failure.getName(), failure.getFailure());
+        }
+        if (!report.getCancelled().isEmpty()) {
+            logger.warn("ThreadUtils.executeTasks: {} task(s) of {} were cancelled", report.getCancelled().size(), name);
         }
+        logger.debug("{}", report);
+        return report;
     }
 
-    public static void executeTasks(Queue<Callable<Void>> callables) {
+    public static TaskReport executeTasks(Queue<Callable<Void>> callables) {
 
-        executeTasks(new ArrayList<>(callables));
+        return executeTasks(new ArrayList<>(callables));
     }
 }
@@ -0,0 +1,96 @@
+package org.opencds.cqf.tooling.cql;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.CqlTranslatorOptions;
+import org.cqframework.cql.cql2elm.DefaultLibrarySourceProvider;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.cqframework.cql.cql2elm.quick.FhirLibrarySourceProvider;
+import org.opencds.cqf.tooling.cql.exception.CQLTranslatorException;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+
+/**
+ * A ModelManager/LibraryManager pair shared by every translation of CQL in the same folder with the same options.
+ * <p>
+ * Model info and compiled libraries (FHIRHelpers, shared common libraries, ...) are loaded once per context and
+ * reused by every subsequent translation, rather than once per translated file. The managers are not thread-safe,
+ * so translations within a context are serialized; translations in different folders proceed concurrently.
+ */
+public class CqlCompilationContext {
+
+    private static final Map<String, CqlCompilationContext> contexts = new ConcurrentHashMap<>();
+
+    private final Path folder;
+    private final CqlTranslatorOptions options;
+    private final ModelManager modelManager;
+    private final LibraryManager libraryManager;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private CqlCompilationContext(Path folder, CqlTranslatorOptions options) {
+        this.folder = folder;
+        this.options = options;
+        this.modelManager = new ModelManager();
+        this.libraryManager = new LibraryManager(modelManager);
+        libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+        libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(folder));
+    }
+
+    /**
+     * @param folder The folder containing the CQL source
+     * @param options The translator options used for the folder
+     * @return The shared compilation context for the folder and options, created on first use
+     */
+    public static CqlCompilationContext forFolder(String folder, CqlTranslatorOptions options) {
+        Path folderPath = Paths.get(folder).toAbsolutePath().normalize();
+        String key = folderPath + "|" + ElmTranslationCache.getOptionsFingerprint(options);
+        return contexts.computeIfAbsent(key, k -> new CqlCompilationContext(folderPath, options));
+    }
+
+    /**
+     * Discards all shared contexts (and the libraries compiled in them).
+     */
+    public static void clear() {
+        contexts.clear();
+    }
+
+    public Path getFolder() {
+        return folder;
+    }
+
+    public CqlTranslatorOptions getOptions() {
+        return options;
+    }
+
+    public ModelManager getModelManager() {
+        return modelManager;
+    }
+
+    public LibraryManager getLibraryManager() {
+        return libraryManager;
+    }
+
+    /**
+     * Translates the CQL file using the shared managers. The translated library is registered with the
+     * LibraryManager so later translations that include it do not translate it again.
+     */
+    public CqlTranslator translate(String cqlContentPath) throws CQLTranslatorException {
+        lock.lock();
+        try {
+            CqlTranslator translator = IOUtils.translate(cqlContentPath, modelManager, libraryManager, options);
+            CompiledLibrary compiledLibrary = translator.getTranslatedLibrary();
+            if (compiledLibrary != null && compiledLibrary.getIdentifier() != null) {
+                libraryManager.getCompiledLibraries().putIfAbsent(compiledLibrary.getIdentifier(), compiledLibrary);
+            }
+            return translator;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
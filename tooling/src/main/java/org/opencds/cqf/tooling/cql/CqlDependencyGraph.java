@@ -0,0 +1,189 @@
+package org.opencds.cqf.tooling.cql;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The include graph of the CQL files in a folder, built from the library and include declarations in the CQL
+ * headers (without translating anything).
+ * <p>
+ * Only includes that resolve to one of the given files are edges of the graph; includes of libraries that come
+ * from elsewhere (FHIRHelpers from the FHIR library source provider, libraries from packages) are ignored.
+ * Files are ordered so every file comes after the files it includes; files that are part of an include cycle
+ * are placed last, in their original order, and the translator reports the cycle when they are compiled.
+ */
+public class CqlDependencyGraph {
+
+    static final Pattern LIBRARY_PATTERN = Pattern.compile(
+            "(?m)^\\s*library\\s+((?:[A-Za-z_]\\w*\\.)*(?:[A-Za-z_]\\w*|\"[^\"]+\"|`[^`]+`))(?:\\s+version\\s+'([^']*)')?");
+    static final Pattern INCLUDE_PATTERN = Pattern.compile(
+            "(?m)^\\s*include\\s+((?:[A-Za-z_]\\w*\\.)*(?:[A-Za-z_]\\w*|\"[^\"]+\"|`[^`]+`))(?:\\s+version\\s+'([^']*)')?");
+
+    private final List<File> files;
+    private final Map<File, List<File>> dependencies;
+
+    private CqlDependencyGraph(List<File> files, Map<File, List<File>> dependencies) {
+        this.files = files;
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * Reads the headers of the given CQL files and builds their include graph.
+     */
+    public static CqlDependencyGraph build(Collection<File> cqlFiles) throws IOException {
+        List<File> ordered = new ArrayList<>();
+        Map<File, List<String[]>> includes = new HashMap<>();
+        Map<String, List<File>> filesByName = new HashMap<>();
+        Map<File, String> versions = new HashMap<>();
+
+        for (File cqlFile : cqlFiles) {
+            File file = cqlFile.getAbsoluteFile();
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            ordered.add(file);
+            includes.put(file, parseIncludes(content));
+
+            Matcher library = LIBRARY_PATTERN.matcher(content);
+            if (library.find()) {
+                filesByName.computeIfAbsent(unquote(library.group(1)), name -> new ArrayList<>()).add(file);
+                versions.put(file, library.group(2));
+            }
+        }
+
+        Map<File, List<File>> dependencies = new HashMap<>();
+        for (File file : ordered) {
+            List<File> fileDependencies = new ArrayList<>();
+            for (String[] include : includes.get(file)) {
+                File dependency = resolve(filesByName.get(include[0]), include[1], versions);
+                if (dependency != null && !dependency.equals(file) && !fileDependencies.contains(dependency)) {
+                    fileDependencies.add(dependency);
+                }
+            }
+            dependencies.put(file, Collections.unmodifiableList(fileDependencies));
+        }
+
+        return new CqlDependencyGraph(sort(ordered, dependencies), dependencies);
+    }
+
+    private static File resolve(List<File> candidates, String version, Map<File, String> versions) {
+        if (candidates == null || candidates.isEmpty()) {
+            return null;
+        }
+        if (version != null) {
+            for (File candidate : candidates) {
+                if (version.equals(versions.get(candidate))) {
+                    return candidate;
+                }
+            }
+        }
+        return candidates.get(0);
+    }
+
+    // Kahn's algorithm, taking the ready files in their original order so the result is deterministic
+    private static List<File> sort(List<File> files, Map<File, List<File>> dependencies) {
+        Map<File, Integer> index = new HashMap<>();
+        Map<File, Integer> remaining = new HashMap<>();
+        Map<File, List<File>> dependents = new HashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            index.put(file, i);
+            remaining.put(file, dependencies.get(file).size());
+            for (File dependency : dependencies.get(file)) {
+                dependents.computeIfAbsent(dependency, d -> new ArrayList<>()).add(file);
+            }
+        }
+
+        PriorityQueue<File> ready = new PriorityQueue<>(Comparator.comparing(index::get));
+        files.stream().filter(file -> remaining.get(file) == 0).forEach(ready::add);
+
+        List<File> sorted = new ArrayList<>(files.size());
+        while (!ready.isEmpty()) {
+            File file = ready.poll();
+            sorted.add(file);
+            for (File dependent : dependents.getOrDefault(file, Collections.emptyList())) {
+                if (remaining.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        // Anything left is part of (or depends on) an include cycle
+        for (File file : files) {
+            if (remaining.get(file) > 0) {
+                sorted.add(file);
+            }
+        }
+        return Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * @return The files of the graph, each after the files it includes
+     */
+    public List<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * @return The files of the graph included by the given file
+     */
+    public List<File> getDependencies(File file) {
+        return dependencies.getOrDefault(file.getAbsoluteFile(), Collections.emptyList());
+    }
+
+    /**
+     * Runs the action for every file on the executor, starting each file as soon as the files it includes have
+     * been processed, so independent libraries are processed concurrently. A failure for one file does not
+     * prevent its dependents from running. Blocks until every file has been processed.
+     *
+     * @throws java.util.concurrent.CompletionException if the action failed for any file
+     */
+    public void execute(Consumer<File> action, Executor executor) {
+        Map<File, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        for (File file : files) {
+            // Files in a cycle may depend on files that have not been scheduled yet; they only wait for those that have
+            CompletableFuture<?>[] scheduledDependencies = dependencies.get(file).stream()
+                    .map(futures::get).filter(future -> future != null).toArray(CompletableFuture[]::new);
+            futures.put(file, CompletableFuture.allOf(scheduledDependencies)
+                    .handle((result, failure) -> null)
+                    .thenRunAsync(() -> action.accept(file), executor));
+        }
+        CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).join();
+    }
+
+    /**
+     * @return The [name, version] pairs of the libraries included by the CQL source; version is null when the
+     * include does not specify one
+     */
+    static List<String[]> parseIncludes(String content) {
+        List<String[]> includes = new ArrayList<>();
+        Matcher matcher = INCLUDE_PATTERN.matcher(content);
+        while (matcher.find()) {
+            includes.add(new String[] { unquote(matcher.group(1)), matcher.group(2) });
+        }
+        return includes;
+    }
+
+    // Returns the unqualified, unquoted library name (e.g. Common."My Library" -> My Library)
+    static String unquote(String identifier) {
+        char last = identifier.charAt(identifier.length() - 1);
+        if (last == '"' || last == '`') {
+            return identifier.substring(identifier.lastIndexOf(last, identifier.length() - 2) + 1, identifier.length() - 1);
+        }
+        return identifier.substring(identifier.lastIndexOf('.') + 1);
+    }
+}
@@ -0,0 +1,434 @@
+package org.opencds.cqf.tooling.cql;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.cqframework.cql.cql2elm.CqlCompilerOptions;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.CqlTranslatorOptions;
+import org.cqframework.cql.cql2elm.LibrarySourceLoader;
+import org.cqframework.cql.elm.serializing.ElmLibraryReaderFactory;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * A persistent, content-addressed cache of CQL translation results.
+ * <p>
+ * Entries are keyed by a hash of the CQL source, the keys of every library it includes, wherever the translator
+ * finds it (so a change to an include cascades to everything that depends on it), the translator options and the namespace. Each entry holds
+ * the serialized ELM (XML and JSON), the messages reported by the translator and, when available, the data
+ * requirements gathered for the library, so unchanged libraries can skip translation entirely across runs.
+ * <p>
+ * By default the cache lives in a .cqf-cache/elm directory at the root of the IG (the parent of the "input"
+ * directory containing the CQL). The location can be overridden with the cqf.tooling.elm.cache.dir system
+ * property, and the cache can be turned off with cqf.tooling.elm.cache.disabled=true. The directory can be
+ * deleted at any time.
+ */
+public class ElmTranslationCache {
+    private static final Logger logger = LoggerFactory.getLogger(ElmTranslationCache.class);
+
+    public static final String CACHE_DIRECTORY_PROPERTY = "cqf.tooling.elm.cache.dir";
+    public static final String CACHE_DISABLED_PROPERTY = "cqf.tooling.elm.cache.disabled";
+
+    private static final String CACHE_FOLDER = ".cqf-cache";
+    private static final String ELM_FOLDER = "elm";
+    private static final String ENTRY_EXTENSION = ".json";
+
+    private static final Map<Path, ElmTranslationCache> caches = new ConcurrentHashMap<>();
+    private static final ElmTranslationCache disabledCache = new ElmTranslationCache(null);
+
+    private final Path directory;
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private final Map<String, SourceInfo> sources = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private ElmTranslationCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param cqlFolder A folder containing CQL source
+     * @return The translation cache shared by all folders of the IG containing cqlFolder
+     */
+    public static ElmTranslationCache forFolder(String cqlFolder) {
+        if (Boolean.getBoolean(CACHE_DISABLED_PROPERTY) || cqlFolder == null) {
+            return disabledCache;
+        }
+        return caches.computeIfAbsent(resolveCacheDirectory(cqlFolder), ElmTranslationCache::new);
+    }
+
+    public static Path resolveCacheDirectory(String cqlFolder) {
+        String configured = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        if (configured != null && !configured.isBlank()) {
+            return Paths.get(configured).toAbsolutePath().normalize();
+        }
+
+        Path folder = Paths.get(cqlFolder).toAbsolutePath().normalize();
+        for (Path current = folder; current != null; current = current.getParent()) {
+            if (current.getFileName() != null && current.getFileName().toString().equals("input")
+                    && current.getParent() != null) {
+                return current.getParent().resolve(CACHE_FOLDER).resolve(ELM_FOLDER);
+            }
+        }
+        return folder.resolve(CACHE_FOLDER).resolve(ELM_FOLDER);
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Computes the cache key for a CQL file. Includes that resolve to a CQL file in the same folder contribute
+     * their own key (recursively); other includes (e.g. FHIRHelpers, or a library from a package) are resolved
+     * through the source loader used for the translation and contribute the key of their content (also
+     * recursively). If an include can not be resolved, the translation is not cached.
+     *
+     * @param sourceLoader The library source loader of the translation, or null to resolve includes from the
+     *                     folder only
+     * @return The key, or null if the cache is disabled or the key could not be computed
+     */
+    public String computeKey(File cqlFile, CqlTranslatorOptions options, String namespaceUri, LibrarySourceLoader sourceLoader) {
+        if (!isEnabled()) {
+            return null;
+        }
+        try {
+            String context = getOptionsFingerprint(options) + "|" + (namespaceUri == null ? "" : namespaceUri);
+            File file = cqlFile.getAbsoluteFile();
+            return computeKey(getSourceInfo(file), file.getParentFile(), file.getPath(), context, sourceLoader, new HashSet<>());
+        } catch (UnresolvedIncludeException e) {
+            logger.debug("Not caching the translation of {}, include {} could not be resolved", cqlFile, e.getMessage());
+            return null;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Unable to compute a translation cache key for {}: {}", cqlFile, e.getMessage());
+            return null;
+        }
+    }
+
+    // The folder is null for a library from the source loader, whose includes are resolved by the loader only
+    private String computeKey(SourceInfo source, File folder, String visitingKey, String context,
+            LibrarySourceLoader sourceLoader, Set<String> visiting) throws IOException {
+        StringBuilder keySource = new StringBuilder();
+        keySource.append(source.hash).append('\n').append(context).append('\n');
+
+        visiting.add(visitingKey);
+        // Sorted so the key does not depend on the order of the include statements
+        Set<String> includeKeys = new TreeSet<>();
+        for (String[] include : source.includes) {
+            String name = include[0];
+            String version = include[1];
+            File includedFile = resolveIncludedFile(folder, name, version);
+            if (includedFile != null) {
+                includeKeys.add(visiting.contains(includedFile.getPath()) ? name + "|" + (version == null ? "" : version)
+                        : computeKey(getSourceInfo(includedFile), includedFile.getParentFile(), includedFile.getPath(),
+                                context, sourceLoader, visiting));
+                continue;
+            }
+
+            String includeKey = name + "|" + (version == null ? "" : version);
+            if (visiting.contains(includeKey)) {
+                includeKeys.add(includeKey);
+                continue;
+            }
+            SourceInfo includedSource = loadSourceInfo(sourceLoader, name, version);
+            if (includedSource == null) {
+                throw new UnresolvedIncludeException(includeKey);
+            }
+            includeKeys.add(computeKey(includedSource, null, includeKey, context, sourceLoader, visiting));
+        }
+        visiting.remove(visitingKey);
+
+        includeKeys.forEach(includeKey -> keySource.append(includeKey).append('\n'));
+        return DigestUtils.sha256Hex(keySource.toString());
+    }
+
+    // The content hash and includes of a file are only recomputed when the file changes
+    private SourceInfo getSourceInfo(File cqlFile) throws IOException {
+        String memoKey = cqlFile.getPath() + "|" + cqlFile.lastModified() + "|" + cqlFile.length();
+        SourceInfo source = sources.get(memoKey);
+        if (source == null) {
+            source = SourceInfo.of(Files.readAllBytes(cqlFile.toPath()));
+            sources.put(memoKey, source);
+        }
+        return source;
+    }
+
+    // Reads the library the translator would include through the source loader, or returns null if it has none
+    private static SourceInfo loadSourceInfo(LibrarySourceLoader sourceLoader, String name, String version) throws IOException {
+        if (sourceLoader == null) {
+            return null;
+        }
+        InputStream stream = sourceLoader.getLibrarySource(new VersionedIdentifier().withId(name).withVersion(version));
+        if (stream == null) {
+            return null;
+        }
+        try (InputStream source = stream) {
+            return SourceInfo.of(source.readAllBytes());
+        }
+    }
+
+    private static final class SourceInfo {
+        private final String hash;
+        private final List<String[]> includes;
+
+        private SourceInfo(String hash, List<String[]> includes) {
+            this.hash = hash;
+            this.includes = includes;
+        }
+
+        private static SourceInfo of(byte[] content) {
+            return new SourceInfo(DigestUtils.sha256Hex(content),
+                    CqlDependencyGraph.parseIncludes(new String(content, StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static final class UnresolvedIncludeException extends IOException {
+        private UnresolvedIncludeException(String include) {
+            super(include);
+        }
+    }
+
+    private static File resolveIncludedFile(File folder, String name, String version) {
+        if (folder == null) {
+            return null;
+        }
+        if (version != null) {
+            File versioned = new File(folder, name + "-" + version + ".cql");
+            if (versioned.isFile()) {
+                return versioned.getAbsoluteFile();
+            }
+        }
+        File unversioned = new File(folder, name + ".cql");
+        return unversioned.isFile() ? unversioned.getAbsoluteFile() : null;
+    }
+
+    static String getOptionsFingerprint(CqlTranslatorOptions options) {
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(CqlTranslator.class.getPackage().getImplementationVersion());
+        if (options != null) {
+            fingerprint.append('|').append(new TreeSet<>(options.getFormats()));
+            CqlCompilerOptions compilerOptions = options.getCqlCompilerOptions();
+            if (compilerOptions != null) {
+                fingerprint.append('|').append(new TreeSet<>(compilerOptions.getOptions()))
+                        .append('|').append(compilerOptions.getCompatibilityLevel())
+                        .append('|').append(compilerOptions.getSignatureLevel())
+                        .append('|').append(compilerOptions.getErrorLevel())
+                        .append('|').append(compilerOptions.getValidateUnits())
+                        .append('|').append(compilerOptions.getAnalyzeDataRequirements())
+                        .append('|').append(compilerOptions.getCollapseDataRequirements());
+            }
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * @return The cached entry for the key, or null if there is none (or it could not be read)
+     */
+    public Entry get(String key) {
+        if (!isEnabled() || key == null) {
+            return null;
+        }
+        Path path = directory.resolve(key + ENTRY_EXTENSION);
+        if (!Files.isRegularFile(path)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            Entry entry = gson.fromJson(reader, Entry.class);
+            if (entry == null || entry.elmXml == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Ignoring unreadable translation cache entry {}: {}", path, e.getMessage());
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public boolean contains(String key) {
+        return isEnabled() && key != null && Files.isRegularFile(directory.resolve(key + ENTRY_EXTENSION));
+    }
+
+    /**
+     * Stores the entry under the key. The entry is written to a temporary file and moved into place so
+     * concurrent readers never observe a partially written entry.
+     */
+    public void put(String key, Entry entry) {
+        if (!isEnabled() || key == null || entry == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(entry, writer);
+            }
+            Path target = directory.resolve(key + ENTRY_EXTENSION);
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to write translation cache entry {}: {}", key, e.getMessage());
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * A single cached translation result.
+     */
+    public static class Entry {
+        private String identifierSystem;
+        private String identifierId;
+        private String identifierVersion;
+        private String elmXml;
+        private String elmJson;
+        private String requirements;
+        private List<Message> messages = new ArrayList<>();
+
+        public Entry() {}
+
+        public Entry(VersionedIdentifier identifier, String elmXml, String elmJson) {
+            setIdentifier(identifier);
+            this.elmXml = elmXml;
+            this.elmJson = elmJson;
+        }
+
+        public static Entry fromTranslator(CqlTranslator translator) {
+            return new Entry(translator.toELM().getIdentifier(), translator.toXml(), translator.toJson());
+        }
+
+        public VersionedIdentifier getIdentifier() {
+            if (identifierId == null) {
+                return null;
+            }
+            return new VersionedIdentifier().withSystem(identifierSystem).withId(identifierId).withVersion(identifierVersion);
+        }
+
+        public void setIdentifier(VersionedIdentifier identifier) {
+            if (identifier != null) {
+                this.identifierSystem = identifier.getSystem();
+                this.identifierId = identifier.getId();
+                this.identifierVersion = identifier.getVersion();
+            }
+        }
+
+        public String getElmXml() {
+            return elmXml;
+        }
+
+        public String getElmJson() {
+            return elmJson;
+        }
+
+        /**
+         * @return The data requirements gathered for the library, as an R5 Library in JSON, if available
+         */
+        public String getRequirements() {
+            return requirements;
+        }
+
+        public void setRequirements(String requirements) {
+            this.requirements = requirements;
+        }
+
+        public List<ValidationMessage> getMessages() {
+            List<ValidationMessage> result = new ArrayList<>();
+            for (Message message : messages) {
+                result.add(message.toValidationMessage());
+            }
+            return result;
+        }
+
+        public void addMessages(List<ValidationMessage> validationMessages) {
+            for (ValidationMessage validationMessage : validationMessages) {
+                messages.add(Message.fromValidationMessage(validationMessage));
+            }
+        }
+
+        /**
+         * Deserializes the cached ELM.
+         *
+         * @return The ELM library, or null if it could not be read
+         */
+        public org.hl7.elm.r1.Library readLibrary() {
+            try (Reader reader = new StringReader(elmXml)) {
+                return ElmLibraryReaderFactory.getReader("application/xml").read(reader);
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Unable to read cached ELM for {}: {}", identifierId, e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    private static class Message {
+        private String source;
+        private String type;
+        private String level;
+        private String location;
+        private int line;
+        private int column;
+        private String message;
+
+        static Message fromValidationMessage(ValidationMessage validationMessage) {
+            Message result = new Message();
+            result.source = validationMessage.getSource() == null ? null : validationMessage.getSource().name();
+            result.type = validationMessage.getType() == null ? null : validationMessage.getType().name();
+            result.level = validationMessage.getLevel() == null ? null : validationMessage.getLevel().name();
+            result.location = validationMessage.getLocation();
+            result.line = validationMessage.getLine();
+            result.column = validationMessage.getCol();
+            result.message = validationMessage.getMessage();
+            return result;
+        }
+
+        ValidationMessage toValidationMessage() {
+            ValidationMessage.Source messageSource = source == null
+                    ? ValidationMessage.Source.Publisher : ValidationMessage.Source.valueOf(source);
+            ValidationMessage.IssueType issueType = type == null
+                    ? ValidationMessage.IssueType.UNKNOWN : ValidationMessage.IssueType.valueOf(type);
+            ValidationMessage.IssueSeverity severity = level == null
+                    ? ValidationMessage.IssueSeverity.NULL : ValidationMessage.IssueSeverity.valueOf(level);
+            return new ValidationMessage(messageSource, issueType, line, column, location, message, severity);
+        }
+    }
+}
@@ -128,8 +128,7 @@ public class LibraryProcessor extends BaseProcessor {
                                              Encoding encoding, boolean versioned) {
         try{
             Queue<Callable<Void>> bundleLibraryDependenciesTasks = bundleLibraryDependenciesTasks(path, fhirContext, resources, encoding, versioned);
-            ThreadUtils.executeTasks(bundleLibraryDependenciesTasks);
-            return true;
+            return ThreadUtils.executeTasks(bundleLibraryDependenciesTasks).isSuccessful();
         }catch (Exception e){
             return false;
         }
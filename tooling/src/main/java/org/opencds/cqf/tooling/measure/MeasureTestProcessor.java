@@ -1,6 +1,8 @@
 package org.opencds.cqf.tooling.measure;
 
 import java.io.File;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Objects;
 
 import org.hl7.fhir.Parameters;
@@ -12,6 +14,7 @@ import org.opencds.cqf.tooling.measure.adapters.IMeasureReportAdapter;
 import org.opencds.cqf.tooling.measure.adapters.MeasureTestAdapter;
 import org.opencds.cqf.tooling.measure.adapters.ReadOnlyFhirServerMeasureTestAdapter;
 import org.opencds.cqf.tooling.measure.comparer.MeasureReportComparer;
+import org.opencds.cqf.tooling.measure.evaluator.CqlMeasureEvaluator;
 import org.opencds.cqf.tooling.processor.ITestProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +31,9 @@ public class MeasureTestProcessor implements ITestProcessor {
 
     private FhirContext fhirContext;
 
+    // The content bundles compiled for in-process evaluation, so each is compiled once for all of its test cases
+    private final Map<IBaseResource, CqlMeasureEvaluator> evaluators = new IdentityHashMap<>();
+
     public MeasureTestProcessor(FhirContext fhirContext)
     {
         this.fhirContext = fhirContext;
@@ -88,8 +94,8 @@ public class MeasureTestProcessor implements ITestProcessor {
             throw new IllegalArgumentException("If fhirServer is not specified, contentBundle can not be null or empty.");
         }
 
-        if (fhirServer == null) {
-            return new CqlEvaluatorMeasureTestAdapter(this.fhirContext, testBundle, contentBundle);
+        if (fhirServer == null || fhirServer.trim().isEmpty()) {
+            return new CqlEvaluatorMeasureTestAdapter(this.fhirContext, testBundle, getEvaluator(contentBundle));
         }
 
         IGenericClient fhirClient = this.fhirContext.newRestfulGenericClient(fhirServer);
@@ -115,7 +121,7 @@ public class MeasureTestProcessor implements ITestProcessor {
             throw new IllegalArgumentException("If fhirServer is not specified, contentBundlePath can not be null.");
         }
 
-        if (fhirServer == null) {
+        if (fhirServer == null || fhirServer.trim().isEmpty()) {
             return new CqlEvaluatorMeasureTestAdapter(this.fhirContext, testPath, contentBundlePath);
         }
 
@@ -128,4 +134,11 @@ public class MeasureTestProcessor implements ITestProcessor {
             return new ContentLoadingFhirServerMeasureTestAdapter(this.fhirContext, fhirClient, testPath, contentBundlePath);
         }
     }
+
+    private CqlMeasureEvaluator getEvaluator(IBaseResource contentBundle) {
+        synchronized (evaluators) {
+            return evaluators.computeIfAbsent(contentBundle,
+                bundle -> CqlEvaluatorMeasureTestAdapter.createEvaluator(this.fhirContext, bundle));
+        }
+    }
 }
\ No newline at end of file
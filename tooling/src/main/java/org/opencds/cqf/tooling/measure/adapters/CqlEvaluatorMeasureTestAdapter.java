@@ -1,38 +1,56 @@
 package org.opencds.cqf.tooling.measure.adapters;
 
-import org.apache.commons.lang3.NotImplementedException;
+import java.util.Objects;
+
+import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.measure.evaluator.CqlMeasureEvaluator;
+import org.opencds.cqf.tooling.utilities.IOUtils;
 
 import ca.uhn.fhir.context.FhirContext;
 
+/**
+ * Runs a Measure test case in process with the CQL engine, without a FHIR server.
+ * <p>
+ * The content bundle is compiled by a {@link CqlMeasureEvaluator}; pass the same evaluator to the adapters of every
+ * test case of the content so it is only compiled once.
+ */
 public class CqlEvaluatorMeasureTestAdapter extends MeasureTestAdapter {
 
-    // private String contentPath;
-    // private IBaseResource contentBundle;
+    private CqlMeasureEvaluator evaluator;
 
-    /// This guy will eventually run the the cql-evaluator to get the results...
-    public CqlEvaluatorMeasureTestAdapter(FhirContext fhirContext, IBaseResource testBundle, IBaseResource contentBundle) {
+    public CqlEvaluatorMeasureTestAdapter(FhirContext fhirContext, IBaseResource testBundle, CqlMeasureEvaluator evaluator) {
         super(fhirContext, testBundle);
 
-        // this.contentBundle = contentBundle;
+        this.evaluator = Objects.requireNonNull(evaluator, "evaluator can not be null");
+    }
+
+    public CqlEvaluatorMeasureTestAdapter(FhirContext fhirContext, IBaseResource testBundle, IBaseResource contentBundle) {
+        this(fhirContext, testBundle, createEvaluator(fhirContext, contentBundle));
     }
 
     public CqlEvaluatorMeasureTestAdapter(FhirContext fhirContext, String testPath, String contentPath) {
-        super(fhirContext, testPath);
+        this(fhirContext, IOUtils.readResource(Objects.requireNonNull(testPath), fhirContext),
+            createEvaluator(fhirContext, IOUtils.readResource(Objects.requireNonNull(contentPath, "contentPath can not be null"), fhirContext)));
+    }
+
+    public static CqlMeasureEvaluator createEvaluator(FhirContext fhirContext, IBaseResource contentBundle) {
+        if (contentBundle == null || !contentBundle.fhirType().equals("Bundle") || !(contentBundle instanceof IBaseBundle)) {
+            throw new IllegalArgumentException("contentBundle is not a Bundle Resource");
+        }
 
-        // this.contentPath = contentPath;
+        return new CqlMeasureEvaluator(fhirContext, (IBaseBundle)contentBundle);
     }
 
     @Override
     public IMeasureReportAdapter getActualMeasureReportAdapter() {
-        // 1. Get Measure and Patient Ids from Expected
-        // 2. Run evaluator with Measure, Patient, Content context
-        // 3. Parse the result
-        throw new NotImplementedException();
+        return this.evaluate();
     }
 
     @Override
     protected IMeasureReportAdapter evaluate() {
-        throw new NotImplementedException();
+        IBaseResource measureReport = this.evaluator.evaluate(this.getMeasureId(), this.getPatientId(),
+            this.getPeriodStart(), this.getPeriodEnd(), (IBaseBundle)this.testBundle);
+        return getMeasureReportAdapter(this.fhirContext, measureReport);
     }
-}
\ No newline at end of file
+}
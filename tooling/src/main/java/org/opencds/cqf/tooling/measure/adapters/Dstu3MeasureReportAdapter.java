@@ -1,5 +1,6 @@
 package org.opencds.cqf.tooling.measure.adapters;
 
+import org.hl7.fhir.dstu3.model.CodeableConcept;
 import org.hl7.fhir.dstu3.model.MeasureReport;
 
 import java.math.BigDecimal;
@@ -71,6 +72,22 @@ public class Dstu3MeasureReportAdapter implements IMeasureReportAdapter {
             Group group = new Group();
             group.name = groupComponent.getId();
             group.score = groupComponent.getMeasureScore();
+            for (MeasureReport.MeasureReportGroupPopulationComponent population : groupComponent.getPopulation()) {
+                group.populations.put(getCode(population.getCode()), population.getCount());
+            }
+            for (MeasureReport.MeasureReportGroupStratifierComponent stratifier : groupComponent.getStratifier()) {
+                String stratifierId = stratifier.getId() != null ? stratifier.getId() : stratifier.getIdentifier().getValue();
+                for (MeasureReport.StratifierGroupComponent stratumComponent : stratifier.getStratum()) {
+                    Stratum stratum = new Stratum();
+                    stratum.stratifier = stratifierId;
+                    stratum.value = stratumComponent.getValue();
+                    stratum.score = stratumComponent.getMeasureScore();
+                    for (MeasureReport.StratifierGroupPopulationComponent population : stratumComponent.getPopulation()) {
+                        stratum.populations.put(getCode(population.getCode()), population.getCount());
+                    }
+                    group.strata.put(stratum.getKey(), stratum);
+                }
+            }
             groups.add(group);
         }
         return groups;
@@ -89,4 +106,11 @@ public class Dstu3MeasureReportAdapter implements IMeasureReportAdapter {
         }
         return score;
     }
+
+    private String getCode(CodeableConcept concept) {
+        if (concept.hasCoding()) {
+            return concept.getCodingFirstRep().getCode();
+        }
+        return concept.getText();
+    }
 }
\ No newline at end of file
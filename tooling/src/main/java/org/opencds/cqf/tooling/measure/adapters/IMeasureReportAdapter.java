@@ -2,7 +2,9 @@ package org.opencds.cqf.tooling.measure.adapters;
 
 import java.math.BigDecimal;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public interface IMeasureReportAdapter {
     String getReportType();
@@ -16,8 +18,30 @@ public interface IMeasureReportAdapter {
     public class Group {
         String name;
         BigDecimal score;
+        Map<String, Integer> populations = new LinkedHashMap<>();
+        Map<String, Stratum> strata = new LinkedHashMap<>();
 
         public String getName() { return name; }
         public BigDecimal getScore() { return score; }
+
+        /** The population counts of the group, keyed by population code (e.g. numerator) */
+        public Map<String, Integer> getPopulations() { return populations; }
+
+        /** The strata of every stratifier of the group, keyed by {@link Stratum#getKey()} */
+        public Map<String, Stratum> getStrata() { return strata; }
+    }
+
+    public class Stratum {
+        String stratifier;
+        String value;
+        BigDecimal score;
+        Map<String, Integer> populations = new LinkedHashMap<>();
+
+        public String getStratifier() { return stratifier; }
+        public String getValue() { return value; }
+        public BigDecimal getScore() { return score; }
+        public Map<String, Integer> getPopulations() { return populations; }
+
+        public String getKey() { return stratifier + "|" + value; }
     }
 }
@@ -31,7 +31,7 @@ public abstract class MeasureTestAdapter {
         this.expectedReportAdapter = getMeasureReportAdapter(fhirContext, expectedReport);
     }
 
-    protected static IMeasureReportAdapter getMeasureReportAdapter(FhirContext fhirContext, IBaseResource measureReport) {
+    public static IMeasureReportAdapter getMeasureReportAdapter(FhirContext fhirContext, IBaseResource measureReport) {
         //TODO: R5?
         IMeasureReportAdapter measureReportAdapter;
         if (fhirContext.getVersion().getVersion() == FhirVersionEnum.DSTU3) {
@@ -1,5 +1,6 @@
 package org.opencds.cqf.tooling.measure.adapters;
 
+import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.MeasureReport;
 
 import java.math.BigDecimal;
@@ -71,6 +72,23 @@ public class R4MeasureReportAdapter implements IMeasureReportAdapter {
             Group group = new Group();
             group.name = groupComponent.getId();
             group.score = groupComponent.getMeasureScore().getValue();
+            for (MeasureReport.MeasureReportGroupPopulationComponent population : groupComponent.getPopulation()) {
+                group.populations.put(getCode(population.getCode()), population.getCount());
+            }
+            for (MeasureReport.MeasureReportGroupStratifierComponent stratifier : groupComponent.getStratifier()) {
+                String stratifierId = stratifier.getId() != null ? stratifier.getId()
+                        : stratifier.hasCode() ? getCode(stratifier.getCodeFirstRep()) : null;
+                for (MeasureReport.StratifierGroupComponent stratumComponent : stratifier.getStratum()) {
+                    Stratum stratum = new Stratum();
+                    stratum.stratifier = stratifierId;
+                    stratum.value = getStratumValue(stratumComponent);
+                    stratum.score = stratumComponent.getMeasureScore().getValue();
+                    for (MeasureReport.StratifierGroupPopulationComponent population : stratumComponent.getPopulation()) {
+                        stratum.populations.put(getCode(population.getCode()), population.getCount());
+                    }
+                    group.strata.put(stratum.getKey(), stratum);
+                }
+            }
             groups.add(group);
         }
         return groups;
@@ -89,4 +107,23 @@ public class R4MeasureReportAdapter implements IMeasureReportAdapter {
         }
         return score;
     }
+
+    private String getCode(CodeableConcept concept) {
+        if (concept.hasCoding()) {
+            return concept.getCodingFirstRep().getCode();
+        }
+        return concept.getText();
+    }
+
+    private String getStratumValue(MeasureReport.StratifierGroupComponent stratum) {
+        if (stratum.hasValue()) {
+            return getCode(stratum.getValue());
+        }
+        // Multi-component stratifiers identify a stratum by the value of each component
+        List<String> components = new ArrayList<String>();
+        for (MeasureReport.StratifierGroupComponentComponent component : stratum.getComponent()) {
+            components.add(getCode(component.getCode()) + "=" + getCode(component.getValue()));
+        }
+        return String.join(",", components);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,179 @@
+package org.opencds.cqf.tooling.measure.comparer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.common.TaskExecutor;
+import org.opencds.cqf.tooling.common.TaskReport;
+import org.opencds.cqf.tooling.measure.adapters.IMeasureReportAdapter;
+import org.opencds.cqf.tooling.measure.adapters.MeasureTestAdapter;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.BundleUtil;
+
+/**
+ * Compares a directory of expected MeasureReports with a directory of actual MeasureReports.
+ * <p>
+ * Files are matched by their path relative to each directory, and each file may hold a MeasureReport or a Bundle
+ * containing one (e.g. a test case bundle). The files are compared concurrently on the shared {@link TaskExecutor}.
+ */
+public class MeasureReportBatchComparer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MeasureReportBatchComparer.class);
+
+    public static final String JSON_FILE_NAME = "measure-report-comparison.json";
+
+    /**
+     * The outcome of comparing one expected file: the diff of the reports, or why they could not be compared.
+     */
+    public static class Result {
+        private final MeasureReportDiff diff;
+        private final String error;
+
+        Result(MeasureReportDiff diff, String error) {
+            this.diff = diff;
+            this.error = error;
+        }
+
+        public MeasureReportDiff getDiff() { return diff; }
+        public String getError() { return error; }
+
+        public boolean isMatch() {
+            return error == null && diff.isMatch();
+        }
+    }
+
+    private final FhirContext fhirContext;
+    private final MeasureReportComparer comparer;
+    private SortedMap<String, Result> results = Collections.emptySortedMap();
+
+    public MeasureReportBatchComparer(FhirContext fhirContext) {
+        this.fhirContext = fhirContext;
+        this.comparer = new MeasureReportComparer(fhirContext);
+    }
+
+    /**
+     * @param expectedDirectory The directory of expected reports; every report in it is compared
+     * @param actualDirectory The directory of actual reports, laid out like the expected directory
+     * @return The result of each expected file, keyed and sorted by relative path
+     */
+    public SortedMap<String, Result> compareDirectories(Path expectedDirectory, Path actualDirectory) {
+        List<Path> expectedFiles;
+        try (Stream<Path> files = Files.walk(expectedDirectory)) {
+            expectedFiles = files.filter(Files::isRegularFile)
+                    .filter(file -> file.toString().endsWith(".json") || file.toString().endsWith(".xml"))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to list the expected reports in " + expectedDirectory + ": " + e.getMessage(), e);
+        }
+
+        SortedMap<String, Result> batchResults = Collections.synchronizedSortedMap(new TreeMap<>());
+        Map<String, Callable<Void>> tasks = new LinkedHashMap<>();
+        for (Path expectedFile : expectedFiles) {
+            String relativePath = expectedDirectory.relativize(expectedFile).toString().replace('\\', '/');
+            Path actualFile = actualDirectory.resolve(relativePath);
+            tasks.put(relativePath, () -> {
+                batchResults.put(relativePath, compareFiles(expectedFile, actualFile));
+                return null;
+            });
+        }
+        TaskReport report = TaskExecutor.getShared().execute("Compare MeasureReports", tasks, false);
+        logger.info("{}", report);
+
+        this.results = batchResults;
+        return batchResults;
+    }
+
+    public SortedMap<String, Result> getResults() {
+        return results;
+    }
+
+    private Result compareFiles(Path expectedFile, Path actualFile) {
+        if (!Files.isRegularFile(actualFile)) {
+            return new Result(null, "No actual report at " + actualFile);
+        }
+        try {
+            IMeasureReportAdapter expected = readMeasureReport(expectedFile);
+            IMeasureReportAdapter actual = readMeasureReport(actualFile);
+            return new Result(comparer.diff(actual, expected), null);
+        } catch (RuntimeException e) {
+            return new Result(null, e.getMessage());
+        }
+    }
+
+    private IMeasureReportAdapter readMeasureReport(Path file) {
+        IBaseResource resource = IOUtils.readResource(file.toString(), fhirContext);
+        if (resource == null) {
+            throw new IllegalArgumentException("Unable to read a resource from " + file);
+        }
+        if (resource instanceof IBaseBundle) {
+            resource = BundleUtil.toListOfResources(fhirContext, (IBaseBundle) resource).stream()
+                    .filter(entry -> entry.fhirType().equals("MeasureReport"))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("No MeasureReport in the Bundle at " + file));
+        } else if (!resource.fhirType().equals("MeasureReport")) {
+            throw new IllegalArgumentException("Expected a MeasureReport or Bundle at " + file + ", found " + resource.fhirType());
+        }
+        return MeasureTestAdapter.getMeasureReportAdapter(fhirContext, resource);
+    }
+
+    public void writeJson(Path path) {
+        JsonObject report = new JsonObject();
+        report.addProperty("files", results.size());
+        report.addProperty("matched", results.values().stream().filter(Result::isMatch).count());
+        report.addProperty("errors", results.values().stream().filter(result -> result.getError() != null).count());
+
+        JsonArray files = new JsonArray();
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            JsonObject file = new JsonObject();
+            file.addProperty("path", entry.getKey());
+            file.addProperty("match", entry.getValue().isMatch());
+            if (entry.getValue().getError() != null) {
+                file.addProperty("error", entry.getValue().getError());
+            } else {
+                file.addProperty("comparisons", entry.getValue().getDiff().getComparisons());
+                JsonArray differences = new JsonArray();
+                for (MeasureReportDiff.Difference difference : entry.getValue().getDiff().getDifferences()) {
+                    JsonObject item = new JsonObject();
+                    item.addProperty("path", difference.getPath());
+                    item.addProperty("expected", difference.getExpected());
+                    item.addProperty("actual", difference.getActual());
+                    differences.add(item);
+                }
+                file.add("differences", differences);
+            }
+            files.add(file);
+        }
+        report.add("results", files);
+
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write the comparison report " + path + ": " + e.getMessage(), e);
+        }
+    }
+}
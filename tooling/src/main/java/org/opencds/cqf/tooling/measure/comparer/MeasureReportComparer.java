@@ -1,6 +1,13 @@
 package org.opencds.cqf.tooling.measure.comparer;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import org.hl7.fhir.Parameters;
 import org.hl7.fhir.ParametersParameter;
@@ -19,52 +26,136 @@ public class MeasureReportComparer {
     }
 
     public Parameters compare(IMeasureReportAdapter actual, IMeasureReportAdapter expected) {
+        MeasureReportDiff diff = diff(actual, expected);
         Parameters results = new Parameters();
-        boolean overallPassFail = true;
 
-        ParametersParameter parameter = new ParametersParameter();
-
-        overallPassFail = overallPassFail & compareField("ReportType", actual.getReportType(), expected.getReportType(), results);
-        overallPassFail = overallPassFail & compareField("MeasureId", actual.getMeasureId(), expected.getMeasureId(), results);
-        overallPassFail = overallPassFail & compareField("PatientId", actual.getPatientId(), expected.getPatientId(), results);
+        addResultParameter("ReportType", results, !diff.hasDifference("ReportType"));
+        addResultParameter("MeasureId", results, !diff.hasDifference("MeasureId"));
+        addResultParameter("PatientId", results, !diff.hasDifference("PatientId"));
 
         //NOTE: Set of groups must be equal. Expected must be a subset of Actual, but not a proper subset.
-        if (actual.getGroups().size() != expected.getGroups().size()) {
+        if (diff.hasDifference("GroupCount")) {
             addResultParameter("GroupCount", results, false);
-            overallPassFail = false;
         }
 
-        // Compare the measurescore of each group.
-        List<IMeasureReportAdapter.Group> actualGroups = actual.getGroups();
+        for (java.lang.String groupPath : groupPaths(expected.getGroups())) {
+            java.lang.String path = groupPath + ".score";
+            addResultParameter(path, results, !diff.hasDifference(path));
+        }
+
+        // Population and stratum differences are only reported when they do not match
+        for (MeasureReportDiff.Difference difference : diff.getDifferences()) {
+            if (difference.getPath().contains(".population[") || difference.getPath().contains(".stratifier[")) {
+                addResultParameter(difference.getPath(), results, false);
+            }
+        }
 
-        for (IMeasureReportAdapter.Group expectedGroup : expected.getGroups()) {
-            boolean foundMatch = false;
+        addResultParameter("Measure '" + expected.getMeasureId() + "' " + MeasureTestProcessor.TestPassedKey, results, diff.isMatch());
+
+        return results;
+    }
+
+    /**
+     * Compares the report type, measure, patient, group scores, population counts and strata of the reports in one
+     * pass. The groups of the actual report are indexed by id, their populations by code and their strata by
+     * stratifier and value, so every expected value is looked up rather than searched for. Where the groups of either
+     * report have missing or duplicate ids, the groups are matched by position instead.
+     *
+     * @param actual The MeasureReport produced by the evaluation
+     * @param expected The expected MeasureReport of the test case
+     * @return The differences between the reports
+     */
+    public MeasureReportDiff diff(IMeasureReportAdapter actual, IMeasureReportAdapter expected) {
+        MeasureReportDiff diff = new MeasureReportDiff();
+
+        compareValue(diff, "ReportType", expected.getReportType(), actual.getReportType());
+        compareValue(diff, "MeasureId", expected.getMeasureId(), actual.getMeasureId());
+        compareValue(diff, "PatientId", expected.getPatientId(), actual.getPatientId());
+
+        List<IMeasureReportAdapter.Group> expectedGroups = expected.getGroups();
+        List<IMeasureReportAdapter.Group> actualGroups = actual.getGroups();
+        boolean matchById = hasUniqueIds(expectedGroups) && hasUniqueIds(actualGroups);
+        Map<java.lang.String, IMeasureReportAdapter.Group> actualGroupsById = new HashMap<>();
+        if (matchById) {
             for (IMeasureReportAdapter.Group actualGroup : actualGroups) {
-                if (actualGroup.getName().equals(expectedGroup.getName())) {
-                    if (actualGroup.getScore().compareTo(expectedGroup.getScore()) == 0) {
-                        foundMatch = true;
-                        break;
-                    }
+                actualGroupsById.put(actualGroup.getName(), actualGroup);
+            }
+        }
+        compareValue(diff, "GroupCount", expectedGroups.size(), actualGroups.size());
+
+        List<java.lang.String> groupPaths = groupPaths(expectedGroups);
+        for (int i = 0; i < expectedGroups.size(); i++) {
+            IMeasureReportAdapter.Group expectedGroup = expectedGroups.get(i);
+            java.lang.String path = groupPaths.get(i);
+            IMeasureReportAdapter.Group actualGroup = matchById ? actualGroupsById.get(expectedGroup.getName())
+                    : i < actualGroups.size() ? actualGroups.get(i) : null;
+            if (actualGroup == null) {
+                diff.compared();
+                diff.add(path + ".score", expectedGroup.getScore(), null);
+                continue;
+            }
+
+            compareScore(diff, path + ".score", expectedGroup.getScore(), actualGroup.getScore());
+            comparePopulations(diff, path, expectedGroup.getPopulations(), actualGroup.getPopulations());
+
+            for (IMeasureReportAdapter.Stratum expectedStratum : expectedGroup.getStrata().values()) {
+                java.lang.String stratumPath = path + ".stratifier[" + expectedStratum.getStratifier() + "].stratum[" + expectedStratum.getValue() + "]";
+                IMeasureReportAdapter.Stratum actualStratum = actualGroup.getStrata().get(expectedStratum.getKey());
+                if (actualStratum == null) {
+                    diff.compared();
+                    diff.add(stratumPath, "present", null);
+                    continue;
+                }
+                // An expected stratum without a score only asserts its population counts
+                if (expectedStratum.getScore() != null) {
+                    compareScore(diff, stratumPath + ".score", expectedStratum.getScore(), actualStratum.getScore());
                 }
+                comparePopulations(diff, stratumPath, expectedStratum.getPopulations(), actualStratum.getPopulations());
             }
-            addResultParameter("Group[" + expectedGroup.getName() + "].score", results, foundMatch);
-            overallPassFail = overallPassFail & foundMatch;
         }
 
-        //TODO: Compare group population scores
+        return diff;
+    }
 
-        parameter.setName(new String().withValue("Measure '" + expected.getMeasureId() + "' " + MeasureTestProcessor.TestPassedKey));
-        parameter.setValueBoolean(new org.hl7.fhir.Boolean().withValue(overallPassFail));
-        results.getParameter().add(parameter);
+    // Groups are reported by id (e.g. Group[group-1]) unless an id is missing or duplicated, then by position (Group[0])
+    private static List<java.lang.String> groupPaths(List<IMeasureReportAdapter.Group> groups) {
+        boolean byId = hasUniqueIds(groups);
+        List<java.lang.String> paths = new ArrayList<>(groups.size());
+        for (int i = 0; i < groups.size(); i++) {
+            paths.add("Group[" + (byId ? groups.get(i).getName() : java.lang.String.valueOf(i)) + "]");
+        }
+        return paths;
+    }
 
-        return results;
+    private static boolean hasUniqueIds(List<IMeasureReportAdapter.Group> groups) {
+        Set<java.lang.String> ids = new HashSet<>();
+        for (IMeasureReportAdapter.Group group : groups) {
+            if (group.getName() == null || group.getName().isEmpty() || !ids.add(group.getName())) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private boolean compareField(java.lang.String fieldName, java.lang.String actual, java.lang.String expected, Parameters results) {
-        boolean matches = actual.equals(expected);
-        addResultParameter(fieldName, results, matches);
+    private static void comparePopulations(MeasureReportDiff diff, java.lang.String path, Map<java.lang.String, Integer> expected, Map<java.lang.String, Integer> actual) {
+        for (Map.Entry<java.lang.String, Integer> population : expected.entrySet()) {
+            compareValue(diff, path + ".population[" + population.getKey() + "].count", population.getValue(), actual.get(population.getKey()));
+        }
+    }
 
-        return matches;
+    private static void compareValue(MeasureReportDiff diff, java.lang.String path, Object expected, Object actual) {
+        diff.compared();
+        if (!Objects.equals(expected, actual)) {
+            diff.add(path, expected, actual);
+        }
+    }
+
+    private static void compareScore(MeasureReportDiff diff, java.lang.String path, BigDecimal expected, BigDecimal actual) {
+        diff.compared();
+        boolean matches = expected == null || actual == null ? expected == actual : expected.compareTo(actual) == 0;
+        if (!matches) {
+            diff.add(path, expected, actual);
+        }
     }
 
     private void addResultParameter(java.lang.String fieldName, Parameters results, boolean passed) {
@@ -73,4 +164,4 @@ public class MeasureReportComparer {
         param.setValueBoolean(new org.hl7.fhir.Boolean().withValue(passed));
         results.getParameter().add(param);
     }
-}
\ No newline at end of file
+}
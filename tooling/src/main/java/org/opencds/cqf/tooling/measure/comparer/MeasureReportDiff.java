@@ -0,0 +1,81 @@
+package org.opencds.cqf.tooling.measure.comparer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The differences between an actual and an expected MeasureReport, as produced by {@link MeasureReportComparer#diff}.
+ * <p>
+ * Only the compared values that do not match are recorded, each with the path of the value in the report (e.g.
+ * Group[group-1].population[numerator].count) and the expected and actual values.
+ */
+public class MeasureReportDiff {
+
+    public static class Difference {
+        private final String path;
+        private final String expected;
+        private final String actual;
+
+        public Difference(String path, Object expected, Object actual) {
+            this.path = path;
+            this.expected = expected == null ? null : expected.toString();
+            this.actual = actual == null ? null : actual.toString();
+        }
+
+        public String getPath() { return path; }
+        public String getExpected() { return expected; }
+        public String getActual() { return actual; }
+
+        @Override
+        public String toString() {
+            return path + ": expected " + expected + ", actual " + actual;
+        }
+    }
+
+    private final List<Difference> differences = new ArrayList<>();
+    private final Set<String> paths = new HashSet<>();
+    private int comparisons;
+
+    void compared() {
+        comparisons++;
+    }
+
+    void add(String path, Object expected, Object actual) {
+        differences.add(new Difference(path, expected, actual));
+        paths.add(path);
+    }
+
+    public List<Difference> getDifferences() {
+        return Collections.unmodifiableList(differences);
+    }
+
+    /**
+     * @return The number of values compared, matching or not
+     */
+    public int getComparisons() {
+        return comparisons;
+    }
+
+    public boolean hasDifference(String path) {
+        return paths.contains(path);
+    }
+
+    public boolean isMatch() {
+        return differences.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        if (isMatch()) {
+            return String.format("%d value(s) matched", comparisons);
+        }
+        StringBuilder builder = new StringBuilder(String.format("%d of %d value(s) did not match", differences.size(), comparisons));
+        for (Difference difference : differences) {
+            builder.append(System.lineSeparator()).append("  ").append(difference);
+        }
+        return builder.toString();
+    }
+}
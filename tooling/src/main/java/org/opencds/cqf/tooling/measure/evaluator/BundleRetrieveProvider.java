@@ -0,0 +1,157 @@
+package org.opencds.cqf.tooling.measure.evaluator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseReference;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.opencds.cqf.cql.engine.model.ModelResolver;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveProvider;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
+import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
+
+import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.FhirTerser;
+
+/**
+ * Retrieves data from an in-memory set of resources, typically the resources of a test case bundle.
+ * <p>
+ * Resources are filtered by type, by context (e.g. the Patient they belong to) and by code or ValueSet membership.
+ * Date ranges are not applied: the content is compiled without date range optimization, so the engine never
+ * pushes a date filter down to the retrieve.
+ */
+public class BundleRetrieveProvider implements RetrieveProvider {
+
+    private final FhirContext fhirContext;
+    private final FhirTerser terser;
+    private final ModelResolver modelResolver;
+    private final TerminologyProvider terminologyProvider;
+    private final Map<String, List<IBaseResource>> resourcesByType = new HashMap<>();
+
+    public BundleRetrieveProvider(FhirContext fhirContext, ModelResolver modelResolver,
+            TerminologyProvider terminologyProvider, List<? extends IBaseResource> resources) {
+        this.fhirContext = fhirContext;
+        this.terser = fhirContext.newTerser();
+        this.modelResolver = modelResolver;
+        this.terminologyProvider = terminologyProvider;
+        for (IBaseResource resource : resources) {
+            resourcesByType.computeIfAbsent(resource.fhirType(), k -> new ArrayList<>()).add(resource);
+        }
+    }
+
+    @Override
+    public Iterable<Object> retrieve(String context, String contextPath, Object contextValue, String dataType,
+            String templateId, String codePath, Iterable<Code> codes, String valueSet, String datePath,
+            String dateLowPath, String dateHighPath, Interval dateRange) {
+        List<Object> results = new ArrayList<>();
+        for (IBaseResource resource : resourcesByType.getOrDefault(dataType, List.of())) {
+            if (isInContext(resource, contextPath, contextValue) && hasCode(resource, codePath, codes, valueSet)) {
+                results.add(resource);
+            }
+        }
+        return results;
+    }
+
+    private boolean isInContext(IBaseResource resource, String contextPath, Object contextValue) {
+        if (contextPath == null || contextValue == null) {
+            return true;
+        }
+
+        String contextId = toId(contextValue);
+        for (Object value : flatten(modelResolver.resolvePath(resource, contextPath))) {
+            if (Objects.equals(toId(value), contextId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasCode(IBaseResource resource, String codePath, Iterable<Code> codes, String valueSet) {
+        if (codePath == null || (codes == null && valueSet == null)) {
+            return true;
+        }
+
+        for (Code code : getCodes(modelResolver.resolvePath(resource, codePath))) {
+            if (codes != null) {
+                for (Code filterCode : codes) {
+                    if (Objects.equals(filterCode.getCode(), code.getCode())
+                            && (filterCode.getSystem() == null || Objects.equals(filterCode.getSystem(), code.getSystem()))) {
+                        return true;
+                    }
+                }
+            }
+            if (valueSet != null && terminologyProvider.in(code, new ValueSetInfo().withId(valueSet))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Code> getCodes(Object value) {
+        List<Code> codes = new ArrayList<>();
+        for (Object element : flatten(value)) {
+            if (element instanceof IPrimitiveType) {
+                codes.add(new Code().withCode(((IPrimitiveType<?>) element).getValueAsString()));
+                continue;
+            }
+            if (!(element instanceof IBase)) {
+                continue;
+            }
+            BaseRuntimeElementDefinition<?> definition = fhirContext.getElementDefinition(((IBase) element).getClass());
+            String typeName = definition == null ? null : definition.getName();
+            List<IBase> codings = "CodeableConcept".equals(typeName)
+                    ? terser.getValues((IBase) element, "coding")
+                    : "Coding".equals(typeName) ? List.of((IBase) element) : List.of();
+            for (IBase coding : codings) {
+                codes.add(new Code()
+                        .withSystem(terser.getSinglePrimitiveValueOrNull(coding, "system"))
+                        .withCode(terser.getSinglePrimitiveValueOrNull(coding, "code")));
+            }
+        }
+        return codes;
+    }
+
+    private static Iterable<?> flatten(Object value) {
+        if (value == null) {
+            return List.of();
+        }
+        if (value instanceof Iterable) {
+            return (Iterable<?>) value;
+        }
+        return List.of(value);
+    }
+
+    // Reduces a reference, id or context value to the logical id of the resource it identifies
+    private static String toId(Object value) {
+        String id;
+        if (value instanceof IBaseReference) {
+            id = ((IBaseReference) value).getReferenceElement().getIdPart();
+        }
+        else if (value instanceof IIdType) {
+            id = ((IIdType) value).getIdPart();
+        }
+        else if (value instanceof IPrimitiveType) {
+            id = ((IPrimitiveType<?>) value).getValueAsString();
+        }
+        else {
+            id = value == null ? null : value.toString();
+        }
+
+        if (id == null) {
+            return null;
+        }
+        if (id.startsWith("urn:uuid:")) {
+            return id.substring("urn:uuid:".length());
+        }
+        return id.contains("/") ? id.substring(id.lastIndexOf('/') + 1) : id;
+    }
+}
@@ -0,0 +1,150 @@
+package org.opencds.cqf.tooling.measure.evaluator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.terminology.CodeSystemInfo;
+import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
+import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.FhirTerser;
+
+/**
+ * Answers terminology requests from the ValueSet resources of a content bundle.
+ * <p>
+ * A ValueSet is expanded from its expansion if it has one, otherwise from the concepts (and included ValueSets)
+ * enumerated in its compose; intensional (filter based) includes can not be expanded without a terminology server
+ * and are skipped with a warning. Expansions are computed once and reused.
+ */
+public class BundleTerminologyProvider implements TerminologyProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(BundleTerminologyProvider.class);
+
+    private final FhirTerser terser;
+    private final Map<String, IBaseResource> valueSets = new HashMap<>();
+    private final Map<String, List<Code>> expansions = new HashMap<>();
+
+    public BundleTerminologyProvider(FhirContext fhirContext, List<? extends IBaseResource> valueSets) {
+        this.terser = fhirContext.newTerser();
+        for (IBaseResource valueSet : valueSets) {
+            String url = terser.getSinglePrimitiveValueOrNull(valueSet, "url");
+            if (url != null) {
+                this.valueSets.put(url, valueSet);
+            }
+            if (valueSet.getIdElement().hasIdPart()) {
+                this.valueSets.putIfAbsent(valueSet.getIdElement().getIdPart(), valueSet);
+            }
+        }
+    }
+
+    @Override
+    public boolean in(Code code, ValueSetInfo valueSet) {
+        for (Code member : expand(valueSet)) {
+            if (Objects.equals(member.getCode(), code.getCode())
+                    && (code.getSystem() == null || member.getSystem() == null || code.getSystem().equals(member.getSystem()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized Iterable<Code> expand(ValueSetInfo valueSet) {
+        return expand(valueSet.getId(), new HashSet<>());
+    }
+
+    @Override
+    public Code lookup(Code code, CodeSystemInfo codeSystem) {
+        // CodeSystems are not part of the content bundle, there is nothing to add to the code
+        return code;
+    }
+
+    private List<Code> expand(String url, Set<String> expanding) {
+        List<Code> expansion = expansions.get(url);
+        if (expansion != null) {
+            return expansion;
+        }
+
+        IBaseResource valueSet = resolve(url);
+        if (!expanding.add(url)) {
+            throw new IllegalArgumentException(String.format("ValueSet %s includes itself", url));
+        }
+
+        expansion = new ArrayList<>();
+        List<IBase> contains = terser.getValues(valueSet, "expansion.contains");
+        if (!contains.isEmpty()) {
+            addContains(contains, expansion);
+        }
+        else {
+            for (IBase include : terser.getValues(valueSet, "compose.include")) {
+                addInclude(url, include, expansion, expanding);
+            }
+        }
+
+        expansions.put(url, expansion);
+        return expansion;
+    }
+
+    private IBaseResource resolve(String url) {
+        IBaseResource valueSet = valueSets.get(url);
+        if (valueSet == null && url.contains("|")) {
+            valueSet = valueSets.get(url.substring(0, url.indexOf('|')));
+        }
+        if (valueSet == null && url.startsWith("urn:oid:")) {
+            valueSet = valueSets.get(url.substring("urn:oid:".length()));
+        }
+        if (valueSet == null && url.contains("/")) {
+            valueSet = valueSets.get(url.substring(url.lastIndexOf('/') + 1));
+        }
+        if (valueSet == null) {
+            throw new IllegalArgumentException(String.format("ValueSet %s is not in the content bundle", url));
+        }
+        return valueSet;
+    }
+
+    private void addContains(List<IBase> contains, List<Code> expansion) {
+        for (IBase contained : contains) {
+            String code = terser.getSinglePrimitiveValueOrNull(contained, "code");
+            if (code != null) {
+                expansion.add(new Code()
+                        .withSystem(terser.getSinglePrimitiveValueOrNull(contained, "system"))
+                        .withVersion(terser.getSinglePrimitiveValueOrNull(contained, "version"))
+                        .withCode(code)
+                        .withDisplay(terser.getSinglePrimitiveValueOrNull(contained, "display")));
+            }
+            addContains(terser.getValues(contained, "contains"), expansion);
+        }
+    }
+
+    private void addInclude(String url, IBase include, List<Code> expansion, Set<String> expanding) {
+        if (!terser.getValues(include, "filter").isEmpty()) {
+            logger.warn("ValueSet {} has a filter based include, which can not be expanded without a terminology server", url);
+            return;
+        }
+
+        String system = terser.getSinglePrimitiveValueOrNull(include, "system");
+        String version = terser.getSinglePrimitiveValueOrNull(include, "version");
+        for (IBase concept : terser.getValues(include, "concept")) {
+            expansion.add(new Code()
+                    .withSystem(system)
+                    .withVersion(version)
+                    .withCode(terser.getSinglePrimitiveValueOrNull(concept, "code"))
+                    .withDisplay(terser.getSinglePrimitiveValueOrNull(concept, "display")));
+        }
+        for (IBase includedValueSet : terser.getValues(include, "valueSet")) {
+            expansion.addAll(expand(((IPrimitiveType<?>) includedValueSet).getValueAsString(), expanding));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.opencds.cqf.tooling.measure.evaluator;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.cqframework.cql.cql2elm.LibrarySourceProvider;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.FhirTerser;
+
+/**
+ * Resolves CQL source from the text/cql content of the Library resources in a content bundle.
+ */
+public class ContentBundleLibrarySourceProvider implements LibrarySourceProvider {
+
+    private static class LibrarySource {
+        private final String name;
+        private final String version;
+        private final byte[] cql;
+
+        private LibrarySource(String name, String version, byte[] cql) {
+            this.name = name;
+            this.version = version;
+            this.cql = cql;
+        }
+    }
+
+    private final List<LibrarySource> sources = new ArrayList<>();
+
+    public ContentBundleLibrarySourceProvider(FhirContext fhirContext, List<? extends IBaseResource> libraries) {
+        FhirTerser terser = fhirContext.newTerser();
+        for (IBaseResource library : libraries) {
+            String name = terser.getSinglePrimitiveValueOrNull(library, "name");
+            if (name == null) {
+                continue;
+            }
+            String version = terser.getSinglePrimitiveValueOrNull(library, "version");
+            for (IBase attachment : terser.getValues(library, "content")) {
+                String data = terser.getSinglePrimitiveValueOrNull(attachment, "data");
+                if ("text/cql".equals(terser.getSinglePrimitiveValueOrNull(attachment, "contentType")) && data != null) {
+                    sources.add(new LibrarySource(name, version, Base64.getDecoder().decode(data)));
+                }
+            }
+        }
+    }
+
+    @Override
+    public InputStream getLibrarySource(VersionedIdentifier libraryIdentifier) {
+        for (LibrarySource source : sources) {
+            if (source.name.equals(libraryIdentifier.getId())
+                    && (libraryIdentifier.getVersion() == null || libraryIdentifier.getVersion().equals(source.version))) {
+                return new ByteArrayInputStream(source.cql);
+            }
+        }
+
+        // Not in the bundle, let the next provider resolve it (e.g. FHIRHelpers)
+        return null;
+    }
+}
@@ -0,0 +1,528 @@
+package org.opencds.cqf.tooling.measure.evaluator;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.cqframework.cql.cql2elm.CqlCompilerException;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.quick.FhirLibrarySourceProvider;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.opencds.cqf.cql.engine.data.CompositeDataProvider;
+import org.opencds.cqf.cql.engine.execution.CqlEngine;
+import org.opencds.cqf.cql.engine.execution.Environment;
+import org.opencds.cqf.cql.engine.execution.EvaluationResult;
+import org.opencds.cqf.cql.engine.execution.ExpressionResult;
+import org.opencds.cqf.cql.engine.fhir.model.Dstu3FhirModelResolver;
+import org.opencds.cqf.cql.engine.fhir.model.R4FhirModelResolver;
+import org.opencds.cqf.cql.engine.model.CachingModelResolverDecorator;
+import org.opencds.cqf.cql.engine.model.ModelResolver;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.tooling.utilities.CanonicalUtils;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.util.BundleUtil;
+import ca.uhn.fhir.util.FhirTerser;
+
+/**
+ * Evaluates the Measures of a content bundle in process, using the CQL engine rather than a FHIR server.
+ * <p>
+ * The CQL of the Libraries in the content bundle is compiled once, when the evaluator is created, and every
+ * subsequent evaluation runs the compiled primary library of the Measure against the resources of a test case
+ * bundle, with terminology answered from the ValueSets of the content bundle. Each evaluation produces an
+ * individual MeasureReport for the patient, with the population counts of each group, for proportion and ratio
+ * measures the group score, and the stratum of the patient for each stratifier of the group.
+ * <p>
+ * Only patient-based stratifiers (a criteria expression with a single value for the patient) are supported;
+ * Measures with measure observations (continuous variable scoring) or component stratifiers can not be
+ * evaluated in process and are refused with the reason.
+ * <p>
+ * Evaluations are independent of each other (each uses its own engine and data provider), so an evaluator can be
+ * shared by the test cases of a Measure, including concurrently. The LibraryManager caching the compiled libraries
+ * is not safe for concurrent use, so each evaluating thread compiles the libraries once into a LibraryManager of
+ * its own. DSTU3 and R4 content is supported.
+ */
+public class CqlMeasureEvaluator {
+
+    public static final String MEASUREMENT_PERIOD = "Measurement Period";
+
+    private static final String FHIR_MODEL_URI = "http://hl7.org/fhir";
+    private static final String R4_POPULATION_SYSTEM = "http://terminology.hl7.org/CodeSystem/measure-population";
+    private static final String DSTU3_POPULATION_SYSTEM = "http://hl7.org/fhir/measure-population";
+
+    private static class PopulationCriteria {
+        private final String code;
+        private final String expression;
+
+        private PopulationCriteria(String code, String expression) {
+            this.code = code;
+            this.expression = expression;
+        }
+    }
+
+    private static class StratifierCriteria {
+        private final String id;
+        private final String expression;
+
+        private StratifierCriteria(String id, String expression) {
+            this.id = id;
+            this.expression = expression;
+        }
+    }
+
+    private static class GroupCriteria {
+        private final String id;
+        private final List<PopulationCriteria> populations = new ArrayList<>();
+        private final List<StratifierCriteria> stratifiers = new ArrayList<>();
+
+        private GroupCriteria(String id) {
+            this.id = id;
+        }
+    }
+
+    private static class MeasureCriteria {
+        private final String id;
+        private final String scoring;
+        private final String libraryReference;
+        private final List<GroupCriteria> groups = new ArrayList<>();
+        private VersionedIdentifier libraryIdentifier;
+        private String compilationErrors;
+        // why the Measure can not be evaluated in process, if it can not
+        private String unsupported;
+
+        private MeasureCriteria(String id, String scoring, String libraryReference) {
+            this.id = id;
+            this.scoring = scoring;
+            this.libraryReference = libraryReference;
+        }
+    }
+
+    private static class GroupResult {
+        private final String id;
+        private final Map<String, Integer> counts = new LinkedHashMap<>();
+        private BigDecimal score;
+        // the stratum value of the patient, by stratifier id
+        private final Map<String, String> strata = new LinkedHashMap<>();
+
+        private GroupResult(String id) {
+            this.id = id;
+        }
+    }
+
+    private final FhirContext fhirContext;
+    private final ThreadLocal<LibraryManager> libraryManager;
+    private final BundleTerminologyProvider terminologyProvider;
+    private final Map<String, MeasureCriteria> measures = new HashMap<>();
+
+    public CqlMeasureEvaluator(FhirContext fhirContext, IBaseBundle contentBundle) {
+        this.fhirContext = Objects.requireNonNull(fhirContext, "fhirContext can not be null.");
+        Objects.requireNonNull(contentBundle, "contentBundle can not be null.");
+
+        FhirVersionEnum version = fhirContext.getVersion().getVersion();
+        if (version != FhirVersionEnum.DSTU3 && version != FhirVersionEnum.R4) {
+            throw new IllegalArgumentException("Unsupported or unknown fhir version: " + version.getFhirVersionString());
+        }
+
+        List<IBaseResource> resources = BundleUtil.toListOfResources(fhirContext, contentBundle);
+        List<IBaseResource> libraries = ofType(resources, "Library");
+
+        this.libraryManager = ThreadLocal.withInitial(() -> {
+            LibraryManager manager = new LibraryManager(new ModelManager());
+            manager.getLibrarySourceLoader().registerProvider(new ContentBundleLibrarySourceProvider(fhirContext, libraries));
+            manager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+            return manager;
+        });
+        this.terminologyProvider = new BundleTerminologyProvider(fhirContext, ofType(resources, "ValueSet"));
+
+        for (IBaseResource measure : ofType(resources, "Measure")) {
+            MeasureCriteria criteria = version == FhirVersionEnum.R4
+                    ? readR4Measure((org.hl7.fhir.r4.model.Measure) measure)
+                    : readDstu3Measure((org.hl7.fhir.dstu3.model.Measure) measure);
+            checkSupported(criteria);
+            compile(criteria, libraries);
+            measures.put(criteria.id, criteria);
+        }
+    }
+
+    /**
+     * Evaluates the Measure for the patient against the resources of the test case bundle. Any MeasureReports in
+     * the bundle (the expected results of the test case) are not part of the data.
+     *
+     * @return An individual MeasureReport of the FHIR version of the evaluator
+     */
+    public IBaseResource evaluate(String measureId, String patientId, Date periodStart, Date periodEnd, IBaseBundle testBundle) {
+        MeasureCriteria measure = measures.get(measureId);
+        if (measure == null) {
+            throw new IllegalArgumentException(String.format("Measure %s is not in the content bundle", measureId));
+        }
+        if (measure.unsupported != null) {
+            throw new IllegalArgumentException(String.format("Measure %s can not be evaluated in process: %s", measureId, measure.unsupported));
+        }
+        if (measure.compilationErrors != null) {
+            throw new IllegalArgumentException(String.format("Measure %s library could not be compiled: %s", measureId, measure.compilationErrors));
+        }
+
+        List<IBaseResource> data = BundleUtil.toListOfResources(fhirContext, testBundle).stream()
+                .filter(resource -> !"MeasureReport".equals(resource.fhirType()))
+                .collect(Collectors.toList());
+        ModelResolver modelResolver = new CachingModelResolverDecorator(
+                fhirContext.getVersion().getVersion() == FhirVersionEnum.R4 ? new R4FhirModelResolver() : new Dstu3FhirModelResolver());
+        CompositeDataProvider dataProvider = new CompositeDataProvider(modelResolver,
+                new BundleRetrieveProvider(fhirContext, modelResolver, terminologyProvider, data));
+        CqlEngine engine = new CqlEngine(new Environment(libraryManager.get(), Map.of(FHIR_MODEL_URI, dataProvider), terminologyProvider));
+
+        Set<String> expressions = new LinkedHashSet<>();
+        for (GroupCriteria group : measure.groups) {
+            for (PopulationCriteria population : group.populations) {
+                if (population.expression != null) {
+                    expressions.add(population.expression);
+                }
+            }
+            for (StratifierCriteria stratifier : group.stratifiers) {
+                expressions.add(stratifier.expression);
+            }
+        }
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put(MEASUREMENT_PERIOD, getMeasurementPeriod(periodStart, periodEnd));
+        EvaluationResult result = engine.evaluate(measure.libraryIdentifier, expressions, Pair.<String, Object>of("Patient", patientId), parameters);
+
+        List<GroupResult> groups = new ArrayList<>();
+        for (GroupCriteria group : measure.groups) {
+            GroupResult groupResult = score(measure.scoring, group, result, patientId);
+            for (StratifierCriteria stratifier : group.stratifiers) {
+                String value = getStratumValue(measureId, stratifier, result.forExpression(stratifier.expression));
+                if (value != null) {
+                    groupResult.strata.put(stratifier.id, value);
+                }
+            }
+            groups.add(groupResult);
+        }
+
+        return fhirContext.getVersion().getVersion() == FhirVersionEnum.R4
+                ? buildR4MeasureReport(measure.id, patientId, periodStart, periodEnd, groups)
+                : buildDstu3MeasureReport(measure.id, patientId, periodStart, periodEnd, groups);
+    }
+
+    private static void checkSupported(MeasureCriteria measure) {
+        for (GroupCriteria group : measure.groups) {
+            for (PopulationCriteria population : group.populations) {
+                if ("measure-observation".equals(population.code)) {
+                    measure.unsupported = "measure observations (continuous variable scoring) are not supported";
+                }
+            }
+        }
+    }
+
+    private void compile(MeasureCriteria measure, List<IBaseResource> libraries) {
+        if (measure.libraryReference == null) {
+            measure.compilationErrors = "the Measure does not reference a Library";
+            return;
+        }
+
+        List<CqlCompilerException> errors = new ArrayList<>();
+        try {
+            measure.libraryIdentifier = resolveLibraryIdentifier(measure.libraryReference, libraries);
+            libraryManager.get().resolveLibrary(measure.libraryIdentifier, errors);
+        }
+        catch (Exception e) {
+            measure.compilationErrors = e.getMessage();
+            return;
+        }
+
+        List<String> messages = errors.stream()
+                .filter(e -> e.getSeverity() == CqlCompilerException.ErrorSeverity.Error)
+                .map(CqlCompilerException::getMessage)
+                .collect(Collectors.toList());
+        if (!messages.isEmpty()) {
+            measure.compilationErrors = String.join("; ", messages);
+        }
+    }
+
+    // The CQL library identifier (name and version) of the Library the Measure references by canonical or reference
+    private VersionedIdentifier resolveLibraryIdentifier(String libraryReference, List<IBaseResource> libraries) {
+        String url = libraryReference.contains("|") ? libraryReference.substring(0, libraryReference.indexOf('|')) : libraryReference;
+        String id = url.substring(url.lastIndexOf('/') + 1);
+        FhirTerser terser = fhirContext.newTerser();
+        for (IBaseResource library : libraries) {
+            String libraryUrl = terser.getSinglePrimitiveValueOrNull(library, "url");
+            if (url.equals(libraryUrl) || id.equals(library.getIdElement().getIdPart())) {
+                String name = terser.getSinglePrimitiveValueOrNull(library, "name");
+                if (name != null) {
+                    return new VersionedIdentifier().withId(name)
+                            .withVersion(terser.getSinglePrimitiveValueOrNull(library, "version"));
+                }
+            }
+        }
+
+        return url.contains("/Library/")
+                ? CanonicalUtils.toVersionedIdentifier(libraryReference)
+                : new VersionedIdentifier().withId(id);
+    }
+
+    private MeasureCriteria readR4Measure(org.hl7.fhir.r4.model.Measure measure) {
+        MeasureCriteria criteria = new MeasureCriteria(measure.getIdElement().getIdPart(),
+                measure.getScoring().getCodingFirstRep().getCode(),
+                measure.hasLibrary() ? measure.getLibrary().get(0).getValue() : null);
+        for (org.hl7.fhir.r4.model.Measure.MeasureGroupComponent group : measure.getGroup()) {
+            GroupCriteria groupCriteria = new GroupCriteria(group.getId());
+            for (org.hl7.fhir.r4.model.Measure.MeasureGroupPopulationComponent population : group.getPopulation()) {
+                groupCriteria.populations.add(new PopulationCriteria(population.getCode().getCodingFirstRep().getCode(),
+                        population.getCriteria().getExpression()));
+            }
+            for (org.hl7.fhir.r4.model.Measure.MeasureGroupStratifierComponent stratifier : group.getStratifier()) {
+                String id = stratifier.getId() != null ? stratifier.getId() : stratifier.getCode().getCodingFirstRep().getCode();
+                if (stratifier.hasComponent() || !stratifier.getCriteria().hasExpression()) {
+                    criteria.unsupported = String.format("stratifier %s is not a single criteria expression", id);
+                }
+                groupCriteria.stratifiers.add(new StratifierCriteria(id, stratifier.getCriteria().getExpression()));
+            }
+            criteria.groups.add(groupCriteria);
+        }
+        return criteria;
+    }
+
+    private MeasureCriteria readDstu3Measure(org.hl7.fhir.dstu3.model.Measure measure) {
+        MeasureCriteria criteria = new MeasureCriteria(measure.getIdElement().getIdPart(),
+                measure.getScoring().getCodingFirstRep().getCode(),
+                measure.hasLibrary() ? measure.getLibrary().get(0).getReference() : null);
+        for (org.hl7.fhir.dstu3.model.Measure.MeasureGroupComponent group : measure.getGroup()) {
+            GroupCriteria groupCriteria = new GroupCriteria(group.getId() != null ? group.getId() : group.getIdentifier().getValue());
+            for (org.hl7.fhir.dstu3.model.Measure.MeasureGroupPopulationComponent population : group.getPopulation()) {
+                groupCriteria.populations.add(new PopulationCriteria(population.getCode().getCodingFirstRep().getCode(),
+                        population.getCriteria()));
+            }
+            for (org.hl7.fhir.dstu3.model.Measure.MeasureGroupStratifierComponent stratifier : group.getStratifier()) {
+                String id = stratifier.getId() != null ? stratifier.getId() : stratifier.getIdentifier().getValue();
+                if (stratifier.getCriteria() == null) {
+                    criteria.unsupported = String.format("stratifier %s is not a criteria expression", id);
+                }
+                groupCriteria.stratifiers.add(new StratifierCriteria(id, stratifier.getCriteria()));
+            }
+            criteria.groups.add(groupCriteria);
+        }
+        return criteria;
+    }
+
+    // The calendar days of the reporting period, from the start of the first to the end of the last
+    private static Interval getMeasurementPeriod(Date periodStart, Date periodEnd) {
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate start = periodStart.toInstant().atZone(zone).toLocalDate();
+        LocalDate end = periodEnd.toInstant().atZone(zone).toLocalDate();
+        return new Interval(
+                new DateTime(start.atStartOfDay(zone).toOffsetDateTime()), true,
+                new DateTime(end.atTime(23, 59, 59, 999_000_000).atZone(zone).toOffsetDateTime()), true);
+    }
+
+    private static GroupResult score(String scoring, GroupCriteria group, EvaluationResult result, String patientId) {
+        Map<String, Set<Object>> members = new HashMap<>();
+        for (PopulationCriteria population : group.populations) {
+            ExpressionResult expressionResult = population.expression == null ? null : result.forExpression(population.expression);
+            members.put(population.code, toMembers(expressionResult == null ? null : expressionResult.value(), patientId));
+        }
+
+        Set<Object> initialPopulation = members.getOrDefault("initial-population", Set.of());
+        Set<Object> denominator = retain(members.get("denominator"), initialPopulation);
+        Set<Object> denominatorExclusion = retain(members.get("denominator-exclusion"), denominator);
+        Set<Object> numerator;
+        Set<Object> denominatorException = Set.of();
+        if ("ratio".equals(scoring)) {
+            numerator = retain(members.get("numerator"), initialPopulation);
+        }
+        else {
+            numerator = retain(members.get("numerator"), denominator);
+            numerator.removeAll(denominatorExclusion);
+            denominatorException = retain(members.get("denominator-exception"), denominator);
+            denominatorException.removeAll(denominatorExclusion);
+            denominatorException.removeAll(numerator);
+        }
+        Set<Object> numeratorExclusion = retain(members.get("numerator-exclusion"), numerator);
+        Set<Object> measurePopulation = retain(members.get("measure-population"), initialPopulation);
+        Set<Object> measurePopulationExclusion = retain(members.get("measure-population-exclusion"), measurePopulation);
+
+        Map<String, Set<Object>> populations = new HashMap<>();
+        populations.put("initial-population", initialPopulation);
+        populations.put("denominator", denominator);
+        populations.put("denominator-exclusion", denominatorExclusion);
+        populations.put("denominator-exception", denominatorException);
+        populations.put("numerator", numerator);
+        populations.put("numerator-exclusion", numeratorExclusion);
+        populations.put("measure-population", measurePopulation);
+        populations.put("measure-population-exclusion", measurePopulationExclusion);
+
+        GroupResult groupResult = new GroupResult(group.id);
+        for (PopulationCriteria population : group.populations) {
+            groupResult.counts.put(population.code, populations.getOrDefault(population.code, members.get(population.code)).size());
+        }
+
+        if ("proportion".equals(scoring) || "ratio".equals(scoring)) {
+            int scoredNumerator = numerator.size() - numeratorExclusion.size();
+            int scoredDenominator = denominator.size() - denominatorExclusion.size() - denominatorException.size();
+            if (scoredDenominator > 0) {
+                groupResult.score = BigDecimal.valueOf(scoredNumerator)
+                        .divide(BigDecimal.valueOf(scoredDenominator), MathContext.DECIMAL64);
+            }
+        }
+        return groupResult;
+    }
+
+    // The stratum of the patient: the value of the stratifier criteria as a code or text, or null for no value
+    private static String getStratumValue(String measureId, StratifierCriteria stratifier, ExpressionResult expressionResult) {
+        Object value = expressionResult == null ? null : expressionResult.value();
+        if (value instanceof Iterable) {
+            throw new IllegalArgumentException(String.format(
+                    "Measure %s can not be evaluated in process: stratifier %s is not patient-based", measureId, stratifier.id));
+        }
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Code) {
+            return ((Code) value).getCode();
+        }
+        if (value instanceof org.hl7.fhir.r4.model.Coding) {
+            return ((org.hl7.fhir.r4.model.Coding) value).getCode();
+        }
+        if (value instanceof org.hl7.fhir.r4.model.CodeableConcept) {
+            return ((org.hl7.fhir.r4.model.CodeableConcept) value).getCodingFirstRep().getCode();
+        }
+        if (value instanceof org.hl7.fhir.dstu3.model.Coding) {
+            return ((org.hl7.fhir.dstu3.model.Coding) value).getCode();
+        }
+        if (value instanceof org.hl7.fhir.dstu3.model.CodeableConcept) {
+            return ((org.hl7.fhir.dstu3.model.CodeableConcept) value).getCodingFirstRep().getCode();
+        }
+        if (value instanceof IPrimitiveType) {
+            return ((IPrimitiveType<?>) value).getValueAsString();
+        }
+        return value.toString();
+    }
+
+    // The subjects (patient) or items (episodes) in a population: a boolean criteria is the patient, a list its items
+    private static Set<Object> toMembers(Object value, String patientId) {
+        Set<Object> members = new LinkedHashSet<>();
+        if (value instanceof Boolean) {
+            if ((Boolean) value) {
+                members.add(patientId);
+            }
+        }
+        else if (value instanceof Iterable) {
+            for (Object item : (Iterable<?>) value) {
+                members.add(item);
+            }
+        }
+        else if (value != null) {
+            members.add(value);
+        }
+        return members;
+    }
+
+    private static Set<Object> retain(Collection<Object> population, Set<Object> within) {
+        Set<Object> retained = new LinkedHashSet<>();
+        if (population != null) {
+            retained.addAll(population);
+            retained.retainAll(within);
+        }
+        return retained;
+    }
+
+    private static List<IBaseResource> ofType(List<IBaseResource> resources, String resourceType) {
+        return resources.stream().filter(resource -> resourceType.equals(resource.fhirType())).collect(Collectors.toList());
+    }
+
+    private static IBaseResource buildR4MeasureReport(String measureId, String patientId, Date periodStart, Date periodEnd, List<GroupResult> groups) {
+        org.hl7.fhir.r4.model.MeasureReport report = new org.hl7.fhir.r4.model.MeasureReport();
+        report.setStatus(org.hl7.fhir.r4.model.MeasureReport.MeasureReportStatus.COMPLETE);
+        report.setType(org.hl7.fhir.r4.model.MeasureReport.MeasureReportType.INDIVIDUAL);
+        report.setMeasure("Measure/" + measureId);
+        report.setSubject(new org.hl7.fhir.r4.model.Reference("Patient/" + patientId));
+        report.setPeriod(new org.hl7.fhir.r4.model.Period().setStart(periodStart).setEnd(periodEnd));
+        for (GroupResult group : groups) {
+            org.hl7.fhir.r4.model.MeasureReport.MeasureReportGroupComponent reportGroup = report.addGroup();
+            reportGroup.setId(group.id);
+            for (Map.Entry<String, Integer> count : group.counts.entrySet()) {
+                reportGroup.addPopulation()
+                        .setCode(new org.hl7.fhir.r4.model.CodeableConcept(
+                                new org.hl7.fhir.r4.model.Coding(R4_POPULATION_SYSTEM, count.getKey(), null)))
+                        .setCount(count.getValue());
+            }
+            if (group.score != null) {
+                reportGroup.setMeasureScore(new org.hl7.fhir.r4.model.Quantity().setValue(group.score));
+            }
+            // an individual report has the one stratum of the patient, with the populations of the group
+            for (Map.Entry<String, String> stratum : group.strata.entrySet()) {
+                org.hl7.fhir.r4.model.MeasureReport.MeasureReportGroupStratifierComponent reportStratifier = reportGroup.addStratifier();
+                reportStratifier.setId(stratum.getKey());
+                org.hl7.fhir.r4.model.MeasureReport.StratifierGroupComponent reportStratum = reportStratifier.addStratum();
+                reportStratum.setValue(new org.hl7.fhir.r4.model.CodeableConcept().setText(stratum.getValue()));
+                for (Map.Entry<String, Integer> count : group.counts.entrySet()) {
+                    reportStratum.addPopulation()
+                            .setCode(new org.hl7.fhir.r4.model.CodeableConcept(
+                                    new org.hl7.fhir.r4.model.Coding(R4_POPULATION_SYSTEM, count.getKey(), null)))
+                            .setCount(count.getValue());
+                }
+                if (group.score != null) {
+                    reportStratum.setMeasureScore(new org.hl7.fhir.r4.model.Quantity().setValue(group.score));
+                }
+            }
+        }
+        return report;
+    }
+
+    private static IBaseResource buildDstu3MeasureReport(String measureId, String patientId, Date periodStart, Date periodEnd, List<GroupResult> groups) {
+        org.hl7.fhir.dstu3.model.MeasureReport report = new org.hl7.fhir.dstu3.model.MeasureReport();
+        report.setStatus(org.hl7.fhir.dstu3.model.MeasureReport.MeasureReportStatus.COMPLETE);
+        report.setType(org.hl7.fhir.dstu3.model.MeasureReport.MeasureReportType.INDIVIDUAL);
+        report.setMeasure(new org.hl7.fhir.dstu3.model.Reference("Measure/" + measureId));
+        report.setPatient(new org.hl7.fhir.dstu3.model.Reference("Patient/" + patientId));
+        report.setPeriod(new org.hl7.fhir.dstu3.model.Period().setStart(periodStart).setEnd(periodEnd));
+        for (GroupResult group : groups) {
+            org.hl7.fhir.dstu3.model.MeasureReport.MeasureReportGroupComponent reportGroup = report.addGroup();
+            reportGroup.setId(group.id);
+            reportGroup.setIdentifier(new org.hl7.fhir.dstu3.model.Identifier().setValue(group.id));
+            for (Map.Entry<String, Integer> count : group.counts.entrySet()) {
+                org.hl7.fhir.dstu3.model.CodeableConcept code = new org.hl7.fhir.dstu3.model.CodeableConcept();
+                code.addCoding().setSystem(DSTU3_POPULATION_SYSTEM).setCode(count.getKey());
+                reportGroup.addPopulation().setCode(code).setCount(count.getValue());
+            }
+            if (group.score != null) {
+                reportGroup.setMeasureScore(group.score);
+            }
+            for (Map.Entry<String, String> stratum : group.strata.entrySet()) {
+                org.hl7.fhir.dstu3.model.MeasureReport.MeasureReportGroupStratifierComponent reportStratifier = reportGroup.addStratifier();
+                reportStratifier.setId(stratum.getKey());
+                reportStratifier.setIdentifier(new org.hl7.fhir.dstu3.model.Identifier().setValue(stratum.getKey()));
+                org.hl7.fhir.dstu3.model.MeasureReport.StratifierGroupComponent reportStratum = reportStratifier.addStratum();
+                reportStratum.setValue(stratum.getValue());
+                for (Map.Entry<String, Integer> count : group.counts.entrySet()) {
+                    org.hl7.fhir.dstu3.model.CodeableConcept code = new org.hl7.fhir.dstu3.model.CodeableConcept();
+                    code.addCoding().setSystem(DSTU3_POPULATION_SYSTEM).setCode(count.getKey());
+                    reportStratum.addPopulation().setCode(code).setCount(count.getValue());
+                }
+                if (group.score != null) {
+                    reportStratum.setMeasureScore(group.score);
+                }
+            }
+        }
+        return report;
+    }
+}
@@ -1,16 +1,13 @@
 package org.opencds.cqf.tooling.npm;
 
 import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 
 import org.hl7.cql.model.ModelIdentifier;
 import org.hl7.cql.model.ModelInfoProvider;
-import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 import org.hl7.fhir.r5.context.IWorkerContext;
-import org.hl7.fhir.r5.model.Library;
 import org.hl7.fhir.utilities.npm.NpmPackage;
 
 import jakarta.xml.bind.JAXB;
@@ -21,49 +18,30 @@ import jakarta.xml.bind.JAXB;
 public class NpmModelInfoProvider implements ModelInfoProvider {
 
     public NpmModelInfoProvider(List<NpmPackage> packages, ILibraryReader reader, IWorkerContext.ILoggingService logger) {
-        this.packages = packages;
-        this.reader = reader;
-        this.logger = logger;
+        this(new NpmPackageIndex(packages, reader, logger));
     }
 
-    private List<NpmPackage> packages;
-    private ILibraryReader reader;
-    private IWorkerContext.ILoggingService logger;
+    /**
+     * @param packageIndex The index of the packages, shared with the other providers for the same packages
+     */
+    public NpmModelInfoProvider(NpmPackageIndex packageIndex) {
+        this.packageIndex = packageIndex;
+    }
+
+    private NpmPackageIndex packageIndex;
 
     public ModelInfo load(ModelIdentifier modelIdentifier) {
         // VersionedIdentifier.id: Name of the model
         // VersionedIdentifier.system: Namespace for the model, as a URL
         // VersionedIdentifier.version: Version of the model
-        for (NpmPackage p : packages) {
-            try {
-                VersionedIdentifier identifier = new VersionedIdentifier()
-                        .withId(modelIdentifier.getId())
-                        .withVersion(modelIdentifier.getVersion())
-                        .withSystem(modelIdentifier.getSystem());
-
-                if (identifier.getSystem() == null) {
-                    identifier.setSystem(p.canonical());
-                }
-
-                InputStream s = p.loadByCanonicalVersion(identifier.getSystem()+"/Library/"+identifier.getId()+"-ModelInfo", identifier.getVersion());
-                if (s != null) {
-                    Library l = reader.readLibrary(s);
-                    for (org.hl7.fhir.r5.model.Attachment a : l.getContent()) {
-                        if (a.getContentType() != null && a.getContentType().equals("application/xml")) {
-                            if (modelIdentifier.getSystem() == null) {
-                                modelIdentifier.setSystem(identifier.getSystem());
-                            }
-                            InputStream is = new ByteArrayInputStream(a.getData());
-                            return JAXB.unmarshal(is, ModelInfo.class);
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                logger.logDebugMessage(IWorkerContext.ILoggingService.LogCategory.PROGRESS, String.format("Exceptions occurred attempting to load npm library for model %s", modelIdentifier.toString()));
-            }
+        NpmPackageIndex.Entry entry = packageIndex.getModelInfo(modelIdentifier.getSystem(), modelIdentifier.getId(), modelIdentifier.getVersion());
+        if (entry == null) {
+            return null;
         }
-
-        return null;
+        if (modelIdentifier.getSystem() == null) {
+            modelIdentifier.setSystem(entry.getSystem());
+        }
+        InputStream is = new ByteArrayInputStream(entry.getContent());
+        return JAXB.unmarshal(is, ModelInfo.class);
     }
 }
-
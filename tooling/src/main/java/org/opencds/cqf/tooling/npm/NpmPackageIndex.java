@@ -0,0 +1,129 @@
+package org.opencds.cqf.tooling.npm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.model.Library;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.opencds.cqf.tooling.utilities.cache.BoundedResourceCache;
+import org.opencds.cqf.tooling.utilities.cache.CacheStatistics;
+import org.opencds.cqf.tooling.utilities.cache.ResourceCache;
+
+/**
+ * Resolves CQL library source and ModelInfo content from a list of Npm packages, remembering the result of each
+ * lookup.
+ * <p>
+ * Resolving content means finding the Library in each package by canonical url and version, parsing it and
+ * decoding its attachments. The index does this on the first request for a canonical|version only, and keeps
+ * the decoded content (or the fact that no package has it) in a bounded least-recently-used cache, so libraries
+ * included by many others (e.g. FHIRHelpers) are resolved once per run. One index should be shared by all the
+ * providers created for the same packages.
+ * <p>
+ * The cache is limited to cqf.tooling.cache.npm.maxEntries entries (default 1000) and
+ * cqf.tooling.cache.npm.maxWeight bytes of content (default 64 MiB).
+ */
+public class NpmPackageIndex {
+    public static final String MAX_ENTRIES_PROPERTY = "cqf.tooling.cache.npm.maxEntries";
+    public static final String MAX_WEIGHT_PROPERTY = "cqf.tooling.cache.npm.maxWeight";
+
+    private static final String CQL_CONTENT_TYPE = "text/cql";
+    private static final String MODEL_INFO_CONTENT_TYPE = "application/xml";
+
+    /**
+     * Content resolved from a package, or the absence of it.
+     */
+    public static class Entry {
+        private static final Entry MISSING = new Entry(null, null);
+
+        private final String system;
+        private final byte[] content;
+
+        Entry(String system, byte[] content) {
+            this.system = system;
+            this.content = content;
+        }
+
+        /**
+         * @return The namespace (canonical base) the content was found in
+         */
+        public String getSystem() {
+            return system;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        boolean isMissing() {
+            return content == null;
+        }
+    }
+
+    private final List<NpmPackage> packages;
+    private final ILibraryReader reader;
+    private final IWorkerContext.ILoggingService logger;
+    private final ResourceCache<String, Entry> entries;
+
+    public NpmPackageIndex(List<NpmPackage> packages, ILibraryReader reader, IWorkerContext.ILoggingService logger) {
+        this.packages = packages;
+        this.reader = reader;
+        this.logger = logger;
+        this.entries = BoundedResourceCache.<String, Entry>builder("npm")
+                .maximumSize(Long.getLong(MAX_ENTRIES_PROPERTY, 1_000L))
+                .maximumWeight(Long.getLong(MAX_WEIGHT_PROPERTY, 64L * 1024 * 1024))
+                .weigher((key, entry) -> entry.isMissing() ? 1L : entry.getContent().length)
+                .build();
+    }
+
+    /**
+     * @param system The namespace of the library, or null to search the canonical base of each package
+     * @param id The name of the library
+     * @param version The version of the library, or null for any version
+     * @return The CQL source of the library, or null if no package has it
+     */
+    public Entry getLibrarySource(String system, String id, String version) {
+        return get("Library", system, id, version, CQL_CONTENT_TYPE);
+    }
+
+    /**
+     * @param system The namespace of the model, or null to search the canonical base of each package
+     * @param id The name of the model
+     * @param version The version of the model, or null for any version
+     * @return The ModelInfo XML of the model, or null if no package has it
+     */
+    public Entry getModelInfo(String system, String id, String version) {
+        return get("ModelInfo", system, id + "-ModelInfo", version, MODEL_INFO_CONTENT_TYPE);
+    }
+
+    public CacheStatistics getStatistics() {
+        return entries.getStatistics();
+    }
+
+    private Entry get(String kind, String system, String libraryId, String version, String contentType) {
+        String key = kind + "|" + (system == null ? "" : system) + "/Library/" + libraryId + "|" + (version == null ? "" : version);
+        Entry entry = entries.get(key, k -> resolve(kind, system, libraryId, version, contentType));
+        return entry.isMissing() ? null : entry;
+    }
+
+    private Entry resolve(String kind, String system, String libraryId, String version, String contentType) {
+        for (NpmPackage p : packages) {
+            String librarySystem = system != null ? system : p.canonical();
+            try (InputStream s = p.loadByCanonicalVersion(librarySystem + "/Library/" + libraryId, version)) {
+                if (s != null) {
+                    Library l = reader.readLibrary(s);
+                    for (org.hl7.fhir.r5.model.Attachment a : l.getContent()) {
+                        if (a.getContentType() != null && a.getContentType().equals(contentType)) {
+                            return new Entry(librarySystem, a.getData());
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                logger.logDebugMessage(IWorkerContext.ILoggingService.LogCategory.PROGRESS, String.format("Exceptions occurred attempting to load npm %s %s from %s",
+                        kind, libraryId, p.name()));
+            }
+        }
+        return Entry.MISSING;
+    }
+}
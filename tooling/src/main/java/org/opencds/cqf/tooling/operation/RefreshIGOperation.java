@@ -34,8 +34,8 @@ public class RefreshIGOperation extends Operation {
         MeasureProcessor measureProcessor = new MeasureProcessor();
         LibraryProcessor libraryProcessor = new LibraryProcessor();
         CDSHooksProcessor cdsHooksProcessor = new CDSHooksProcessor();
-        PlanDefinitionProcessor planDefinitionProcessor = new PlanDefinitionProcessor(libraryProcessor, cdsHooksProcessor);
-        QuestionnaireProcessor questionnaireProcessor = new QuestionnaireProcessor(libraryProcessor);
+        PlanDefinitionProcessor planDefinitionProcessor = new PlanDefinitionProcessor(cdsHooksProcessor);
+        QuestionnaireProcessor questionnaireProcessor = new QuestionnaireProcessor();
         IGBundleProcessor igBundleProcessor = new IGBundleProcessor(measureProcessor, planDefinitionProcessor, questionnaireProcessor);
         IGProcessor processor = new IGProcessor(igBundleProcessor, libraryProcessor, measureProcessor);
         processor.publishIG(params);
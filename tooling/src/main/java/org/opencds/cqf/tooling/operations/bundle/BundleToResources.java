@@ -1,5 +1,6 @@
 package org.opencds.cqf.tooling.operations.bundle;
 
+import java.io.File;
 import java.util.List;
 
 import org.hl7.fhir.instance.model.api.IBaseBundle;
@@ -9,6 +10,7 @@ import org.opencds.cqf.tooling.operations.Operation;
 import org.opencds.cqf.tooling.operations.OperationParam;
 import org.opencds.cqf.tooling.utilities.FhirContextCache;
 import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.StreamingBundleReader;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.util.BundleUtil;
@@ -33,18 +35,11 @@ public class BundleToResources implements ExecutableOperation {
     @Override
     public void execute() {
         FhirContext context = FhirContextCache.getContext(version);
-        IBaseResource possibleBundle = IOUtils.readResource(pathToBundle, context, true);
-        if (possibleBundle == null) {
-            throw new IllegalArgumentException("Could not find Bundle at path: " + pathToBundle);
-        }
-        if (possibleBundle instanceof IBaseBundle) {
-            IOUtils.writeResources(bundleToResources(context, (IBaseBundle) possibleBundle),
-                    outputPath == null ? pathToBundle : outputPath,
-                    IOUtils.Encoding.parse(encoding), context);
-        }
-        else {
-            throw new IllegalArgumentException("Expected a Bundle, found " + possibleBundle.fhirType());
-        }
+        IOUtils.Encoding outputEncoding = IOUtils.Encoding.parse(encoding);
+        // each resource is written as it is read, the Bundle is never loaded as a whole
+        String outputDirectory = outputPath == null ? new File(pathToBundle).getAbsoluteFile().getParent() : outputPath;
+        StreamingBundleReader.forEachResource(pathToBundle, context,
+                resource -> IOUtils.writeResource(resource, outputDirectory, outputEncoding, context));
     }
 
     public static List<IBaseResource> bundleToResources(@Nonnull FhirContext fhirContext, @Nonnull IBaseBundle bundle) {
@@ -15,6 +15,7 @@ import org.opencds.cqf.tooling.operations.Operation;
 import org.opencds.cqf.tooling.operations.OperationParam;
 import org.opencds.cqf.tooling.utilities.FhirContextCache;
 import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.StreamingBundleReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,17 +51,20 @@ public class ExtractMatBundle implements ExecutableOperation {
    @Override
    public void execute() {
       fhirContext = FhirContextCache.getContext(version);
-      IBaseResource bundle = IOUtils.readResource(pathToBundle, fhirContext);
       if (outputPath == null) {
          outputPath = new File(pathToBundle).getParent();
       }
-      if (bundle instanceof IBaseBundle) {
-         processBundle((IBaseBundle) bundle);
-      } else if (bundle == null) {
-         logger.error("Unable to read Bundle resource at {}", pathToBundle);
-      } else {
-         String type = bundle.fhirType();
-         logger.error("Expected a Bundle resource, found {}", type);
+      // MAT exports can be very large, so each entry is extracted as it is read rather than loading the Bundle
+      FhirTerser terser = new FhirTerser(fhirContext);
+      try {
+         StreamingBundleReader.forEachResource(pathToBundle, fhirContext, resource -> {
+            if (resourcesPath == null) {
+               createDirectoryStructure();
+            }
+            migrateResource(resource, terser);
+         });
+      } catch (IllegalArgumentException e) {
+         logger.error("Unable to read Bundle resource at {}: {}", pathToBundle, e.getMessage());
       }
    }
 
@@ -96,17 +100,21 @@ public class ExtractMatBundle implements ExecutableOperation {
    private void migrateResources(List<IBaseResource> resources) {
       FhirTerser terser = new FhirTerser(fhirContext);
       for (IBaseResource resource : resources) {
-         if (resource.fhirType().equalsIgnoreCase("measure")
-                 && Boolean.TRUE.equals(suppressNarrative)) {
-            ResourceUtil.removeNarrative(fhirContext, resource);
-         }
-         if (resource.fhirType().equalsIgnoreCase("library")) {
-            extractLibrary(resource, terser);
-         } else if (resource.fhirType().equalsIgnoreCase("measure")) {
-            extractMeasure(resource, terser);
-         } else {
-            IOUtils.writeResource(resource, resourcesPath.toString(), IOUtils.Encoding.valueOf(encoding), fhirContext);
-         }
+         migrateResource(resource, terser);
+      }
+   }
+
+   private void migrateResource(IBaseResource resource, FhirTerser terser) {
+      if (resource.fhirType().equalsIgnoreCase("measure")
+              && Boolean.TRUE.equals(suppressNarrative)) {
+         ResourceUtil.removeNarrative(fhirContext, resource);
+      }
+      if (resource.fhirType().equalsIgnoreCase("library")) {
+         extractLibrary(resource, terser);
+      } else if (resource.fhirType().equalsIgnoreCase("measure")) {
+         extractMeasure(resource, terser);
+      } else {
+         IOUtils.writeResource(resource, resourcesPath.toString(), IOUtils.Encoding.valueOf(encoding), fhirContext);
       }
    }
 
@@ -0,0 +1,88 @@
+package org.opencds.cqf.tooling.operations.measure;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.opencds.cqf.tooling.measure.comparer.MeasureReportBatchComparer;
+import org.opencds.cqf.tooling.operations.ExecutableOperation;
+import org.opencds.cqf.tooling.operations.Operation;
+import org.opencds.cqf.tooling.operations.OperationParam;
+import org.opencds.cqf.tooling.utilities.FhirContextCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@Operation(name = "CompareMeasureReports")
+public class CompareMeasureReports implements ExecutableOperation {
+   private static final Logger logger = LoggerFactory.getLogger(CompareMeasureReports.class);
+
+   @OperationParam(alias = { "ep", "expectedpath" }, setter = "setExpectedPath", required = true,
+           description = "Path to the directory of expected MeasureReports, or Bundles containing them (required).")
+   private String expectedPath;
+   @OperationParam(alias = { "ap", "actualpath" }, setter = "setActualPath", required = true,
+           description = "Path to the directory of actual MeasureReports, with the same file layout as the expected directory (required).")
+   private String actualPath;
+   @OperationParam(alias = { "v", "version" }, setter = "setVersion", defaultValue = "r4",
+           description = "FHIR version { stu3, r4 } (default r4)")
+   private String version;
+   @OperationParam(alias = { "op", "outputpath" }, setter = "setOutputPath",
+           description = "The directory path to which the JSON comparison report should be written (default is to only log the differences)")
+   private String outputPath;
+
+   @Override
+   public void execute() {
+      MeasureReportBatchComparer comparer = new MeasureReportBatchComparer(FhirContextCache.getContext(version));
+      SortedMap<String, MeasureReportBatchComparer.Result> results = comparer.compareDirectories(Paths.get(expectedPath), Paths.get(actualPath));
+
+      int matched = 0;
+      for (Map.Entry<String, MeasureReportBatchComparer.Result> result : results.entrySet()) {
+         if (result.getValue().isMatch()) {
+            matched++;
+         } else if (result.getValue().getError() != null) {
+            logger.error("{}: {}", result.getKey(), result.getValue().getError());
+         } else {
+            logger.warn("{}: {}", result.getKey(), result.getValue().getDiff());
+         }
+      }
+      logger.info("{} of {} MeasureReport(s) matched", matched, results.size());
+
+      if (outputPath != null) {
+         Path reportPath = Paths.get(outputPath, MeasureReportBatchComparer.JSON_FILE_NAME);
+         comparer.writeJson(reportPath);
+         logger.info("Comparison report written to {}", reportPath);
+      }
+   }
+
+   public String getExpectedPath() {
+      return expectedPath;
+   }
+
+   public void setExpectedPath(String expectedPath) {
+      this.expectedPath = expectedPath;
+   }
+
+   public String getActualPath() {
+      return actualPath;
+   }
+
+   public void setActualPath(String actualPath) {
+      this.actualPath = actualPath;
+   }
+
+   public String getVersion() {
+      return version;
+   }
+
+   public void setVersion(String version) {
+      this.version = version;
+   }
+
+   public String getOutputPath() {
+      return outputPath;
+   }
+
+   public void setOutputPath(String outputPath) {
+      this.outputPath = outputPath;
+   }
+}
@@ -2,11 +2,10 @@ package org.opencds.cqf.tooling.operations.stripcontent;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.Set;
 
@@ -35,8 +34,9 @@ import ca.uhn.fhir.parser.IParser;
  * extensions added by the tooling, related artifacts that are auto detected from the CQL,
  * contained resources added by the tooling, and ELM generated from the CQL.
  * 
- * This class converts the resource to its R5 equivalent, strips the content, and then converts
- * back to the original FHIR version.
+ * Domain resources are stripped in their own FHIR version by a {@link NativeContentStripper}. Other
+ * resources, or all resources when ContentStripperOptions.convertToR5 is set, are converted to their R5
+ * equivalent, stripped, and then converted back to the original FHIR version.
  * 
  * The T parameter is used to specify the version of the Resource base class to use for the operation
  * and conversions.
@@ -44,9 +44,24 @@ import ca.uhn.fhir.parser.IParser;
 abstract class BaseContentStripper<T extends IAnyResource> implements ContentStripper {
     protected abstract FhirContext context();
 
+    private NativeContentStripper nativeStripper;
+
+    protected synchronized NativeContentStripper nativeStripper() {
+        if (nativeStripper == null) {
+            nativeStripper = new NativeContentStripper(context());
+        }
+        return nativeStripper;
+    }
+
     public void stripFile(File inputFile, File outputFile, ContentStripperOptions options) {
         var resource = parseResource(inputFile);
 
+        if (!options.convertToR5() && nativeStripper().supports(resource)) {
+            nativeStripper().stripResource(resource, outputFile, options);
+            writeResource(outputFile, resource);
+            return;
+        }
+
         var upgraded = convertToR5Resource(context(), resource);
         stripResource(upgraded, outputFile, options);
 
@@ -55,18 +70,23 @@ abstract class BaseContentStripper<T extends IAnyResource> implements ContentStr
         writeResource(outputFile, downgraded);
     }
 
-    protected void writeContent(File f, String content) {
-        if (!f.getParentFile().exists()) {
-            f.getParentFile().mkdirs();
-        }
+    protected static void writeContent(File f, String content) {
+        ensureParent(f);
 
-        try (var writer = new BufferedWriter(new FileWriter(f))) {
+        try (var writer = Files.newBufferedWriter(f.toPath(), StandardCharsets.UTF_8)) {
             writer.write(content);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private static void ensureParent(File f) {
+        if (!f.getParentFile().exists()) {
+            // may race with other workers creating the same directory, so the result is not checked
+            f.getParentFile().mkdirs();
+        }
+    }
+
     protected IParser parserForFile(File file) {
         if (file.getName().endsWith(".json")) {
             return context().newJsonParser();
@@ -79,7 +99,7 @@ abstract class BaseContentStripper<T extends IAnyResource> implements ContentStr
 
     protected IBaseResource parseResource(File file) {
         var parser = parserForFile(file);
-        try (var reader = new FileReader(file)) {
+        try (var reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
             return parser.parseResource(reader);
         }
         catch (IOException | DataFormatException e) {
@@ -87,10 +107,15 @@ abstract class BaseContentStripper<T extends IAnyResource> implements ContentStr
         }
     }
 
+    // Encodes directly to the file rather than building the whole document as a String first
     protected void writeResource(File file, IBaseResource resource) {
         var parser = parserForFile(file).setPrettyPrint(true);
-        var output = parser.encodeResourceToString(resource);
-        writeContent(file, output);
+        ensureParent(file);
+        try (var writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            parser.encodeResourceToWriter(resource, writer);
+        } catch (IOException | DataFormatException e) {
+            throw new RuntimeException(String.format("Error writing file %s", file.getName()), e);
+        }
     }
 
     // Output file is required because the CQL export functionality requires knowledge of the library
@@ -173,22 +198,37 @@ abstract class BaseContentStripper<T extends IAnyResource> implements ContentStr
     }
 
     private void exportCql(Attachment content, String libraryName, File libraryFile, File cqlExportDirectory) {
-        checkNotNull(libraryName, "libraryName must be provided");
-        if (content.getData() == null || cqlExportDirectory == null) {
+        if (content.getData() == null) {
             return;
         }
 
+        var url = exportCql(content.getDataElement().getValueAsString(), libraryName, libraryFile, cqlExportDirectory);
+        if (url != null) {
+            content.setUrl(url);
+            content.setDataElement(null);
+        }
+    }
+
+    /**
+     * Writes the base64 encoded CQL content of a Library to a .cql file named after the library.
+     *
+     * @return The url of the exported file relative to the library file, or null if there is nothing to export
+     */
+    static String exportCql(String base64, String libraryName, File libraryFile, File cqlExportDirectory) {
+        checkNotNull(libraryName, "libraryName must be provided");
+        if (base64 == null || cqlExportDirectory == null) {
+            return null;
+        }
+
         // CQL content is encoded as base64, so we need to decode it
         // to get back to the original CQL.
-        var base64 = content.getDataElement().getValueAsString();
         var cql = new String(java.util.Base64.getDecoder().decode(base64));
 
         var cqlFileName = libraryName + ".cql";
         var cqlFile = cqlExportDirectory.toPath().resolve(cqlFileName).toFile();
 
-        content.setUrl(libraryFile.toPath().relativize(cqlFile.toPath()).toString());
-        content.setDataElement(null);
         writeContent(cqlFile, cql);
+        return libraryFile.toPath().relativize(cqlFile.toPath()).toString();
     }
 
     private void exportCql(List<Attachment> content, String libraryName, File libraryOutputFile, File cqlExportDirectory) {
@@ -58,5 +58,16 @@ class ContentStripperOptions {
         this.strippedExtensionUrls = strippedExtensionUrls;
         return this;
     }
+
+    // Strip every resource through the R5 conversion, rather than domain resources in their own version
+    private boolean convertToR5 = false;
+    public boolean convertToR5() {
+        return this.convertToR5;
+    }
+
+    public ContentStripperOptions convertToR5(boolean convertToR5) {
+        this.convertToR5 = convertToR5;
+        return this;
+    }
   
 }
\ No newline at end of file
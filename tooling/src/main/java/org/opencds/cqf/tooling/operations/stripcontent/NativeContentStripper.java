@@ -0,0 +1,137 @@
+package org.opencds.cqf.tooling.operations.stripcontent;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IDomainResource;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.FhirTerser;
+
+/**
+ * Strips autogenerated content from a resource in its own FHIR version, using the element definitions of the
+ * FhirContext rather than the model classes of a particular version.
+ * <p>
+ * This removes the same content as the R5 based stripping in BaseContentStripper (narrative, the tooling
+ * extensions, the CQL options Parameters, depends-on related artifacts, Library parameters and data requirements,
+ * ELM content, and exports the CQL), without converting the resource to R5 and back. It applies to domain
+ * resources only.
+ */
+class NativeContentStripper {
+    private final FhirContext context;
+    private final FhirTerser terser;
+
+    NativeContentStripper(FhirContext context) {
+        this.context = context;
+        this.terser = context.newTerser();
+    }
+
+    boolean supports(IBaseResource resource) {
+        return resource instanceof IDomainResource;
+    }
+
+    void stripResource(IBaseResource resource, File outputFile, ContentStripperOptions options) {
+        switch (resource.fhirType()) {
+            case "Library":
+                stripLibrary(resource, outputFile, options);
+                break;
+            case "Measure":
+            case "PlanDefinition":
+            case "Questionnaire":
+                stripDomainResource(resource, options);
+                filterRelatedArtifacts(resource);
+                break;
+            default:
+                stripDomainResource(resource, options);
+        }
+    }
+
+    private void stripDomainResource(IBaseResource resource, ContentStripperOptions options) {
+        clearChild(resource, "text");
+        filterChild(resource, "extension",
+                x -> !options.strippedExtensionUrls().contains(terser.getSinglePrimitiveValueOrNull(x, "url")));
+        filterChild(resource, "contained", x -> !isCqlOptionsParameters(x));
+    }
+
+    private void stripLibrary(IBaseResource library, File libraryFile, ContentStripperOptions options) {
+        stripDomainResource(library, options);
+        clearChild(library, "parameter");
+        clearChild(library, "dataRequirement");
+        filterRelatedArtifacts(library);
+        filterChild(library, "content",
+                x -> !options.strippedContentTypes().contains(terser.getSinglePrimitiveValueOrNull(x, "contentType")));
+        exportCql(library, libraryFile, options.cqlExportDirectory());
+    }
+
+    private boolean isCqlOptionsParameters(IBase contained) {
+        if (!(contained instanceof IBaseResource) || !"Parameters".equals(((IBaseResource) contained).fhirType())) {
+            return false;
+        }
+        String id = ((IBaseResource) contained).getIdElement().getIdPart();
+        return "options".equals(id) || "#options".equals(id);
+    }
+
+    private void filterRelatedArtifacts(IBaseResource resource) {
+        filterChild(resource, "relatedArtifact", x -> !"depends-on".equals(terser.getSinglePrimitiveValueOrNull(x, "type")));
+    }
+
+    private void exportCql(IBaseResource library, File libraryFile, File cqlExportDirectory) {
+        if (cqlExportDirectory == null) {
+            return;
+        }
+        String libraryName = terser.getSinglePrimitiveValueOrNull(library, "name");
+        for (IBase attachment : terser.getValues(library, "content")) {
+            if (!ContentStripperOptions.CQL_CONTENT_TYPE.equals(terser.getSinglePrimitiveValueOrNull(attachment, "contentType"))) {
+                continue;
+            }
+            String url = BaseContentStripper.exportCql(terser.getSinglePrimitiveValueOrNull(attachment, "data"),
+                    libraryName, libraryFile, cqlExportDirectory);
+            if (url != null) {
+                terser.setElement(attachment, "url", url);
+                clearChild(attachment, "data");
+            }
+        }
+    }
+
+    private BaseRuntimeChildDefinition getChild(IBase element, String name) {
+        var definition = element instanceof IBaseResource
+                ? context.getResourceDefinition((IBaseResource) element)
+                : (BaseRuntimeElementCompositeDefinition<?>) context.getElementDefinition(element.getClass());
+        return definition == null ? null : definition.getChildByName(name);
+    }
+
+    private void clearChild(IBase element, String name) {
+        var child = getChild(element, name);
+        if (child != null) {
+            child.getMutator().setValue(element, null);
+        }
+    }
+
+    // Keeps the values of the child that match the filter, in order
+    private void filterChild(IBase element, String name, Predicate<IBase> keep) {
+        var child = getChild(element, name);
+        if (child == null) {
+            return;
+        }
+        List<IBase> values = child.getAccessor().getValues(element);
+        List<IBase> kept = new ArrayList<>();
+        for (IBase value : values) {
+            if (keep.test(value)) {
+                kept.add(value);
+            }
+        }
+        if (kept.size() == values.size()) {
+            return;
+        }
+        child.getMutator().setValue(element, null);
+        for (IBase value : kept) {
+            child.getMutator().addValue(element, value);
+        }
+    }
+}
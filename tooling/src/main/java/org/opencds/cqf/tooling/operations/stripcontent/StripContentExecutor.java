@@ -1,9 +1,18 @@
 package org.opencds.cqf.tooling.operations.stripcontent;
 
 import java.io.File;
-import java.util.Collection;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
 
-import org.apache.commons.io.FileUtils;
+import org.opencds.cqf.tooling.common.TaskExecutor;
+import org.opencds.cqf.tooling.common.TaskReport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkArgument;
@@ -12,9 +21,13 @@ import ca.uhn.fhir.context.FhirVersionEnum;
 /**
  * This class executes the StripContent command line operation. It picks the correct version
  * of a ContentStripper based on the FHIR version specified in the command line arguments. It then
- * iterates over all the files in the input directory and runs the stripFile method on each file.
+ * walks the input directory (and its subdirectories) and runs the stripFile method on each file,
+ * on the shared {@link TaskExecutor} (see -threads=N). Each file is written to the output directory with the same
+ * file name; files with the same name in different subdirectories are written one after the other, the last
+ * one stripped replacing the others.
  */
 public class StripContentExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(StripContentExecutor.class);
 
     private FhirVersionEnum versionEnum;
     private File inputDirectory;
@@ -32,16 +45,62 @@ public class StripContentExecutor {
     }
 
     public void execute() {
-        var files = listResourceFiles(inputDirectory);
         var contentStripper = createContentStripper();
         var options = createContentStripperOptions();
-        for (File file : files) {
-            // Keep the same filename, but change the directory to the output directory
-            var outputFile = outputDirectory.toPath().resolve(file.getName()).toFile();
-            contentStripper.stripFile(file, outputFile, options);
+        // one lock per output file, so input files with the same name are not written concurrently
+        var outputLocks = new HashMap<Path, Object>();
+        TaskReport report;
+        try (Stream<Path> paths = Files.walk(inputDirectory.toPath())) {
+            Iterator<Path> files = paths.filter(Files::isRegularFile).filter(this::isResourceFile).iterator();
+            Iterator<Callable<Void>> tasks = new Iterator<Callable<Void>>() {
+                @Override
+                public boolean hasNext() {
+                    return files.hasNext();
+                }
+
+                @Override
+                public Callable<Void> next() {
+                    var file = files.next();
+                    // Keep the same filename, but change the directory to the output directory
+                    var outputFile = outputDirectory.toPath().resolve(file.getFileName().toString());
+                    if (outputLocks.containsKey(outputFile)) {
+                        logger.warn("{} has the same name as another input file, {} will be replaced", file, outputFile);
+                    }
+                    var lock = outputLocks.computeIfAbsent(outputFile, path -> new Object());
+                    return () -> {
+                        try {
+                            synchronized (lock) {
+                                contentStripper.stripFile(file.toFile(), outputFile.toFile(), options);
+                            }
+                        } catch (RuntimeException e) {
+                            logger.error("Unable to strip {}: {}", file, e.getMessage());
+                            throw e;
+                        }
+                        return null;
+                    };
+                }
+            };
+            report = TaskExecutor.getShared().execute("StripContent", tasks, false);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read " + inputDirectory + ": " + e.getMessage(), e);
+        }
+
+        logger.debug("{}", report);
+        if (!report.getCancelled().isEmpty()) {
+            throw new RuntimeException("Interrupted while stripping " + inputDirectory);
+        }
+        if (!report.getFailures().isEmpty()) {
+            Throwable firstFailure = report.getFailures().get(0).getFailure();
+            throw new RuntimeException(String.format("Unable to strip %d file(s), the first failure was: %s",
+                    report.getFailures().size(), firstFailure.getMessage()), firstFailure);
         }
     }
 
+    private boolean isResourceFile(Path path) {
+        var name = path.getFileName().toString();
+        return name.endsWith(".json") || name.endsWith(".xml");
+    }
+
     private ContentStripperOptions createContentStripperOptions() {
         var cqlExportFile = this.cqlExportDirectory != null ? new File(this.cqlExportDirectory) : null;
         return ContentStripperOptions.defaultOptions().cqlExportDirectory(cqlExportFile);
@@ -69,10 +128,6 @@ public class StripContentExecutor {
         return directory;
     }
 
-    private Collection<File> listResourceFiles(File file) {
-        return FileUtils.listFiles(file, new String[] { "json", "xml"}, true);
-    }
-
     private FhirVersionEnum versionForString(String version) {
         if (version == null) {
             return FhirVersionEnum.R4;
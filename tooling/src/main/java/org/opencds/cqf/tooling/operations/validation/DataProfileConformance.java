@@ -4,7 +4,6 @@ import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.support.DefaultProfileValidationSupport;
 import ca.uhn.fhir.util.BundleUtil;
 import ca.uhn.fhir.util.ExtensionUtil;
-import ca.uhn.fhir.util.FhirTerser;
 import ca.uhn.fhir.util.TerserUtil;
 import ca.uhn.fhir.validation.FhirValidator;
 import ca.uhn.fhir.validation.ValidationOptions;
@@ -19,6 +18,8 @@ import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseOperationOutcome;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.opencds.cqf.tooling.common.TaskExecutor;
+import org.opencds.cqf.tooling.common.TaskReport;
 import org.opencds.cqf.tooling.constants.Validation;
 import org.opencds.cqf.tooling.operations.ExecutableOperation;
 import org.opencds.cqf.tooling.operations.Operation;
@@ -30,13 +31,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Operation(name = "ProfileConformance")
 public class DataProfileConformance implements ExecutableOperation {
@@ -59,20 +72,27 @@ public class DataProfileConformance implements ExecutableOperation {
            description = "The directory path to which the FHIR OperationOutcome should be written (default is to replace existing resources within the IG)")
    private String outputPath;
 
+   @OperationParam(alias = { "t", "threads" }, setter = "setThreads",
+           description = "The number of resources validated concurrently, up to the parallelism of the shared executor set with -threads=N (default is that parallelism)")
+   private Integer threads;
+
    private FhirContext fhirContext;
-   private FhirValidator validator;
+   // validators are taken from the pool for each validation and returned when it completes
+   private BlockingQueue<FhirValidator> validators;
+   private ValidationSummary summary;
 
    @Override
    public void execute() {
       fhirContext = FhirContextCache.getContext(version);
       setGeneralValidator();
-      IBaseBundle patientDataBundle;
+      IOUtils.Encoding outputEncoding = IOUtils.Encoding.parse(encoding);
+      Consumer<IBaseResource> writer = resource -> IOUtils.writeResource(resource, outputPath, outputEncoding, fhirContext);
       if (IOUtils.isDirectory(pathToPatientData)) {
-         patientDataBundle = IOUtils.bundleResourcesInDirectory(pathToPatientData, fhirContext, true);
+         validateDirectory(pathToPatientData, writer);
       } else {
          IBaseResource bundle = IOUtils.readResource(pathToPatientData, fhirContext);
          if (bundle instanceof IBaseBundle) {
-            patientDataBundle = (IBaseBundle) bundle;
+            validateResources(toTasks(BundleUtil.toListOfResources(fhirContext, (IBaseBundle) bundle)), writer);
          } else {
             String invalidType = bundle.fhirType();
             logger.error("Expected a bundle resource at path {}, found {}", pathToPatientData, invalidType);
@@ -80,31 +100,132 @@ public class DataProfileConformance implements ExecutableOperation {
          }
       }
 
-      IOUtils.writeResources(validatePatientData(patientDataBundle), outputPath, IOUtils.Encoding.valueOf(encoding), fhirContext);
+      logger.info("{}", summary);
+      if (outputPath != null) {
+         summary.write(Paths.get(outputPath, ValidationSummary.FILE_NAME));
+      }
    }
 
+   /**
+    * Validates the resources in the bundle and tags each invalid resource with its validation result.
+    *
+    * @return The resources of the bundle, in bundle order
+    */
    public List<IBaseResource> validatePatientData(IBaseBundle patientData) {
-      List<IBaseResource> validatedResources = new ArrayList<>();
+      List<IBaseResource> patientDataResources = BundleUtil.toListOfResources(fhirContext, patientData);
+      validateResources(toTasks(patientDataResources), resource -> { });
+      return patientDataResources;
+   }
+
+   /**
+    * Validates the resources in the files of the directory (and its subdirectories). Files are read as they are
+    * needed rather than bundled up front, and each resource is handed to the sink as soon as it is validated.
+    */
+   public ValidationSummary validateDirectory(String directoryPath, Consumer<IBaseResource> sink) {
+      try (Stream<Path> paths = Files.walk(Paths.get(directoryPath))) {
+         Iterator<Callable<IBaseResource>> tasks = paths.filter(Files::isRegularFile)
+                 .filter(path -> {
+                    IOUtils.Encoding fileEncoding = IOUtils.getEncoding(path.toString());
+                    return fileEncoding == IOUtils.Encoding.JSON || fileEncoding == IOUtils.Encoding.XML;
+                 })
+                 .map(path -> (Callable<IBaseResource>) () -> readPatientData(path))
+                 .iterator();
+         return validateResources(tasks, sink);
+      } catch (IOException e) {
+         throw new RuntimeException("Unable to read patient data from " + directoryPath + ": " + e.getMessage(), e);
+      }
+   }
 
-      for (var patientDataResource : BundleUtil.toListOfResources(fhirContext, patientData)) {
-         ValidationOptions options = new ValidationOptions();
-         String resourceType = patientDataResource.fhirType();
-         if (profileMap.containsKey(resourceType)) {
-            profileMap.get(patientDataResource.fhirType()).forEach(options::addProfile);
+   /**
+    * Validates the resources on the shared {@link TaskExecutor}, with up to {@code threads} validations in flight.
+    * Each task supplies a resource (e.g. by parsing a file) on the validation thread; the resource is then validated
+    * with a validator from the pool, tagged with the result if it is invalid, recorded in the
+    * {@link ValidationSummary} and handed to the sink.
+    *
+    * @return The summary of the results, also available from {@link #getSummary()}
+    */
+   public ValidationSummary validateResources(Iterator<? extends Callable<IBaseResource>> tasks, Consumer<IBaseResource> sink) {
+      ValidationSummary results = new ValidationSummary();
+      summary = results;
+      Iterator<Callable<Void>> validations = new Iterator<Callable<Void>>() {
+         @Override
+         public boolean hasNext() {
+            return tasks.hasNext();
          }
-         ValidationResult result = validator.validateWithResult(patientDataResource, options);
-         if (!result.isSuccessful()) {
-            logger.warn("Validation errors found for {}/{} : {}", resourceType,
-                    patientDataResource.getIdElement().getIdPart(), result.getMessages());
-            tagResourceWithValidationResult(patientDataResource, result);
-         } else {
-            logger.info("Validation successful for {}/{}", resourceType, patientDataResource.getIdElement().getIdPart());
+
+         @Override
+         public Callable<Void> next() {
+            Callable<IBaseResource> task = tasks.next();
+            return () -> {
+               IBaseResource resource = task.call();
+               if (resource != null) {
+                  validateResource(resource, results);
+                  writeResource(resource, sink);
+               }
+               return null;
+            };
          }
-         validatedResources.add(patientDataResource);
+      };
+
+      TaskReport report = TaskExecutor.getShared().execute("ProfileConformance", validations, false);
+      for (TaskReport.TaskResult failure : report.getFailures()) {
+         results.recordFailure();
+         logger.warn("Unable to validate resource: {}", failure.getFailure().getMessage());
       }
+      if (!report.getCancelled().isEmpty()) {
+         logger.warn("Validation interrupted");
+      }
+      logger.debug("{}", report);
+      return results;
+   }
 
-      return validatedResources;
+   // the resource is already recorded in the summary, so a sink failure is only reported
+   private static void writeResource(IBaseResource resource, Consumer<IBaseResource> sink) {
+      try {
+         sink.accept(resource);
+      } catch (RuntimeException e) {
+         logger.warn("Unable to write validated resource {}/{}: {}", resource.fhirType(),
+                 resource.getIdElement().getIdPart(), e.getMessage());
+      }
    }
+
+   private void validateResource(IBaseResource resource, ValidationSummary results) throws InterruptedException {
+      String resourceType = resource.fhirType();
+      List<String> profiles = profileMap.getOrDefault(resourceType, Collections.emptyList());
+      ValidationOptions options = new ValidationOptions();
+      profiles.forEach(options::addProfile);
+
+      ValidationResult result;
+      FhirValidator validator = validators.take();
+      try {
+         result = validator.validateWithResult(resource, options);
+      } finally {
+         validators.put(validator);
+      }
+
+      results.record(resourceType, profiles, result);
+      if (!result.isSuccessful()) {
+         logger.warn("Validation errors found for {}/{} : {}", resourceType,
+                 resource.getIdElement().getIdPart(), result.getMessages());
+         tagResourceWithValidationResult(resource, result);
+      } else {
+         logger.debug("Validation successful for {}/{}", resourceType, resource.getIdElement().getIdPart());
+      }
+   }
+
+   // parsed directly rather than through IOUtils.readResource so the patient data is not held in the resource cache
+   private IBaseResource readPatientData(Path path) {
+      try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+         return IOUtils.getParser(IOUtils.getEncoding(path.toString()), fhirContext).parseResource(reader);
+      } catch (IOException | RuntimeException e) {
+         throw new RuntimeException(String.format("Error reading resource from path %s: %s", path, e.getMessage()), e);
+      }
+   }
+
+   private static Iterator<Callable<IBaseResource>> toTasks(List<IBaseResource> resources) {
+      return resources.stream().map(resource -> (Callable<IBaseResource>) () -> resource).iterator();
+   }
+
    private void tagResourceWithValidationResult(IBaseResource resource, ValidationResult result) {
       String id = UUID.randomUUID().toString();
 
@@ -117,11 +238,17 @@ public class DataProfileConformance implements ExecutableOperation {
       TerserUtil.setField(fhirContext, "contained", resource, outcome);
    }
 
+   /**
+    * Creates a pool of validators, one per validation thread. The validators share a single
+    * CachingValidationSupport chain, so the packages are loaded and the snapshots, code system lookups and
+    * terminology validations are cached once for all of them.
+    */
    public void setGeneralValidator() {
       NpmUtils.PackageLoaderValidationSupport validationSupport =
               NpmUtils.getNpmPackageLoaderValidationSupport(fhirContext, getPackageUrlsList());
 
-      populateProfileMap(validationSupport.fetchAllNonBaseStructureDefinitions());
+      // read from the package index, so the StructureDefinitions are only parsed when they are used for validation
+      populateProfileMap(validationSupport.getNonBaseStructureDefinitionTypes());
 
       ValidationSupportChain supportChain = new ValidationSupportChain(validationSupport,
               new CommonCodeSystemsTerminologyService(fhirContext),
@@ -130,25 +257,27 @@ public class DataProfileConformance implements ExecutableOperation {
               new SnapshotGeneratingValidationSupport(fhirContext));
 
       CachingValidationSupport cachingValidationSupport = new CachingValidationSupport(supportChain);
-      validator = fhirContext.newValidator();
-      validator.setValidateAgainstStandardSchema(false);
-      validator.setValidateAgainstStandardSchematron(false);
-      FhirInstanceValidator instanceValidator = new FhirInstanceValidator(cachingValidationSupport);
-      validator.registerValidatorModule(instanceValidator);
+      int poolSize = getThreadCount();
+      validators = new ArrayBlockingQueue<>(poolSize);
+      for (int i = 0; i < poolSize; i++) {
+         FhirValidator validator = fhirContext.newValidator();
+         validator.setValidateAgainstStandardSchema(false);
+         validator.setValidateAgainstStandardSchematron(false);
+         FhirInstanceValidator instanceValidator = new FhirInstanceValidator(cachingValidationSupport);
+         validator.registerValidatorModule(instanceValidator);
+         validators.add(validator);
+      }
    }
 
    private final Map<String, List<String>> profileMap = new HashMap<>();
-   private void populateProfileMap(List<IBaseResource> structureDefinitions) {
-      if (structureDefinitions != null) {
-         FhirTerser terser = new FhirTerser(fhirContext);
-         for (var structureDefinition : structureDefinitions) {
-            String type = terser.getSinglePrimitiveValueOrNull(structureDefinition, "type");
-            String url = terser.getSinglePrimitiveValueOrNull(structureDefinition, "url");
-            if (type != null && url != null) {
-               profileMap.putIfAbsent(type, new ArrayList<>());
-               if (!profileMap.get(type).contains(url)) {
-                  profileMap.get(type).add(url);
-               }
+   private void populateProfileMap(Map<String, String> structureDefinitionTypes) {
+      if (structureDefinitionTypes != null) {
+         for (var structureDefinition : structureDefinitionTypes.entrySet()) {
+            String url = structureDefinition.getKey();
+            String type = structureDefinition.getValue();
+            profileMap.putIfAbsent(type, new ArrayList<>());
+            if (!profileMap.get(type).contains(url)) {
+               profileMap.get(type).add(url);
             }
          }
       }
@@ -205,7 +334,35 @@ public class DataProfileConformance implements ExecutableOperation {
       this.fhirContext = fhirContext;
    }
 
+   /**
+    * Uses the validator for every validation thread (FhirValidator is thread safe).
+    */
    public void setValidator(FhirValidator validator) {
-      this.validator = validator;
+      int poolSize = getThreadCount();
+      validators = new ArrayBlockingQueue<>(poolSize);
+      for (int i = 0; i < poolSize; i++) {
+         validators.add(validator);
+      }
+   }
+
+   public Integer getThreads() {
+      return threads;
+   }
+
+   public void setThreads(Integer threads) {
+      this.threads = threads;
+   }
+
+   // the validations run on the shared executor, so no more validators than its workers are needed
+   private int getThreadCount() {
+      int parallelism = TaskExecutor.getShared().getParallelism();
+      return threads != null && threads > 0 ? Math.min(threads, parallelism) : parallelism;
+   }
+
+   /**
+    * @return The summary of the most recent validation, or null if nothing has been validated
+    */
+   public ValidationSummary getSummary() {
+      return summary;
    }
 }
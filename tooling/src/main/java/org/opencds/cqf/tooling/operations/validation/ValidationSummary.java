@@ -0,0 +1,138 @@
+package org.opencds.cqf.tooling.operations.validation;
+
+import ca.uhn.fhir.validation.ResultSeverityEnum;
+import ca.uhn.fhir.validation.SingleValidationMessage;
+import ca.uhn.fhir.validation.ValidationResult;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregates the results of a DataProfileConformance run: the number of resources validated, valid and invalid,
+ * and the number of issues by severity, both overall and for each profile. The issues found in a resource are
+ * counted against every profile it was validated against; resources of a type without profiles in the packages
+ * are counted against the base resource definition.
+ * <p>
+ * Results are recorded by the validation threads as they complete, so the summary is safe to update concurrently.
+ */
+public class ValidationSummary {
+   public static final String FILE_NAME = "validation-summary.json";
+
+   public static class Counts {
+      private long resources;
+      private long valid;
+      private long invalid;
+      private final Map<String, Long> issuesBySeverity = new TreeMap<>();
+
+      private void record(ValidationResult result) {
+         resources++;
+         if (result.isSuccessful()) {
+            valid++;
+         } else {
+            invalid++;
+         }
+         for (SingleValidationMessage message : result.getMessages()) {
+            ResultSeverityEnum severity = message.getSeverity();
+            String key = severity == null ? "unknown" : severity.getCode();
+            issuesBySeverity.merge(key, 1L, Long::sum);
+         }
+      }
+
+      public long getResources() {
+         return resources;
+      }
+
+      public long getValid() {
+         return valid;
+      }
+
+      public long getInvalid() {
+         return invalid;
+      }
+
+      /**
+       * @return The number of issues keyed by severity code (fatal, error, warning, information)
+       */
+      public Map<String, Long> getIssuesBySeverity() {
+         return issuesBySeverity;
+      }
+
+      public long getIssues(ResultSeverityEnum severity) {
+         return issuesBySeverity.getOrDefault(severity.getCode(), 0L);
+      }
+
+      @Override
+      public String toString() {
+         return String.format(Locale.ROOT, "%d resource(s), %d valid, %d invalid, issues %s",
+                 resources, valid, invalid, issuesBySeverity);
+      }
+   }
+
+   private final Counts total = new Counts();
+   private final Map<String, Counts> byProfile = new TreeMap<>();
+   private long failures;
+
+   /**
+    * Records the result of validating a resource against the profiles.
+    */
+   public synchronized void record(String resourceType, List<String> profiles, ValidationResult result) {
+      total.record(result);
+      if (profiles == null || profiles.isEmpty()) {
+         byProfile.computeIfAbsent("http://hl7.org/fhir/StructureDefinition/" + resourceType, k -> new Counts()).record(result);
+      } else {
+         for (String profile : profiles) {
+            byProfile.computeIfAbsent(profile, k -> new Counts()).record(result);
+         }
+      }
+   }
+
+   /**
+    * Records a resource that could not be read or validated.
+    */
+   public synchronized void recordFailure() {
+      failures++;
+   }
+
+   public synchronized Counts getTotal() {
+      return total;
+   }
+
+   public synchronized Map<String, Counts> getByProfile() {
+      return byProfile;
+   }
+
+   public synchronized long getFailures() {
+      return failures;
+   }
+
+   public synchronized void write(Path path) {
+      try {
+         Files.createDirectories(path.toAbsolutePath().getParent());
+         try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(this, writer);
+         }
+      } catch (IOException e) {
+         throw new RuntimeException("Unable to write the validation summary " + path + ": " + e.getMessage(), e);
+      }
+   }
+
+   @Override
+   public synchronized String toString() {
+      StringBuilder builder = new StringBuilder("Validated ").append(total);
+      if (failures > 0) {
+         builder.append(String.format(Locale.ROOT, ", %d resource(s) could not be validated", failures));
+      }
+      for (Map.Entry<String, Counts> entry : byProfile.entrySet()) {
+         builder.append(System.lineSeparator()).append("  ").append(entry.getKey()).append(": ").append(entry.getValue());
+      }
+      return builder.toString();
+   }
+}
@@ -0,0 +1,238 @@
+package org.opencds.cqf.tooling.operations.valueset.expansion;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.utilities.cache.CacheStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent cache of ValueSet expansions returned by a terminology server.
+ * <p>
+ * Entries are keyed by a hash of the ValueSet definition (the resource without its id, meta, narrative and any
+ * existing expansion), the terminology server url and the FHIR version, so a ValueSet is only sent to the server
+ * again when its definition changes, a different server is used or the entry is older than the time-to-live. Each
+ * entry is the expanded ValueSet in JSON, written to a temporary file and moved into place so concurrent runs
+ * never observe a partially written entry.
+ * <p>
+ * By default the cache lives in ~/.cqf-cache/expansions so it is shared by every run on the machine. The location
+ * can be overridden with the cqf.tooling.expansion.cache.dir system property, the default time-to-live (24 hours)
+ * with cqf.tooling.expansion.cache.ttlHours, and the cache can be turned off with
+ * cqf.tooling.expansion.cache.disabled=true. The directory can be deleted at any time.
+ */
+public class ExpansionCache {
+   private static final Logger logger = LoggerFactory.getLogger(ExpansionCache.class);
+
+   public static final String CACHE_DIRECTORY_PROPERTY = "cqf.tooling.expansion.cache.dir";
+   public static final String CACHE_TTL_PROPERTY = "cqf.tooling.expansion.cache.ttlHours";
+   public static final String CACHE_DISABLED_PROPERTY = "cqf.tooling.expansion.cache.disabled";
+   public static final long DEFAULT_TTL_HOURS = 24;
+
+   private static final String ENTRY_EXTENSION = ".json";
+
+   private final Path directory;
+   private final Duration timeToLive;
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+   private final AtomicLong writes = new AtomicLong();
+   private final AtomicLong expirations = new AtomicLong();
+   private final AtomicLong invalidations = new AtomicLong();
+
+   /**
+    * @param directory The directory holding the entries, or null to disable the cache
+    * @param timeToLive How long an entry is served after it is written; zero or negative disables the cache
+    */
+   public ExpansionCache(Path directory, Duration timeToLive) {
+      this.directory = directory;
+      this.timeToLive = timeToLive;
+   }
+
+   /**
+    * @param ttlHours The time-to-live in hours, or null for the cqf.tooling.expansion.cache.ttlHours default
+    * @return A cache in the configured directory
+    */
+   public static ExpansionCache fromSystemProperties(Integer ttlHours) {
+      if (Boolean.getBoolean(CACHE_DISABLED_PROPERTY)) {
+         return new ExpansionCache(null, Duration.ZERO);
+      }
+      long hours = ttlHours != null ? ttlHours : Long.getLong(CACHE_TTL_PROPERTY, DEFAULT_TTL_HOURS);
+      return new ExpansionCache(resolveCacheDirectory(), Duration.ofHours(hours));
+   }
+
+   public static Path resolveCacheDirectory() {
+      String configured = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+      if (configured != null && !configured.isBlank()) {
+         return Paths.get(configured).toAbsolutePath().normalize();
+      }
+      return Paths.get(System.getProperty("user.home"), ".cqf-cache", "expansions");
+   }
+
+   public boolean isEnabled() {
+      return directory != null && timeToLive != null && !timeToLive.isZero() && !timeToLive.isNegative();
+   }
+
+   public Path getDirectory() {
+      return directory;
+   }
+
+   public Duration getTimeToLive() {
+      return timeToLive;
+   }
+
+   /**
+    * @return The cache key for the expansion of the ValueSet by the terminology server, or null if the cache is
+    * disabled or the key could not be computed
+    */
+   public String computeKey(FhirContext fhirContext, IBaseResource valueSet, String txServerUrl) {
+      if (!isEnabled() || valueSet == null) {
+         return null;
+      }
+      try {
+         IParser parser = fhirContext.newJsonParser().setPrettyPrint(false).setOmitResourceId(true);
+         parser.setDontEncodeElements(Arrays.asList("ValueSet.meta", "ValueSet.text", "ValueSet.expansion"));
+         String definition = parser.encodeResourceToString(valueSet);
+         return DigestUtils.sha256Hex(fhirContext.getVersion().getVersion().name() + "\n"
+                 + normalizeServerUrl(txServerUrl) + "\n" + definition);
+      } catch (RuntimeException e) {
+         logger.debug("Unable to compute an expansion cache key for {}: {}", valueSet.getIdElement().getValue(), e.getMessage());
+         return null;
+      }
+   }
+
+   private static String normalizeServerUrl(String txServerUrl) {
+      if (txServerUrl == null) {
+         return "";
+      }
+      String normalized = txServerUrl.trim().toLowerCase();
+      while (normalized.endsWith("/")) {
+         normalized = normalized.substring(0, normalized.length() - 1);
+      }
+      return normalized;
+   }
+
+   /**
+    * @return The cached expansion for the key, or null if there is none, it has expired or it could not be read
+    */
+   public IBaseResource get(String key, FhirContext fhirContext) {
+      if (!isEnabled() || key == null) {
+         return null;
+      }
+      Path path = directory.resolve(key + ENTRY_EXTENSION);
+      try {
+         if (!Files.isRegularFile(path)) {
+            misses.incrementAndGet();
+            return null;
+         }
+         long age = System.currentTimeMillis() - Files.getLastModifiedTime(path).toMillis();
+         if (age > timeToLive.toMillis()) {
+            Files.deleteIfExists(path);
+            expirations.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+         }
+         try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            IBaseResource expansion = fhirContext.newJsonParser().parseResource(reader);
+            hits.incrementAndGet();
+            return expansion;
+         }
+      } catch (IOException | RuntimeException e) {
+         logger.debug("Ignoring unreadable expansion cache entry {}: {}", path, e.getMessage());
+         misses.incrementAndGet();
+         return null;
+      }
+   }
+
+   public void put(String key, IBaseResource expansion, FhirContext fhirContext) {
+      if (!isEnabled() || key == null || expansion == null) {
+         return;
+      }
+      try {
+         Files.createDirectories(directory);
+         Path temp = Files.createTempFile(directory, key, ".tmp");
+         try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            fhirContext.newJsonParser().encodeResourceToWriter(expansion, writer);
+         }
+         Path target = directory.resolve(key + ENTRY_EXTENSION);
+         try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+         } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+         }
+         writes.incrementAndGet();
+      } catch (IOException | RuntimeException e) {
+         logger.warn("Unable to write expansion cache entry {}: {}", key, e.getMessage());
+      }
+   }
+
+   public void invalidate(String key) {
+      if (directory == null || key == null) {
+         return;
+      }
+      try {
+         if (Files.deleteIfExists(directory.resolve(key + ENTRY_EXTENSION))) {
+            invalidations.incrementAndGet();
+         }
+      } catch (IOException e) {
+         logger.warn("Unable to delete expansion cache entry {}: {}", key, e.getMessage());
+      }
+   }
+
+   /**
+    * Deletes every cached expansion.
+    *
+    * @return The number of entries deleted
+    */
+   public int invalidateAll() {
+      if (directory == null || !Files.isDirectory(directory)) {
+         return 0;
+      }
+      int deleted = 0;
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + ENTRY_EXTENSION)) {
+         for (Path entry : entries) {
+            if (Files.deleteIfExists(entry)) {
+               deleted++;
+            }
+         }
+      } catch (IOException e) {
+         logger.warn("Unable to clear the expansion cache {}: {}", directory, e.getMessage());
+      }
+      invalidations.addAndGet(deleted);
+      return deleted;
+   }
+
+   /**
+    * @return The counters for this cache instance; the size is the number of entries currently on disk
+    */
+   public CacheStatistics getStatistics() {
+      long size = 0;
+      long weight = 0;
+      if (directory != null && Files.isDirectory(directory)) {
+         try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + ENTRY_EXTENSION)) {
+            for (Path entry : entries) {
+               size++;
+               weight += Files.size(entry);
+            }
+         } catch (IOException e) {
+            logger.debug("Unable to measure the expansion cache {}: {}", directory, e.getMessage());
+         }
+      }
+      return new CacheStatistics("expansion", size, weight, hits.get(), misses.get(), writes.get(),
+              expirations.get(), invalidations.get());
+   }
+}
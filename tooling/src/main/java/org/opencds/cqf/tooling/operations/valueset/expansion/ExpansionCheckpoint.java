@@ -0,0 +1,99 @@
+package org.opencds.cqf.tooling.operations.valueset.expansion;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the ValueSets (by canonical url|version) that have been expanded and written, one per line, so an
+ * interrupted FhirTxExpansion run can be resumed without expanding them again.
+ * <p>
+ * Each completed ValueSet is appended and flushed as soon as its expansion is written, so the checkpoint is
+ * accurate up to the moment the run stopped.
+ */
+public class ExpansionCheckpoint implements AutoCloseable {
+   public static final String FILE_NAME = ".fhirtxexpansion-checkpoint";
+
+   private final Path path;
+   private final Set<String> completed = ConcurrentHashMap.newKeySet();
+   private BufferedWriter writer;
+
+   public ExpansionCheckpoint(Path path) {
+      this.path = path;
+   }
+
+   public Path getPath() {
+      return path;
+   }
+
+   /**
+    * Loads the ValueSets completed by previous runs.
+    */
+   public synchronized void load() {
+      if (Files.isRegularFile(path)) {
+         try {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+               if (!line.trim().isEmpty()) {
+                  completed.add(line.trim());
+               }
+            }
+         } catch (IOException e) {
+            throw new RuntimeException("Unable to read the expansion checkpoint " + path + ": " + e.getMessage(), e);
+         }
+      }
+   }
+
+   /**
+    * Forgets the ValueSets completed by previous runs.
+    */
+   public synchronized void reset() {
+      completed.clear();
+      close();
+      try {
+         Files.deleteIfExists(path);
+      } catch (IOException e) {
+         throw new RuntimeException("Unable to delete the expansion checkpoint " + path + ": " + e.getMessage(), e);
+      }
+   }
+
+   public boolean isCompleted(String key) {
+      return completed.contains(key);
+   }
+
+   public synchronized void markCompleted(String key) {
+      if (!completed.add(key)) {
+         return;
+      }
+      try {
+         if (writer == null) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+         }
+         writer.write(key);
+         writer.newLine();
+         writer.flush();
+      } catch (IOException e) {
+         throw new RuntimeException("Unable to update the expansion checkpoint " + path + ": " + e.getMessage(), e);
+      }
+   }
+
+   public int size() {
+      return completed.size();
+   }
+
+   @Override
+   public synchronized void close() {
+      if (writer != null) {
+         try {
+            writer.close();
+         } catch (IOException ignored) {
+         }
+         writer = null;
+      }
+   }
+}
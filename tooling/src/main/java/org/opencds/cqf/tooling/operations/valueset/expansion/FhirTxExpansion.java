@@ -2,19 +2,37 @@ package org.opencds.cqf.tooling.operations.valueset.expansion;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.util.FhirTerser;
 import ca.uhn.fhir.util.ParametersUtil;
 import org.hl7.fhir.instance.model.api.IBaseParameters;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.common.TaskExecutor;
+import org.opencds.cqf.tooling.common.TaskReport;
 import org.opencds.cqf.tooling.operations.ExecutableOperation;
 import org.opencds.cqf.tooling.operations.Operation;
 import org.opencds.cqf.tooling.operations.OperationParam;
 import org.opencds.cqf.tooling.utilities.FhirContextCache;
+import org.opencds.cqf.tooling.utilities.HttpRetryPolicy;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 @Operation(name = "FhirTxExpansion")
 public class FhirTxExpansion implements ExecutableOperation {
@@ -38,42 +56,284 @@ public class FhirTxExpansion implements ExecutableOperation {
            description = "The directory path to which the generated FHIR ValueSet resource should be written (default src/main/resources/org/opencds/cqf/tooling/terminology/output)")
    private String outputPath;
 
+   @OperationParam(alias = { "mcr", "maxconcurrentrequests" }, setter = "setMaxConcurrentRequests", defaultValue = "4",
+           description = "The maximum number of $expand requests sent to the FHIR server at once (default 4)")
+   private Integer maxConcurrentRequests;
+   @OperationParam(alias = { "r", "resume" }, setter = "setResume", defaultValue = "false",
+           description = "Skips the ValueSets already expanded by an interrupted run, as recorded in the checkpoint file in the output directory (default false)")
+   private Boolean resume;
+   @OperationParam(alias = { "ttl", "cachettl" }, setter = "setCacheTtl",
+           description = "The number of hours a cached expansion is reused before the ValueSet is expanded again, 0 to bypass the expansion cache (default 24)")
+   private Integer cacheTtl;
+   @OperationParam(alias = { "ic", "invalidatecache" }, setter = "setInvalidateCache", defaultValue = "false",
+           description = "Clears the expansion cache before expanding (default false)")
+   private Boolean invalidateCache;
+
    private FhirContext fhirContext;
    private IGenericClient fhirServerClient;
+   private HttpRetryPolicy retryPolicy;
+   private ExpansionCache expansionCache;
+   // bounds the $expand requests in flight, however many workers the shared TaskExecutor runs
+   private Semaphore requestPermits;
+
+   private final AtomicInteger expandedCount = new AtomicInteger();
+   private final AtomicInteger skippedCount = new AtomicInteger();
+   private final AtomicInteger failedCount = new AtomicInteger();
 
    @Override
    public void execute() {
       fhirContext = FhirContextCache.getContext(version);
+      int concurrency = getConcurrency();
+      IRestfulClientFactory clientFactory = fhirContext.getRestfulClientFactory();
+      if (clientFactory.getPoolMaxPerRoute() < concurrency) {
+         clientFactory.setPoolMaxPerRoute(concurrency);
+      }
+      if (clientFactory.getPoolMaxTotal() < concurrency) {
+         clientFactory.setPoolMaxTotal(concurrency);
+      }
       fhirServerClient = fhirContext.newRestfulGenericClient(fhirServer);
+      requestPermits = new Semaphore(concurrency);
+
+      ExpansionCache cache = getExpansionCache();
+      if (Boolean.TRUE.equals(invalidateCache)) {
+         logger.info("Removed {} cached expansion(s) from {}", cache.invalidateAll(), cache.getDirectory());
+      }
 
       if (Files.isDirectory(Paths.get(pathToValueSet))) {
-         for (IBaseResource resource : IOUtils.readResources(IOUtils.getFilePaths(pathToValueSet, true), fhirContext)) {
-            expandAndWriteValueSet(resource);
-         }
+         expandDirectory();
       } else {
          expandAndWriteValueSet(IOUtils.readResource(pathToValueSet, fhirContext));
       }
+      if (cache.isEnabled()) {
+         logger.info("{}", cache.getStatistics());
+      }
    }
 
-   public IBaseResource expandValueSet(IBaseResource valueSet) {
-      try {
-         IBaseParameters parameters = ParametersUtil.newInstance(fhirContext);
-         ParametersUtil.addParameterToParameters(fhirContext, parameters, "valueSet", valueSet);
-         return fhirServerClient.operation().onType("ValueSet")
-                 .named("$expand").withParameters(parameters).execute();
+   /**
+    * Expands the ValueSets in the directory (and its subdirectories) on the shared {@link TaskExecutor} (see
+    * -threads=N), with up to maxConcurrentRequests requests in flight. Files are read as they are needed rather
+    * than all up front, each expansion is written as soon as it is returned, and completed ValueSets are recorded
+    * in the {@link ExpansionCheckpoint} so an interrupted run can be resumed. The checkpoint is deleted once every
+    * ValueSet has been expanded.
+    */
+   private void expandDirectory() {
+      expandedCount.set(0);
+      skippedCount.set(0);
+      failedCount.set(0);
+
+      ExpansionCheckpoint checkpoint = new ExpansionCheckpoint(Paths.get(outputPath, ExpansionCheckpoint.FILE_NAME));
+      if (Boolean.TRUE.equals(resume)) {
+         checkpoint.load();
+      } else {
+         checkpoint.reset();
+      }
+
+      TaskReport report;
+      try (Stream<Path> paths = Files.walk(Paths.get(pathToValueSet))) {
+         Iterator<Path> files = paths.filter(Files::isRegularFile).iterator();
+         Iterator<Callable<Void>> tasks = new Iterator<Callable<Void>>() {
+            @Override
+            public boolean hasNext() {
+               return files.hasNext();
+            }
+
+            @Override
+            public Callable<Void> next() {
+               Path path = files.next();
+               return () -> {
+                  try {
+                     expandFile(path, checkpoint);
+                  } catch (RuntimeException e) {
+                     logger.warn("Unable to expand {}", path, e);
+                     throw e;
+                  }
+                  return null;
+               };
+            }
+         };
+         report = TaskExecutor.getShared().execute("FhirTxExpansion", tasks, false);
+      } catch (IOException e) {
+         throw new RuntimeException("Unable to read ValueSets from " + pathToValueSet + ": " + e.getMessage(), e);
+      } finally {
+         checkpoint.close();
+      }
+
+      failedCount.addAndGet(report.getFailures().size());
+      if (!report.getCancelled().isEmpty()) {
+         logger.warn("Expansion interrupted, run again with -resume to continue");
+      }
+      logger.info("Expanded {} ValueSet(s), skipped {} already expanded, {} failed", expandedCount.get(),
+              skippedCount.get(), failedCount.get());
+      if (failedCount.get() == 0 && !Thread.currentThread().isInterrupted()) {
+         checkpoint.reset();
+      }
+   }
+
+   private void expandFile(Path path, ExpansionCheckpoint checkpoint) {
+      IOUtils.Encoding fileEncoding = IOUtils.getEncoding(path.toString());
+      if (fileEncoding != IOUtils.Encoding.JSON && fileEncoding != IOUtils.Encoding.XML) {
+         return;
+      }
+      // parsed directly rather than through IOUtils.readResource so the ValueSets are not held in the resource cache
+      IBaseResource resource;
+      try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+         resource = IOUtils.getParser(fileEncoding, fhirContext).parseResource(reader);
       } catch (Exception e) {
-         logger.warn("Unable to expand: {}", valueSet.getIdElement().getValue(), e);
+         logger.warn("Skipping {}: {}", path, e.getMessage());
+         return;
+      }
+      if (!resource.fhirType().equalsIgnoreCase("valueset")) {
+         return;
+      }
+
+      String key = getCheckpointKey(resource, path);
+      if (checkpoint.isCompleted(key)) {
+         skippedCount.incrementAndGet();
+         return;
+      }
+      if (expandAndWriteValueSet(resource)) {
+         checkpoint.markCompleted(key);
+         expandedCount.incrementAndGet();
+      } else {
+         failedCount.incrementAndGet();
+      }
+   }
+
+   private String getCheckpointKey(IBaseResource valueSet, Path path) {
+      FhirTerser terser = fhirContext.newTerser();
+      String url = terser.getSinglePrimitiveValueOrNull(valueSet, "url");
+      if (url == null) {
+         return path.toAbsolutePath().toString();
+      }
+      String valueSetVersion = terser.getSinglePrimitiveValueOrNull(valueSet, "version");
+      return valueSetVersion == null ? url : url + "|" + valueSetVersion;
+   }
+
+   /**
+    * Expands the ValueSet with the $expand operation of the FHIR server. Expansions of an unchanged definition by
+    * the same server are served from the {@link ExpansionCache} until they expire. Connection failures and
+    * transient errors (e.g. 429 or 503) are retried with backoff as allowed by the {@link HttpRetryPolicy}.
+    *
+    * @return The expanded ValueSet, or null if it could not be expanded
+    */
+   public IBaseResource expandValueSet(IBaseResource valueSet) {
+      ExpansionCache cache = getExpansionCache();
+      String cacheKey = cache.computeKey(fhirContext, valueSet, fhirServer);
+      IBaseResource expanded = cache.get(cacheKey, fhirContext);
+      if (expanded == null) {
+         expanded = requestExpansion(valueSet);
+         cache.put(cacheKey, expanded, fhirContext);
+      }
+      return expanded;
+   }
+
+   private IBaseResource requestExpansion(IBaseResource valueSet) {
+      HttpRetryPolicy policy = getRetryPolicy();
+      for (int retry = 0; ; retry++) {
+         try {
+            IBaseParameters parameters = ParametersUtil.newInstance(fhirContext);
+            ParametersUtil.addParameterToParameters(fhirContext, parameters, "valueSet", valueSet);
+            Semaphore permits = requestPermits;
+            if (permits != null) {
+               permits.acquire();
+            }
+            try {
+               return getFhirServerClient().operation().onType("ValueSet")
+                       .named("$expand").withParameters(parameters).execute();
+            } finally {
+               if (permits != null) {
+                  permits.release();
+               }
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+         } catch (BaseServerResponseException e) {
+            boolean retryable = e instanceof FhirClientConnectionException || policy.isRetryable(e.getStatusCode());
+            if (!retryable || !policy.canRetry(retry)) {
+               logger.warn("Unable to expand: {}", valueSet.getIdElement().getValue(), e);
+               return null;
+            }
+            long delay = policy.getDelayMillis(retry, e.getStatusCode(), getRetryAfter(e));
+            logger.debug("Retrying expansion of {} in {} ms: {}", valueSet.getIdElement().getValue(), delay, e.getMessage());
+            try {
+               Thread.sleep(delay);
+            } catch (InterruptedException ie) {
+               Thread.currentThread().interrupt();
+               return null;
+            }
+         } catch (Exception e) {
+            logger.warn("Unable to expand: {}", valueSet.getIdElement().getValue(), e);
+            return null;
+         }
+      }
+   }
+
+   private static String getRetryAfter(BaseServerResponseException e) {
+      if (e.getResponseHeaders() != null) {
+         for (Map.Entry<String, List<String>> header : e.getResponseHeaders().entrySet()) {
+            if ("Retry-After".equalsIgnoreCase(header.getKey()) && header.getValue() != null && !header.getValue().isEmpty()) {
+               return header.getValue().get(0);
+            }
+         }
       }
       return null;
    }
 
-   private void expandAndWriteValueSet(IBaseResource resource) {
-      if (resource.fhirType().equalsIgnoreCase("valueset")) {
+   private boolean expandAndWriteValueSet(IBaseResource resource) {
+      if (resource != null && resource.fhirType().equalsIgnoreCase("valueset")) {
          IBaseResource expandedVs = expandValueSet(resource);
          if (expandedVs != null) {
-            IOUtils.writeResource(expandedVs, outputPath, IOUtils.Encoding.valueOf(encoding), fhirContext);
+            // named after the source file's ValueSet, as servers do not always return the id
+            String fileName = resource.getIdElement().getIdPart();
+            IOUtils.writeResource(expandedVs, outputPath, IOUtils.Encoding.parse(encoding), fhirContext, true,
+                    fileName != null ? fileName : expandedVs.getIdElement().getIdPart());
+            return true;
          }
       }
+      return false;
+   }
+
+   private int getConcurrency() {
+      return maxConcurrentRequests == null ? 1 : Math.max(1, maxConcurrentRequests);
+   }
+
+   private synchronized IGenericClient getFhirServerClient() {
+      if (fhirServerClient == null) {
+         fhirServerClient = fhirContext.newRestfulGenericClient(fhirServer);
+      }
+      return fhirServerClient;
+   }
+
+   public synchronized ExpansionCache getExpansionCache() {
+      if (expansionCache == null) {
+         expansionCache = ExpansionCache.fromSystemProperties(cacheTtl);
+      }
+      return expansionCache;
+   }
+
+   public synchronized void setExpansionCache(ExpansionCache expansionCache) {
+      this.expansionCache = expansionCache;
+   }
+
+   public HttpRetryPolicy getRetryPolicy() {
+      return retryPolicy != null ? retryPolicy : HttpRetryPolicy.fromSystemProperties();
+   }
+
+   public void setRetryPolicy(HttpRetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+   }
+
+   public int getExpandedCount() {
+      return expandedCount.get();
+   }
+
+   public int getSkippedCount() {
+      return skippedCount.get();
+   }
+
+   public int getFailedCount() {
+      return failedCount.get();
    }
 
    public String getPathToValueSet() {
@@ -88,7 +348,10 @@ public class FhirTxExpansion implements ExecutableOperation {
       return fhirServer;
    }
 
-   public void setFhirServer(String fhirServer) {
+   public synchronized void setFhirServer(String fhirServer) {
+      if (fhirServer != null && !fhirServer.equals(this.fhirServer)) {
+         fhirServerClient = null;
+      }
       this.fhirServer = fhirServer;
    }
 
@@ -116,7 +379,43 @@ public class FhirTxExpansion implements ExecutableOperation {
       this.outputPath = outputPath;
    }
 
-   public void setFhirContext(FhirContext fhirContext) {
+   public Integer getMaxConcurrentRequests() {
+      return maxConcurrentRequests;
+   }
+
+   public void setMaxConcurrentRequests(Integer maxConcurrentRequests) {
+      this.maxConcurrentRequests = maxConcurrentRequests;
+   }
+
+   public Boolean getResume() {
+      return resume;
+   }
+
+   public void setResume(Boolean resume) {
+      this.resume = resume;
+   }
+
+   public Integer getCacheTtl() {
+      return cacheTtl;
+   }
+
+   public synchronized void setCacheTtl(Integer cacheTtl) {
+      this.cacheTtl = cacheTtl;
+      this.expansionCache = null;
+   }
+
+   public Boolean getInvalidateCache() {
+      return invalidateCache;
+   }
+
+   public void setInvalidateCache(Boolean invalidateCache) {
+      this.invalidateCache = invalidateCache;
+   }
+
+   public synchronized void setFhirContext(FhirContext fhirContext) {
+      if (fhirContext != this.fhirContext) {
+         fhirServerClient = null;
+      }
       this.fhirContext = fhirContext;
    }
 }
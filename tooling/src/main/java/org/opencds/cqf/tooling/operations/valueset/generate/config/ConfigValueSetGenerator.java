@@ -18,6 +18,7 @@ import org.opencds.cqf.tooling.operations.Operation;
 import org.opencds.cqf.tooling.operations.OperationParam;
 import org.opencds.cqf.tooling.operations.codesystem.loinc.HierarchyProcessor;
 import org.opencds.cqf.tooling.operations.codesystem.rxnorm.RxMixWorkflowProcessor;
+import org.opencds.cqf.tooling.operations.valueset.expansion.ExpansionCache;
 import org.opencds.cqf.tooling.operations.valueset.expansion.FhirTxExpansion;
 import org.opencds.cqf.tooling.utilities.FhirContextCache;
 import org.opencds.cqf.tooling.utilities.IOUtils;
@@ -49,6 +50,12 @@ public class ConfigValueSetGenerator implements ExecutableOperation {
            defaultValue = "src/main/resources/org/opencds/cqf/tooling/terminology/output",
            description = "The directory path to which the generated FHIR ValueSet resources should be written (default src/main/resources/org/opencds/cqf/tooling/terminology/output)")
    private String outputPath;
+   @OperationParam(alias = { "ttl", "cachettl" }, setter = "setCacheTtl",
+           description = "The number of hours a cached expansion is reused before the ValueSet is expanded again, 0 to bypass the expansion cache (default 24)")
+   private Integer cacheTtl;
+   @OperationParam(alias = { "ic", "invalidatecache" }, setter = "setInvalidateCache", defaultValue = "false",
+           description = "Clears the expansion cache before generating the ValueSets (default false)")
+   private Boolean invalidateCache;
 
    private FhirContext fhirContext;
 
@@ -69,6 +76,10 @@ public class ConfigValueSetGenerator implements ExecutableOperation {
       }
 
       fhirContext = FhirContextCache.getContext(version);
+      if (Boolean.TRUE.equals(invalidateCache)) {
+         ExpansionCache cache = fhirTxExpansion.getExpansionCache();
+         logger.info("Removed {} cached expansion(s) from {}", cache.invalidateAll(), cache.getDirectory());
+      }
       generateValueSets(config).forEach(
               vs -> IOUtils.writeResource(vs, outputPath, IOUtils.Encoding.parse(encoding), fhirContext)
       );
@@ -83,6 +94,7 @@ public class ConfigValueSetGenerator implements ExecutableOperation {
       }
 
       List<IBaseResource> valueSets = new ArrayList<>();
+      boolean expanded = false;
       for (var valueSet : config.getValueSets()) {
          ValueSet vs;
          if (valueSet.getHierarchy() != null) {
@@ -93,6 +105,7 @@ public class ConfigValueSetGenerator implements ExecutableOperation {
             vs = (ValueSet) ResourceAndTypeConverter.convertToR5Resource(fhirContext, rxMixWorkflowProcessor.getValueSet());
          } else if (valueSet.getExpand() != null) {
             prepareFhirTxExpansion(valueSet.getExpand());
+            expanded = true;
             vs = (ValueSet) ResourceAndTypeConverter.convertToR5Resource(fhirContext, fhirTxExpansion.expandValueSet(
                     IOUtils.readResource(valueSet.getExpand().getPathToValueSet(), fhirContext)));
          } else {
@@ -103,6 +116,10 @@ public class ConfigValueSetGenerator implements ExecutableOperation {
                  fhirContext, updateValueSet(vs, config, valueSet, commonMetaData)));
       }
 
+      ExpansionCache expansionCache = fhirTxExpansion.getExpansionCache();
+      if (expanded && expansionCache.isEnabled()) {
+         logger.info("{}", expansionCache.getStatistics());
+      }
       return valueSets;
    }
 
@@ -278,6 +295,23 @@ public class ConfigValueSetGenerator implements ExecutableOperation {
       this.outputPath = outputPath;
    }
 
+   public Integer getCacheTtl() {
+      return cacheTtl;
+   }
+
+   public void setCacheTtl(Integer cacheTtl) {
+      this.cacheTtl = cacheTtl;
+      fhirTxExpansion.setCacheTtl(cacheTtl);
+   }
+
+   public Boolean getInvalidateCache() {
+      return invalidateCache;
+   }
+
+   public void setInvalidateCache(Boolean invalidateCache) {
+      this.invalidateCache = invalidateCache;
+   }
+
    public void setFhirContext(FhirContext fhirContext) {
       this.fhirContext = fhirContext;
    }
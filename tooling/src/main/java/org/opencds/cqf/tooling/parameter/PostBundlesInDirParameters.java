@@ -8,4 +8,8 @@ public class PostBundlesInDirParameters {
     public String fhirUri;
     public FHIRVersion fhirVersion;
     public IOUtils.Encoding encoding;
+    public boolean replayFailures;
+    // "batch" or "transaction" to merge the bundles into size-capped bundles of that type, null to post each bundle
+    public String coalesce;
+    public Integer maxBundleEntries;
 }
\ No newline at end of file
@@ -17,6 +17,8 @@ public class RefreshIGParameters {
     public Boolean versioned;
     public Boolean shouldApplySoftwareSystemStamp;
     public Boolean addBundleTimestamp;
+    public Boolean incrementalBundle;
+    public Boolean linkBundleFiles;
     public String fhirUri;
     public ArrayList<String> resourceDirs;
     public Boolean conformant;
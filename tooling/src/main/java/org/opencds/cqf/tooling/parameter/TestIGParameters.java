@@ -43,4 +43,15 @@ public class TestIGParameters {
     Execution engine (i.e., CQF Ruler) to load the test content to and run the evaluation on.
     */
     public String fhirServerUri;
+
+    /*
+    The number of test cases to run concurrently, defaults to the number of available processors when the test cases
+    are evaluated in process and to 1 when they are run against a FHIR server
+    */
+    public Integer threads;
+
+    /*
+    Directory the JUnit XML and JSON test reports are written to, defaults to <IG root>/test-results
+    */
+    public String resultsPath;
 }
@@ -1,20 +1,26 @@
 package org.opencds.cqf.tooling.processor;
 
 import ca.uhn.fhir.context.FhirContext;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.hl7.fhir.instance.model.api.IBase;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.common.TaskReport;
 import org.opencds.cqf.tooling.common.ThreadUtils;
 import org.opencds.cqf.tooling.cql.exception.CQLTranslatorException;
 import org.opencds.cqf.tooling.library.LibraryProcessor;
 import org.opencds.cqf.tooling.utilities.BundleUtils;
+import org.opencds.cqf.tooling.utilities.ContentAddressedFileStore;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.LogUtils;
 import org.opencds.cqf.tooling.utilities.ResourceUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,15 +55,18 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
     protected final String TYPE_MEASURE = "Measure";
     private List<Object> identifiers;
     private CDSHooksProcessor cdsHooksProcessor;
-    private LibraryProcessor libraryProcessor;
+    private BundleManifest bundleManifest;
+    private ContentAddressedFileStore bundleFileStore;
 
     /**
      * Sets the LibraryProcessor for handling library-related tasks.
      *
      * @param libraryProcessor The LibraryProcessor instance to set.
+     * @deprecated The LibraryProcessor is not used, the bundle dependencies are resolved by the
+     * ArtifactDependencyClosure.
      */
+    @Deprecated
     protected void setLibraryProcessor(LibraryProcessor libraryProcessor) {
-        this.libraryProcessor = libraryProcessor;
     }
 
     /**
@@ -69,6 +78,26 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
         this.cdsHooksProcessor = cdsHooksProcessor;
     }
 
+    /**
+     * Sets the manifest used to skip bundles whose inputs have not changed since they were last built. When no
+     * manifest is set (the default), every bundle is rebuilt.
+     *
+     * @param bundleManifest The BundleManifest of the IG, or null to rebuild every bundle.
+     */
+    public void setBundleManifest(BundleManifest bundleManifest) {
+        this.bundleManifest = bundleManifest;
+    }
+
+    /**
+     * Sets the store used to place the files copied into the "-files" folders of the bundles. When no store is set
+     * (the default), the files are copied.
+     *
+     * @param bundleFileStore The ContentAddressedFileStore linking the files into the folders, or null to copy them.
+     */
+    public void setBundleFileStore(ContentAddressedFileStore bundleFileStore) {
+        this.bundleFileStore = bundleFileStore;
+    }
+
     protected List<Object> getIdentifiers() {
         if (identifiers == null) {
             identifiers = new CopyOnWriteArrayList<>();
@@ -98,6 +127,14 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
         Map<String, IBaseResource> resourcesMap = getResources(fhirContext);
         List<String> bundledResources = new CopyOnWriteArrayList<>();
 
+        //bundles skipped because their inputs did not change since the last run:
+        List<String> unchangedResources = new CopyOnWriteArrayList<>();
+        // Bundles are posted as they are built, so with a FHIR server every bundle is rebuilt
+        final BundleManifest manifest = fhirUri == null || fhirUri.isEmpty() ? bundleManifest : null;
+        final String bundleOptions = String.join("|", "deps=" + includeDependencies, "terminology=" + includeTerminology,
+                "patients=" + includePatientScenarios, "versioned=" + includeVersion, "timestamp=" + addBundleTimestamp,
+                "encoding=" + encoding, "fhir=" + fhirContext.getVersion().getVersion(), "linked=" + (bundleFileStore != null));
+
         //for keeping track of progress:
         List<String> processedResources = new CopyOnWriteArrayList<>();
 
@@ -184,24 +221,33 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
                             return null;
                         }
 
-                        if (includeTerminology) {
-                            //throws CQLTranslatorException if failed, which will be logged and reported it in the final summary
-                            try {
-                                ValueSetsProcessor.bundleValueSets(cqlLibrarySourcePath, igPath, fhirContext, resources, encoding, includeDependencies, includeVersion);
-                            }catch (CQLTranslatorException warn){
-                                if (translatorWarningMessages.containsKey(primaryLibraryName)){
-                                    Set<String> existingMessages = translatorWarningMessages.get(primaryLibraryName);
-                                    existingMessages.addAll(warn.getErrors());
-                                }else{
-                                    translatorWarningMessages.put(primaryLibraryName, warn.getErrors());
-                                }
+                        String bundleDestPath = FilenameUtils.concat(FilenameUtils.concat(IGProcessor.getBundlesPath(igPath), getResourceTestGroupName()), resourceName);
+                        String bundleKey = getResourceTestGroupName() + "/" + resourceName;
+                        if (manifest != null) {
+                            List<String> changedInputs = new File(bundleDestPath).isDirectory()
+                                    ? manifest.getChangedInputs(bundleKey, bundleOptions) : List.of("(no bundle output)");
+                            if (changedInputs.isEmpty()) {
+                                unchangedResources.add(resourceSourcePath);
+                                processedResources.add(resourceSourcePath);
+                                return null;
                             }
+                            logger.info("Bundling {}, changed: {}", bundleKey, changedInputs);
+                            // only re-recorded once the bundle is complete, so a failed bundle is retried next run
+                            manifest.remove(bundleKey);
                         }
 
-                        if (includeDependencies) {
-                            if (libraryProcessor == null) libraryProcessor = new LibraryProcessor();
+                        //resolved once, for both the bundle and the -files folder:
+                        ArtifactDependencyClosure dependencies = ArtifactDependencyClosure.resolve(primaryLibrarySourcePath, cqlLibrarySourcePath,
+                                igPath, fhirContext, encoding, includeTerminology, includeDependencies, includeVersion);
+
+                        if (includeTerminology && !dependencies.getTerminologyErrors().isEmpty()) {
+                            //missing ValueSets are logged and reported in the final summary
+                            translatorWarningMessages.computeIfAbsent(primaryLibraryName, k -> ConcurrentHashMap.newKeySet())
+                                    .addAll(dependencies.getTerminologyErrors());
+                        }
 
-                            boolean result = libraryProcessor.bundleLibraryDependencies(primaryLibrarySourcePath, fhirContext, resources, encoding, includeVersion);
+                        if (includeDependencies) {
+                            boolean result = dependencies.isLibrariesResolved();
                             if (shouldPersist && !result) {
                                 failedExceptionMessages.put(resourceSourcePath, getResourceProcessorType() + " will not be bundled because Library Dependency bundling failed.");
                                 //exit from task:
@@ -209,6 +255,7 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
                             }
                             shouldPersist = shouldPersist & result;
                         }
+                        dependencies.addTo(resources);
 
                         if (includePatientScenarios) {
                             boolean result = TestCaseProcessor.bundleTestCases(igPath, getResourceTestGroupName(), primaryLibraryName, fhirContext, resources);
@@ -222,20 +269,18 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
 
                         if (shouldPersist) {
 
-                            String bundleDestPath = FilenameUtils.concat(FilenameUtils.concat(IGProcessor.getBundlesPath(igPath), getResourceTestGroupName()), resourceName);
-
                             persistBundle(igPath, bundleDestPath, resourceName, encoding, fhirContext, new ArrayList<IBaseResource>(resources.values()), fhirUri, addBundleTimestamp);
 
                             String possibleBundleTestMessage = bundleFiles(igPath, bundleDestPath, resourceName, binaryPaths, resourceSourcePath,
-                                    primaryLibrarySourcePath, fhirContext, encoding, includeTerminology, includeDependencies, includePatientScenarios,
-                                    includeVersion, addBundleTimestamp, translatorWarningMessages);
+                                    primaryLibrarySourcePath, fhirContext, encoding, dependencies, includePatientScenarios, addBundleTimestamp);
 
                             //Check for test files in bundleDestPath + "-files", loop through if exists,
                             // find all files that start with "tests-", post to fhir server following same folder structure:
                             persistTestFiles(bundleDestPath, resourceName, encoding, fhirContext, fhirUri);
 
+                            List<String> activityDefinitionPaths = List.of();
                             if (cdsHooksProcessor != null) {
-                                List<String> activityDefinitionPaths = CDSHooksProcessor.bundleActivityDefinitions(resourceSourcePath, fhirContext, resources, encoding, includeVersion, shouldPersist);
+                                activityDefinitionPaths = CDSHooksProcessor.bundleActivityDefinitions(resourceSourcePath, fhirContext, resources, encoding, includeVersion, shouldPersist);
                                 cdsHooksProcessor.addActivityDefinitionFilesToBundle(igPath, bundleDestPath, activityDefinitionPaths, fhirContext, encoding);
                             }
 
@@ -244,6 +289,16 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
                             }
 
                             bundledResources.add(resourceSourcePath);
+
+                            if (manifest != null && !translatorWarningMessages.containsKey(primaryLibraryName)) {
+                                try {
+                                    manifest.record(bundleKey, bundleOptions, getBundleInputs(igPath, resourceSourcePath, primaryLibrarySourcePath,
+                                            cqlLibrarySourcePath, primaryLibraryName, dependencies, activityDefinitionPaths, includeDependencies,
+                                            includePatientScenarios, includeVersion));
+                                } catch (Exception e) {
+                                    logger.warn("Unable to record the inputs of {}, it will be rebuilt next time: {}", bundleKey, e.getMessage());
+                                }
+                            }
                         }
 
 
@@ -264,7 +319,8 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
 
             }//end for loop
 
-            ThreadUtils.executeTasks(tasks);
+            TaskReport taskReport = ThreadUtils.executeTasks("Bundle " + getResourceProcessorType() + "s", tasks);
+            logger.info("{}", taskReport);
 
             //Test file information:
             String bundleTestFileMessage = bundleTestFileStringBuilder.toString();
@@ -282,6 +338,13 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
         for (String bundledResource : bundledResources) {
             message.append("\r\n     ").append(bundledResource).append(" BUNDLED");
         }
+        if (manifest != null) {
+            message.append("\r\n").append(unchangedResources.size()).append(" ").append(getResourceProcessorType()).append("(s) unchanged since the last bundle:");
+            for (String unchangedResource : unchangedResources) {
+                message.append("\r\n     ").append(unchangedResource).append(" UNCHANGED");
+            }
+            bundledResources.addAll(unchangedResources);
+        }
 
         List<String> resourcePathLibraryNames = new ArrayList<>(getPaths(fhirContext));
 
@@ -318,6 +381,26 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
         System.out.println(message.toString());
     }
 
+    // The files, test case directory and ValueSets a bundle is built from, as recorded in the BundleManifest; the
+    // ActivityDefinitions are those bundled with a PlanDefinition
+    private List<String> getBundleInputs(String igPath, String resourceSourcePath, String primaryLibrarySourcePath, String cqlLibrarySourcePath,
+                                         String primaryLibraryName, ArtifactDependencyClosure dependencies, List<String> activityDefinitionPaths,
+                                         Boolean includeDependencies, Boolean includePatientScenarios, Boolean includeVersion) throws CQLTranslatorException {
+        List<String> inputs = new ArrayList<>(Arrays.asList(resourceSourcePath, primaryLibrarySourcePath, cqlLibrarySourcePath));
+        inputs.addAll(dependencies.getLibraryPaths());
+        inputs.addAll(activityDefinitionPaths);
+        if (includeDependencies) {
+            inputs.addAll(IOUtils.getDependencyCqlPaths(cqlLibrarySourcePath, includeVersion));
+        }
+        for (String valueSetUrl : dependencies.getValueSets().keySet()) {
+            inputs.add(BundleManifest.VALUESET_INPUT_PREFIX + valueSetUrl);
+        }
+        if (includePatientScenarios) {
+            inputs.add(FilenameUtils.concat(FilenameUtils.concat(FilenameUtils.concat(igPath, IGProcessor.testCasePathElement), getResourceTestGroupName()), primaryLibraryName));
+        }
+        return inputs;
+    }
+
     private String getResourcePrefix() {
         return getResourceProcessorType().toLowerCase() + "-";
     }
@@ -325,15 +408,15 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
     protected abstract Set<String> getPaths(FhirContext fhirContext);
 
     private String bundleFiles(String igPath, String bundleDestPath, String primaryLibraryName, List<String> binaryPaths, String resourceFocusSourcePath,
-                               String librarySourcePath, FhirContext fhirContext, IOUtils.Encoding encoding, Boolean includeTerminology, Boolean includeDependencies, Boolean includePatientScenarios,
-                               Boolean includeVersion, Boolean addBundleTimestamp, Map<String, Set<String>> translatorWarningMessages) {
+                               String librarySourcePath, FhirContext fhirContext, IOUtils.Encoding encoding, ArtifactDependencyClosure dependencies,
+                               Boolean includePatientScenarios, Boolean addBundleTimestamp) {
         String bundleMessage = "";
 
         String bundleDestFilesPath = FilenameUtils.concat(bundleDestPath, primaryLibraryName + "-" + IGBundleProcessor.bundleFilesPathElement);
         IOUtils.initializeDirectory(bundleDestFilesPath);
 
-        IOUtils.copyFile(resourceFocusSourcePath, FilenameUtils.concat(bundleDestFilesPath, FilenameUtils.getName(resourceFocusSourcePath)));
-        IOUtils.copyFile(librarySourcePath, FilenameUtils.concat(bundleDestFilesPath, FilenameUtils.getName(librarySourcePath)));
+        copyBundleFile(resourceFocusSourcePath, FilenameUtils.concat(bundleDestFilesPath, FilenameUtils.getName(resourceFocusSourcePath)));
+        copyBundleFile(librarySourcePath, FilenameUtils.concat(bundleDestFilesPath, FilenameUtils.getName(librarySourcePath)));
 
         String cqlFileName = IOUtils.formatFileName(FilenameUtils.getBaseName(librarySourcePath), IOUtils.Encoding.CQL, fhirContext);
         if (cqlFileName.toLowerCase().startsWith("library-")) {
@@ -341,41 +424,52 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
         }
         String cqlLibrarySourcePath = IOUtils.getCqlLibrarySourcePath(primaryLibraryName, cqlFileName, binaryPaths);
         String cqlDestPath = FilenameUtils.concat(bundleDestFilesPath, cqlFileName);
-        IOUtils.copyFile(cqlLibrarySourcePath, cqlDestPath);
-
-        if (includeTerminology) {
-            try {
-                Map<String, IBaseResource> valueSets = ResourceUtils.getDepValueSetResources(cqlLibrarySourcePath, igPath, fhirContext, includeDependencies, includeVersion);
-                if (!valueSets.isEmpty()) {
-                    Object bundle = BundleUtils.bundleArtifacts(ValueSetsProcessor.getId(primaryLibraryName), new ArrayList<IBaseResource>(valueSets.values()), fhirContext, addBundleTimestamp, this.getIdentifiers());
-                    IOUtils.writeBundle(bundle, bundleDestFilesPath, encoding, fhirContext);
-                }
-            }catch (CQLTranslatorException warn){
-                if (translatorWarningMessages.containsKey(primaryLibraryName)){
-                    Set<String> existingMessages = translatorWarningMessages.get(primaryLibraryName);
-                    existingMessages.addAll(warn.getErrors());
-                }else{
-                    translatorWarningMessages.put(primaryLibraryName, warn.getErrors());
-                }
-            }
+        copyBundleFile(cqlLibrarySourcePath, cqlDestPath);
+
+        Map<String, IBaseResource> valueSets = dependencies.getValueSets();
+        Map<String, IBaseResource> depLibraries = dependencies.getDirectLibraries();
+        if (bundleFileStore != null) {
+            // the dependencies are shared by many artifacts, so they are placed as files of their own, which are the
+            // same for every artifact and so stored once, rather than in bundles named for the artifact
+            writeBundleResources(valueSets.values(), bundleDestFilesPath, encoding, fhirContext);
+            writeBundleResources(depLibraries.values(), bundleDestFilesPath, encoding, fhirContext);
+        }
+        else if (!valueSets.isEmpty()) {
+            Object bundle = BundleUtils.bundleArtifacts(ValueSetsProcessor.getId(primaryLibraryName), new ArrayList<IBaseResource>(valueSets.values()), fhirContext, addBundleTimestamp, this.getIdentifiers());
+            IOUtils.writeBundle(bundle, bundleDestFilesPath, encoding, fhirContext);
         }
 
-        if (includeDependencies) {
-            Map<String, IBaseResource> depLibraries = ResourceUtils.getDepLibraryResources(librarySourcePath, fhirContext, encoding, includeVersion, logger);
-            if (!depLibraries.isEmpty()) {
-                String depLibrariesID = "library-deps-" + primaryLibraryName;
-                Object bundle = BundleUtils.bundleArtifacts(depLibrariesID, new ArrayList<IBaseResource>(depLibraries.values()), fhirContext, addBundleTimestamp, this.getIdentifiers());
-                IOUtils.writeBundle(bundle, bundleDestFilesPath, encoding, fhirContext);
-            }
+        if (bundleFileStore == null && !depLibraries.isEmpty()) {
+            String depLibrariesID = "library-deps-" + primaryLibraryName;
+            Object bundle = BundleUtils.bundleArtifacts(depLibrariesID, new ArrayList<IBaseResource>(depLibraries.values()), fhirContext, addBundleTimestamp, this.getIdentifiers());
+            IOUtils.writeBundle(bundle, bundleDestFilesPath, encoding, fhirContext);
         }
 
         if (includePatientScenarios) {
-            bundleMessage = TestCaseProcessor.bundleTestCaseFiles(igPath, getResourceTestGroupName(), primaryLibraryName, bundleDestFilesPath, fhirContext);
+            bundleMessage = TestCaseProcessor.bundleTestCaseFiles(igPath, getResourceTestGroupName(), primaryLibraryName, bundleDestFilesPath, fhirContext,
+                    bundleFileStore);
         }
 
         return bundleMessage;
     }
 
+    private boolean copyBundleFile(String inputPath, String outputPath) {
+        if (bundleFileStore == null) {
+            return IOUtils.copyFile(inputPath, outputPath);
+        }
+        return bundleFileStore.copyFile(inputPath, outputPath);
+    }
+
+    private void writeBundleResources(Collection<IBaseResource> resources, String bundleDestFilesPath, IOUtils.Encoding encoding, FhirContext fhirContext) {
+        for (IBaseResource resource : resources) {
+            byte[] content = IOUtils.encodeResource(resource, encoding, fhirContext, true);
+            // a resource without an id is named for its content, which is as stable as the content itself
+            String id = resource.getIdElement().getIdPart() != null ? resource.getIdElement().getIdPart() : DigestUtils.sha256Hex(content);
+            String fileName = IOUtils.formatFileName(resource.fhirType() + "-" + id, encoding, fhirContext);
+            bundleFileStore.writeFile(content, FilenameUtils.concat(bundleDestFilesPath, fileName));
+        }
+    }
+
 
     private void persistBundle(String igPath, String bundleDestPath, String libraryName, IOUtils.Encoding encoding, FhirContext fhirContext, List<IBaseResource> resources, String fhirUri, Boolean addBundleTimestamp) {
         IOUtils.initializeDirectory(bundleDestPath);
@@ -0,0 +1,137 @@
+package org.opencds.cqf.tooling.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FilenameUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.cql.exception.CQLTranslatorException;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ResourceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * The ValueSets and dependency Libraries of a bundled artifact, resolved once and used for both the bundle and the
+ * "-files" folder written by {@link AbstractResourceProcessor#bundleResources}.
+ * <p>
+ * The ValueSets are those referenced by the primary library's CQL (and, with dependencies, by the libraries it
+ * includes). The dependency Libraries are resolved transitively through the depends-on related artifacts of the
+ * primary library; the direct dependencies are kept separately, as only those are written to the library-deps
+ * bundle of the "-files" folder.
+ */
+public class ArtifactDependencyClosure {
+    private static final Logger logger = LoggerFactory.getLogger(ArtifactDependencyClosure.class);
+
+    private Map<String, IBaseResource> valueSets = Collections.emptyMap();
+    private Set<String> terminologyErrors = Collections.emptySet();
+    private Map<String, IBaseResource> directLibraries = Collections.emptyMap();
+    private final Map<String, IBaseResource> libraries = new LinkedHashMap<>();
+    private final List<String> libraryPaths = new ArrayList<>();
+    private boolean librariesResolved = true;
+
+    private ArtifactDependencyClosure() {
+    }
+
+    /**
+     * @param primaryLibrarySourcePath The path of the primary Library resource of the artifact
+     * @param cqlLibrarySourcePath The path of the CQL of the primary library
+     * @param includeTerminology Whether to resolve the ValueSets
+     * @param includeDependencies Whether to resolve the dependency Libraries (and the ValueSets of included libraries)
+     */
+    public static ArtifactDependencyClosure resolve(String primaryLibrarySourcePath, String cqlLibrarySourcePath, String igPath, FhirContext fhirContext,
+                                                    IOUtils.Encoding encoding, boolean includeTerminology, boolean includeDependencies, boolean includeVersion) {
+        ArtifactDependencyClosure closure = new ArtifactDependencyClosure();
+
+        if (includeTerminology) {
+            try {
+                closure.valueSets = ResourceUtils.getDepValueSetResources(cqlLibrarySourcePath, igPath, fhirContext, includeDependencies, includeVersion);
+            } catch (CQLTranslatorException e) {
+                // reported as warnings; the artifact is still bundled, without the missing ValueSets
+                closure.terminologyErrors = e.getErrors();
+            }
+        }
+
+        if (includeDependencies) {
+            try {
+                closure.directLibraries = ResourceUtils.getDepLibraryResources(primaryLibrarySourcePath, fhirContext, encoding, includeVersion, logger);
+                boolean prefixed = FilenameUtils.getName(primaryLibrarySourcePath).toLowerCase().startsWith("library-");
+                closure.addLibraries(primaryLibrarySourcePath, closure.directLibraries, fhirContext, encoding, includeVersion, prefixed);
+            } catch (Exception e) {
+                logger.error(primaryLibrarySourcePath, e);
+                closure.librariesResolved = false;
+            }
+        }
+
+        return closure;
+    }
+
+    // Each library is only walked once, however many libraries include it
+    private void addLibraries(String path, Map<String, IBaseResource> dependencies, FhirContext fhirContext, IOUtils.Encoding encoding,
+                              boolean includeVersion, boolean prefixed) {
+        for (IBaseResource resource : dependencies.values()) {
+            if (libraries.putIfAbsent(resource.getIdElement().getIdPart(), resource) != null) {
+                continue;
+            }
+            // NOTE: Assuming dependency library will be in directory of dependent.
+            String dependencyPath = IOUtils.getResourceFileName(IOUtils.getResourceDirectory(path), resource, encoding, fhirContext, includeVersion, prefixed);
+            libraryPaths.add(dependencyPath);
+            addLibraries(dependencyPath, ResourceUtils.getDepLibraryResources(dependencyPath, fhirContext, encoding, includeVersion, logger),
+                    fhirContext, encoding, includeVersion, prefixed);
+        }
+    }
+
+    /**
+     * @return The ValueSets, keyed by the canonical used in the CQL
+     */
+    public Map<String, IBaseResource> getValueSets() {
+        return valueSets;
+    }
+
+    /**
+     * @return The ValueSets referenced by the CQL that could not be found
+     */
+    public Set<String> getTerminologyErrors() {
+        return terminologyErrors;
+    }
+
+    public Map<String, IBaseResource> getDirectLibraries() {
+        return directLibraries;
+    }
+
+    /**
+     * @return Every dependency Library, direct or transitive, keyed by id
+     */
+    public Map<String, IBaseResource> getLibraries() {
+        return libraries;
+    }
+
+    public List<String> getLibraryPaths() {
+        return libraryPaths;
+    }
+
+    /**
+     * @return false if the dependency Libraries could not be resolved
+     */
+    public boolean isLibrariesResolved() {
+        return librariesResolved;
+    }
+
+    /**
+     * Adds the ValueSets and dependency Libraries to the resources of a bundle, keyed by id.
+     */
+    public void addTo(Map<String, IBaseResource> resources) {
+        for (IBaseResource valueSet : valueSets.values()) {
+            resources.putIfAbsent(valueSet.getIdElement().getIdPart(), valueSet);
+        }
+        for (Map.Entry<String, IBaseResource> library : libraries.entrySet()) {
+            resources.putIfAbsent(library.getKey(), library.getValue());
+        }
+    }
+}
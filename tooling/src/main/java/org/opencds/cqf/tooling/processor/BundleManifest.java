@@ -0,0 +1,278 @@
+package org.opencds.cqf.tooling.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.ExtensionUtil;
+
+/**
+ * Records the inputs of each bundle built by {@link AbstractResourceProcessor#bundleResources} so that an
+ * incremental run can skip the bundles whose inputs have not changed.
+ * <p>
+ * Each bundle (e.g. measure/EXM125) is recorded with the bundling options and the SHA-256 hash of each of its
+ * inputs: the resource, the primary library and its CQL, the dependency libraries, the test case directory and the
+ * ValueSets it references. Files and directories are recorded by path, relative to the IG root; ValueSets are
+ * recorded by canonical url (prefixed with {@link #VALUESET_INPUT_PREFIX}) and hashed by content, since they are
+ * resolved through the ValueSet index rather than by file. A change to any input only invalidates the bundles
+ * recording it.
+ * <p>
+ * Resource files are hashed without the elements refreshIG updates on every run (the date and the
+ * cqfm-softwaresystem stamp), so a refresh that changes nothing else leaves the bundles up to date.
+ * <p>
+ * The manifest lives in .cqf-cache/bundle-manifest.json at the root of the IG and can be deleted at any time to
+ * force a full rebuild.
+ */
+public class BundleManifest {
+    private static final Logger logger = LoggerFactory.getLogger(BundleManifest.class);
+
+    public static final String FILE_NAME = "bundle-manifest.json";
+    public static final String VALUESET_INPUT_PREFIX = "ValueSet|";
+
+    private static final String CACHE_FOLDER = ".cqf-cache";
+    private static final int FORMAT_VERSION = 2;
+    private static final String MISSING = "missing";
+    private static final String SOFTWARE_SYSTEM_EXTENSION_URL = "http://hl7.org/fhir/us/cqfmeasures/StructureDefinition/cqfm-softwaresystem";
+
+    private static class Entry {
+        String options;
+        Map<String, String> inputs = new TreeMap<>();
+    }
+
+    private static class Contents {
+        int version = FORMAT_VERSION;
+        Map<String, Entry> bundles = new TreeMap<>();
+    }
+
+    private final Path path;
+    private final Path root;
+    private final FhirContext fhirContext;
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Inputs are shared by many bundles (e.g. FHIRHelpers), so each is only hashed once per run
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+
+    private BundleManifest(Path path, Path root, FhirContext fhirContext) {
+        this.path = path;
+        this.root = root;
+        this.fhirContext = fhirContext;
+    }
+
+    public static Path getDefaultPath(String igPath) {
+        return Paths.get(igPath).toAbsolutePath().normalize().resolve(CACHE_FOLDER).resolve(FILE_NAME);
+    }
+
+    /**
+     * Loads the manifest of the IG, or starts an empty one if there is none (or it can not be read).
+     */
+    public static BundleManifest load(String igPath, FhirContext fhirContext) {
+        BundleManifest manifest = new BundleManifest(getDefaultPath(igPath), Paths.get(igPath).toAbsolutePath().normalize(), fhirContext);
+        if (Files.isRegularFile(manifest.path)) {
+            try (Reader reader = Files.newBufferedReader(manifest.path, StandardCharsets.UTF_8)) {
+                Contents contents = manifest.gson.fromJson(reader, Contents.class);
+                if (contents != null && contents.version == FORMAT_VERSION && contents.bundles != null) {
+                    manifest.entries.putAll(contents.bundles);
+                }
+            } catch (IOException | JsonParseException e) {
+                logger.warn("Unable to read the bundle manifest {}, all bundles will be rebuilt: {}", manifest.path, e.getMessage());
+            }
+        }
+        return manifest;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param bundleKey The bundle, as resource type group and name (e.g. measure/EXM125)
+     * @param options The bundling options the bundle would be built with
+     * @return The inputs of the bundle that changed since it was recorded, or the reason it was not recorded; empty
+     * if the bundle is up to date
+     */
+    public List<String> getChangedInputs(String bundleKey, String options) {
+        List<String> changed = new ArrayList<>();
+        Entry entry = entries.get(bundleKey);
+        if (entry == null) {
+            changed.add("(not in the manifest)");
+        } else if (!Objects.equals(entry.options, options)) {
+            changed.add("(bundling options)");
+        } else {
+            for (Map.Entry<String, String> input : entry.inputs.entrySet()) {
+                if (!input.getValue().equals(hashInput(input.getKey()))) {
+                    changed.add(input.getKey());
+                }
+            }
+        }
+        return changed;
+    }
+
+    public boolean isUpToDate(String bundleKey, String options) {
+        return getChangedInputs(bundleKey, options).isEmpty();
+    }
+
+    /**
+     * Records the inputs of a bundle that was just built, replacing its previous entry.
+     *
+     * @param inputs Paths of the input files and directories, and ValueSet inputs ({@link #VALUESET_INPUT_PREFIX}
+     *               followed by the canonical url)
+     */
+    public void record(String bundleKey, String options, Collection<String> inputs) {
+        Entry entry = new Entry();
+        entry.options = options;
+        for (String input : inputs) {
+            if (input == null) {
+                continue;
+            }
+            String key = input.startsWith(VALUESET_INPUT_PREFIX) ? input : toRelativePath(input);
+            entry.inputs.put(key, hashInput(key));
+        }
+        entries.put(bundleKey, entry);
+    }
+
+    /**
+     * Removes a bundle, e.g. because it failed to build, so it is rebuilt on the next run.
+     */
+    public void remove(String bundleKey) {
+        entries.remove(bundleKey);
+    }
+
+    /**
+     * @return The bundles that recorded the input (a path or ValueSet input)
+     */
+    public Set<String> getBundlesDependingOn(String input) {
+        String key = input.startsWith(VALUESET_INPUT_PREFIX) ? input : toRelativePath(input);
+        return entries.entrySet().stream()
+                .filter(entry -> entry.getValue().inputs.containsKey(key))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    public synchronized void save() {
+        Contents contents = new Contents();
+        contents.bundles.putAll(entries);
+        try {
+            Files.createDirectories(path.getParent());
+            Path temp = Files.createTempFile(path.getParent(), FILE_NAME, ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(contents, writer);
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to write the bundle manifest {}: {}", path, e.getMessage());
+        }
+    }
+
+    private String toRelativePath(String input) {
+        Path inputPath = Paths.get(input).toAbsolutePath().normalize();
+        if (inputPath.startsWith(root)) {
+            inputPath = root.relativize(inputPath);
+        }
+        return inputPath.toString().replace('\\', '/');
+    }
+
+    private String hashInput(String key) {
+        return hashes.computeIfAbsent(key, k -> k.startsWith(VALUESET_INPUT_PREFIX)
+                ? hashValueSet(k.substring(VALUESET_INPUT_PREFIX.length()))
+                : hashInputPath(root.resolve(k)));
+    }
+
+    private String hashInputPath(Path path) {
+        IOUtils.Encoding encoding = IOUtils.getEncoding(path.toString());
+        if (Files.isRegularFile(path) && (encoding == IOUtils.Encoding.JSON || encoding == IOUtils.Encoding.XML)) {
+            String normalized = normalizeResource(path, encoding);
+            if (normalized != null) {
+                return DigestUtils.sha256Hex(normalized);
+            }
+        }
+        return hashPath(path);
+    }
+
+    // The resource without its date and software system stamp, or null if the file is not a resource
+    private String normalizeResource(Path path, IOUtils.Encoding encoding) {
+        IBaseResource resource;
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            resource = IOUtils.getParser(encoding, fhirContext).parseResource(reader);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Hashing {} as a file, it could not be read as a resource: {}", path, e.getMessage());
+            return null;
+        }
+        BaseRuntimeChildDefinition date = fhirContext.getResourceDefinition(resource).getChildByName("date");
+        if (date != null) {
+            date.getMutator().setValue(resource, null);
+        }
+        ExtensionUtil.clearExtensionsByUrl(resource, SOFTWARE_SYSTEM_EXTENSION_URL);
+        return fhirContext.newJsonParser().encodeResourceToString(resource);
+    }
+
+    private String hashValueSet(String canonical) {
+        IBaseResource valueSet = ValueSetsProcessor.getValueSetIndex(fhirContext).get(canonical);
+        if (valueSet == null) {
+            return MISSING;
+        }
+        return DigestUtils.sha256Hex(fhirContext.newJsonParser().encodeResourceToString(valueSet));
+    }
+
+    // A directory is hashed by the relative path and content of each of its files, so added and removed files count
+    private static String hashPath(Path path) {
+        try {
+            if (Files.isRegularFile(path)) {
+                try (InputStream stream = Files.newInputStream(path)) {
+                    return DigestUtils.sha256Hex(stream);
+                }
+            }
+            if (Files.isDirectory(path)) {
+                List<Path> files;
+                try (Stream<Path> walk = Files.walk(path)) {
+                    files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                }
+                StringBuilder tree = new StringBuilder();
+                for (Path file : files) {
+                    tree.append(path.relativize(file).toString().replace('\\', '/')).append('\0').append(hashPath(file)).append('\n');
+                }
+                return DigestUtils.sha256Hex(tree.toString());
+            }
+        } catch (IOException e) {
+            logger.debug("Unable to hash bundle input {}: {}", path, e.getMessage());
+        }
+        return MISSING;
+    }
+}
@@ -2,12 +2,17 @@ package org.opencds.cqf.tooling.processor;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 import org.cqframework.cql.cql2elm.CqlCompilerException;
 import org.cqframework.cql.cql2elm.CqlCompilerOptions;
@@ -18,14 +23,17 @@ import org.cqframework.cql.cql2elm.DefaultModelInfoProvider;
 import org.cqframework.cql.cql2elm.LibraryManager;
 import org.cqframework.cql.cql2elm.ModelManager;
 import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.cqframework.cql.cql2elm.model.Model;
 import org.cqframework.cql.cql2elm.quick.FhirLibrarySourceProvider;
 import org.cqframework.cql.elm.requirements.fhir.DataRequirementsProcessor;
 import org.cqframework.cql.elm.tracking.TrackBack;
 import org.fhir.ucum.UcumService;
+import org.hl7.cql.model.ModelIdentifier;
 import org.hl7.cql.model.NamespaceInfo;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.r5.context.IWorkerContext.ILoggingService;
+import org.hl7.fhir.r5.formats.JsonParser;
 import org.hl7.fhir.r5.model.DataRequirement;
 import org.hl7.fhir.r5.model.ParameterDefinition;
 import org.hl7.fhir.r5.model.RelatedArtifact;
@@ -33,13 +41,19 @@ import org.hl7.fhir.utilities.npm.NpmPackage;
 import org.hl7.fhir.utilities.validation.ValidationMessage;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueType;
+import org.opencds.cqf.tooling.common.TaskExecutor;
+import org.opencds.cqf.tooling.cql.CqlDependencyGraph;
+import org.opencds.cqf.tooling.cql.ElmTranslationCache;
 import org.opencds.cqf.tooling.npm.ILibraryReader;
 import org.opencds.cqf.tooling.npm.NpmLibrarySourceProvider;
 import org.opencds.cqf.tooling.npm.NpmModelInfoProvider;
+import org.opencds.cqf.tooling.npm.NpmPackageIndex;
 import org.opencds.cqf.tooling.utilities.ResourceUtils;
 
 public class CqlProcessor {
 
+    public static final String PARALLELISM_PROPERTY = "cqf.tooling.cql.parallelism";
+
     /**
      * information about a cql file
      */
@@ -92,6 +106,12 @@ public class CqlProcessor {
      */
     private List<NpmPackage> packages;
 
+    /**
+     * Resolves library source and model info from the packages, shared by all library managers
+     * so each package lookup is made once per run
+     */
+    private NpmPackageIndex packageIndex;
+
     /**
      * All the file paths cql files might be found in (absolute local file paths)
      *
@@ -162,7 +182,7 @@ public class CqlProcessor {
     public void execute() throws FHIRException {
         try {
             logger.logMessage("Translating CQL source");
-            fileMap = new HashMap<>();
+            fileMap = new ConcurrentHashMap<>();
 
             // foreach folder
             for (String folder : folders) {
@@ -254,29 +274,34 @@ public class CqlProcessor {
 
         CqlTranslatorOptions options = ResourceUtils.getTranslatorOptions(folder);
 
-        // Setup
-        // Construct DefaultLibrarySourceProvider
-        // Construct FhirLibrarySourceProvider
-        ModelManager modelManager = new ModelManager();
-        LibraryManager libraryManager = new LibraryManager(modelManager, options.getCqlCompilerOptions());
-        if (options.getCqlCompilerOptions().getValidateUnits()) {
-            libraryManager.setUcumService(ucumService);
+        // Models and compiled libraries are shared by every LibraryManager used for the folder, so a library
+        // included by several others is only compiled once, whichever thread compiles it
+        Map<ModelIdentifier, Model> modelCache = new ConcurrentHashMap<>();
+        Map<VersionedIdentifier, CompiledLibrary> libraryCache = new ConcurrentHashMap<>();
+        LibraryManager libraryManager = createLibraryManager(folder, options, modelCache, libraryCache);
+
+        ElmTranslationCache translationCache = ElmTranslationCache.forFolder(folder);
+
+        File[] cqlFiles = new File(folder).listFiles(getCqlFilenameFilter());
+        boolean hadCqlFiles = cqlFiles.length > 0;
+        int parallelism = Math.min(getParallelism(), cqlFiles.length);
+        if (parallelism > 1) {
+            translateFilesInParallel(cqlFiles, parallelism, () -> createLibraryManager(folder, options, modelCache, libraryCache),
+                    options, translationCache);
         }
-        if (packages != null) {
-            modelManager.getModelInfoLoader().registerModelInfoProvider(new NpmModelInfoProvider(packages, reader, logger), true);
-            libraryManager.getLibrarySourceLoader().registerProvider(new NpmLibrarySourceProvider(packages, reader, logger));
+        else {
+            // foreach *.cql file
+            for (File file : cqlFiles) {
+                translateFile(libraryManager, file, options, translationCache);
+            }
         }
-        libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(Paths.get(folder)));
-        libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
-        modelManager.getModelInfoLoader().registerModelInfoProvider(new DefaultModelInfoProvider(Paths.get(folder)));
-
-        loadNamespaces(libraryManager);
 
-        // foreach *.cql file
-        boolean hadCqlFiles = false;
-        for (File file : new File(folder).listFiles(getCqlFilenameFilter())) {
-            hadCqlFiles = true;
-            translateFile(libraryManager, file, options.getCqlCompilerOptions());
+        if (translationCache.isEnabled()) {
+            logger.logDebugMessage(ILoggingService.LogCategory.PROGRESS, String.format("ELM translation cache %s: %d hit(s), %d miss(es)",
+                    translationCache.getDirectory(), translationCache.getHitCount(), translationCache.getMissCount()));
+        }
+        if (packageIndex != null) {
+            logger.logDebugMessage(ILoggingService.LogCategory.PROGRESS, String.format("Npm package index: %s", packageIndex.getStatistics()));
         }
 
         if (hadCqlFiles) {
@@ -296,6 +321,73 @@ public class CqlProcessor {
         }
     }
 
+    private synchronized NpmPackageIndex getPackageIndex() {
+        if (packageIndex == null) {
+            packageIndex = new NpmPackageIndex(packages, reader, logger);
+        }
+        return packageIndex;
+    }
+
+    private LibraryManager createLibraryManager(String folder, CqlTranslatorOptions options,
+            Map<ModelIdentifier, Model> modelCache, Map<VersionedIdentifier, CompiledLibrary> libraryCache) {
+        // Setup
+        // Construct DefaultLibrarySourceProvider
+        // Construct FhirLibrarySourceProvider
+        ModelManager modelManager = new ModelManager(modelCache);
+        LibraryManager libraryManager = new LibraryManager(modelManager, options.getCqlCompilerOptions(), libraryCache);
+        if (options.getCqlCompilerOptions().getValidateUnits()) {
+            libraryManager.setUcumService(ucumService);
+        }
+        if (packages != null) {
+            NpmPackageIndex index = getPackageIndex();
+            modelManager.getModelInfoLoader().registerModelInfoProvider(new NpmModelInfoProvider(index), true);
+            libraryManager.getLibrarySourceLoader().registerProvider(new NpmLibrarySourceProvider(index));
+        }
+        libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(Paths.get(folder)));
+        libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+        modelManager.getModelInfoLoader().registerModelInfoProvider(new DefaultModelInfoProvider(Paths.get(folder)));
+
+        loadNamespaces(libraryManager);
+        return libraryManager;
+    }
+
+    /**
+     * The number of CQL files translated concurrently, from the cqf.tooling.cql.parallelism system property
+     * (defaults to the parallelism of the {@link TaskExecutor}). A value of 1 translates the files one at a time.
+     */
+    public static int getParallelism() {
+        return Math.max(1, Integer.getInteger(PARALLELISM_PROPERTY, TaskExecutor.getConfiguredParallelism()));
+    }
+
+    /**
+     * Translates the files of a folder on a work-stealing pool, following the include graph of the folder: a
+     * library is only translated once the libraries it includes have been, so it reuses their compiled form.
+     * Each worker thread uses its own LibraryManager (the managers are not thread-safe), all sharing the
+     * folder's model and compiled library caches.
+     */
+    private void translateFilesInParallel(File[] cqlFiles, int parallelism, Supplier<LibraryManager> libraryManagerFactory,
+            CqlTranslatorOptions options, ElmTranslationCache translationCache) {
+        CqlDependencyGraph graph;
+        try {
+            graph = CqlDependencyGraph.build(Arrays.asList(cqlFiles));
+        } catch (IOException e) {
+            logger.logDebugMessage(ILoggingService.LogCategory.PROGRESS, String.format("Unable to read the CQL include graph, translating serially: %s", e.getMessage()));
+            LibraryManager libraryManager = libraryManagerFactory.get();
+            for (File file : cqlFiles) {
+                translateFile(libraryManager, file, options, translationCache);
+            }
+            return;
+        }
+
+        ThreadLocal<LibraryManager> workerLibraryManager = ThreadLocal.withInitial(libraryManagerFactory);
+        ExecutorService executor = Executors.newWorkStealingPool(parallelism);
+        try {
+            graph.execute(file -> translateFile(workerLibraryManager.get(), file, options, translationCache), executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     private void loadNamespaces(LibraryManager libraryManager) {
         if (namespaceInfo != null) {
             libraryManager.getNamespaceManager().addNamespace(namespaceInfo);
@@ -342,11 +434,49 @@ public class CqlProcessor {
         }
     }
 
-    private void translateFile(LibraryManager libraryManager, File file, CqlCompilerOptions options) {
-        logger.logMessage(String.format("Translating CQL source in file %s", file.toString()));
+    private boolean loadCachedTranslation(ElmTranslationCache.Entry cached, CqlSourceFileInformation result) {
+        if (cached == null || cached.getRequirements() == null) {
+            return false;
+        }
+
+        try {
+            org.hl7.fhir.r5.model.Library requirementsLibrary =
+                    (org.hl7.fhir.r5.model.Library) new JsonParser().parse(cached.getRequirements());
+            result.setElm(cached.getElmXml().getBytes());
+            result.setIdentifier(cached.getIdentifier());
+            result.setJsonElm(cached.getElmJson() == null ? null : cached.getElmJson().getBytes());
+            result.getErrors().addAll(cached.getMessages());
+            result.relatedArtifacts.addAll(requirementsLibrary.getRelatedArtifact());
+            result.parameters.addAll(requirementsLibrary.getParameter());
+            result.dataRequirements.addAll(requirementsLibrary.getDataRequirement());
+            return true;
+        } catch (Exception e) {
+            logger.logDebugMessage(ILoggingService.LogCategory.PROGRESS, String.format("Ignoring cached translation: %s", e.getMessage()));
+            result.setElm(null);
+            result.setIdentifier(null);
+            result.setJsonElm(null);
+            result.getErrors().clear();
+            result.relatedArtifacts.clear();
+            result.parameters.clear();
+            result.dataRequirements.clear();
+            return false;
+        }
+    }
+
+    private void translateFile(LibraryManager libraryManager, File file, CqlTranslatorOptions translatorOptions, ElmTranslationCache translationCache) {
+        CqlCompilerOptions options = translatorOptions.getCqlCompilerOptions();
         CqlSourceFileInformation result = new CqlSourceFileInformation();
         fileMap.put(file.getAbsoluteFile().toString(), result);
 
+        String cacheKey = translationCache.computeKey(file, translatorOptions, namespaceInfo == null ? null : namespaceInfo.getUri(),
+                libraryManager.getLibrarySourceLoader());
+        if (loadCachedTranslation(translationCache.get(cacheKey), result)) {
+            logger.logMessage(String.format("Using cached translation of CQL source in file %s", file.toString()));
+            return;
+        }
+
+        logger.logMessage(String.format("Translating CQL source in file %s", file.toString()));
+
         if (options.getValidateUnits()) {
             libraryManager.setUcumService(ucumService);
         }
@@ -406,6 +536,12 @@ public class CqlProcessor {
                     // Extract dataRequirement data
                     result.dataRequirements.addAll(requirementsLibrary.getDataRequirement());
 
+                    ElmTranslationCache.Entry entry = new ElmTranslationCache.Entry(result.getIdentifier(),
+                            new String(result.getElm()), new String(result.getJsonElm()));
+                    entry.addMessages(result.getErrors());
+                    entry.setRequirements(new JsonParser().composeString(requirementsLibrary));
+                    translationCache.put(cacheKey, entry);
+
                     logger.logMessage("CQL translation completed successfully.");
                 } catch (Exception ex) {
                     logger.logMessage(String.format("CQL Translation succeeded for file: '%s', but ELM generation failed with the following error: %s", file.getAbsolutePath(), ex.getMessage()));
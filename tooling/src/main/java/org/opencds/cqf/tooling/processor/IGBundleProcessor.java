@@ -3,11 +3,14 @@ package org.opencds.cqf.tooling.processor;
 import ca.uhn.fhir.context.FhirContext;
 import org.opencds.cqf.tooling.measure.MeasureProcessor;
 import org.opencds.cqf.tooling.questionnaire.QuestionnaireProcessor;
+import org.opencds.cqf.tooling.utilities.ContentAddressedFileStore;
 import org.opencds.cqf.tooling.utilities.HttpClientUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 import org.opencds.cqf.tooling.utilities.LogUtils;
+import org.opencds.cqf.tooling.utilities.PostFailureJournal;
 import org.opencds.cqf.tooling.utilities.ResourceUtils;
+import org.opencds.cqf.tooling.utilities.cache.ResourceCaches;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,6 +25,8 @@ public class IGBundleProcessor {
     MeasureProcessor measureProcessor;
     PlanDefinitionProcessor planDefinitionProcessor;
     QuestionnaireProcessor questionnaireProcessor;
+    private boolean incremental;
+    private boolean linkBundleFiles;
 
     public IGBundleProcessor(MeasureProcessor measureProcessor, PlanDefinitionProcessor planDefinitionProcessor, QuestionnaireProcessor questionnaireProcessor) {
         this.measureProcessor = measureProcessor;
@@ -29,11 +34,46 @@ public class IGBundleProcessor {
         this.questionnaireProcessor = questionnaireProcessor;
     }
 
+    /**
+     * When incremental, the inputs of each bundle are recorded in a {@link BundleManifest} and bundles whose inputs
+     * have not changed since the last run are left as they are.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * When set, the files of the "-files" folders are stored once in a {@link ContentAddressedFileStore} and
+     * hard-linked into each folder rather than copied. The dependency Libraries and ValueSets are then placed as a
+     * file per resource, shared by every artifact depending on them, rather than as bundles per artifact.
+     */
+    public void setLinkBundleFiles(boolean linkBundleFiles) {
+        this.linkBundleFiles = linkBundleFiles;
+    }
+
     public void bundleIg(ArrayList<String> refreshedLibraryNames, String igPath, List<String> binaryPaths, Encoding encoding, Boolean includeELM,
                          Boolean includeDependencies, Boolean includeTerminology, Boolean includePatientScenarios, Boolean versioned, Boolean addBundleTimestamp,
                          FhirContext fhirContext, String fhirUri) {
 
         System.out.println("\n");
+
+        BundleManifest bundleManifest = null;
+        if (incremental) {
+            if (fhirUri != null && !fhirUri.isEmpty()) {
+                logger.info("Incremental bundling is not used when posting to a FHIR server, every bundle will be rebuilt");
+            } else {
+                bundleManifest = BundleManifest.load(igPath, fhirContext);
+                logger.info("Incremental bundling with {} bundle(s) recorded in {}", bundleManifest.size(), bundleManifest.getPath());
+            }
+        }
+        measureProcessor.setBundleManifest(bundleManifest);
+        planDefinitionProcessor.setBundleManifest(bundleManifest);
+        questionnaireProcessor.setBundleManifest(bundleManifest);
+
+        ContentAddressedFileStore bundleFileStore = linkBundleFiles ? ContentAddressedFileStore.forIg(igPath) : null;
+        measureProcessor.setBundleFileStore(bundleFileStore);
+        planDefinitionProcessor.setBundleFileStore(bundleFileStore);
+        questionnaireProcessor.setBundleFileStore(bundleFileStore);
                 
         System.out.println("\r\n[Bundle Measures has started - " + getTime() + "]\r\n");
         measureProcessor.bundleResources(refreshedLibraryNames,
@@ -71,13 +111,23 @@ public class IGBundleProcessor {
         //run collected post calls last:
         if (HttpClientUtils.hasPostTasksInQueue()) {
             System.out.println("\r\n[POST task(s) found in queue. POST task(s) started - " + getTime() + "]");
-            HttpClientUtils.postTaskCollection();
+            HttpClientUtils.postTaskCollection(PostFailureJournal.forDirectory(igPath));
             System.out.println("\r\n[POST task(s) finished - " + getTime() + "]");
         }
 
+        if (bundleManifest != null) {
+            bundleManifest.save();
+        }
+        if (bundleFileStore != null) {
+            bundleFileStore.logStatistics();
+        }
+
+        ResourceCaches.logStatistics();
+
         // run cleanup (maven runs all ci tests sequentially and static member variables could retain values from previous tests)
         IOUtils.cleanUp();
         ResourceUtils.cleanUp();
+        ValueSetsProcessor.cleanUp();
         TestCaseProcessor.cleanUp();
     }
 
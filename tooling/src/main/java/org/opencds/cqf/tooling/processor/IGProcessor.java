@@ -108,6 +108,8 @@ public class IGProcessor extends BaseProcessor {
         //package everything
         LogUtils.info("IGProcessor.publishIG - bundleIg");
         if (!skipPackages) {
+            igBundleProcessor.setIncremental(Boolean.TRUE.equals(params.incrementalBundle));
+            igBundleProcessor.setLinkBundleFiles(Boolean.TRUE.equals(params.linkBundleFiles));
             igBundleProcessor.bundleIg(
                     refreshedResourcesNames,
                     rootDir,
@@ -10,6 +10,8 @@ import org.hl7.fhir.ParametersParameter;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.opencds.cqf.tooling.common.BaseCqfmSoftwareSystemHelper;
 import org.opencds.cqf.tooling.common.CqfmSoftwareSystem;
+import org.opencds.cqf.tooling.common.TaskExecutor;
+import org.opencds.cqf.tooling.common.TaskReport;
 import org.opencds.cqf.tooling.measure.MeasureTestProcessor;
 import org.opencds.cqf.tooling.parameter.TestIGParameters;
 import org.opencds.cqf.tooling.utilities.*;
@@ -17,7 +19,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 
@@ -67,6 +72,15 @@ public class IGTestProcessor extends BaseProcessor {
         public String getMessage() { return this.message; }
         public void setMessage(String value) { this.message = value; }
 
+        // true when the test case could not be executed, rather than executed with unexpected results
+        private boolean error;
+        public boolean isError() { return this.error; }
+        public void setError(boolean value) { this.error = value; }
+
+        private long durationMillis;
+        public long getDurationMillis() { return this.durationMillis; }
+        public void setDurationMillis(long value) { this.durationMillis = value; }
+
         @Override
         public String toString() {
             StringBuilder builder = new StringBuilder();
@@ -168,7 +182,12 @@ public class IGTestProcessor extends BaseProcessor {
             initializeFromIg(params.rootDir, params.igPath, fhirContext.getVersion().toString());
         }
 
-        CqfmSoftwareSystem testTargetSoftwareSystem =  getCqfRulerSoftwareSystem(params.fhirServerUri);
+        // Without a FHIR server the test cases are evaluated in process with the CQL engine
+        boolean evaluateInProcess = params.fhirServerUri == null || params.fhirServerUri.trim().isEmpty();
+        CqfmSoftwareSystem testTargetSoftwareSystem = evaluateInProcess ? null : getCqfRulerSoftwareSystem(params.fhirServerUri);
+        if (evaluateInProcess) {
+            logger.info("No FHIR server specified, evaluating test cases with the CQL engine");
+        }
 
         logger.info("Running IG test cases...");
 
@@ -182,7 +201,9 @@ public class IGTestProcessor extends BaseProcessor {
         TestCaseProcessor testCaseProcessor = new TestCaseProcessor();
         testCaseProcessor.refreshTestCases(params.testCasesPath, IOUtils.Encoding.JSON, fhirContext);
 
-        List<TestCaseResultSummary> TestResults = new ArrayList<TestCaseResultSummary>();
+        // Collect the test cases of every artifact, then run them all on a bounded pool
+        List<TestArtifact> testArtifacts = new ArrayList<TestArtifact>();
+        Map<String, Callable<TestCaseResultSummary>> testCaseTasks = new LinkedHashMap<String, Callable<TestCaseResultSummary>>();
 
         File[] resourceTypeTestGroups = testCasesDirectory.listFiles(file -> file.isDirectory());
         //TODO: How can we validate the set of directories here - that they're actually FHIR resources - and message when they're not. Really it doesn't matter, it can be any grouping so long as it has a corresponding path in /bundles.
@@ -193,73 +214,89 @@ public class IGTestProcessor extends BaseProcessor {
             // Get set of test artifacts
             File[] testArtifactNames = group.listFiles(file -> file.isDirectory());
 
-            for (File testArtifact : testArtifactNames) {
-                logger.info("Processing test cases for {}: {}", group.getName(), testArtifact.getName());
-                Boolean allTestArtifactTestsPassed = true;
+            for (File testArtifactDirectory : testArtifactNames) {
+                logger.info("Processing test cases for {}: {}", group.getName(), testArtifactDirectory.getName());
 
                 // Get content bundle
-                Map.Entry<String, IBaseResource> testArtifactContentBundleMap = getContentBundleForTestArtifact(group.getName(), testArtifact.getName());
+                Map.Entry<String, IBaseResource> testArtifactContentBundleMap = getContentBundleForTestArtifact(group.getName(), testArtifactDirectory.getName());
 
                 if ((testArtifactContentBundleMap == null) || testArtifactContentBundleMap.getValue() == null) {
-                    logger.info("No content bundle found for {}: {}", group.getName(), testArtifact.getName());
-                    logger.info("Done processing all test cases for {}: {}", group.getName(), testArtifact.getName());
+                    logger.info("No content bundle found for {}: {}", group.getName(), testArtifactDirectory.getName());
+                    logger.info("Done processing all test cases for {}: {}", group.getName(), testArtifactDirectory.getName());
                     continue;
                 }
 
                 ITestProcessor testProcessor = getResourceTypeTestProcessor(group.getName());
+                if (testProcessor == null) {
+                    continue;
+                }
+
+                TestArtifact testArtifact = new TestArtifact(testArtifactContentBundleMap);
+                testArtifacts.add(testArtifact);
+
                 List<Map.Entry<String, IBaseResource>> testCasesBundles =
-                    BundleUtils.getBundlesInDir(testArtifact.getPath(), fhirContext, false);
+                    BundleUtils.getBundlesInDir(testArtifactDirectory.getPath(), fhirContext, false);
 
                 for (Map.Entry<String, IBaseResource> testCaseBundleMapEntry : testCasesBundles) {
                     IBaseResource testCaseBundle = testCaseBundleMapEntry.getValue();
-                    TestCaseResultSummary testCaseResult  = new TestCaseResultSummary(group.getName(), testArtifact.getName(),
+                    TestCaseResultSummary testCaseResult  = new TestCaseResultSummary(group.getName(), testArtifactDirectory.getName(),
                         testCaseBundle.getIdElement().toString());
-                    try {
-                        logger.info("Starting processing of test case '{}' for {}: {}", testCaseBundle.getIdElement(), group.getName(), testArtifact.getName());
-                        Parameters testResults = testProcessor.executeTest(testCaseBundle, testArtifactContentBundleMap.getValue(), params.fhirServerUri);
-
-                        Boolean testPassed = false;
-                        for (ParametersParameter param : testResults.getParameter()) {
-                            if (param.getName().getValue().indexOf(MeasureTestProcessor.TestPassedKey) >= 0) {
-                                testPassed = param.getValueBoolean().isValue();
-                                break;
-                            }
-                        }
-                        testCaseResult.setTestPassed(testPassed);
-                        logger.info("Done processing test case '{}' for {}: {}", testCaseBundle.getIdElement(), group.getName(), testArtifact.getName());
-                    } catch (Exception ex) {
-                        testCaseResult.setTestPassed(false);
-                        testCaseResult.setMessage(ex.getMessage());
-                        logger.error("Error: Test case '{}' for {}: {} failed with message: {}", testCaseBundle.getIdElement(), group.getName(), testArtifact.getName(), ex.getMessage());
-                    }
-                    TestResults.add(testCaseResult);
+                    testArtifact.results.add(testCaseResult);
+                    String taskName = group.getName() + "/" + testArtifactDirectory.getName() + "/" + testCaseBundleMapEntry.getKey();
+                    testCaseTasks.put(taskName, () -> executeTestCase(testProcessor, testCaseBundle, testArtifact, testCaseResult, params.fhirServerUri));
                 }
+            }
+        }
 
-                logger.info(String.format("  Done processing all test cases for %s: %s", group.getName(), testArtifact.getName()));
-
-                if (allTestArtifactTestsPassed) {
-                    List<CqfmSoftwareSystem> softwareSystems = new ArrayList<CqfmSoftwareSystem>() {
-                        {
-                            add(testTargetSoftwareSystem);
-                        }
-                    };
-
-                    if ((fhirContext.getVersion().getVersion() == FhirVersionEnum.DSTU3) || (fhirContext.getVersion().getVersion() == FhirVersionEnum.R4)) {
-                        if (fhirContext.getVersion().getVersion() == FhirVersionEnum.DSTU3) {
-                            // Stamp the testContentBundle artifacts
-                            BundleUtils.stampDstu3BundleEntriesWithSoftwareSystems((org.hl7.fhir.dstu3.model.Bundle)testArtifactContentBundleMap.getValue(), softwareSystems, fhirContext, getRootDir());
-                        } else if (fhirContext.getVersion().getVersion() == FhirVersionEnum.R4) {
-                            BundleUtils.stampR4BundleEntriesWithSoftwareSystems((org.hl7.fhir.r4.model.Bundle)testArtifactContentBundleMap.getValue(), softwareSystems, fhirContext, getRootDir());
-                        }
-
-                        String bundleFilePath = testArtifactContentBundleMap.getKey();
-                        IBaseResource bundle = testArtifactContentBundleMap.getValue();
-                        IOUtils.writeResource(bundle, bundleFilePath, IOUtils.getEncoding(bundleFilePath), fhirContext);
-                    }
+        // Test cases against a FHIR server each load the content bundle of their artifact, which is not safe to do
+        // concurrently, so they run one at a time unless a number of threads is given (-t, or -threads=N for the
+        // tooling as a whole)
+        int threads = params.threads != null && params.threads > 0 ? params.threads
+            : evaluateInProcess || System.getProperty(TaskExecutor.THREADS_PROPERTY) != null
+                ? TaskExecutor.getConfiguredParallelism() : 1;
+        logger.info("Running {} test cases on {} thread(s)...", testCaseTasks.size(), threads);
+        TaskExecutor executor = new TaskExecutor(threads, false);
+        TaskReport taskReport;
+        try {
+            taskReport = executor.execute("TestIG", testCaseTasks, false);
+        }
+        finally {
+            executor.shutdown();
+        }
+        logger.info(taskReport.toString());
+
+        List<TestCaseResultSummary> TestResults = new ArrayList<TestCaseResultSummary>();
+        for (TestArtifact testArtifact : testArtifacts) {
+            for (TestCaseResultSummary result : testArtifact.results) {
+                if (result.getTestPassed() == null) {
+                    // the test case task itself failed (e.g. out of memory)
+                    result.setTestPassed(false);
+                    result.setError(true);
                 }
+                TestResults.add(result);
             }
+            boolean allTestArtifactTestsPassed = testArtifact.results.stream().allMatch(result -> Boolean.TRUE.equals(result.getTestPassed()));
 
-            logger.info("Done processing {} test cases", group.getName());
+            if (allTestArtifactTestsPassed && testTargetSoftwareSystem != null) {
+                List<CqfmSoftwareSystem> softwareSystems = new ArrayList<CqfmSoftwareSystem>() {
+                    {
+                        add(testTargetSoftwareSystem);
+                    }
+                };
+
+                if ((fhirContext.getVersion().getVersion() == FhirVersionEnum.DSTU3) || (fhirContext.getVersion().getVersion() == FhirVersionEnum.R4)) {
+                    if (fhirContext.getVersion().getVersion() == FhirVersionEnum.DSTU3) {
+                        // Stamp the testContentBundle artifacts
+                        BundleUtils.stampDstu3BundleEntriesWithSoftwareSystems((org.hl7.fhir.dstu3.model.Bundle)testArtifact.contentBundle.getValue(), softwareSystems, fhirContext, getRootDir());
+                    } else if (fhirContext.getVersion().getVersion() == FhirVersionEnum.R4) {
+                        BundleUtils.stampR4BundleEntriesWithSoftwareSystems((org.hl7.fhir.r4.model.Bundle)testArtifact.contentBundle.getValue(), softwareSystems, fhirContext, getRootDir());
+                    }
+
+                    String bundleFilePath = testArtifact.contentBundle.getKey();
+                    IBaseResource bundle = testArtifact.contentBundle.getValue();
+                    IOUtils.writeResource(bundle, bundleFilePath, IOUtils.getEncoding(bundleFilePath), fhirContext);
+                }
+            }
         }
 
         TestCaseResultSummaryComparator comparator = new TestCaseResultSummaryComparator();
@@ -278,6 +315,56 @@ public class IGTestProcessor extends BaseProcessor {
 
         logger.info("{} tests failed", failedTests.size());
         logger.info("{} tests passed", passedTests.size());
+
+        String resultsPath = params.resultsPath != null ? params.resultsPath : FilenameUtils.concat(getRootDir(), "test-results");
+        IGTestReportWriter reportWriter = new IGTestReportWriter(TestResults, taskReport.getElapsed(TimeUnit.MILLISECONDS));
+        reportWriter.writeJUnitXml(Paths.get(resultsPath, IGTestReportWriter.JUNIT_FILE_NAME));
+        reportWriter.writeJson(Paths.get(resultsPath, IGTestReportWriter.JSON_FILE_NAME));
+        logger.info("Test reports written to {}", resultsPath);
+    }
+
+    // The test cases of a test artifact, and the content bundle they run against
+    private static class TestArtifact {
+        private final Map.Entry<String, IBaseResource> contentBundle;
+        private final List<TestCaseResultSummary> results = new ArrayList<TestCaseResultSummary>();
+
+        private TestArtifact(Map.Entry<String, IBaseResource> contentBundle) {
+            this.contentBundle = contentBundle;
+        }
+    }
+
+    private TestCaseResultSummary executeTestCase(ITestProcessor testProcessor, IBaseResource testCaseBundle, TestArtifact testArtifact,
+            TestCaseResultSummary testCaseResult, String fhirServerUri) {
+        String group = testCaseResult.getResourceTypeGroup();
+        String artifactName = testCaseResult.getTestArtifactName();
+        long start = System.nanoTime();
+        try {
+            logger.info("Starting processing of test case '{}' for {}: {}", testCaseBundle.getIdElement(), group, artifactName);
+            Parameters testResults = testProcessor.executeTest(testCaseBundle, testArtifact.contentBundle.getValue(), fhirServerUri);
+
+            Boolean testPassed = false;
+            List<String> failedAssertions = new ArrayList<String>();
+            for (ParametersParameter param : testResults.getParameter()) {
+                if (param.getName().getValue().indexOf(MeasureTestProcessor.TestPassedKey) >= 0) {
+                    testPassed = param.getValueBoolean().isValue();
+                }
+                else if (!param.getValueBoolean().isValue()) {
+                    failedAssertions.add(param.getName().getValue());
+                }
+            }
+            testCaseResult.setTestPassed(testPassed);
+            if (!testPassed && !failedAssertions.isEmpty()) {
+                testCaseResult.setMessage("Did not match expected value: " + String.join(", ", failedAssertions));
+            }
+            logger.info("Done processing test case '{}' for {}: {}", testCaseBundle.getIdElement(), group, artifactName);
+        } catch (Exception ex) {
+            testCaseResult.setTestPassed(false);
+            testCaseResult.setError(true);
+            testCaseResult.setMessage(ex.getMessage());
+            logger.error("Error: Test case '{}' for {}: {} failed with message: {}", testCaseBundle.getIdElement(), group, artifactName, ex.getMessage());
+        }
+        testCaseResult.setDurationMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return testCaseResult;
     }
 
     private Map.Entry<String, IBaseResource> getContentBundleForTestArtifact(String groupName, String testArtifactName) {
@@ -0,0 +1,144 @@
+package org.opencds.cqf.tooling.processor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.opencds.cqf.tooling.processor.IGTestProcessor.TestCaseResultSummary;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Writes the results of a TestIG run as a JUnit XML report, for CI systems, and as a JSON report.
+ * <p>
+ * Each test artifact (e.g. measure/BreastCancerScreeningFHIR) is a test suite and each test case bundle a test case.
+ * A test case that ran but did not match its expected results is reported as a failure; a test case that could not
+ * be run is reported as an error.
+ */
+public class IGTestReportWriter {
+
+    public static final String JUNIT_FILE_NAME = "TEST-IG.xml";
+    public static final String JSON_FILE_NAME = "test-results.json";
+
+    private final List<TestCaseResultSummary> results;
+    private final long elapsedMillis;
+
+    /**
+     * @param results The test case results, in report order
+     * @param elapsedMillis The wall-clock time of the run
+     */
+    public IGTestReportWriter(List<TestCaseResultSummary> results, long elapsedMillis) {
+        this.results = results;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public void writeJUnitXml(Path path) {
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            try (OutputStream stream = Files.newOutputStream(path)) {
+                XMLStreamWriter xml = XMLOutputFactory.newFactory().createXMLStreamWriter(stream, StandardCharsets.UTF_8.name());
+                xml.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+                xml.writeStartElement("testsuites");
+                xml.writeAttribute("name", "TestIG");
+                writeCounts(xml, results);
+                xml.writeAttribute("time", seconds(elapsedMillis));
+
+                for (Map.Entry<String, List<TestCaseResultSummary>> suite : getSuites().entrySet()) {
+                    xml.writeStartElement("testsuite");
+                    xml.writeAttribute("name", suite.getKey());
+                    writeCounts(xml, suite.getValue());
+                    xml.writeAttribute("time", seconds(suite.getValue().stream().mapToLong(TestCaseResultSummary::getDurationMillis).sum()));
+
+                    for (TestCaseResultSummary result : suite.getValue()) {
+                        xml.writeStartElement("testcase");
+                        xml.writeAttribute("classname", suite.getKey().replace('/', '.'));
+                        xml.writeAttribute("name", result.getTestCaseID());
+                        xml.writeAttribute("time", seconds(result.getDurationMillis()));
+                        if (!Boolean.TRUE.equals(result.getTestPassed())) {
+                            xml.writeStartElement(result.isError() ? "error" : "failure");
+                            xml.writeAttribute("message", result.getMessage() != null ? result.getMessage() : "Test case did not pass");
+                            xml.writeEndElement();
+                        }
+                        xml.writeEndElement();
+                    }
+                    xml.writeEndElement();
+                }
+
+                xml.writeEndElement();
+                xml.writeEndDocument();
+                xml.close();
+            }
+        } catch (IOException | XMLStreamException e) {
+            throw new RuntimeException("Unable to write the test report " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    public void writeJson(Path path) {
+        JsonObject report = new JsonObject();
+        report.addProperty("tests", results.size());
+        report.addProperty("passed", results.stream().filter(result -> Boolean.TRUE.equals(result.getTestPassed())).count());
+        report.addProperty("failed", results.stream().filter(result -> !Boolean.TRUE.equals(result.getTestPassed()) && !result.isError()).count());
+        report.addProperty("errors", results.stream().filter(TestCaseResultSummary::isError).count());
+        report.addProperty("elapsedMillis", elapsedMillis);
+
+        JsonArray testCases = new JsonArray();
+        for (TestCaseResultSummary result : results) {
+            JsonObject testCase = new JsonObject();
+            testCase.addProperty("group", result.getResourceTypeGroup());
+            testCase.addProperty("artifact", result.getTestArtifactName());
+            testCase.addProperty("testCase", result.getTestCaseID());
+            testCase.addProperty("passed", Boolean.TRUE.equals(result.getTestPassed()));
+            testCase.addProperty("error", result.isError());
+            testCase.addProperty("durationMillis", result.getDurationMillis());
+            if (result.getMessage() != null) {
+                testCase.addProperty("message", result.getMessage());
+            }
+            testCases.add(testCase);
+        }
+        report.add("testCases", testCases);
+
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write the test report " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    // The results grouped by test artifact, in result order
+    private Map<String, List<TestCaseResultSummary>> getSuites() {
+        Map<String, List<TestCaseResultSummary>> suites = new LinkedHashMap<>();
+        for (TestCaseResultSummary result : results) {
+            suites.computeIfAbsent(result.getResourceTypeGroup() + "/" + result.getTestArtifactName(), k -> new ArrayList<>()).add(result);
+        }
+        return suites;
+    }
+
+    private static void writeCounts(XMLStreamWriter xml, List<TestCaseResultSummary> results) throws XMLStreamException {
+        long errors = results.stream().filter(TestCaseResultSummary::isError).count();
+        long failures = results.stream().filter(result -> !Boolean.TRUE.equals(result.getTestPassed())).count() - errors;
+        xml.writeAttribute("tests", Integer.toString(results.size()));
+        xml.writeAttribute("failures", Long.toString(failures));
+        xml.writeAttribute("errors", Long.toString(errors));
+    }
+
+    private static String seconds(long millis) {
+        return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+    }
+}
@@ -12,11 +12,19 @@ import ca.uhn.fhir.context.FhirContext;
 public class PlanDefinitionProcessor extends AbstractResourceProcessor {
 
     @SuppressWarnings("this-escape")
-    public PlanDefinitionProcessor(LibraryProcessor libraryProcessor, CDSHooksProcessor cdsHooksProcessor) {
-        setLibraryProcessor(libraryProcessor);
+    public PlanDefinitionProcessor(CDSHooksProcessor cdsHooksProcessor) {
         setCDSHooksProcessor(cdsHooksProcessor);
     }
 
+    /**
+     * @deprecated The LibraryProcessor is not used, the bundle dependencies are resolved by the
+     * ArtifactDependencyClosure; use {@link #PlanDefinitionProcessor(CDSHooksProcessor)}.
+     */
+    @Deprecated
+    public PlanDefinitionProcessor(LibraryProcessor libraryProcessor, CDSHooksProcessor cdsHooksProcessor) {
+        this(cdsHooksProcessor);
+    }
+
     //abstract methods to override:
     @Override
     protected String getSourcePath(FhirContext fhirContext, Map.Entry<String, IBaseResource> resourceEntry) {
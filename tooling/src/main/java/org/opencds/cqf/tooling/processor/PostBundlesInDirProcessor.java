@@ -2,12 +2,16 @@ package org.opencds.cqf.tooling.processor;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.opencds.cqf.tooling.parameter.PostBundlesInDirParameters;
+import org.opencds.cqf.tooling.utilities.BundleCoalescer;
 import org.opencds.cqf.tooling.utilities.BundleUtils;
 import org.opencds.cqf.tooling.utilities.HttpClientUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
+import org.opencds.cqf.tooling.utilities.PostFailureJournal;
 
 import ca.uhn.fhir.context.FhirContext;
 import org.slf4j.Logger;
@@ -60,15 +64,65 @@ public class PostBundlesInDirProcessor {
         Encoding encoding = params.encoding;
         FhirContext fhirContext = getFhirContext(fhirVersion);
 
+        PostFailureJournal failureJournal = PostFailureJournal.forDirectory(params.directoryPath);
+
         List<Map.Entry<String, IBaseResource>> resources = BundleUtils.getBundlesInDir(params.directoryPath, fhirContext);
+        if (params.coalesce != null) {
+            postCoalescedBundles(params, fhirContext, resources, failureJournal);
+            return;
+        }
+        if (params.replayFailures) {
+            Set<String> failedKeys = failureJournal.getFailedKeys(fhirUri);
+            if (failedKeys.isEmpty()) {
+                logger.info("No failed POSTs recorded in {}", failureJournal.getPath());
+                return;
+            }
+            resources = resources.stream()
+                    .filter(entry -> failedKeys.contains("Bundle/" + entry.getValue().getIdElement().getIdPart()))
+                    .collect(Collectors.toList());
+            logger.info("Replaying {} of {} failed POST(s) recorded in {}", resources.size(), failedKeys.size(), failureJournal.getPath());
+        }
         resources.forEach(entry -> postBundleToFhirUri(fhirUri, encoding, fhirContext, entry.getValue()));
+
+        if (HttpClientUtils.hasPostTasksInQueue()) {
+            HttpClientUtils.postTaskCollection(failureJournal);
+        }
+    }
+
+    private static void postCoalescedBundles(PostBundlesInDirParameters params, FhirContext fhirContext,
+                                             List<Map.Entry<String, IBaseResource>> bundles, PostFailureJournal failureJournal) {
+        if (params.fhirUri == null || params.fhirUri.equals("")) {
+            return;
+        }
+        BundleCoalescer coalescer = new BundleCoalescer(fhirContext, params.coalesce.equals("transaction"),
+                params.maxBundleEntries != null ? params.maxBundleEntries : BundleCoalescer.DEFAULT_MAX_ENTRIES,
+                BundleCoalescer.DEFAULT_MAX_BYTES);
+        bundles.forEach(entry -> coalescer.addBundle(entry.getValue()));
+        if (params.replayFailures) {
+            Set<String> failedKeys = failureJournal.getFailedKeys(params.fhirUri);
+            if (failedKeys.isEmpty()) {
+                logger.info("No failed POSTs recorded in {}", failureJournal.getPath());
+                return;
+            }
+            coalescer.retainKeys(failedKeys);
+            logger.info("Replaying {} of {} failed POST(s) recorded in {}", coalescer.getResourceCount(), failedKeys.size(), failureJournal.getPath());
+        }
+
+        coalescer.post(params.fhirUri, params.encoding);
+        if (HttpClientUtils.hasPostTasksInQueue()) {
+            HttpClientUtils.postTaskCollection(failureJournal);
+        }
+
+        List<BundleCoalescer.EntryOutcome> outcomes = coalescer.getOutcomes();
+        long failed = outcomes.stream().filter(outcome -> !outcome.isSuccessful()).count();
+        logger.info("{} of {} bundle entries posted successfully", outcomes.size() - failed, outcomes.size());
     }
 
 	private static void postBundleToFhirUri(String fhirUri, Encoding encoding, FhirContext fhirContext, IBaseResource bundle) {
         if (fhirUri != null && !fhirUri.equals("")) {  
             try {
                 HttpClientUtils.post(fhirUri, bundle, encoding, fhirContext);
-                logger.info("Resource successfully posted to FHIR server ({}): {}", fhirUri, bundle.getIdElement().getIdPart());
+                logger.info("Resource queued to be posted to FHIR server ({}): {}", fhirUri, bundle.getIdElement().getIdPart());
             } catch (Exception e) {
                 logger.error("Error occurred for element {}: {}",bundle.getIdElement().getIdPart(), e.getMessage());
             }  
@@ -8,6 +8,7 @@ import org.hl7.fhir.r4.model.Group;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Reference;
 import org.opencds.cqf.tooling.utilities.BundleUtils;
+import org.opencds.cqf.tooling.utilities.ContentAddressedFileStore;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.LogUtils;
 import org.opencds.cqf.tooling.utilities.ResourceUtils;
@@ -229,6 +230,14 @@ public class TestCaseProcessor
      * @return A summary message indicating the number of files copied for the specified test case path.
      */
     public static String bundleTestCaseFiles(String igPath, String contextResourceType, String libraryName, String destPath, FhirContext fhirContext) {
+        return bundleTestCaseFiles(igPath, contextResourceType, libraryName, destPath, fhirContext, null);
+    }
+
+    /**
+     * @param fileStore The store linking the test case files into the destination, or null to copy them
+     */
+    public static String bundleTestCaseFiles(String igPath, String contextResourceType, String libraryName, String destPath, FhirContext fhirContext,
+                                             @Nullable ContentAddressedFileStore fileStore) {
         String igTestCasePath = FilenameUtils.concat(FilenameUtils.concat(FilenameUtils.concat(igPath, IGProcessor.testCasePathElement), contextResourceType), libraryName);
         List<String> testCasePaths = IOUtils.getFilePaths(igTestCasePath, false);
         Set<String> measureReportPaths = IOUtils.getMeasureReportPaths(fhirContext);
@@ -237,7 +246,7 @@ public class TestCaseProcessor
         int tracker = 0;
         for (String testPath : testCasePaths) {
             String bundleTestDestPath = FilenameUtils.concat(destPath, FilenameUtils.getName(testPath));
-            if (IOUtils.copyFile(testPath, bundleTestDestPath)) {
+            if (copyFile(testPath, bundleTestDestPath, fileStore)) {
                 tracker++;
             }
 
@@ -263,7 +272,7 @@ public class TestCaseProcessor
                             IOUtils.writeResource(measureReport, destPath, IOUtils.Encoding.JSON, fhirContext);
                         } else {
                             String bundleTestContentDestPath = FilenameUtils.concat(destPath, FilenameUtils.getName(testContentPath));
-                            if (IOUtils.copyFile(testContentPath, bundleTestContentDestPath)) {
+                            if (copyFile(testContentPath, bundleTestContentDestPath, fileStore)) {
                                 tracker++;
                             }
                         }
@@ -274,6 +283,10 @@ public class TestCaseProcessor
         return "\nBundle Test Case Files: " + tracker + " files copied for " + igTestCasePath;
     }
 
+    private static boolean copyFile(String inputPath, String outputPath, ContentAddressedFileStore fileStore) {
+        return fileStore == null ? IOUtils.copyFile(inputPath, outputPath) : fileStore.copyFile(inputPath, outputPath);
+    }
+
     public static void cleanUp() {
         copiedFilePaths = new HashSet<>();
     }
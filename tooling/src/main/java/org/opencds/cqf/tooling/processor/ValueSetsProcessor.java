@@ -3,73 +3,92 @@ package org.opencds.cqf.tooling.processor;
 import ca.uhn.fhir.context.FhirContext;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.opencds.cqf.tooling.cql.exception.CQLTranslatorException;
+import org.opencds.cqf.tooling.utilities.CanonicalResourceIndex;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 import org.opencds.cqf.tooling.utilities.ResourceUtils;
+import org.opencds.cqf.tooling.utilities.cache.ResourceCaches;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 public class ValueSetsProcessor {
-    private static Map<String, IBaseResource> copyToUrls(List<IBaseResource> valueSets, FhirContext fhirContext) {
+    private static CanonicalResourceIndex indexValueSets(List<IBaseResource> valueSets, FhirContext fhirContext) {
         switch (fhirContext.getVersion().getVersion()) {
         case DSTU3:
-            return copyToStu3Urls(valueSets, fhirContext);
+            return indexStu3ValueSets(valueSets);
         case R4:
-            return copyToR4Urls(valueSets, fhirContext);
+            return indexR4ValueSets(valueSets);
         default:
             throw new IllegalArgumentException(
                     "Unknown fhir version: " + fhirContext.getVersion().getVersion().getFhirVersionString());
         }
     }
 
-    private static Map<String, IBaseResource> copyToStu3Urls(List<IBaseResource> valueSets, FhirContext fhirContext) {
-        Map<String, IBaseResource> valueSetUrls = new HashMap<String, IBaseResource>();
+    private static CanonicalResourceIndex indexStu3ValueSets(List<IBaseResource> valueSets) {
+        CanonicalResourceIndex index = new CanonicalResourceIndex();
         for (IBaseResource resource : valueSets) {
             if (resource instanceof org.hl7.fhir.dstu3.model.ValueSet) {
-                valueSetUrls.putIfAbsent(((org.hl7.fhir.dstu3.model.ValueSet)resource).getUrl(), resource);
+                org.hl7.fhir.dstu3.model.ValueSet valueSet = (org.hl7.fhir.dstu3.model.ValueSet) resource;
+                index.add(valueSet.getUrl(), valueSet.getVersion(), valueSet);
             } else if (resource instanceof org.hl7.fhir.dstu3.model.Bundle) {
-                org.hl7.fhir.dstu3.model.Bundle bundle = (org.hl7.fhir.dstu3.model.Bundle) resource; 
+                org.hl7.fhir.dstu3.model.Bundle bundle = (org.hl7.fhir.dstu3.model.Bundle) resource;
                 for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent bundleEntry : bundle.getEntry()) {
-                    org.hl7.fhir.dstu3.model.ValueSet valueSet = (org.hl7.fhir.dstu3.model.ValueSet)bundleEntry.getResource();
-                    valueSetUrls.putIfAbsent((valueSet).getUrl(), valueSet);
+                    if (bundleEntry.getResource() instanceof org.hl7.fhir.dstu3.model.ValueSet) {
+                        org.hl7.fhir.dstu3.model.ValueSet valueSet = (org.hl7.fhir.dstu3.model.ValueSet) bundleEntry.getResource();
+                        index.add(valueSet.getUrl(), valueSet.getVersion(), valueSet);
+                    }
                 }
             }
         }
-        return valueSetUrls;
+        return index;
     }
 
-    private static Map<String, IBaseResource> copyToR4Urls(List<IBaseResource> valueSets, FhirContext fhirContext) {
-        Map<String, IBaseResource> valueSetUrls = new HashMap<String, IBaseResource>();
+    private static CanonicalResourceIndex indexR4ValueSets(List<IBaseResource> valueSets) {
+        CanonicalResourceIndex index = new CanonicalResourceIndex();
         for (IBaseResource resource : valueSets) {
             if (resource instanceof org.hl7.fhir.r4.model.ValueSet) {
-                valueSetUrls.putIfAbsent(((org.hl7.fhir.r4.model.ValueSet)resource).getUrl(), resource);
+                org.hl7.fhir.r4.model.ValueSet valueSet = (org.hl7.fhir.r4.model.ValueSet) resource;
+                index.add(valueSet.getUrl(), valueSet.getVersion(), valueSet);
             } else if (resource instanceof org.hl7.fhir.r4.model.Bundle) {
-                org.hl7.fhir.r4.model.Bundle bundle = (org.hl7.fhir.r4.model.Bundle) resource; 
+                org.hl7.fhir.r4.model.Bundle bundle = (org.hl7.fhir.r4.model.Bundle) resource;
                 for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent bundleEntry : bundle.getEntry()) {
-                    org.hl7.fhir.r4.model.ValueSet valueSet = (org.hl7.fhir.r4.model.ValueSet)bundleEntry.getResource();
-                    valueSetUrls.putIfAbsent((valueSet).getUrl(), valueSet);
+                    if (bundleEntry.getResource() instanceof org.hl7.fhir.r4.model.ValueSet) {
+                        org.hl7.fhir.r4.model.ValueSet valueSet = (org.hl7.fhir.r4.model.ValueSet) bundleEntry.getResource();
+                        index.add(valueSet.getUrl(), valueSet.getVersion(), valueSet);
+                    }
                 }
             }
         }
-        return valueSetUrls;
+        return index;
     }
 
-    private static Map<String, IBaseResource> cachedValueSets = null;
+    /**
+     * @return The ValueSets available in the IG, keyed by url
+     */
     public static Map<String, IBaseResource> getCachedValueSets(FhirContext fhirContext) {
-        if (cachedValueSets == null) {
-            IntitializeCachedValueSets(fhirContext);
-        }
-        return cachedValueSets;
+        return getValueSetIndex(fhirContext).getByUrl();
+    }
+
+    /**
+     * @return The ValueSets available in the IG, indexed by url and url|version
+     */
+    public static CanonicalResourceIndex getValueSetIndex(FhirContext fhirContext) {
+        return ResourceCaches.valueSets().get(fhirContext.getVersion().getVersion(),
+                version -> initializeValueSetIndex(fhirContext));
     }
 
-    private static void IntitializeCachedValueSets(FhirContext fhirContext) {
+    private static CanonicalResourceIndex initializeValueSetIndex(FhirContext fhirContext) {
         List<String> allValueSetPaths = IOUtils.getTerminologyPaths(fhirContext).stream().collect(Collectors.toList());
-        List<IBaseResource> allValueSets = IOUtils.readResources(allValueSetPaths, fhirContext); 
-            
-        cachedValueSets = ValueSetsProcessor.copyToUrls(allValueSets, fhirContext);
+        List<IBaseResource> allValueSets = IOUtils.readResources(allValueSetPaths, fhirContext);
+
+        return indexValueSets(allValueSets, fhirContext);
+    }
+
+    public static void cleanUp() {
+        ResourceCaches.valueSets().invalidateAll();
+        ResourceUtils.clearDepValueSetResources();
     }
     
     public static String getId(String baseId) {
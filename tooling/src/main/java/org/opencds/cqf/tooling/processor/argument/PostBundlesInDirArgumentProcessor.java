@@ -5,6 +5,7 @@ import static java.util.Arrays.asList;
 import org.opencds.cqf.tooling.parameter.PostBundlesInDirParameters;
 import org.opencds.cqf.tooling.processor.PostBundlesInDirProcessor.FHIRVersion;
 import org.opencds.cqf.tooling.utilities.ArgUtils;
+import org.opencds.cqf.tooling.utilities.BundleCoalescer;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 
 import joptsimple.OptionParser;
@@ -21,6 +22,9 @@ public class PostBundlesInDirArgumentProcessor {
     public static final String[] FHIR_VERSION_OPTIONS = {"fv", "fhir-version"};
     public static final String[] ENCODING_OPTIONS = {"e", "encoding"};
     public static final String[] FHIR_URI_OPTIONS = {"fs", "fhir-uri"};
+    public static final String[] REPLAY_FAILURES_OPTIONS = {"rf", "replay-failures"};
+    public static final String[] COALESCE_OPTIONS = {"cb", "coalesce"};
+    public static final String[] MAX_BUNDLE_ENTRIES_OPTIONS = {"me", "max-entries"};
 
     @SuppressWarnings("unused")
     public OptionParser build() {
@@ -37,6 +41,12 @@ public class PostBundlesInDirArgumentProcessor {
         
         OptionSpec<String> fhirUri = fhirUriBuilder.withRequiredArg().describedAs("uri of fhir server"); 
 
+        parser.acceptsAll(asList(REPLAY_FAILURES_OPTIONS), "Post only the bundles that failed to post to the FHIR server in a previous run.");
+        OptionSpecBuilder coalesceBuilder = parser.acceptsAll(asList(COALESCE_OPTIONS), "Merge the resources of all bundles into size-capped batch or transaction bundles, removing duplicates.");
+        OptionSpecBuilder maxBundleEntriesBuilder = parser.acceptsAll(asList(MAX_BUNDLE_ENTRIES_OPTIONS), "If omitted, merged bundles hold at most " + BundleCoalescer.DEFAULT_MAX_ENTRIES + " entries.");
+        OptionSpec<String> coalesce = coalesceBuilder.withRequiredArg().describedAs("batch or transaction");
+        OptionSpec<Integer> maxBundleEntries = maxBundleEntriesBuilder.withRequiredArg().ofType(Integer.class).describedAs("maximum entries per merged bundle");
+
         parser.acceptsAll(asList(OPERATION_OPTIONS),"The operation to run.");
 
         OptionSpec<Void> help = parser.acceptsAll(asList(ArgUtils.HELP_OPTIONS), "Show this help page").forHelp();
@@ -64,6 +74,13 @@ public class PostBundlesInDirArgumentProcessor {
         pbp.fhirVersion = FHIRVersion.parse(fhirVersion);
         pbp.encoding = outputEncodingEnum;
         pbp.fhirUri = fhirUri;
+        pbp.replayFailures = options.has(REPLAY_FAILURES_OPTIONS[0]);
+        String coalesce = (String)options.valueOf(COALESCE_OPTIONS[0]);
+        if (coalesce != null && !coalesce.equalsIgnoreCase("batch") && !coalesce.equalsIgnoreCase("transaction")) {
+            throw new IllegalArgumentException("Unable to parse coalesce value (expected batch or transaction): " + coalesce);
+        }
+        pbp.coalesce = coalesce == null ? null : coalesce.toLowerCase();
+        pbp.maxBundleEntries = (Integer)options.valueOf(MAX_BUNDLE_ENTRIES_OPTIONS[0]);
        
         return pbp;
     }
@@ -38,6 +38,8 @@ public class RefreshIGArgumentProcessor {
     public static final String[] MEASURE_OUTPUT_PATH_OPTIONS = {"measureOutput", "measureOutputPath", "mop"};
     public static final String[] SHOULD_APPLY_SOFTWARE_SYSTEM_STAMP_OPTIONS = { "ss", "stamp" };
     public static final String[] SHOULD_ADD_TIMESTAMP_OPTIONS = { "ts", "timestamp" };
+    public static final String[] INCREMENTAL_BUNDLE_OPTIONS = { "ib", "incremental-bundle" };
+    public static final String[] LINK_BUNDLE_FILES_OPTIONS = { "lbf", "link-bundle-files" };
 
     @SuppressWarnings("unused")
     public OptionParser build() {
@@ -78,6 +80,8 @@ public class RefreshIGArgumentProcessor {
         parser.acceptsAll(asList(INCLUDE_TERMINOLOGY_OPTIONS),"If omitted terminology will not be packaged.");
         parser.acceptsAll(asList(INCLUDE_PATIENT_SCENARIOS_OPTIONS),"If omitted patient scenario information will not be packaged.");
         parser.acceptsAll(asList(VERSIONED_OPTIONS),"If omitted resources must be uniquely named.");
+        parser.acceptsAll(asList(INCREMENTAL_BUNDLE_OPTIONS),"If specified, bundles whose inputs have not changed since the last run (recorded in .cqf-cache/bundle-manifest.json) are not rebuilt.");
+        parser.acceptsAll(asList(LINK_BUNDLE_FILES_OPTIONS),"If specified, the files of the bundle -files folders are stored once in .cqf-cache/content and hard-linked into each folder (copied where links are not supported); dependency Libraries and ValueSets are placed as a file per resource rather than as bundles.");
 
         OptionSpec<Void> help = parser.acceptsAll(asList(ArgUtils.HELP_OPTIONS), "Show this help page").forHelp();
 
@@ -116,6 +120,8 @@ public class RefreshIGArgumentProcessor {
         Boolean includeTerminology = options.has(INCLUDE_TERMINOLOGY_OPTIONS[0]);
         Boolean includePatientScenarios = options.has(INCLUDE_PATIENT_SCENARIOS_OPTIONS[0]);
         Boolean versioned = options.has(VERSIONED_OPTIONS[0]);
+        Boolean incrementalBundle = options.has(INCREMENTAL_BUNDLE_OPTIONS[0]);
+        Boolean linkBundleFiles = options.has(LINK_BUNDLE_FILES_OPTIONS[0]);
         String fhirUri = (String)options.valueOf(FHIR_URI_OPTIONS[0]);
         String measureToRefreshPath = (String)options.valueOf(MEASURE_TO_REFRESH_PATH[0]);
 
@@ -164,6 +170,8 @@ public class RefreshIGArgumentProcessor {
         ip.versioned = versioned;
         ip.shouldApplySoftwareSystemStamp = shouldApplySoftwareSystemStamp;
         ip.addBundleTimestamp = addBundleTimestamp;
+        ip.incrementalBundle = incrementalBundle;
+        ip.linkBundleFiles = linkBundleFiles;
         ip.libraryPath = libraryPath;
         ip.resourceDirs = paths;
         ip.fhirUri = fhirUri;
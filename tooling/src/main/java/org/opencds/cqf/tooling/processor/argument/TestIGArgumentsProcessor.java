@@ -22,6 +22,8 @@ public class TestIGArgumentsProcessor {
     public static final String[] FHIR_VERSION_OPTIONS = {"fv", "fhir-version"};
     public static final String[] TEST_CASES_PATH_OPTIONS = {"tests", "testsPath", "testCasesPath", "tp", "tcp"};
     public static final String[] FHIR_URI_OPTIONS = {"fs", "fhir-uri"};
+    public static final String[] THREADS_OPTIONS = {"t"};
+    public static final String[] RESULTS_PATH_OPTIONS = {"rp", "results-path"};
 
     @SuppressWarnings("unused")
     public OptionParser build() {
@@ -33,7 +35,9 @@ public class TestIGArgumentsProcessor {
 //        OptionSpecBuilder igCanonicalBaseBuilder = parser.acceptsAll(asList(IG_CANONICAL_BASE),"resource canonical base");
         OptionSpecBuilder fhirVersionBuilder = parser.acceptsAll(asList(FHIR_VERSION_OPTIONS),"Limited to a single version of FHIR.");
         OptionSpecBuilder testCasesPathBuilder = parser.acceptsAll(asList(TEST_CASES_PATH_OPTIONS),"Path to test cases");
-        OptionSpecBuilder fhirUriBuilder = parser.acceptsAll(asList(FHIR_URI_OPTIONS),"If omitted the final bundle will not be loaded to a FHIR server.");
+        OptionSpecBuilder fhirUriBuilder = parser.acceptsAll(asList(FHIR_URI_OPTIONS),"If omitted the test cases are evaluated in process with the CQL engine.");
+        OptionSpecBuilder threadsBuilder = parser.acceptsAll(asList(THREADS_OPTIONS),"Number of test cases to run concurrently, defaults to -threads=N or the number of available processors (1 with a FHIR server unless -threads=N is given).");
+        OptionSpecBuilder resultsPathBuilder = parser.acceptsAll(asList(RESULTS_PATH_OPTIONS),"Directory for the JUnit XML and JSON test reports, defaults to <root dir>/test-results.");
 
         OptionSpec<String> ini = iniBuilder.withOptionalArg().describedAs("IG ini file");
         OptionSpec<String> rootDir = rootDirBuilder.withOptionalArg().describedAs("Root directory of the IG");
@@ -42,6 +46,8 @@ public class TestIGArgumentsProcessor {
         OptionSpec<String> fhirVersion = fhirVersionBuilder.withOptionalArg().describedAs("fhir version");
         OptionSpec<String> testCasesPath = testCasesPathBuilder.withRequiredArg().describedAs("path to the test cases");
         OptionSpec<String> fhirServerUri = fhirUriBuilder.withRequiredArg().describedAs("uri for fhir server to test on");
+        OptionSpec<String> threads = threadsBuilder.withOptionalArg().describedAs("number of threads");
+        OptionSpec<String> resultsPath = resultsPathBuilder.withOptionalArg().describedAs("path to the test reports");
 
         parser.acceptsAll(asList(OPERATION_OPTIONS),"The operation to run.");
 
@@ -63,6 +69,8 @@ public class TestIGArgumentsProcessor {
         String fhirVersion = (String)options.valueOf(FHIR_VERSION_OPTIONS[0]);
         String testCasesPath = (String)options.valueOf(TEST_CASES_PATH_OPTIONS[0]);
         String fhirServerUri = (String)options.valueOf(FHIR_URI_OPTIONS[0]);
+        String threads = (String)options.valueOf(THREADS_OPTIONS[0]);
+        String resultsPath = (String)options.valueOf(RESULTS_PATH_OPTIONS[0]);
 
         TestIGParameters ip = new TestIGParameters();
         ip.ini = ini;
@@ -71,6 +79,8 @@ public class TestIGArgumentsProcessor {
 //        ip.igCanonicalBase = igCanonicalBase;
         ip.testCasesPath = testCasesPath;
         ip.fhirServerUri = fhirServerUri;
+        ip.threads = threads == null ? null : Integer.valueOf(threads);
+        ip.resultsPath = resultsPath;
         ip.fhirContext = IGProcessor.getIgFhirContext(fhirVersion);
 
         return ip;
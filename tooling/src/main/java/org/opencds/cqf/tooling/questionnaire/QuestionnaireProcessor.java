@@ -12,9 +12,16 @@ import ca.uhn.fhir.context.FhirContext;
 
 public class QuestionnaireProcessor extends AbstractResourceProcessor {
 
-    @SuppressWarnings("this-escape")
+    public QuestionnaireProcessor() {
+    }
+
+    /**
+     * @deprecated The LibraryProcessor is not used, the bundle dependencies are resolved by the
+     * ArtifactDependencyClosure; use {@link #QuestionnaireProcessor()}.
+     */
+    @Deprecated
     public QuestionnaireProcessor(LibraryProcessor libraryProcessor) {
-        setLibraryProcessor(libraryProcessor);
+        this();
     }
 
     //abstract methods to override:
@@ -10,12 +10,8 @@ import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
 import org.hl7.fhir.dstu3.model.Enumerations;
 import org.hl7.fhir.dstu3.model.Identifier;
 import org.hl7.fhir.dstu3.model.ValueSet;
@@ -114,109 +110,104 @@ public abstract class FlatMultiValueSetGeneratorBase extends Operation {
             throw new IllegalArgumentException("The path to the spreadsheet is required");
         }
 
-        Workbook workbook = SpreadsheetHelper.getWorkbook(pathToSpreadsheet);
-        processWorkbook(workbook);
+        try (SpreadsheetStreamReader workbook = new SpreadsheetStreamReader(pathToSpreadsheet)) {
+            processWorkbook(workbook);
+        }
     }
 
-    protected void processWorkbook(Workbook workbook)
+    protected void processWorkbook(SpreadsheetStreamReader workbook)
     {
         if (codeSheetNum != -1) {
-            loadSheet(workbook.getSheetAt(codeSheetNum));
+            workbook.readSheet(codeSheetNum, this::loadRow);
         }
         else {
-            Iterator<Sheet> it = workbook.sheetIterator();
-            while (it.hasNext()) {
-                Sheet sheet = it.next();
-                loadSheet(sheet);
+            for (String sheetName : workbook.getSheetNames()) {
+                workbook.readSheet(sheetName, this::loadRow);
             }
         }
         writeValueSetsToFiles(valueSets);
     }
 
-    protected void loadSheet(Sheet sheet) {
-        Iterator<Row> it = sheet.rowIterator();
-        while(it.hasNext()) {
-            Row row = it.next();
-            if (row.getRowNum() < codeListRow) {
-                continue;
-            }
-
-            // ValueSet.OID.
-            String valueSetOid = SpreadsheetHelper.getCellAsString(row.getCell(valueSetOidCol));
-            if (valueSetOid == null || valueSetOid.isEmpty()) {
-                throw new IllegalArgumentException(String.format("No value set Oid value found on row: %d", row.getRowNum()));
-            }
-            int valueSetHash = valueSetOid.hashCode();
-
-            // ValueSet.Identifier
-            Identifier valueSetIdentifier = new Identifier();
-            valueSetIdentifier.setSystem(valueSetIdentifierSystem);
-            valueSetIdentifier.setValue(valueSetOid);
-
-            // ValueSet.Version
-            String valueSetVersion = SpreadsheetHelper.getCellAsString(row.getCell(valueSetVersionCol));
+    protected void loadRow(SheetRow row) {
+        if (row.getRowNum() < codeListRow) {
+            return;
+        }
 
-            // ValueSet.Url
-            String valueSetUrl = publisherNamespace.concat("/ValueSet/").concat(valueSetOid);
+        // ValueSet.OID.
+        String valueSetOid = row.getCellAsString(valueSetOidCol);
+        if (valueSetOid == null || valueSetOid.isEmpty()) {
+            throw new IllegalArgumentException(String.format("No value set Oid value found on row: %d", row.getRowNum()));
+        }
+        int valueSetHash = valueSetOid.hashCode();
 
-            // ValueSet.Expansion.Identifier
-            String valueSetExpansionId = expansionIdCol >= 0 ? SpreadsheetHelper.getCellAsString(row.getCell(expansionIdCol)) : null;
+        // ValueSet.Identifier
+        Identifier valueSetIdentifier = new Identifier();
+        valueSetIdentifier.setSystem(valueSetIdentifierSystem);
+        valueSetIdentifier.setValue(valueSetOid);
 
-            // Code
-            String code = SpreadsheetHelper.getCellAsString(row.getCell(codeCol));
-            if (code == null) {
-                throw new IllegalArgumentException(String.format("No code value found on row: %d", row.getRowNum()));
-            }
-            // Code Description
-            String display = SpreadsheetHelper.getCellAsString(row.getCell(descriptionCol));
+        // ValueSet.Version
+        String valueSetVersion = row.getCellAsString(valueSetVersionCol);
 
-            // ValueSet.Title
-            String valueSetTitle = SpreadsheetHelper.getCellAsString(row.getCell(valueSetTitleCol));
-            // ValueSet.Name
-            String valueSetName = valueSetTitle.replaceAll("\\s", "").replaceAll("\\/", "_");
-            // Code System Name/Url
-            String system = getCodeSystemFromRow(row);
-            // Code System Version
-            String version = SpreadsheetHelper.getCellAsString(row.getCell(versionCol));
+        // ValueSet.Url
+        String valueSetUrl = publisherNamespace.concat("/ValueSet/").concat(valueSetOid);
 
-            ValueSet.ValueSetExpansionContainsComponent component = new ValueSet.ValueSetExpansionContainsComponent();
-            component.setSystem(system);
-            component.setVersion(version);
-            component.setDisplay(display);
-            component.setCode(code);
+        // ValueSet.Expansion.Identifier
+        String valueSetExpansionId = expansionIdCol >= 0 ? row.getCellAsString(expansionIdCol) : null;
 
-            // If the ValueSet hasn't yet been visited, add it to the collection with
-            // a new Include for the code system with the current Code. Otherwise, locate
-            // the already-registered ValueSet and ensure the Include entry for the code system
-            // exists and add the current code to it.
-            if (!valueSets.containsKey(valueSetHash)) {
-                ValueSet vs = new ValueSet();
-                vs.setId(valueSetOid);
-                vs.setIdentifier(Collections.singletonList(valueSetIdentifier));
-                vs.setUrl(valueSetUrl);
-                vs.setVersion(valueSetVersion);
-                vs.setName(valueSetName);
-                vs.setTitle(valueSetTitle);
-                vs.setExperimental(false);
-                vs.setStatus(Enumerations.PublicationStatus.ACTIVE);
-                vs.setPublisher(publisher);
-                vs.setExpansion(new ValueSet.ValueSetExpansionComponent());
-                vs.getExpansion().setIdentifier(valueSetExpansionId);
-                vs.getExpansion().setTimestamp(java.util.Date.from(Instant.now()));
-                vs.getExpansion().getContains().add(component);
-                valueSets.put(valueSetHash, vs);
-            }
-            else {
-                ValueSet targetValueSet = valueSets.get(valueSetHash);
-                targetValueSet.getExpansion().getContains().add(component);
-            }
+        // Code
+        String code = row.getCellAsString(codeCol);
+        if (code == null) {
+            throw new IllegalArgumentException(String.format("No code value found on row: %d", row.getRowNum()));
+        }
+        // Code Description
+        String display = row.getCellAsString(descriptionCol);
+
+        // ValueSet.Title
+        String valueSetTitle = row.getCellAsString(valueSetTitleCol);
+        // ValueSet.Name
+        String valueSetName = valueSetTitle.replaceAll("\\s", "").replaceAll("\\/", "_");
+        // Code System Name/Url
+        String system = getCodeSystemFromRow(row);
+        // Code System Version
+        String version = row.getCellAsString(versionCol);
+
+        ValueSet.ValueSetExpansionContainsComponent component = new ValueSet.ValueSetExpansionContainsComponent();
+        component.setSystem(system);
+        component.setVersion(version);
+        component.setDisplay(display);
+        component.setCode(code);
+
+        // If the ValueSet hasn't yet been visited, add it to the collection with
+        // a new Include for the code system with the current Code. Otherwise, locate
+        // the already-registered ValueSet and ensure the Include entry for the code system
+        // exists and add the current code to it.
+        if (!valueSets.containsKey(valueSetHash)) {
+            ValueSet vs = new ValueSet();
+            vs.setId(valueSetOid);
+            vs.setIdentifier(Collections.singletonList(valueSetIdentifier));
+            vs.setUrl(valueSetUrl);
+            vs.setVersion(valueSetVersion);
+            vs.setName(valueSetName);
+            vs.setTitle(valueSetTitle);
+            vs.setExperimental(false);
+            vs.setStatus(Enumerations.PublicationStatus.ACTIVE);
+            vs.setPublisher(publisher);
+            vs.setExpansion(new ValueSet.ValueSetExpansionComponent());
+            vs.getExpansion().setIdentifier(valueSetExpansionId);
+            vs.getExpansion().setTimestamp(java.util.Date.from(Instant.now()));
+            vs.getExpansion().getContains().add(component);
+            valueSets.put(valueSetHash, vs);
+        }
+        else {
+            ValueSet targetValueSet = valueSets.get(valueSetHash);
+            targetValueSet.getExpansion().getContains().add(component);
         }
     }
 
-    protected String getCodeSystemFromRow(Row row) {
-        String system = SpreadsheetHelper.getCellAsString(row.getCell(systemNameCol));
+    protected String getCodeSystemFromRow(SheetRow row) {
+        String system = row.getCellAsString(systemNameCol);
         if (system == null)  {
-            system = SpreadsheetHelper.getCellAsString(row.getCell(systemOidCol));
+            system = row.getCellAsString(systemOidCol);
             if (system == null) {
                 throw new IllegalArgumentException(String.format("No system value found on row: %d", row.getRowNum()));
             }
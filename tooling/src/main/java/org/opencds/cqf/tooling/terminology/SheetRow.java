@@ -0,0 +1,91 @@
+package org.opencds.cqf.tooling.terminology;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+
+/**
+ * A spreadsheet row reduced to the formatted text of its non-blank cells.
+ * <p>
+ * Rows are produced by {@link SpreadsheetStreamReader} without building the workbook in memory, or adapted from a
+ * POI {@link Row} with {@link #fromRow(Row)}. Cell values are formatted as DataFormatter does for the workbook
+ * model (formulas are reported as their formula text) and blank cells are reported as null, as with
+ * Row.MissingCellPolicy.RETURN_BLANK_AS_NULL.
+ */
+public class SheetRow {
+    private final int rowNum;
+    private final TreeMap<Integer, String> cells = new TreeMap<>();
+
+    public SheetRow(int rowNum) {
+        this.rowNum = rowNum;
+    }
+
+    public static SheetRow fromRow(Row row) {
+        SheetRow sheetRow = new SheetRow(row.getRowNum());
+        for (Cell cell : row) {
+            String value = SpreadsheetHelper.getDataFormatter().formatCellValue(cell);
+            if (value != null && !value.isEmpty()) {
+                sheetRow.setCell(cell.getColumnIndex(), value);
+            }
+        }
+        return sheetRow;
+    }
+
+    void setCell(int columnIndex, String formattedValue) {
+        cells.put(columnIndex, formattedValue);
+    }
+
+    /**
+     * @return The 0-based index of the row in its sheet
+     */
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    /**
+     * @return The formatted (unprotected) value of the cell, or null if the cell is blank
+     */
+    public String getValue(int columnIndex) {
+        return cells.get(columnIndex);
+    }
+
+    /**
+     * @return The value of the cell with control characters replaced, as SpreadsheetHelper.getCellAsString, or
+     * null if the cell is blank or the index is negative
+     */
+    public String getCellAsString(int columnIndex) {
+        return columnIndex < 0 ? null : SpreadsheetHelper.protectedString(cells.get(columnIndex), true);
+    }
+
+    /**
+     * @return The formatted values of the non-blank cells keyed by column index, in column order
+     */
+    public Map<Integer, String> getCells() {
+        return Collections.unmodifiableMap(cells);
+    }
+
+    public boolean isEmpty() {
+        return cells.isEmpty();
+    }
+
+    /**
+     * Builds the header-to-column map for a sheet from its header row, so columns are resolved once per sheet
+     * rather than for each cell.
+     *
+     * @param normalizer Applied to each (protected) header value to produce the map key, e.g. lower-casing
+     * @return The column index of each header, keyed by normalized header; the first column wins for duplicates
+     */
+    public Map<String, Integer> getHeaderIndex(Function<String, String> normalizer) {
+        Map<String, Integer> index = new LinkedHashMap<>();
+        for (Map.Entry<Integer, String> cell : cells.entrySet()) {
+            String header = SpreadsheetHelper.protectedString(cell.getValue(), true);
+            index.putIfAbsent(normalizer.apply(header), cell.getKey());
+        }
+        return index;
+    }
+}
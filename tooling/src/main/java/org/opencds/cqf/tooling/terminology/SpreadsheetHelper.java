@@ -137,6 +137,10 @@ public class SpreadsheetHelper {
         return null;
     }
 
+    public static String getCellAsString(SheetRow row, int cellIndex) {
+        return row == null ? null : row.getCellAsString(cellIndex);
+    }
+
     //name.matches('[A-Z]([A-Za-z0-9_]){0,254}')
     public static String getFHIRName(String value) {
         String name = value.replaceAll("[^A-Za-z0-9_]", "");
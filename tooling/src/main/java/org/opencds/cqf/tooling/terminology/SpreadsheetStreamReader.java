@@ -0,0 +1,197 @@
+package org.opencds.cqf.tooling.terminology;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Reads the sheets of an .xlsx workbook row by row with the POI event (SAX) API, instead of loading the whole
+ * workbook model as SpreadsheetHelper.getWorkbook does.
+ * <p>
+ * Only the shared strings and styles tables are held in memory; each sheet is parsed as it is read and every row
+ * is handed to a {@link RowHandler} and then discarded, so memory use no longer grows with the number of sheets
+ * and rows. Sheets can be read any number of times, in any order, while the reader is open, and different sheets
+ * can be read concurrently.
+ */
+public class SpreadsheetStreamReader implements AutoCloseable {
+
+    /**
+     * Receives the rows of a sheet in order. Rows without any non-blank cells are skipped.
+     */
+    public interface RowHandler {
+        void handleRow(SheetRow row);
+    }
+
+    private final String pathToSpreadsheet;
+    private final OPCPackage opcPackage;
+    private final XSSFReader reader;
+    private final ReadOnlySharedStringsTable sharedStrings;
+    private final StylesTable styles;
+    private final List<String> sheetNames = new ArrayList<>();
+
+    public SpreadsheetStreamReader(String pathToSpreadsheet) {
+        this.pathToSpreadsheet = pathToSpreadsheet;
+        try {
+            this.opcPackage = OPCPackage.open(pathToSpreadsheet, PackageAccess.READ);
+        } catch (OpenXML4JException | RuntimeException e) {
+            throw new IllegalArgumentException("Error reading the spreadsheet: " + e.getMessage());
+        }
+        try {
+            this.reader = new XSSFReader(opcPackage);
+            this.sharedStrings = new ReadOnlySharedStringsTable(opcPackage);
+            this.styles = reader.getStylesTable();
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                try (InputStream ignored = sheets.next()) {
+                    sheetNames.add(sheets.getSheetName());
+                }
+            }
+        } catch (IOException | OpenXML4JException | SAXException | RuntimeException e) {
+            opcPackage.revert();
+            throw new IllegalArgumentException("Error reading the spreadsheet: " + e.getMessage());
+        }
+    }
+
+    public String getPathToSpreadsheet() {
+        return pathToSpreadsheet;
+    }
+
+    /**
+     * @return The names of the sheets, in workbook order
+     */
+    public List<String> getSheetNames() {
+        return Collections.unmodifiableList(sheetNames);
+    }
+
+    public boolean hasSheet(String sheetName) {
+        return sheetNames.contains(sheetName);
+    }
+
+    /**
+     * Reads the sheet at the given (0-based) position.
+     */
+    public void readSheet(int sheetIndex, RowHandler handler) {
+        if (sheetIndex < 0 || sheetIndex >= sheetNames.size()) {
+            throw new IllegalArgumentException(String.format("Sheet index (%d) is out of range (0..%d)", sheetIndex, sheetNames.size() - 1));
+        }
+        readSheet(sheetNames.get(sheetIndex), handler);
+    }
+
+    /**
+     * Reads the named sheet.
+     *
+     * @return false if the workbook has no sheet with that name
+     */
+    public boolean readSheet(String sheetName, RowHandler handler) {
+        try (InputStream sheet = openSheet(sheetName)) {
+            if (sheet == null) {
+                return false;
+            }
+            parseSheet(sheet, handler);
+            return true;
+        } catch (IOException | OpenXML4JException | SAXException e) {
+            throw new IllegalArgumentException(String.format("Error reading sheet %s of the spreadsheet: %s", sheetName, e.getMessage()));
+        }
+    }
+
+    // Sheets are located in the package one at a time, but once opened each sheet stream is independent and the
+    // shared strings and styles are only read, so different sheets can be parsed on different threads.
+    private synchronized InputStream openSheet(String sheetName) throws IOException, OpenXML4JException {
+        XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+        while (sheets.hasNext()) {
+            InputStream sheet = sheets.next();
+            if (sheets.getSheetName().equals(sheetName)) {
+                return sheet;
+            }
+            sheet.close();
+        }
+        return null;
+    }
+
+    /**
+     * Reads the named sheet into memory. Intended for small sheets (e.g. configuration or metadata).
+     *
+     * @return The rows of the sheet, or an empty list if there is no sheet with that name
+     */
+    public List<SheetRow> readRows(String sheetName) {
+        List<SheetRow> rows = new ArrayList<>();
+        readSheet(sheetName, rows::add);
+        return rows;
+    }
+
+    public List<SheetRow> readRows(int sheetIndex) {
+        List<SheetRow> rows = new ArrayList<>();
+        readSheet(sheetIndex, rows::add);
+        return rows;
+    }
+
+    private void parseSheet(InputStream sheet, RowHandler handler) throws IOException, SAXException {
+        XMLReader xmlReader;
+        try {
+            xmlReader = XMLHelper.newXMLReader();
+        } catch (javax.xml.parsers.ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+        // formulas are reported as their formula text, as DataFormatter does for the workbook model
+        xmlReader.setContentHandler(new XSSFSheetXMLHandler(styles, null, sharedStrings,
+                new RowCollector(handler), new DataFormatter(), true));
+        xmlReader.parse(new InputSource(sheet));
+    }
+
+    @Override
+    public void close() {
+        // opened read-only, so there is nothing to save
+        opcPackage.revert();
+    }
+
+    private static class RowCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final RowHandler handler;
+        private SheetRow currentRow;
+        private int lastColumn;
+
+        private RowCollector(RowHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            currentRow = new SheetRow(rowNum);
+            lastColumn = -1;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (currentRow != null && !currentRow.isEmpty()) {
+                handler.handleRow(currentRow);
+            }
+            currentRow = null;
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            // cells without a reference follow the previous cell
+            int column = cellReference == null ? lastColumn + 1 : new CellReference(cellReference).getCol();
+            lastColumn = column;
+            if (currentRow != null && formattedValue != null && !formattedValue.isEmpty()) {
+                currentRow.setCell(column, formattedValue);
+            }
+        }
+    }
+}
@@ -5,13 +5,8 @@ import java.io.IOException;
 import java.time.Instant;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
 import org.hl7.fhir.dstu3.model.CodeType;
 import org.hl7.fhir.dstu3.model.Enumerations;
 import org.hl7.fhir.dstu3.model.Extension;
@@ -106,10 +101,8 @@ public class VSACValueSetGenerator extends Operation {
             baseUrl = VSAC_BASE_URL;
         }
 
-        Workbook workbook = SpreadsheetHelper.getWorkbook(pathToSpreadsheet);
-
         ValueSet vs = new ValueSet();
-        try {
+        try (SpreadsheetStreamReader workbook = new SpreadsheetStreamReader(pathToSpreadsheet)) {
             resolveMetaData(vs, workbook);
             resolveCodeList(workbook);
             if (includeCompose) {
@@ -136,22 +129,24 @@ public class VSACValueSetGenerator extends Operation {
         }
     }
 
-    private String getSecondStringInRow(Sheet sheet, int rowIdx) {
+    private String getSecondStringInRow(Map<Integer, SheetRow> sheet, int rowIdx) {
+        SheetRow row = sheet.get(rowIdx);
+        if (row == null) {
+            return null;
+        }
         int col = 1;
-        for (Cell cell : sheet.getRow(rowIdx)) {
-            if (cell == null) {
-                continue;
-            }
+        for (String value : row.getCells().values()) {
             if (col == 2) {
-                return SpreadsheetHelper.getCellAsString(cell);
+                return SpreadsheetHelper.protectedString(value, true);
             }
             ++col;
         }
         return null;
     }
 
-    public void resolveMetaData(ValueSet vs, Workbook workbook) {
-        Sheet metaSheet = workbook.getSheetAt(metaSheetNum);
+    public void resolveMetaData(ValueSet vs, SpreadsheetStreamReader workbook) {
+        Map<Integer, SheetRow> metaSheet = new HashMap<>();
+        workbook.readSheet(metaSheetNum, row -> metaSheet.put(row.getRowNum(), row));
         String title = getSecondStringInRow(metaSheet, metaNameRow);
         if (title != null) {
             title = title.replace("/", "");
@@ -210,65 +205,65 @@ public class VSACValueSetGenerator extends Operation {
         }
     }
 
-    public void resolveCodeList(Workbook workbook) {
-        Iterator<Row> it = workbook.getSheetAt(codeSheetNum).rowIterator();
-        while(it.hasNext()) {
-            Row row = it.next();
-            if (row.getRowNum() < codeListRow) {
-                continue;
-            }
+    public void resolveCodeList(SpreadsheetStreamReader workbook) {
+        workbook.readSheet(codeSheetNum, this::resolveCodeListRow);
+    }
 
-            String version = SpreadsheetHelper.getCellAsString(row.getCell(versionCol));            
-            String systemName = SpreadsheetHelper.getCellAsString(row.getCell(systemNameCol));
-            String display = SpreadsheetHelper.getCellAsString(row.getCell(descriptionCol));
+    private void resolveCodeListRow(SheetRow row) {
+        if (row.getRowNum() < codeListRow) {
+            return;
+        }
 
-            String code = SpreadsheetHelper.getCellAsString(row.getCell(codeCol));
+        String version = row.getCellAsString(versionCol);            
+        String systemName = row.getCellAsString(systemNameCol);
+        String display = row.getCellAsString(descriptionCol);
 
-            if (code == null) {
-                throw new IllegalArgumentException(String.format("No code value found on row: %d", row.getRowNum()));
-            }
+        String code = row.getCellAsString(codeCol);
 
-            if (code.matches("[+-]?\\d(\\.\\d+)?[Ee][+-]?\\d+")) {
-                throw new IllegalArgumentException(String.format("Scientific Notation is not allowed for a code: %s", code));
-            }
+        if (code == null) {
+            throw new IllegalArgumentException(String.format("No code value found on row: %d", row.getRowNum()));
+        }
 
-            if ((version == null || version.equals(""))
-                && (code == null || code.equals(""))
-                && (
-                    (systemName == null || systemName.equals("")) 
-                        && (SpreadsheetHelper.getCellAsString(row.getCell(systemOidCol)) == null || SpreadsheetHelper.getCellAsString(row.getCell(systemOidCol)).equals(""))
-                )
-            ) {
-                //Protecting against error where last line has no content except hidden characters introduced by copy/paste operations
-                continue;
-            }
+        if (code.matches("[+-]?\\d(\\.\\d+)?[Ee][+-]?\\d+")) {
+            throw new IllegalArgumentException(String.format("Scientific Notation is not allowed for a code: %s", code));
+        }
 
-            String system;
-            if (systemName == null || systemName.equals("")) {
-                system = SpreadsheetHelper.getCellAsString(row.getCell(systemOidCol));
-                if (system == null || system.equals("")) {
-                    throw new IllegalArgumentException(String.format("No system value found on row: %d", row.getRowNum()));
-                }
-                system = CodeSystemLookupDictionary.getUrlFromOid(system);
-            }
-            else {
-                system = CodeSystemLookupDictionary.getUrlFromName(systemName);
-            }
+        if ((version == null || version.equals(""))
+            && (code == null || code.equals(""))
+            && (
+                (systemName == null || systemName.equals("")) 
+                    && (row.getCellAsString(systemOidCol) == null || row.getCellAsString(systemOidCol).equals(""))
+            )
+        ) {
+            //Protecting against error where last line has no content except hidden characters introduced by copy/paste operations
+            return;
+        }
 
+        String system;
+        if (systemName == null || systemName.equals("")) {
+            system = row.getCellAsString(systemOidCol);
             if (system == null || system.equals("")) {
                 throw new IllegalArgumentException(String.format("No system value found on row: %d", row.getRowNum()));
             }
+            system = CodeSystemLookupDictionary.getUrlFromOid(system);
+        }
+        else {
+            system = CodeSystemLookupDictionary.getUrlFromName(systemName);
+        }
 
-            int hash = system.hashCode() * (version != null && !version.equals("") ? version.hashCode() : 1);
-
-            if (!codesBySystem.containsKey(hash)) {
-                codesBySystem.put(hash, new org.opencds.cqf.tooling.terminology.ValueSet().setSystem(system).setVersion(version));
-            }
+        if (system == null || system.equals("")) {
+            throw new IllegalArgumentException(String.format("No system value found on row: %d", row.getRowNum()));
+        }
 
-            ValueSet.ConceptReferenceComponent concept = new ValueSet.ConceptReferenceComponent().setCode(code).setDisplay(display);
+        int hash = system.hashCode() * (version != null && !version.equals("") ? version.hashCode() : 1);
 
-            codesBySystem.get(hash).addCode(concept);
+        if (!codesBySystem.containsKey(hash)) {
+            codesBySystem.put(hash, new org.opencds.cqf.tooling.terminology.ValueSet().setSystem(system).setVersion(version));
         }
+
+        ValueSet.ConceptReferenceComponent concept = new ValueSet.ConceptReferenceComponent().setCode(code).setDisplay(display);
+
+        codesBySystem.get(hash).addCode(concept);
     }
 
     public void resolveValueSet(ValueSet vs) {
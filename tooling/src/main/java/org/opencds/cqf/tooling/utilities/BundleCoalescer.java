@@ -0,0 +1,340 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * Merges the resources of many bundles into a few size-capped batch or transaction bundles, so they can be posted
+ * with far fewer requests.
+ * <p>
+ * Resources are de-duplicated by resource type and id; when the same resource appears in several bundles, the last
+ * one added wins. Each resource becomes a PUT entry (see {@link BundleUtils#bundleR4Artifacts} and
+ * {@link BundleUtils#bundleStu3Artifacts}), so posting the bundles is idempotent. Resources without an id cannot be
+ * PUT and are skipped.
+ * <p>
+ * The outcome of every entry is read from the response bundle and is available from {@link #getOutcomes()} once
+ * {@link HttpClientUtils#postTaskCollection()} has run.
+ */
+public class BundleCoalescer {
+    private static final Logger logger = LoggerFactory.getLogger(BundleCoalescer.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 500;
+    public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024;
+
+    private final FhirContext fhirContext;
+    private final boolean transaction;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    private final Map<String, IBaseResource> resources = new LinkedHashMap<>();
+    private final Queue<EntryOutcome> outcomes = new ConcurrentLinkedQueue<>();
+    private int duplicateCount;
+    private int skippedCount;
+
+    /**
+     * @param fhirContext The FHIR context of the resources (DSTU3 or R4)
+     * @param transaction true to create transaction bundles (all entries of a bundle succeed or fail together),
+     *                    false to create batch bundles
+     * @param maxEntries The maximum number of entries in a bundle
+     * @param maxBytes The maximum size of a bundle, measured as the size of its entries encoded as JSON
+     */
+    public BundleCoalescer(FhirContext fhirContext, boolean transaction, int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Bundles must be allowed at least one entry");
+        }
+        switch (fhirContext.getVersion().getVersion()) {
+            case DSTU3:
+            case R4:
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown fhir version: " + fhirContext.getVersion().getVersion().getFhirVersionString());
+        }
+        this.fhirContext = fhirContext;
+        this.transaction = transaction;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    public BundleCoalescer(FhirContext fhirContext, boolean transaction) {
+        this(fhirContext, transaction, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Adds the resources of the entries of a bundle.
+     */
+    public void addBundle(IBaseResource bundle) {
+        if (bundle instanceof org.hl7.fhir.r4.model.Bundle) {
+            BundleUtils.getR4ResourcesFromBundle((org.hl7.fhir.r4.model.Bundle) bundle).forEach(this::addResource);
+        } else if (bundle instanceof org.hl7.fhir.dstu3.model.Bundle) {
+            BundleUtils.getStu3ResourcesFromBundle((org.hl7.fhir.dstu3.model.Bundle) bundle).forEach(this::addResource);
+        } else {
+            throw new IllegalArgumentException("Not a DSTU3 or R4 bundle: " + (bundle == null ? null : bundle.fhirType()));
+        }
+    }
+
+    public void addResource(IBaseResource resource) {
+        String id = resource.getIdElement().getIdPart();
+        if (id == null || id.isEmpty()) {
+            skippedCount++;
+            logger.warn("Skipping {} without an id", resource.fhirType());
+            return;
+        }
+        String key = resource.fhirType() + "/" + id;
+        // drop any base url or version so the entry request url is Type/id
+        resource.setId(key);
+        if (resources.put(key, resource) != null) {
+            duplicateCount++;
+        }
+    }
+
+    /**
+     * Keeps only the resources with the given resource type qualified ids (e.g. those recorded in a
+     * {@link PostFailureJournal}).
+     */
+    public void retainKeys(Set<String> keys) {
+        resources.keySet().retainAll(keys);
+    }
+
+    /**
+     * @return The number of distinct resources added
+     */
+    public int getResourceCount() {
+        return resources.size();
+    }
+
+    /**
+     * @return The number of resources that replaced a resource with the same type and id
+     */
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * @return The number of resources skipped because they have no id
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * @return The bundles holding all the resources added, in the order they were added
+     */
+    public List<IBaseResource> getBundles() {
+        List<IBaseResource> bundles = new ArrayList<>();
+        IParser parser = fhirContext.newJsonParser();
+        List<IBaseResource> chunk = new ArrayList<>();
+        long chunkBytes = 0;
+        for (IBaseResource resource : resources.values()) {
+            long resourceBytes = parser.encodeResourceToString(resource).length();
+            if (!chunk.isEmpty() && (chunk.size() >= maxEntries || chunkBytes + resourceBytes > maxBytes)) {
+                bundles.add(createBundle(bundles.size() + 1, chunk));
+                chunk = new ArrayList<>();
+                chunkBytes = 0;
+            }
+            chunk.add(resource);
+            chunkBytes += resourceBytes;
+        }
+        if (!chunk.isEmpty()) {
+            bundles.add(createBundle(bundles.size() + 1, chunk));
+        }
+        return bundles;
+    }
+
+    private IBaseResource createBundle(int index, List<IBaseResource> chunk) {
+        String id = (transaction ? "transaction-" : "batch-") + index;
+        if (fhirContext.getVersion().getVersion() == FhirVersionEnum.DSTU3) {
+            org.hl7.fhir.dstu3.model.Bundle bundle = BundleUtils.bundleStu3Artifacts(id, chunk);
+            if (!transaction) {
+                bundle.setType(org.hl7.fhir.dstu3.model.Bundle.BundleType.BATCH);
+            }
+            return bundle;
+        }
+        org.hl7.fhir.r4.model.Bundle bundle = BundleUtils.bundleR4Artifacts(id, chunk, null, false);
+        if (!transaction) {
+            bundle.setType(org.hl7.fhir.r4.model.Bundle.BundleType.BATCH);
+        }
+        return bundle;
+    }
+
+    /**
+     * Queues the bundles to be posted by {@link HttpClientUtils#postTaskCollection()}.
+     *
+     * @return The number of bundles queued
+     */
+    public int post(String fhirUri, IOUtils.Encoding encoding) {
+        List<IBaseResource> bundles = getBundles();
+        for (IBaseResource bundle : bundles) {
+            HttpClientUtils.post(fhirUri, bundle, encoding, fhirContext, new EntryOutcomeHandler(fhirUri, getEntryKeys(bundle)));
+        }
+        logger.info("{} resource(s) queued to be posted to FHIR server ({}) in {} {} bundle(s){}", resources.size(), fhirUri,
+                bundles.size(), transaction ? "transaction" : "batch",
+                duplicateCount > 0 ? ", " + duplicateCount + " duplicate(s) removed" : "");
+        return bundles.size();
+    }
+
+    /**
+     * @return The outcome of each entry of the bundles posted so far
+     */
+    public List<EntryOutcome> getOutcomes() {
+        return new ArrayList<>(outcomes);
+    }
+
+    private List<String> getEntryKeys(IBaseResource bundle) {
+        List<String> keys = new ArrayList<>();
+        if (bundle instanceof org.hl7.fhir.r4.model.Bundle) {
+            for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry : ((org.hl7.fhir.r4.model.Bundle) bundle).getEntry()) {
+                keys.add(entry.getRequest().getUrl());
+            }
+        } else {
+            for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent entry : ((org.hl7.fhir.dstu3.model.Bundle) bundle).getEntry()) {
+                keys.add(entry.getRequest().getUrl());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * The outcome of one entry of a posted bundle.
+     */
+    public static class EntryOutcome {
+        private final String key;
+        private final String status;
+        private final String message;
+
+        public EntryOutcome(String key, String status, String message) {
+            this.key = key;
+            this.status = status;
+            this.message = message;
+        }
+
+        /**
+         * @return The resource type qualified id of the entry (e.g. Library/example)
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return The status of the entry response (e.g. "201 Created"), or null if the response has no entry for it
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * @return The diagnostics of the entry's OperationOutcome, if any
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        public int getStatusCode() {
+            if (status == null) {
+                return -1;
+            }
+            String code = status.trim().split(" ", 2)[0];
+            try {
+                return Integer.parseInt(code);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        public boolean isSuccessful() {
+            int statusCode = getStatusCode();
+            return statusCode >= 200 && statusCode < 300;
+        }
+
+        @Override
+        public String toString() {
+            return key + ": " + status + (message != null ? " (" + message + ")" : "");
+        }
+    }
+
+    /**
+     * Reads the outcome of each entry from a batch-response or transaction-response bundle. The response has one
+     * entry per request entry, in the same order.
+     */
+    private class EntryOutcomeHandler implements HttpClientUtils.BundleResponseHandler {
+        private final String fhirUri;
+        private final List<String> entryKeys;
+
+        EntryOutcomeHandler(String fhirUri, List<String> entryKeys) {
+            this.fhirUri = fhirUri;
+            this.entryKeys = entryKeys;
+        }
+
+        @Override
+        public Collection<String> getEntryKeys() {
+            return entryKeys;
+        }
+
+        @Override
+        public List<PostFailureJournal.Entry> handleResponse(String responseBody) {
+            if (responseBody == null || responseBody.trim().isEmpty()) {
+                return Collections.emptyList();
+            }
+            IParser parser = responseBody.trim().startsWith("<") ? fhirContext.newXmlParser() : fhirContext.newJsonParser();
+            IBaseResource response = parser.parseResource(responseBody);
+
+            List<EntryOutcome> entryOutcomes = new ArrayList<>();
+            if (response instanceof org.hl7.fhir.r4.model.Bundle) {
+                List<org.hl7.fhir.r4.model.Bundle.BundleEntryComponent> entries = ((org.hl7.fhir.r4.model.Bundle) response).getEntry();
+                for (int i = 0; i < entryKeys.size(); i++) {
+                    if (i < entries.size() && entries.get(i).hasResponse()) {
+                        org.hl7.fhir.r4.model.Bundle.BundleEntryResponseComponent entryResponse = entries.get(i).getResponse();
+                        String message = null;
+                        if (entryResponse.getOutcome() instanceof org.hl7.fhir.r4.model.OperationOutcome) {
+                            message = ((org.hl7.fhir.r4.model.OperationOutcome) entryResponse.getOutcome()).getIssueFirstRep().getDiagnostics();
+                        }
+                        entryOutcomes.add(new EntryOutcome(entryKeys.get(i), entryResponse.getStatus(), message));
+                    } else {
+                        entryOutcomes.add(new EntryOutcome(entryKeys.get(i), null, "No entry in the response bundle"));
+                    }
+                }
+            } else if (response instanceof org.hl7.fhir.dstu3.model.Bundle) {
+                List<org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent> entries = ((org.hl7.fhir.dstu3.model.Bundle) response).getEntry();
+                for (int i = 0; i < entryKeys.size(); i++) {
+                    if (i < entries.size() && entries.get(i).hasResponse()) {
+                        org.hl7.fhir.dstu3.model.Bundle.BundleEntryResponseComponent entryResponse = entries.get(i).getResponse();
+                        String message = null;
+                        if (entryResponse.getOutcome() instanceof org.hl7.fhir.dstu3.model.OperationOutcome) {
+                            message = ((org.hl7.fhir.dstu3.model.OperationOutcome) entryResponse.getOutcome()).getIssueFirstRep().getDiagnostics();
+                        }
+                        entryOutcomes.add(new EntryOutcome(entryKeys.get(i), entryResponse.getStatus(), message));
+                    } else {
+                        entryOutcomes.add(new EntryOutcome(entryKeys.get(i), null, "No entry in the response bundle"));
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("Expected a response bundle but found " + response.fhirType());
+            }
+
+            List<PostFailureJournal.Entry> failures = new ArrayList<>();
+            for (EntryOutcome outcome : entryOutcomes) {
+                outcomes.add(outcome);
+                if (!outcome.isSuccessful()) {
+                    int separator = outcome.getKey().indexOf('/');
+                    failures.add(new PostFailureJournal.Entry(fhirUri, outcome.getKey().substring(0, separator),
+                            outcome.getKey().substring(separator + 1), outcome.getStatusCode(), 1, outcome.toString()));
+                }
+            }
+            return failures;
+        }
+    }
+}
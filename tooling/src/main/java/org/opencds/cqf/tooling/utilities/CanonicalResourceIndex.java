@@ -0,0 +1,70 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Looks up canonical resources (e.g. ValueSets) by canonical url, either plain (url) or versioned (url|version).
+ * <p>
+ * When several resources share a url, a plain url lookup returns the first one added, while a versioned lookup
+ * returns the resource with that exact version. The index is filled once and then only read, so it can be shared
+ * between threads once built.
+ */
+public class CanonicalResourceIndex {
+    private final Map<String, IBaseResource> byUrl = new HashMap<>();
+    private final Map<String, IBaseResource> byVersionedUrl = new HashMap<>();
+
+    /**
+     * @param url The canonical url of the resource
+     * @param version The business version of the resource, or null
+     * @param resource The resource
+     */
+    public void add(String url, String version, IBaseResource resource) {
+        if (url == null) {
+            return;
+        }
+        byUrl.putIfAbsent(url, resource);
+        if (version != null && !version.isEmpty()) {
+            byVersionedUrl.putIfAbsent(url + "|" + version, resource);
+        }
+    }
+
+    /**
+     * @param canonical A canonical url, optionally followed by |version
+     * @return The matching resource, or null if there is none
+     */
+    public IBaseResource get(String canonical) {
+        if (canonical == null) {
+            return null;
+        }
+        int versionIndex = canonical.lastIndexOf('|');
+        if (versionIndex == -1) {
+            return byUrl.get(canonical);
+        }
+        if (versionIndex == canonical.length() - 1) {
+            return byUrl.get(canonical.substring(0, versionIndex));
+        }
+        return byVersionedUrl.get(canonical);
+    }
+
+    public boolean contains(String canonical) {
+        return get(canonical) != null;
+    }
+
+    /**
+     * @return The indexed resources keyed by (unversioned) url
+     */
+    public Map<String, IBaseResource> getByUrl() {
+        return Collections.unmodifiableMap(byUrl);
+    }
+
+    /**
+     * @return The number of distinct urls indexed
+     */
+    public int size() {
+        return byUrl.size();
+    }
+}
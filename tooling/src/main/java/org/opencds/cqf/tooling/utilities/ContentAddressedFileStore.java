@@ -0,0 +1,216 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Places files in output folders (e.g. the "-files" folders of the IG bundles) by storing each distinct content once
+ * and hard-linking it into each folder.
+ * <p>
+ * Content is stored by SHA-256 hash in .cqf-cache/content at the root of the IG, which must be on the same file system
+ * as the output folders for links to be created. Where a link can not be created (the file system does not support
+ * hard links, or the store is on another volume), the file is copied from the store instead, and the store keeps
+ * copying for the rest of the run. The store can be deleted at any time: linked output files keep their content.
+ * <p>
+ * Content written rather than copied (e.g. the dependency Libraries and ValueSets of a bundle, encoded from the same
+ * resources for every artifact) is placed the same way with {@link #writeFile}.
+ * <p>
+ * Since linked files share their content, output files placed by the store must be replaced (deleted and rewritten)
+ * rather than modified in place; {@link IOUtils#initializeDirectory} already does so for the bundle folders. A stored
+ * file modified in place regardless no longer matches its hash, so it is stored again rather than linked further.
+ */
+public class ContentAddressedFileStore {
+    private static final Logger logger = LoggerFactory.getLogger(ContentAddressedFileStore.class);
+
+    public static final String STORE_FOLDER = "content";
+
+    private static final String CACHE_FOLDER = ".cqf-cache";
+
+    private static class HashedFile {
+        final long lastModified;
+        final long length;
+        final String hash;
+
+        HashedFile(long lastModified, long length, String hash) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    private final Path root;
+    // Shared inputs (e.g. a library included by many measures) are only hashed once while unchanged
+    private final Map<String, HashedFile> hashes = new ConcurrentHashMap<>();
+    private volatile boolean linking = true;
+    private final AtomicInteger storedCount = new AtomicInteger();
+    private final AtomicInteger linkedCount = new AtomicInteger();
+    private final AtomicInteger copiedCount = new AtomicInteger();
+    private final AtomicLong linkedBytes = new AtomicLong();
+
+    public ContentAddressedFileStore(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    public static ContentAddressedFileStore forIg(String igPath) {
+        return new ContentAddressedFileStore(Paths.get(igPath).resolve(CACHE_FOLDER).resolve(STORE_FOLDER));
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Places the content of the input file at the output path, replacing any file there, by linking it from the store
+     * (or copying it where links are not supported). Errors are reported as for {@link IOUtils#copyFile}.
+     *
+     * @return true if the file was placed
+     */
+    public boolean copyFile(String inputPath, String outputPath) {
+        if (inputPath == null || inputPath.isEmpty() || outputPath == null || outputPath.isEmpty()) {
+            LogUtils.putException("ContentAddressedFileStore.copyFile",
+                    new IllegalArgumentException("ContentAddressedFileStore.copyFile: inputPath or outputPath missing!"));
+            return false;
+        }
+
+        try {
+            Path source = Paths.get(inputPath);
+            String hash = hash(source);
+            place(store(hash, temp -> Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING)), Paths.get(outputPath));
+            return true;
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+            LogUtils.putException("ContentAddressedFileStore.copyFile(" + inputPath + ", " + outputPath + "): ",
+                    new RuntimeException("Error copying file: " + e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Places the content at the output path, replacing any file there, by linking it from the store (or copying it
+     * where links are not supported). Errors are reported as for {@link IOUtils#copyFile}.
+     *
+     * @return true if the file was placed
+     */
+    public boolean writeFile(byte[] content, String outputPath) {
+        if (content == null || outputPath == null || outputPath.isEmpty()) {
+            LogUtils.putException("ContentAddressedFileStore.writeFile",
+                    new IllegalArgumentException("ContentAddressedFileStore.writeFile: content or outputPath missing!"));
+            return false;
+        }
+
+        try {
+            place(store(DigestUtils.sha256Hex(content), temp -> Files.write(temp, content)), Paths.get(outputPath));
+            return true;
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+            LogUtils.putException("ContentAddressedFileStore.writeFile(" + outputPath + "): ",
+                    new RuntimeException("Error writing file: " + e.getMessage()));
+            return false;
+        }
+    }
+
+    private void place(Path stored, Path dest) throws IOException {
+        Files.deleteIfExists(dest);
+        if (linking) {
+            try {
+                Files.createLink(dest, stored);
+                linkedCount.incrementAndGet();
+                linkedBytes.addAndGet(Files.size(stored));
+                return;
+            } catch (UnsupportedOperationException | IOException e) {
+                linking = false;
+                logger.warn("Unable to link {} from {}, bundle files will be copied instead: {}", dest, root, e.getMessage());
+            }
+        }
+        Files.copy(stored, dest, StandardCopyOption.REPLACE_EXISTING);
+        copiedCount.incrementAndGet();
+    }
+
+    private interface ContentWriter {
+        void write(Path path) throws IOException;
+    }
+
+    /**
+     * @return The stored copy of the content with the hash, writing it to the store if it is not stored yet
+     */
+    private Path store(String hash, ContentWriter writer) throws IOException {
+        Path stored = getStoredPath(hash);
+        // a stored file modified in place through one of its links no longer matches its hash, so it is replaced
+        if (Files.isRegularFile(stored) && hash(stored).equals(hash)) {
+            return stored;
+        }
+
+        Files.createDirectories(stored.getParent());
+        Path temp = Files.createTempFile(stored.getParent(), stored.getFileName().toString(), ".tmp");
+        try {
+            writer.write(temp);
+            try {
+                Files.move(temp, stored, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, stored, StandardCopyOption.REPLACE_EXISTING);
+            }
+            storedCount.incrementAndGet();
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return stored;
+    }
+
+    private Path getStoredPath(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    // Hashes are cached by path, size and modification time, so an unchanged stored file is only verified once
+    private String hash(Path source) throws IOException {
+        File file = source.toFile();
+        String key = source.toAbsolutePath().normalize().toString();
+        HashedFile hashed = hashes.get(key);
+        if (hashed == null || hashed.lastModified != file.lastModified() || hashed.length != file.length()) {
+            long lastModified = file.lastModified();
+            long length = file.length();
+            try (InputStream stream = Files.newInputStream(source)) {
+                hashed = new HashedFile(lastModified, length, DigestUtils.sha256Hex(stream));
+            }
+            hashes.put(key, hashed);
+        }
+        return hashed.hash;
+    }
+
+    public int getStoredCount() {
+        return storedCount.get();
+    }
+
+    public int getLinkedCount() {
+        return linkedCount.get();
+    }
+
+    public int getCopiedCount() {
+        return copiedCount.get();
+    }
+
+    /**
+     * @return The size of the files placed by link, i.e. the bytes that were not copied
+     */
+    public long getLinkedBytes() {
+        return linkedBytes.get();
+    }
+
+    public void logStatistics() {
+        logger.info("Bundle file store {}: {} file(s) stored, {} linked ({} KB not copied), {} copied",
+                root, getStoredCount(), getLinkedCount(), getLinkedBytes() / 1024, getCopiedCount());
+    }
+}
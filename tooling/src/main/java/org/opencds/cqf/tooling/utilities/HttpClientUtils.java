@@ -2,26 +2,37 @@ package org.opencds.cqf.tooling.utilities;
 
 import ca.uhn.fhir.context.FhirContext;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -38,11 +49,29 @@ public class HttpClientUtils {
     private static final String FHIR_CONTEXT = "FHIR Context";
     private static final int MAX_SIMULTANEOUS_POST_COUNT = 10;
 
-    //failedPostCalls needs to maintain the details built in the FAILED message, as well as a copy of the inputs for a retry by the user on failed posts.
+    /**
+     * System property setting the number of POST requests made concurrently (default 10).
+     */
+    public static final String MAX_CONCURRENT_POSTS_PROPERTY = "cqf.tooling.http.maxConcurrentPosts";
+    private static volatile Integer maxConcurrentPosts;
+
+    /**
+     * System property naming the failure journal used by {@link #postTaskCollection()}.
+     */
+    public static final String FAILURE_JOURNAL_PROPERTY = "cqf.tooling.http.failureJournal";
+    private static volatile HttpRetryPolicy retryPolicy;
+
+    //shared by all requests so connections to the FHIR server are kept alive and reused:
+    private static CloseableHttpClient httpClient;
+    private static PoolingHttpClientConnectionManager connectionManager;
+
+    //failedPostCalls needs to maintain the details built in the FAILED message, as well as a copy of the inputs for the failure journal.
     private static Queue<Pair<String, PostComponent>> failedPostCalls = new ConcurrentLinkedQueue<>();
+    private static Queue<PostFailureJournal.Entry> failedEntryPosts = new ConcurrentLinkedQueue<>();
     private static List<String> successfulPostCalls = new CopyOnWriteArrayList<>();
     private static Map<IBaseResource, Callable<Void>> tasks = new ConcurrentHashMap<>();
     private static List<IBaseResource> runningPostTaskList = new CopyOnWriteArrayList<>();
+    private static Set<String> postedServerUrls = ConcurrentHashMap.newKeySet();
     private static final AtomicInteger counter = new AtomicInteger(0);
 
     private HttpClientUtils() {}
@@ -51,6 +80,71 @@ public class HttpClientUtils {
         return !tasks.isEmpty();
     }
 
+    /**
+     * @return The number of POST requests made concurrently by postTaskCollection
+     */
+    public static int getMaxConcurrentPosts() {
+        Integer configured = maxConcurrentPosts;
+        if (configured == null) {
+            configured = Integer.getInteger(MAX_CONCURRENT_POSTS_PROPERTY, MAX_SIMULTANEOUS_POST_COUNT);
+        }
+        return Math.max(1, configured);
+    }
+
+    /**
+     * Overrides the number of POST requests made concurrently (see {@link #MAX_CONCURRENT_POSTS_PROPERTY}).
+     */
+    public static void setMaxConcurrentPosts(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("The number of concurrent POST requests must be at least 1");
+        }
+        maxConcurrentPosts = count;
+        synchronized (HttpClientUtils.class) {
+            if (connectionManager != null) {
+                configureConnectionPool(connectionManager);
+            }
+        }
+    }
+
+    private static void configureConnectionPool(PoolingHttpClientConnectionManager connectionManager) {
+        connectionManager.setDefaultMaxPerRoute(getMaxConcurrentPosts());
+        connectionManager.setMaxTotal(Math.max(getMaxConcurrentPosts(), 20));
+    }
+
+    /**
+     * @return The retry policy for POST requests, by default configured from the system properties (see {@link HttpRetryPolicy})
+     */
+    public static HttpRetryPolicy getRetryPolicy() {
+        HttpRetryPolicy configured = retryPolicy;
+        return configured != null ? configured : HttpRetryPolicy.fromSystemProperties();
+    }
+
+    public static void setRetryPolicy(HttpRetryPolicy policy) {
+        retryPolicy = policy;
+    }
+
+    /**
+     * Returns the HTTP client shared by all requests made through this class.
+     * <p>
+     * The client pools its connections (one per concurrent request to the same server) and keeps them alive
+     * between requests, evicting connections that have been idle for 30 seconds.
+     *
+     * @return The shared HTTP client.
+     */
+    public static synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            connectionManager = new PoolingHttpClientConnectionManager();
+            configureConnectionPool(connectionManager);
+            httpClient = HttpClientBuilder.create()
+                    .setConnectionManager(connectionManager)
+                    .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                    .evictExpiredConnections()
+                    .evictIdleConnections(30, TimeUnit.SECONDS)
+                    .build();
+        }
+        return httpClient;
+    }
+
     /**
      * Initiates an HTTP POST request to a FHIR server with the specified parameters.
      *
@@ -74,7 +168,40 @@ public class HttpClientUtils {
                     (!values.isEmpty() ? "\\nRemaining values are: " + String.join(", ", values) : ""));
         }
 
-        createPostTask(fhirServerUrl, resource, encoding, fhirContext);
+        createPostTask(fhirServerUrl, resource, encoding, fhirContext, null);
+    }
+
+    /**
+     * Initiates an HTTP POST request of a batch or transaction bundle whose response is passed to the handler, see
+     * {@link #post(String, IBaseResource, IOUtils.Encoding, FhirContext)}.
+     *
+     * @param fhirServerUrl   The URL of the FHIR server to which the POST request will be sent.
+     * @param bundle          The batch or transaction bundle to be posted.
+     * @param encoding        The encoding type of the resource.
+     * @param fhirContext     The FHIR context for the resource.
+     * @param responseHandler Reports the outcome of each entry of the bundle.
+     */
+    public static void post(String fhirServerUrl, IBaseResource bundle, IOUtils.Encoding encoding, FhirContext fhirContext,
+                            BundleResponseHandler responseHandler) {
+        createPostTask(fhirServerUrl, bundle, encoding, fhirContext, responseHandler);
+    }
+
+    /**
+     * Handles the response to a POST of a batch or transaction bundle, so failures are reported (and journaled) for
+     * the entries of the bundle rather than the bundle itself.
+     */
+    public interface BundleResponseHandler {
+        /**
+         * @param responseBody The body of a successful response (the batch-response or transaction-response bundle)
+         * @return The entries of the posted bundle that failed
+         */
+        List<PostFailureJournal.Entry> handleResponse(String responseBody);
+
+        /**
+         * @return The resource type qualified ids (e.g. Library/example) of the entries of the posted bundle, recorded
+         * as failed when the bundle as a whole cannot be posted
+         */
+        Collection<String> getEntryKeys();
     }
 
 
@@ -114,11 +241,15 @@ public class HttpClientUtils {
      * @param resource      The FHIR resource to be posted.
      * @param encoding      The encoding type of the resource.
      * @param fhirContext   The FHIR context for the resource.
+     * @param responseHandler The handler of the response to a bundle, or null.
      */
-    private static void createPostTask(String fhirServerUrl, IBaseResource resource, IOUtils.Encoding encoding, FhirContext fhirContext) {
+    private static void createPostTask(String fhirServerUrl, IBaseResource resource, IOUtils.Encoding encoding, FhirContext fhirContext,
+                                       BundleResponseHandler responseHandler) {
         try {
             final int currentTaskIndex = tasks.size() + 1;
             PostComponent postPojo = new PostComponent(fhirServerUrl, resource, encoding, fhirContext);
+            postPojo.responseHandler = responseHandler;
+            postedServerUrls.add(fhirServerUrl);
             HttpPost post = configureHttpPost(fhirServerUrl, resource, encoding, fhirContext);
 
             Callable<Void> task = createPostCallable(post, postPojo, currentTaskIndex);
@@ -132,8 +263,8 @@ public class HttpClientUtils {
      * Configures and prepares an HTTP POST request with the specified parameters.
      * <p>
      * This method creates and configures an HTTP POST request to be used for posting a FHIR resource to the given FHIR server.
-     * It sets the request's headers, encodes the FHIR resource, and sets request timeouts. If an unsupported encoding type is
-     * encountered, it throws a runtime exception.
+     * It sets the request's entity, which encodes the FHIR resource directly to the connection when the request is sent, and
+     * sets request timeouts.
      *
      * @param fhirServerUrl The URL of the FHIR server to which the POST request will be sent.
      * @param resource      The FHIR resource to be posted.
@@ -143,16 +274,7 @@ public class HttpClientUtils {
      */
     private static HttpPost configureHttpPost(String fhirServerUrl, IBaseResource resource, IOUtils.Encoding encoding, FhirContext fhirContext) {
         HttpPost post = new HttpPost(fhirServerUrl);
-        post.addHeader("content-type", "application/" + encoding.toString());
-
-        String resourceString = IOUtils.encodeResourceAsString(resource, encoding, fhirContext);
-        StringEntity input;
-        try {
-            input = new StringEntity(resourceString);
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
-        post.setEntity(input);
+        post.setEntity(new FhirResourceEntity(resource, encoding, fhirContext));
 
         //60 second timeout
         RequestConfig requestConfig = RequestConfig.custom()
@@ -170,8 +292,9 @@ public class HttpClientUtils {
      * This method constructs a callable task that performs the following steps:
      * 1. Executes an HTTP POST request using the provided parameters.
      * 2. Processes the HTTP response, checking the status code and reason phrase.
-     * 3. Logs success or failure messages based on the response status.
-     * 4. Handles exceptions related to the request and response.
+     * 3. Retries connection failures and transient error responses (e.g. 429, 503) as allowed by the {@link HttpRetryPolicy},
+     *    waiting an exponentially increasing delay (or the delay requested by the server) between attempts.
+     * 4. Logs success or failure messages based on the final response status.
      * 5. Updates the progress and status of the post task.
      *
      * @param post          The HTTP POST request to be executed.
@@ -181,26 +304,68 @@ public class HttpClientUtils {
      */
     private static Callable<Void> createPostCallable(HttpPost post, PostComponent postPojo, int currentTaskIndex) {
         return () -> {
-            try (CloseableHttpClient httpClient = HttpClientBuilder.create().build()) {
-                HttpResponse response = httpClient.execute(post);
-                StatusLine statusLine = response.getStatusLine();
-                int statusCode = statusLine.getStatusCode();
-                String reasonPhrase = statusLine.getReasonPhrase();
-                String httpVersion = statusLine.getProtocolVersion().toString();
-
-                if (statusCode >= 200 && statusCode < 300) {
-                    successfulPostCalls.add(currentTaskIndex + " out of " + tasks.size() + " - Resource successfully posted to FHIR server: " + postPojo.resource.getIdElement().getIdPart());
-                } else {
-                    String detailedMessage = currentTaskIndex + " out of " + tasks.size() + " - Error posting resource to FHIR server (" + postPojo.fhirServerUrl
+            HttpRetryPolicy retryPolicy = getRetryPolicy();
+            String failure = null;
+            int statusCode = -1;
+            int attempts = 0;
+            for (int retry = 0; ; retry++) {
+                attempts++;
+                boolean retryable;
+                String retryAfter = null;
+                try (CloseableHttpResponse response = getHttpClient().execute(post)) {
+                    String responseBody = postPojo.responseHandler != null && response.getEntity() != null
+                            ? EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8) : null;
+                    //the response must be consumed to return the connection to the pool:
+                    EntityUtils.consume(response.getEntity());
+                    StatusLine statusLine = response.getStatusLine();
+                    statusCode = statusLine.getStatusCode();
+                    String reasonPhrase = statusLine.getReasonPhrase();
+                    String httpVersion = statusLine.getProtocolVersion().toString();
+
+                    if (statusCode >= 200 && statusCode < 300) {
+                        int failedEntries = postPojo.responseHandler != null ? handleBundleResponse(postPojo, responseBody) : 0;
+                        successfulPostCalls.add(currentTaskIndex + " out of " + tasks.size() + " - Resource successfully posted to FHIR server: " + postPojo.resource.getIdElement().getIdPart()
+                                + (attempts > 1 ? " (attempt " + attempts + ")" : "")
+                                + (failedEntries > 0 ? " (" + failedEntries + " entries failed)" : ""));
+                        failure = null;
+                        break;
+                    }
+
+                    failure = "Error posting resource to FHIR server (" + postPojo.fhirServerUrl
                             + ") " + postPojo.resource.getIdElement().getIdPart() + ": HTTP Status: " + statusCode + " " + reasonPhrase + " (HTTP Version: " + httpVersion + ")";
+                    retryable = retryPolicy.isRetryable(statusCode);
+                    Header retryAfterHeader = response.getFirstHeader("Retry-After");
+                    retryAfter = retryAfterHeader == null ? null : retryAfterHeader.getValue();
+                } catch (IOException e) {
+                    statusCode = -1;
+                    failure = "Error while making the POST request: " + e.getMessage();
+                    retryable = true;
+                } catch (Exception e) {
+                    statusCode = -1;
+                    failure = "Error during POST request execution: " + e.getMessage();
+                    retryable = false;
+                }
 
-                    failedPostCalls.add(Pair.of(detailedMessage, postPojo));
+                if (!retryable || !retryPolicy.canRetry(retry)) {
+                    break;
+                }
+                long delay = retryPolicy.getDelayMillis(retry, statusCode, retryAfter);
+                logger.debug("Retrying POST of {} in {} ms: {}", postPojo.resource.getIdElement().getIdPart(), delay, failure);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = failure + " (retry interrupted)";
+                    break;
                 }
+                post.reset();
+            }
 
-            } catch (IOException e) {
-                failedPostCalls.add(Pair.of(currentTaskIndex + " out of " + tasks.size() + " - Error while making the POST request: " + e.getMessage(), postPojo));
-            } catch (Exception e) {
-                failedPostCalls.add(Pair.of(currentTaskIndex + " out of " + tasks.size() + " - Error during POST request execution: " + e.getMessage(), postPojo));
+            if (failure != null) {
+                postPojo.statusCode = statusCode;
+                postPojo.attempts = attempts;
+                failedPostCalls.add(Pair.of(currentTaskIndex + " out of " + tasks.size() + " - " + failure
+                        + (attempts > 1 ? " (" + attempts + " attempts)" : ""), postPojo));
             }
 
             runningPostTaskList.remove(postPojo.resource);
@@ -209,8 +374,20 @@ public class HttpClientUtils {
         };
     }
 
+    private static int handleBundleResponse(PostComponent postPojo, String responseBody) {
+        List<PostFailureJournal.Entry> failures;
+        try {
+            failures = postPojo.responseHandler.handleResponse(responseBody);
+        } catch (Exception e) {
+            logger.warn("Unable to read the response to bundle {}: {}", postPojo.resource.getIdElement().getIdPart(), e.getMessage());
+            return 0;
+        }
+        failedEntryPosts.addAll(failures);
+        return failures.size();
+    }
+
     /**
-     * Reports the progress of HTTP POST calls and the current thread pool size.
+     * Reports the progress of HTTP POST calls and the number of POST calls in progress.
      * <p>
      * This method updates and prints the progress of HTTP POST calls by calculating the percentage of completed tasks
      * relative to the total number of tasks. It also displays the current size of the running thread pool. The progress
@@ -219,7 +396,7 @@ public class HttpClientUtils {
     private static void reportProgress() {
         int currentCounter = counter.incrementAndGet();
         double percentage = (double) currentCounter / tasks.size() * 100;
-        System.out.print("\rPOST calls: " + String.format("%.2f%%", percentage) + " processed. Thread pool size: " + runningPostTaskList.size() + " ");
+        System.out.print("\rPOST calls: " + String.format("%.2f%%", percentage) + " processed. In progress: " + runningPostTaskList.size() + " ");
     }
 
     /**
@@ -227,17 +404,22 @@ public class HttpClientUtils {
      * <p>
      * This method orchestrates the execution of a collection of HTTP POST requests, each represented as a task.
      * The method performs the following steps:
-     * 1. Creates a thread pool using a fixed number of threads (usually 1).
-     * 2. Initiates the HTTP POST tasks for FHIR resources and monitors their progress.
-     * 3. Collects and logs success or failure messages for each task.
+     * 1. Creates a thread pool with one thread per concurrent POST (see {@link #getMaxConcurrentPosts()}).
+     * 2. Initiates the HTTP POST tasks for FHIR resources, waiting for a free slot before starting each one, and monitors their progress.
+     * 3. Collects and logs success or failure messages for each task (each task retries transient failures itself).
      * 4. Sorts and reports the results of the post tasks, both successful and failed.
-     * 5. Offers the option to retry failed tasks, if desired by the user.
+     * 5. Records the resources that still failed in the failure journal, if one is given.
      * 6. Cleans up resources and shuts down the thread pool when finished.
      * <p>
      * This method serves as the entry point for posting tasks and provides progress monitoring and result reporting.
+     * It never waits for user input.
+     *
+     * @param failureJournal The journal recording the resources that could not be posted, or null to only report them.
      */
-    public static void postTaskCollection() {
-        ExecutorService executorService = Executors.newFixedThreadPool(1);
+    public static void postTaskCollection(PostFailureJournal failureJournal) {
+        int concurrentPosts = getMaxConcurrentPosts();
+        ExecutorService executorService = Executors.newFixedThreadPool(concurrentPosts);
+        Semaphore postSlots = new Semaphore(concurrentPosts);
 
         try {
             System.out.println(tasks.size() + " POST calls to be made. Starting now. Please wait...");
@@ -246,15 +428,18 @@ public class HttpClientUtils {
 
             List<Future<Void>> futures = new ArrayList<>();
             List<IBaseResource> resources = new ArrayList<>(tasks.keySet());
-            for (int i = 0; i < resources.size(); i++) {
-                IBaseResource thisResource = resources.get(i);
-                if (runningPostTaskList.size() < MAX_SIMULTANEOUS_POST_COUNT) {
-                    runningPostTaskList.add(thisResource);
-                    futures.add(executorService.submit(tasks.get(thisResource)));
-                } else {
-                    threadSleep(10);
-                    i--;
-                }
+            for (IBaseResource thisResource : resources) {
+                //blocks until one of the running POST calls completes:
+                postSlots.acquireUninterruptibly();
+                runningPostTaskList.add(thisResource);
+                Callable<Void> task = tasks.get(thisResource);
+                futures.add(executorService.submit(() -> {
+                    try {
+                        return task.call();
+                    } finally {
+                        postSlots.release();
+                    }
+                }));
             }
 
             for (Future<Void> future : futures) {
@@ -277,50 +462,7 @@ public class HttpClientUtils {
             successfulPostCalls = new ArrayList<>();
 
             if (!failedPostCalls.isEmpty()) {
-                System.out.println(failedPostCalls.size() + " tasks failed to POST. Retry these failed posts? (Y/N)");
-                Scanner scanner = new Scanner(System.in);
-                String userInput = scanner.nextLine().trim().toLowerCase();
-
-                if (userInput.equalsIgnoreCase("y")) {
-                    List<Pair<String, PostComponent>> failedPostCallList = new ArrayList<>(failedPostCalls);
-                    cleanUp(); //clear the queue, reset the counter, start fresh
-
-                    for (Pair<String, PostComponent> pair : failedPostCallList) {
-                        PostComponent postPojo = pair.getRight();
-                        try {
-                            post(postPojo.fhirServerUrl, postPojo.resource, postPojo.encoding, postPojo.fhirContext);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-
-                    for (Callable<Void> task : tasks.values()) {
-                        try {
-                            task.call();
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
-                        }
-                        threadSleep(50);
-                    }
-
-                    if (failedPostCalls.isEmpty()) {
-                        System.out.println("Retry successful, all tasks successfully posted");
-                    }
-                }
-            }
-
-            if (!successfulPostCalls.isEmpty()) {
-                message = new StringBuilder();
-                message.append("\r\n").append(successfulPostCalls.size()).append(" resources successfully posted.");
-                for (String successPost : successfulPostCalls) {
-                    message.append("\n").append(successPost);
-                }
-                System.out.println(message.toString());
-                successfulPostCalls = new ArrayList<>();
-            }
-
-            if (!failedPostCalls.isEmpty()) {
-                System.out.println("\n" + failedPostCalls.size() + " task(s) still failed to POST: ");
+                System.out.println("\n" + failedPostCalls.size() + " task(s) failed to POST: ");
                 List<String> failedMessages = new ArrayList<>();
                 for (Pair<String, PostComponent> pair : failedPostCalls) {
                     failedMessages.add(pair.getLeft());
@@ -334,6 +476,19 @@ public class HttpClientUtils {
                 System.out.println(message.toString());
             }
 
+            if (!failedEntryPosts.isEmpty()) {
+                message = new StringBuilder();
+                message.append("\r\n").append(failedEntryPosts.size()).append(" bundle entries failed to post.");
+                for (PostFailureJournal.Entry failedEntry : failedEntryPosts) {
+                    message.append("\n").append(failedEntry.getKey()).append(": ").append(failedEntry.getMessage());
+                }
+                System.out.println(message.toString());
+            }
+
+            if (failureJournal != null) {
+                recordFailures(failureJournal);
+            }
+
         } finally {
             cleanUp();
             executorService.shutdown();
@@ -341,44 +496,67 @@ public class HttpClientUtils {
     }
 
     /**
-     * Pauses the current thread's execution for a specified duration.
-     *
-     * This method causes the current thread to sleep for the given duration, allowing a pause in execution. If an
-     * interruption occurs during the sleep, it is logged as an exception.
-     *
-     * @param i The duration, in milliseconds, for which the thread should sleep.
+     * Posts the collected tasks, recording failures in the journal named by the cqf.tooling.http.failureJournal system
+     * property (if set). See {@link #postTaskCollection(PostFailureJournal)}.
      */
-    private static void threadSleep(int i){
+    public static void postTaskCollection() {
+        String journalPath = System.getProperty(FAILURE_JOURNAL_PROPERTY);
+        postTaskCollection(journalPath == null || journalPath.isEmpty() ? null : new PostFailureJournal(Paths.get(journalPath)));
+    }
+
+    private static void recordFailures(PostFailureJournal failureJournal) {
+        List<PostFailureJournal.Entry> entries = new ArrayList<>();
+        for (Pair<String, PostComponent> pair : failedPostCalls) {
+            PostComponent postPojo = pair.getRight();
+            if (postPojo.responseHandler != null) {
+                for (String key : postPojo.responseHandler.getEntryKeys()) {
+                    int separator = key.indexOf('/');
+                    entries.add(new PostFailureJournal.Entry(postPojo.fhirServerUrl, key.substring(0, separator),
+                            key.substring(separator + 1), postPojo.statusCode, postPojo.attempts, pair.getLeft()));
+                }
+            } else {
+                entries.add(new PostFailureJournal.Entry(postPojo.fhirServerUrl, postPojo.fhirContext.getResourceType(postPojo.resource),
+                        postPojo.resource.getIdElement().getIdPart(), postPojo.statusCode, postPojo.attempts, pair.getLeft()));
+            }
+        }
+        entries.addAll(failedEntryPosts);
         try {
-            Thread.sleep(i);
-        } catch (InterruptedException e) {
-            logger.error("postTaskCollection", new RuntimeException(e));
+            failureJournal.update(postedServerUrls, entries);
+            if (!entries.isEmpty()) {
+                System.out.println("\nFailed POST(s) recorded in " + failureJournal.getPath()
+                        + ". Run PostBundlesInDir with -replay-failures to post them again.");
+            }
+        } catch (RuntimeException e) {
+            logger.error("Unable to record failed POST calls", e);
         }
     }
+
     /**
      * Cleans up and resets internal data structures after processing HTTP POST tasks.
      * <p>
      * This method is responsible for resetting various data structures used during the processing of HTTP POST tasks. It performs the following actions:
-     * 1. Clears the queue of failed POST calls.
+     * 1. Clears the queues of failed POST calls and failed bundle entries.
      * 2. Clears the list of successful POST call results.
      * 3. Resets the map of tasks to be executed.
      * 4. Resets the counter that tracks the number of processed POST calls.
-     * 5. Clears the list of resources currently being posted.
+     * 5. Clears the list of resources currently being posted and the servers posted to.
      * <p>
      * This method ensures a clean state and prepares the system for potential subsequent POST calls or retries.
      */
     private static void cleanUp() {
         failedPostCalls = new ConcurrentLinkedQueue<>();
+        failedEntryPosts = new ConcurrentLinkedQueue<>();
         successfulPostCalls = new CopyOnWriteArrayList<>();
         tasks = new ConcurrentHashMap<>();
         counter.set(0);
         runningPostTaskList = new CopyOnWriteArrayList<>();
+        postedServerUrls = ConcurrentHashMap.newKeySet();
     }
 
     public static String get(String path) throws IOException {
-        try (CloseableHttpClient httpClient = HttpClientBuilder.create().build()) {
-            HttpGet get = new HttpGet(path);
-            return getResponse(httpClient.execute(get));
+        HttpGet get = new HttpGet(path);
+        try (CloseableHttpResponse response = getHttpClient().execute(get)) {
+            return getResponse(response);
         }
     }
 
@@ -404,6 +582,9 @@ public class HttpClientUtils {
         IBaseResource resource;
         IOUtils.Encoding encoding;
         FhirContext fhirContext;
+        int statusCode = -1;
+        int attempts;
+        BundleResponseHandler responseHandler;
 
         public PostComponent(String fhirServerUrl, IBaseResource resource, IOUtils.Encoding encoding, FhirContext fhirContext) {
             this.fhirServerUrl = fhirServerUrl;
@@ -413,6 +594,54 @@ public class HttpClientUtils {
         }
     }
 
+    /**
+     * An entity that encodes a FHIR resource straight to the request's output stream (as UTF-8), rather than building the
+     * whole encoded resource as a String first. The resource is encoded again if the request is repeated.
+     */
+    static class FhirResourceEntity extends AbstractHttpEntity {
+        private final IBaseResource resource;
+        private final IOUtils.Encoding encoding;
+        private final FhirContext fhirContext;
+
+        FhirResourceEntity(IBaseResource resource, IOUtils.Encoding encoding, FhirContext fhirContext) {
+            this.resource = resource;
+            this.encoding = encoding;
+            this.fhirContext = fhirContext;
+            setContentType("application/" + encoding.toString() + "; charset=UTF-8");
+            setChunked(true);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            writeTo(content);
+            return new ByteArrayInputStream(content.toByteArray());
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            //not closed, the connection owns the output stream:
+            Writer writer = new OutputStreamWriter(outStream, StandardCharsets.UTF_8);
+            IOUtils.getParser(encoding, fhirContext).encodeResourceToWriter(resource, writer);
+            writer.flush();
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+
     /**
      * Sorts a list by the initial numbers so that we see the [iteration] of [total] message
      * in ascending order
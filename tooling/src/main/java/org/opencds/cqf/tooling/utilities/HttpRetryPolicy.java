@@ -0,0 +1,109 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.utils.DateUtils;
+
+/**
+ * Decides whether a failed HTTP request is retried, and how long to wait before retrying it.
+ * <p>
+ * Connection failures and 408, 429, 500, 502, 503 and 504 responses are retried up to maxRetries times. The
+ * delay before retry n (starting at 0) is baseDelay * 2^n, capped at maxDelay, of which a random half is
+ * jitter so clients that failed together do not retry together. A Retry-After header on a 429 or 503 response
+ * is honored instead (up to 10 minutes).
+ * <p>
+ * The defaults (3 retries, 500 ms base delay, 30 s maximum delay) can be changed with the
+ * cqf.tooling.http.maxRetries, cqf.tooling.http.retryBaseDelayMillis and cqf.tooling.http.retryMaxDelayMillis
+ * system properties.
+ */
+public class HttpRetryPolicy {
+    public static final String MAX_RETRIES_PROPERTY = "cqf.tooling.http.maxRetries";
+    public static final String BASE_DELAY_PROPERTY = "cqf.tooling.http.retryBaseDelayMillis";
+    public static final String MAX_DELAY_PROPERTY = "cqf.tooling.http.retryMaxDelayMillis";
+
+    private static final long MAX_RETRY_AFTER_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public HttpRetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        if (maxRetries < 0 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException(String.format("Invalid retry policy: %d retries, %d ms base delay, %d ms maximum delay",
+                    maxRetries, baseDelayMillis, maxDelayMillis));
+        }
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public static HttpRetryPolicy fromSystemProperties() {
+        return new HttpRetryPolicy(Integer.getInteger(MAX_RETRIES_PROPERTY, 3),
+                Long.getLong(BASE_DELAY_PROPERTY, 500L), Long.getLong(MAX_DELAY_PROPERTY, 30_000L));
+    }
+
+    public static HttpRetryPolicy none() {
+        return new HttpRetryPolicy(0, 0, 0);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @return true if a response with the status code may succeed when the request is repeated
+     */
+    public boolean isRetryable(int statusCode) {
+        switch (statusCode) {
+            case 408: case 429: case 500: case 502: case 503: case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param retry The number of retries already made for the request
+     * @return true if the request may be retried again
+     */
+    public boolean canRetry(int retry) {
+        return retry < maxRetries;
+    }
+
+    /**
+     * @param retry The number of retries already made for the request
+     * @param statusCode The status code of the failed response, or -1 if the request failed without a response
+     * @param retryAfter The value of the Retry-After header of the response, or null
+     * @return The number of milliseconds to wait before the next attempt
+     */
+    public long getDelayMillis(int retry, int statusCode, String retryAfter) {
+        if (statusCode == 429 || statusCode == 503) {
+            long requested = parseRetryAfter(retryAfter, System.currentTimeMillis());
+            if (requested >= 0) {
+                return Math.min(requested, MAX_RETRY_AFTER_MILLIS);
+            }
+        }
+        long delay = Math.min(maxDelayMillis, baseDelayMillis * (1L << Math.min(retry, 30)));
+        long half = delay / 2;
+        return half + (half > 0 ? ThreadLocalRandom.current().nextLong(half + 1) : 0);
+    }
+
+    /**
+     * @return The delay in milliseconds requested by a Retry-After value (delay-seconds or an HTTP-date), or -1 if
+     * the value is missing or invalid
+     */
+    static long parseRetryAfter(String retryAfter, long now) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return -1;
+        }
+        String value = retryAfter.trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date == null ? -1 : Math.max(0, date.getTime() - now);
+        }
+    }
+}
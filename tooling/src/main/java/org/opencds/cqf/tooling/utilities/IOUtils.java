@@ -1,8 +1,6 @@
 package org.opencds.cqf.tooling.utilities;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.context.RuntimeCompositeDatatypeDefinition;
-import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.util.BundleBuilder;
 import com.google.gson.JsonObject;
@@ -16,6 +14,7 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.utilities.Utilities;
 import org.opencds.cqf.tooling.cql.exception.CQLTranslatorException;
 import org.opencds.cqf.tooling.library.LibraryProcessor;
+import org.opencds.cqf.tooling.utilities.cache.ResourceCaches;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,6 +23,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -196,11 +197,11 @@ public class IOUtils {
         }
     }
 
-    private static final Map<String, String> alreadyCopied = new HashMap<>();
+    private static final Map<String, String> alreadyCopied = new ConcurrentHashMap<>();
     public static int copyFileCounter() {
-        return copyFileCounter;
+        return copyFileCounter.get();
     }
-    private static int copyFileCounter = 0;
+    private static final AtomicInteger copyFileCounter = new AtomicInteger();
     public static boolean copyFile(String inputPath, String outputPath) {
 
         if ((inputPath == null || inputPath.isEmpty()) &&
@@ -220,7 +221,7 @@ public class IOUtils {
         }
 
         String key = inputPath + ":" + outputPath;
-        if (alreadyCopied.containsKey(key)) {
+        if (alreadyCopied.putIfAbsent(key, outputPath) != null) {
             // File already copied to destination, no need to do anything
             return false;
         }
@@ -231,13 +232,13 @@ public class IOUtils {
             Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
 
             if (inputPath.toLowerCase().contains("tests-")){
-                copyFileCounter++;
+                copyFileCounter.incrementAndGet();
 //                System.out.println("Total tests-*: " + testsCounter + ": " + inputPath);
             }
 
-            alreadyCopied.put(key, outputPath);
             return true;
         } catch (IOException e) {
+            alreadyCopied.remove(key);
             logger.error(e.getMessage());
             LogUtils.putException("IOUtils.copyFile(" + inputPath + ", " + outputPath + "): ",
                     new RuntimeException("Error copying file: " + e.getMessage()));
@@ -279,41 +280,35 @@ public class IOUtils {
     }
 
     //users should always check for null
-    private static final Map<String, IBaseResource> cachedResources = new LinkedHashMap<>();
     public static IBaseResource readResource(String path, FhirContext fhirContext, Boolean safeRead) {
         Encoding encoding = getEncoding(path);
         if (encoding == Encoding.UNKNOWN || encoding == Encoding.CQL) {
             return null;
         }
 
-        IBaseResource resource = cachedResources.get(path);
-        if (resource != null) {
-            return resource;
+        File file = new File(path);
+        if (file.exists() && file.isDirectory()) {
+            throw new IllegalArgumentException(String.format("Cannot read a resource from a directory: %s", path));
         }
 
-        try {
-            IParser parser = getParser(encoding, fhirContext);
-            File file = new File(path);
+        if (Boolean.TRUE.equals(safeRead) && !file.exists()) {
+            return null;
+        }
 
-            if (file.exists() && file.isDirectory()) {
-                throw new IllegalArgumentException(String.format("Cannot read a resource from a directory: %s", path));
-            }
+        return ResourceCaches.resources().get(path, key -> parseResource(file, encoding, fhirContext));
+    }
 
-            if (Boolean.TRUE.equals(safeRead) && !file.exists()) {
-                return null;
-            }
-            try (FileReader reader = new FileReader(file)) {
-                resource = parser.parseResource(reader);
-            }
-            cachedResources.put(path, resource);
+    private static IBaseResource parseResource(File file, Encoding encoding, FhirContext fhirContext) {
+        IParser parser = getParser(encoding, fhirContext);
+        try (FileReader reader = new FileReader(file)) {
+            return parser.parseResource(reader);
         } catch (IOException e) {
-            throw new RuntimeException(String.format("Error reading resource from path %s: %s", path, e.getMessage()), e);
+            throw new RuntimeException(String.format("Error reading resource from path %s: %s", file.getPath(), e.getMessage()), e);
         }
-        return resource;
     }
 
     public static void updateCachedResource(IBaseResource updatedResource, String path) {
-        cachedResources.computeIfPresent(path, (key, value) -> updatedResource);
+        ResourceCaches.resources().replace(path, updatedResource);
     }
 
     public static List<IBaseResource> readResources(List<String> paths, FhirContext fhirContext) {
@@ -333,21 +328,17 @@ public class IOUtils {
             return null;
         }
 
-        if (cachedResources.containsKey(path)) {
-            return cachedResources.get(path);
-        }
-
-        IParser parser = getParser(encoding, fhirContext);
-        try (FileReader reader = new FileReader(path)) {
-            JsonObject obj = JsonParser.parseReader(reader).getAsJsonObject();
-            Arrays.stream(elements).forEach(obj::remove);
-            IBaseResource resource = parser.parseResource(obj.toString());
-            cachedResources.put(path, resource);
-            return resource;
-        } catch (IOException e) {
-            logger.error(e.getMessage());
-            throw new RuntimeException(String.format("Error reading resource from path %s: %s", path, e));
-        }
+        return ResourceCaches.resources().get(path, key -> {
+            IParser parser = getParser(encoding, fhirContext);
+            try (FileReader reader = new FileReader(path)) {
+                JsonObject obj = JsonParser.parseReader(reader).getAsJsonObject();
+                Arrays.stream(elements).forEach(obj::remove);
+                return parser.parseResource(obj.toString());
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+                throw new RuntimeException(String.format("Error reading resource from path %s: %s", path, e));
+            }
+        });
     }
 
     public static IBaseBundle bundleResourcesInDirectory(String directoryPath, FhirContext fhirContext, Boolean recursive) {
@@ -362,7 +353,7 @@ public class IOUtils {
     public static boolean isDirectory(String path) {
         return FileUtils.isDirectory(new File(path));
     }
-    private static final Map<String, List<String>> cachedFilePaths = new HashMap<>();
+    private static final Map<String, List<String>> cachedFilePaths = new ConcurrentHashMap<>();
 
     public static List<String> getFilePaths(String directoryPath, Boolean recursive) {
         List<String> filePaths = new ArrayList<>();
@@ -431,7 +422,7 @@ public class IOUtils {
         return file.getParent();
     }
 
-    private static final Map<String, List<String>> cachedDirectoryPaths = new HashMap<>();
+    private static final Map<String, List<String>> cachedDirectoryPaths = new ConcurrentHashMap<>();
 
     public static List<String> getDirectoryPaths(String path, Boolean recursive) {
         List<String> directoryPaths = new ArrayList<>();
@@ -501,7 +492,7 @@ public class IOUtils {
     }
 
     //users should protect against Encoding.UNKNOWN or Encoding.CQL
-    private static IParser getParser(Encoding encoding, FhirContext fhirContext) {
+    public static IParser getParser(Encoding encoding, FhirContext fhirContext) {
         switch (encoding) {
             case XML:
                 return fhirContext.newXmlParser();
@@ -565,9 +556,8 @@ public class IOUtils {
         return dependencyCqlFiles;
     }
 
-    private static final Map<String, CqlTranslator> cachedTranslator = new LinkedHashMap<>();
     public static CqlTranslator translate(String cqlContentPath, ModelManager modelManager, LibraryManager libraryManager, CqlTranslatorOptions options) throws CQLTranslatorException {
-        CqlTranslator translator = cachedTranslator.get(cqlContentPath);
+        CqlTranslator translator = ResourceCaches.translators().get(cqlContentPath);
         if (translator != null) {
             return translator;
         }
@@ -582,7 +572,7 @@ public class IOUtils {
             if (!translator.getErrors().isEmpty()) {
                 throw new CQLTranslatorException(listTranslatorErrors(translator));
             }
-            cachedTranslator.put(cqlContentPath, translator);
+            ResourceCaches.translators().put(cqlContentPath, translator);
             return translator;
         } catch (IOException e) {
             throw new CQLTranslatorException(e);
@@ -676,7 +666,7 @@ public class IOUtils {
     }
 
     private static final Set<String> cqlLibraryPaths = new LinkedHashSet<>();
-    public static Set<String> getCqlLibraryPaths() {
+    public static synchronized Set<String> getCqlLibraryPaths() {
         if (cqlLibraryPaths.isEmpty()) {
             setupCqlLibraryPaths();
         }
@@ -716,40 +706,28 @@ public class IOUtils {
         return cqlLibrarySourcePath;
     }
 
+    private static ResourceFileIndex resourceFileIndex;
+    /**
+     * @return The index of the resource files in the resource directories, rebuilt when the directories change. The
+     * setup*Paths methods below read the paths and ids from the index; the resources are only parsed when requested.
+     */
+    public static synchronized ResourceFileIndex getResourceFileIndex() {
+        if (resourceFileIndex == null || !resourceFileIndex.getDirectories().equals(resourceDirectories)) {
+            resourceFileIndex = ResourceFileIndex.build(resourceDirectories);
+        }
+        return resourceFileIndex;
+    }
+
     private static final Set<String> terminologyPaths = new LinkedHashSet<>();
-    public static Set<String> getTerminologyPaths(FhirContext fhirContext) {
+    public static synchronized Set<String> getTerminologyPaths(FhirContext fhirContext) {
         if (terminologyPaths.isEmpty()) {
             setupTerminologyPaths(fhirContext);
         }
         return terminologyPaths;
     }
     private static void setupTerminologyPaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new LinkedHashMap<>();
-        for (String dir : resourceDirectories) {
-            for (String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    if (path.toLowerCase().contains("valuesets") || path.toLowerCase().contains("valueset")) {
-                        logger.error("Error reading in Terminology from path: {} \n {}", path, e.getMessage());
-                    }
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition valuesetDefinition = ResourceUtils.getResourceDefinition(fhirContext, "ValueSet");
-            RuntimeCompositeDatatypeDefinition conceptDefinition = (RuntimeCompositeDatatypeDefinition)ResourceUtils.getElementDefinition(fhirContext, "CodeableConcept");
-            RuntimeCompositeDatatypeDefinition codingDefinition = (RuntimeCompositeDatatypeDefinition)ResourceUtils.getElementDefinition(fhirContext, "Coding");
-            String valuesetClassName = valuesetDefinition.getImplementingClass().getName();
-            String conceptClassName = conceptDefinition.getImplementingClass().getName();
-            String codingClassName = codingDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->
-                            valuesetClassName.equals(entry.getValue().getClass().getName())
-                                    || conceptClassName.equals(entry.getValue().getClass().getName())
-                                    || codingClassName.equals(entry.getValue().getClass().getName())
-                    )
-                    .forEach(entry -> terminologyPaths.add(entry.getKey()));
+        for (ResourceFileIndex.Entry entry : getResourceFileIndex().getEntries("ValueSet")) {
+            terminologyPaths.add(entry.getPath());
         }
     }
 
@@ -762,14 +740,15 @@ public class IOUtils {
     }
 
     private static final Set<String> libraryPaths = new LinkedHashSet<>();
-    public static Set<String> getLibraryPaths(FhirContext fhirContext) {
+    public static synchronized Set<String> getLibraryPaths(FhirContext fhirContext) {
         if (libraryPaths.isEmpty()) {
             setupLibraryPaths(fhirContext);
         }
         return libraryPaths;
     }
-    private static final Map<String, IBaseResource> libraryUrlMap = new LinkedHashMap<>();
-    public static Map<String, IBaseResource> getLibraryUrlMap(FhirContext fhirContext) {
+    private static final Map<String, String> libraryUrlPathMap = new LinkedHashMap<>();
+    private static Map<String, IBaseResource> libraryUrlMap = Collections.emptyMap();
+    public static synchronized Map<String, IBaseResource> getLibraryUrlMap(FhirContext fhirContext) {
         if (libraryPathMap.isEmpty()) {
             setupLibraryPaths(fhirContext);
         }
@@ -780,169 +759,102 @@ public class IOUtils {
         return libraryUrlMap;
     }
     private static final Map<String, String> libraryPathMap = new LinkedHashMap<>();
-    public static Map<String, String> getLibraryPathMap(FhirContext fhirContext) {
+    public static synchronized Map<String, String> getLibraryPathMap(FhirContext fhirContext) {
         if (libraryPathMap.isEmpty()) {
             setupLibraryPaths(fhirContext);
         }
         return libraryPathMap;
     }
-    private static final Map<String, IBaseResource> libraries = new LinkedHashMap<>();
-    public static Map<String, IBaseResource> getLibraries(FhirContext fhirContext) {
+    private static Map<String, IBaseResource> libraries = Collections.emptyMap();
+    public static synchronized Map<String, IBaseResource> getLibraries(FhirContext fhirContext) {
         if (libraries.isEmpty()) {
             setupLibraryPaths(fhirContext);
         }
         return libraries;
     }
     private static void setupLibraryPaths(FhirContext fhirContext) {
-        Map<String, IBaseResource> resources = new LinkedHashMap<>();
-        for (String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    IBaseResource resource = IOUtils.readResource(path, fhirContext, true);
-                    resources.put(path, resource);
-                } catch (Exception e) {
-                    if(path.toLowerCase().contains("library")) {
-                        logger.error("Error reading in Library from path: {} \n {}", path, e.getMessage());
-                    }
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition libraryDefinition = ResourceUtils.getResourceDefinition(fhirContext, "Library");
-            String libraryClassName = libraryDefinition.getImplementingClass().getName();
-            // BaseRuntimeChildDefinition urlElement = libraryDefinition.getChildByNameOrThrowDataFormatException("url");
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->  libraryClassName.equals(entry.getValue().getClass().getName()))
-                    .forEach(entry -> {
-                        libraryPaths.add(entry.getKey());
-                        libraries.put(entry.getValue().getIdElement().getIdPart(), entry.getValue());
-                        libraryPathMap.put(entry.getValue().getIdElement().getIdPart(), entry.getKey());
-                        libraryUrlMap.put(ResourceUtils.getUrl(entry.getValue(), fhirContext), entry.getValue());
-                    });
+        for (ResourceFileIndex.Entry entry : getResourceFileIndex().getEntries("Library")) {
+            libraryPaths.add(entry.getPath());
+            libraryPathMap.put(entry.getId(), entry.getPath());
+            libraryUrlPathMap.put(entry.getUrl(), entry.getPath());
         }
+        libraries = ResourceFileIndex.lazyResources(libraryPathMap, fhirContext);
+        libraryUrlMap = ResourceFileIndex.lazyResources(libraryUrlPathMap, fhirContext);
     }
 
     private static final Set<String> measurePaths = new LinkedHashSet<>();
-    public static Set<String> getMeasurePaths(FhirContext fhirContext) {
+    public static synchronized Set<String> getMeasurePaths(FhirContext fhirContext) {
         if (measurePaths.isEmpty()) {
             setupMeasurePaths(fhirContext);
         }
         return measurePaths;
     }
     private static final Map<String, String> measurePathMap = new LinkedHashMap<>();
-    public static Map<String, String> getMeasurePathMap(FhirContext fhirContext) {
+    public static synchronized Map<String, String> getMeasurePathMap(FhirContext fhirContext) {
         if (measurePathMap.isEmpty()) {
             setupMeasurePaths(fhirContext);
         }
         return measurePathMap;
     }
-    private static final Map<String, IBaseResource> measures = new LinkedHashMap<>();
-    public static Map<String, IBaseResource> getMeasures(FhirContext fhirContext) {
+    private static Map<String, IBaseResource> measures = Collections.emptyMap();
+    public static synchronized Map<String, IBaseResource> getMeasures(FhirContext fhirContext) {
         if (measures.isEmpty()) {
             setupMeasurePaths(fhirContext);
         }
         return measures;
     }
     private static void setupMeasurePaths(FhirContext fhirContext) {
-        Map<String, IBaseResource> resources = new LinkedHashMap<>();
-        for (String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    IBaseResource resource = IOUtils.readResource(path, fhirContext, true);
-                    resources.put(path, resource);
-                } catch (Exception e) {
-                    if(path.toLowerCase().contains("measure")) {
-                        System.out.println("Error reading in Measure from path: " + path + "\n" + e);
-                    }
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition measureDefinition = ResourceUtils.getResourceDefinition(fhirContext, "Measure");
-            String measureClassName = measureDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->  measureClassName.equals(entry.getValue().getClass().getName()))
-                    .forEach(entry -> {
-                        measurePaths.add(entry.getKey());
-                        measures.put(entry.getValue().getIdElement().getIdPart(), entry.getValue());
-                        measurePathMap.put(entry.getValue().getIdElement().getIdPart(), entry.getKey());
-                    });
+        for (ResourceFileIndex.Entry entry : getResourceFileIndex().getEntries("Measure")) {
+            measurePaths.add(entry.getPath());
+            measurePathMap.put(entry.getId(), entry.getPath());
         }
+        measures = ResourceFileIndex.lazyResources(measurePathMap, fhirContext);
     }
 
     private static final Set<String> measureReportPaths = new LinkedHashSet<>();
-    public static Set<String> getMeasureReportPaths(FhirContext fhirContext) {
+    public static synchronized Set<String> getMeasureReportPaths(FhirContext fhirContext) {
         if (measureReportPaths.isEmpty()) {
             setupMeasureReportPaths(fhirContext);
         }
         return measureReportPaths;
     }
     private static void setupMeasureReportPaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new LinkedHashMap<>();
-        for (String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    //TODO: handle exception
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition measureReportDefinition = ResourceUtils.getResourceDefinition(fhirContext, "MeasureReport");
-            String measureReportClassName = measureReportDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->  measureReportClassName.equals(entry.getValue().getClass().getName()))
-                    .forEach(entry -> measureReportPaths.add(entry.getKey()));
+        for (ResourceFileIndex.Entry entry : getResourceFileIndex().getEntries("MeasureReport")) {
+            measureReportPaths.add(entry.getPath());
         }
     }
 
     private static final Set<String> planDefinitionPaths = new LinkedHashSet<>();
-    public static Set<String> getPlanDefinitionPaths(FhirContext fhirContext) {
+    public static synchronized Set<String> getPlanDefinitionPaths(FhirContext fhirContext) {
         if (planDefinitionPaths.isEmpty()) {
             setupPlanDefinitionPaths(fhirContext);
         }
         return planDefinitionPaths;
     }
     private static final Map<String, String> planDefinitionPathMap = new LinkedHashMap<>();
-    public static Map<String, String> getPlanDefinitionPathMap(FhirContext fhirContext) {
+    public static synchronized Map<String, String> getPlanDefinitionPathMap(FhirContext fhirContext) {
         if (planDefinitionPathMap.isEmpty()) {
             setupPlanDefinitionPaths(fhirContext);
         }
         return planDefinitionPathMap;
     }
-    private static final Map<String, IBaseResource> planDefinitions = new LinkedHashMap<>();
-    public static Map<String, IBaseResource> getPlanDefinitions(FhirContext fhirContext) {
+    private static Map<String, IBaseResource> planDefinitions = Collections.emptyMap();
+    public static synchronized Map<String, IBaseResource> getPlanDefinitions(FhirContext fhirContext) {
         if (planDefinitions.isEmpty()) {
             setupPlanDefinitionPaths(fhirContext);
         }
         return planDefinitions;
     }
     private static void setupPlanDefinitionPaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new LinkedHashMap<>();
-        for (String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    logger.error("Error setting PlanDefinition paths while reading resource at: {}. Error: {}", path, e.getMessage());
-                }
-            }
-            RuntimeResourceDefinition planDefinitionDefinition = ResourceUtils.getResourceDefinition(fhirContext, "PlanDefinition");
-            String planDefinitionClassName = planDefinitionDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->  planDefinitionClassName.equals(entry.getValue().getClass().getName()))
-                    .forEach(entry -> {
-                        planDefinitionPaths.add(entry.getKey());
-                        planDefinitions.put(entry.getValue().getIdElement().getIdPart(), entry.getValue());
-                        planDefinitionPathMap.put(entry.getValue().getIdElement().getIdPart(), entry.getKey());
-                    });
+        for (ResourceFileIndex.Entry entry : getResourceFileIndex().getEntries("PlanDefinition")) {
+            planDefinitionPaths.add(entry.getPath());
+            planDefinitionPathMap.put(entry.getId(), entry.getPath());
         }
+        planDefinitions = ResourceFileIndex.lazyResources(planDefinitionPathMap, fhirContext);
     }
 
     private static final Set<String> questionnairePaths = new LinkedHashSet<>();
-    public static Set<String> getQuestionnairePaths(FhirContext fhirContext) {
+    public static synchronized Set<String> getQuestionnairePaths(FhirContext fhirContext) {
         if (questionnairePaths.isEmpty()) {
             setupQuestionnairePaths(fhirContext);
         }
@@ -950,15 +862,15 @@ public class IOUtils {
     }
 
     private static final Map<String, String> questionnairePathMap = new LinkedHashMap<>();
-    public static Map<String, String> getQuestionnairePathMap(FhirContext fhirContext) {
+    public static synchronized Map<String, String> getQuestionnairePathMap(FhirContext fhirContext) {
         if (questionnairePathMap.isEmpty()) {
             setupQuestionnairePaths(fhirContext);
         }
         return questionnairePathMap;
     }
 
-    private static final Map<String, IBaseResource> questionnaires = new LinkedHashMap<>();
-    public static Map<String, IBaseResource> getQuestionnaires(FhirContext fhirContext) {
+    private static Map<String, IBaseResource> questionnaires = Collections.emptyMap();
+    public static synchronized Map<String, IBaseResource> getQuestionnaires(FhirContext fhirContext) {
         if (questionnaires.isEmpty()) {
             setupQuestionnairePaths(fhirContext);
         }
@@ -966,30 +878,15 @@ public class IOUtils {
     }
 
     private static void setupQuestionnairePaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new LinkedHashMap<>();
-        for (String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    logger.error("Error setting Questionnaire paths while reading resource at: {}. Error: {}", path, e.getMessage());
-                }
-            }
-            RuntimeResourceDefinition questionnaireDefinition = ResourceUtils.getResourceDefinition(fhirContext, "Questionnaire");
-            String questionnaireClassName = questionnaireDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->  questionnaireClassName.equals(entry.getValue().getClass().getName()))
-                    .forEach(entry -> {
-                        questionnairePaths.add(entry.getKey());
-                        questionnaires.put(entry.getValue().getIdElement().getIdPart(), entry.getValue());
-                        questionnairePathMap.put(entry.getValue().getIdElement().getIdPart(), entry.getKey());
-                    });
+        for (ResourceFileIndex.Entry entry : getResourceFileIndex().getEntries("Questionnaire")) {
+            questionnairePaths.add(entry.getPath());
+            questionnairePathMap.put(entry.getId(), entry.getPath());
         }
+        questionnaires = ResourceFileIndex.lazyResources(questionnairePathMap, fhirContext);
     }
 
     private static final Set<String> activityDefinitionPaths = new LinkedHashSet<>();
-    public static Set<String> getActivityDefinitionPaths(FhirContext fhirContext) {
+    public static synchronized Set<String> getActivityDefinitionPaths(FhirContext fhirContext) {
         if (activityDefinitionPaths.isEmpty()) {
             logger.info("Reading activitydefinitions");
             setupActivityDefinitionPaths(fhirContext);
@@ -998,24 +895,11 @@ public class IOUtils {
     }
 
     private static void setupActivityDefinitionPaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new LinkedHashMap<>();
         // BUG: resourceDirectories is being populated with all "per-convention" directories during validation. So,
         // if you have resources in the /tests directory for example, they will be picked up from there, rather than
         // from your resources directories.
-        for (String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    //TODO: handle exception
-                }
-            }
-            RuntimeResourceDefinition activityDefinitionDefinition = ResourceUtils.getResourceDefinition(fhirContext, "ActivityDefinition");
-            String activityDefinitionClassName = activityDefinitionDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->  activityDefinitionClassName.equals(entry.getValue().getClass().getName()))
-                    .forEach(entry -> activityDefinitionPaths.add(entry.getKey()));
+        for (ResourceFileIndex.Entry entry : getResourceFileIndex().getEntries("ActivityDefinition")) {
+            activityDefinitionPaths.add(entry.getPath());
         }
     }
 
@@ -1029,7 +913,7 @@ public class IOUtils {
     }
 
     private static Set<String> devicePaths;
-    public static Set<String> getDevicePaths(FhirContext fhirContext) {
+    public static synchronized Set<String> getDevicePaths(FhirContext fhirContext) {
         if (devicePaths == null) {
             setupDevicePaths(fhirContext);
         }
@@ -1037,30 +921,14 @@ public class IOUtils {
     }
 
     // TODO: This should not be necessary this is awful... For now it is needed for passing tests in Travis
-    public static void clearDevicePaths() {
+    public static synchronized void clearDevicePaths() {
         devicePaths = null;
     }
 
     private static void setupDevicePaths(FhirContext fhirContext) {
         devicePaths = new LinkedHashSet<>();
-        HashMap<String, IBaseResource> resources = new LinkedHashMap<>();
-        for (String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    if(path.toLowerCase().contains("device")) {
-                        logger.error("Error reading in Device from path: {} \n {}", path, e.getMessage());
-                    }
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition deviceDefinition = ResourceUtils.getResourceDefinition(fhirContext, "Device");
-            String deviceClassName = deviceDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->  deviceClassName.equals(entry.getValue().getClass().getName()))
-                    .forEach(entry -> devicePaths.add(entry.getKey()));
+        for (ResourceFileIndex.Entry entry : getResourceFileIndex().getEntries("Device")) {
+            devicePaths.add(entry.getPath());
         }
     }
 
@@ -1096,16 +964,17 @@ public class IOUtils {
      * Since all variables are final, we use .clear(). This gives a slight performance
      * boost over removing final keyword and initializing new instances.
      */
-    public static void cleanUp(){
+    public static synchronized void cleanUp(){
         alreadyCopied.clear();
-        cachedResources.clear();
+        ResourceCaches.resources().invalidateAll();
         cachedFilePaths.clear();
         cachedDirectoryPaths.clear();
-        cachedTranslator.clear();
+        ResourceCaches.translators().invalidateAll();
         cqlLibraryPaths.clear();
         terminologyPaths.clear();
         libraryPaths.clear();
         libraryUrlMap.clear();
+        libraryUrlPathMap.clear();
         libraryPathMap.clear();
         libraries.clear();
         measurePaths.clear();
@@ -1119,5 +988,6 @@ public class IOUtils {
         questionnairePathMap.clear();
         questionnaires.clear();
         activityDefinitionPaths.clear();
+        resourceFileIndex = null;
     }
 }
\ No newline at end of file
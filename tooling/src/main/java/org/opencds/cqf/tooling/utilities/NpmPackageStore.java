@@ -0,0 +1,355 @@
+package org.opencds.cqf.tooling.utilities;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.utilities.TextFile;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A local store of the FHIR Npm packages used for validation, so each package is downloaded once rather than on
+ * every run.
+ * <p>
+ * When a package is first requested it is downloaded from its url and unpacked into a folder of the store named
+ * after a hash of the url. Alongside the package files the store writes an index of the resources it contains
+ * (file, resourceType, id, url, version and, for StructureDefinitions, type), so later runs can find a resource
+ * by url or type without parsing the package, and parse only the resources that are actually used. Once a package
+ * is in the store no network access is needed for it. Packages are unpacked into a temporary folder that is moved
+ * into place when complete, so concurrent runs never observe a partially written package.
+ * <p>
+ * By default the store lives in ~/.cqf-cache/packages so it is shared by every run on the machine. The location
+ * can be overridden with the cqf.tooling.npm.store.dir system property, and the store can be bypassed (packages
+ * are then downloaded on every run) with cqf.tooling.npm.store.disabled=true. The directory can be deleted at any
+ * time; package urls are expected to identify a specific version of a package.
+ */
+public class NpmPackageStore {
+   private static final Logger logger = LoggerFactory.getLogger(NpmPackageStore.class);
+
+   public static final String STORE_DIRECTORY_PROPERTY = "cqf.tooling.npm.store.dir";
+   public static final String STORE_DISABLED_PROPERTY = "cqf.tooling.npm.store.disabled";
+
+   private static final String INDEX_FILE = "index.json";
+   private static final String ARCHIVE_FILE = "package.tgz";
+   private static final String RESOURCES_FOLDER = "package";
+   private static final String BINARIES_FOLDER = "other";
+
+   private static final Gson gson = new GsonBuilder().create();
+
+   /**
+    * A resource of a package, as recorded in the index.
+    */
+   public static class Entry {
+      private String file;
+      private String resourceType;
+      private String id;
+      private String url;
+      private String version;
+      private String type;
+
+      public String getFile() {
+         return file;
+      }
+
+      public String getResourceType() {
+         return resourceType;
+      }
+
+      public String getId() {
+         return id;
+      }
+
+      public String getUrl() {
+         return url;
+      }
+
+      public String getVersion() {
+         return version;
+      }
+
+      /**
+       * @return The type constrained by a StructureDefinition, null for other resources
+       */
+      public String getType() {
+         return type;
+      }
+
+      /**
+       * Reads the index entry from the JSON content of a package file.
+       *
+       * @return The entry, or null if the file is not a FHIR resource
+       */
+      public static Entry fromContent(String file, byte[] content) {
+         JsonElement json;
+         try {
+            json = JsonParser.parseString(new String(content, StandardCharsets.UTF_8));
+         } catch (RuntimeException e) {
+            logger.debug("Skipping {}, which is not valid JSON: {}", file, e.getMessage());
+            return null;
+         }
+         if (!json.isJsonObject() || getString(json.getAsJsonObject(), "resourceType") == null) {
+            return null;
+         }
+         JsonObject resource = json.getAsJsonObject();
+         Entry entry = new Entry();
+         entry.file = file;
+         entry.resourceType = getString(resource, "resourceType");
+         entry.id = getString(resource, "id");
+         entry.url = getString(resource, "url");
+         entry.version = getString(resource, "version");
+         if ("StructureDefinition".equals(entry.resourceType)) {
+            entry.type = getString(resource, "type");
+         }
+         return entry;
+      }
+
+      private static String getString(JsonObject object, String name) {
+         JsonElement element = object.get(name);
+         return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+      }
+   }
+
+   /**
+    * A package unpacked in the store.
+    */
+   public static class StoredPackage {
+      private transient Path directory;
+      private String packageUrl;
+      private List<Entry> resources = new ArrayList<>();
+      private List<String> binaries = new ArrayList<>();
+
+      public String getPackageUrl() {
+         return packageUrl;
+      }
+
+      public Path getDirectory() {
+         return directory;
+      }
+
+      /**
+       * @return The index of the resources in the package, in package order
+       */
+      public List<Entry> getResources() {
+         return Collections.unmodifiableList(resources);
+      }
+
+      public List<String> getBinaries() {
+         return Collections.unmodifiableList(binaries);
+      }
+
+      public byte[] readResource(Entry entry) {
+         return readFile(directory.resolve(RESOURCES_FOLDER).resolve(entry.getFile()));
+      }
+
+      public byte[] readBinary(String name) {
+         return readFile(directory.resolve(BINARIES_FOLDER).resolve(name));
+      }
+
+      /**
+       * @return The package as an NpmPackage, read from the archive in the store
+       */
+      public NpmPackage toNpmPackage() throws IOException {
+         try (InputStream archive = Files.newInputStream(directory.resolve(ARCHIVE_FILE))) {
+            return NpmPackage.fromPackage(archive);
+         }
+      }
+
+      private byte[] readFile(Path path) {
+         try {
+            return Files.readAllBytes(path);
+         } catch (IOException e) {
+            throw new RuntimeException("Unable to read " + path + " from the package store: " + e.getMessage(), e);
+         }
+      }
+   }
+
+   private final Path directory;
+   private final Map<String, StoredPackage> packages = new ConcurrentHashMap<>();
+
+   /**
+    * @param directory The directory holding the packages, or null to download packages without storing them
+    */
+   public NpmPackageStore(Path directory) {
+      this.directory = directory;
+   }
+
+   private static volatile NpmPackageStore shared;
+
+   /**
+    * @return The store in the configured directory, shared by the tooling so each package index is read once per run
+    */
+   public static NpmPackageStore getShared() {
+      NpmPackageStore store = shared;
+      if (store == null) {
+         synchronized (NpmPackageStore.class) {
+            if (shared == null) {
+               shared = new NpmPackageStore(Boolean.getBoolean(STORE_DISABLED_PROPERTY) ? null : resolveStoreDirectory());
+            }
+            store = shared;
+         }
+      }
+      return store;
+   }
+
+   public static Path resolveStoreDirectory() {
+      String configured = System.getProperty(STORE_DIRECTORY_PROPERTY);
+      if (configured != null && !configured.isBlank()) {
+         return Paths.get(configured).toAbsolutePath().normalize();
+      }
+      return Paths.get(System.getProperty("user.home"), ".cqf-cache", "packages");
+   }
+
+   public boolean isEnabled() {
+      return directory != null;
+   }
+
+   public Path getDirectory() {
+      return directory;
+   }
+
+   public boolean contains(String packageUrl) {
+      return isEnabled() && Files.isRegularFile(getPackageDirectory(packageUrl).resolve(INDEX_FILE));
+   }
+
+   /**
+    * @return The package, downloaded and unpacked into the store if it is not already there
+    */
+   public StoredPackage get(String packageUrl) throws IOException {
+      if (!isEnabled()) {
+         throw new IllegalStateException("The Npm package store is disabled");
+      }
+      StoredPackage stored = packages.get(packageUrl);
+      if (stored == null) {
+         Path packageDirectory = getPackageDirectory(packageUrl);
+         if (!Files.isRegularFile(packageDirectory.resolve(INDEX_FILE))) {
+            download(packageUrl, packageDirectory);
+         }
+         stored = readIndex(packageDirectory);
+         packages.put(packageUrl, stored);
+      }
+      return stored;
+   }
+
+   /**
+    * Removes the package from the store, so it is downloaded again when it is next requested.
+    */
+   public void invalidate(String packageUrl) {
+      packages.remove(packageUrl);
+      if (isEnabled()) {
+         try {
+            FileUtils.deleteDirectory(getPackageDirectory(packageUrl).toFile());
+         } catch (IOException e) {
+            logger.warn("Unable to remove package {} from the store: {}", packageUrl, e.getMessage());
+         }
+      }
+   }
+
+   private Path getPackageDirectory(String packageUrl) {
+      return directory.resolve(DigestUtils.sha256Hex(packageUrl.trim()));
+   }
+
+   private StoredPackage readIndex(Path packageDirectory) throws IOException {
+      try (Reader reader = Files.newBufferedReader(packageDirectory.resolve(INDEX_FILE), StandardCharsets.UTF_8)) {
+         StoredPackage stored = gson.fromJson(reader, StoredPackage.class);
+         stored.directory = packageDirectory;
+         return stored;
+      } catch (RuntimeException e) {
+         throw new IOException("Unable to read the package index in " + packageDirectory + ": " + e.getMessage(), e);
+      }
+   }
+
+   private void download(String packageUrl, Path packageDirectory) throws IOException {
+      logger.info("Downloading package {} into the package store", packageUrl);
+      byte[] archive;
+      try (InputStream stream = URI.create(packageUrl.trim()).toURL().openStream()) {
+         archive = TextFile.streamToBytes(stream);
+      }
+      NpmPackage npmPackage = NpmPackage.fromPackage(new ByteArrayInputStream(archive));
+
+      Files.createDirectories(directory);
+      Path temp = Files.createTempDirectory(directory, packageDirectory.getFileName() + ".tmp");
+      try {
+         Files.write(temp.resolve(ARCHIVE_FILE), archive);
+
+         StoredPackage stored = new StoredPackage();
+         stored.packageUrl = packageUrl;
+         NpmPackage.NpmPackageFolder packageFolder = npmPackage.getFolders().get(RESOURCES_FOLDER);
+         if (packageFolder != null) {
+            Path resourcesFolder = Files.createDirectories(temp.resolve(RESOURCES_FOLDER));
+            for (String file : packageFolder.listFiles()) {
+               if (file.toLowerCase(Locale.US).endsWith(".json")) {
+                  byte[] content = packageFolder.getContent().get(file);
+                  Entry entry = Entry.fromContent(file, content);
+                  if (entry != null) {
+                     Files.write(resourcesFolder.resolve(file), content);
+                     stored.resources.add(entry);
+                  }
+               }
+            }
+            Path binariesFolder = Files.createDirectories(temp.resolve(BINARIES_FOLDER));
+            for (String binary : npmPackage.list(BINARIES_FOLDER)) {
+               try (InputStream content = npmPackage.load(BINARIES_FOLDER, binary)) {
+                  Files.copy(content, binariesFolder.resolve(binary), StandardCopyOption.REPLACE_EXISTING);
+               }
+               stored.binaries.add(binary);
+            }
+         }
+
+         // written last: a package is only complete once it has an index
+         try (Writer writer = Files.newBufferedWriter(temp.resolve(INDEX_FILE), StandardCharsets.UTF_8)) {
+            gson.toJson(stored, writer);
+         }
+         moveIntoPlace(temp, packageDirectory);
+      } finally {
+         if (Files.exists(temp)) {
+            FileUtils.deleteDirectory(temp.toFile());
+         }
+      }
+   }
+
+   private void moveIntoPlace(Path temp, Path packageDirectory) throws IOException {
+      try {
+         if (Files.exists(packageDirectory) && !Files.isRegularFile(packageDirectory.resolve(INDEX_FILE))) {
+            // left behind by an interrupted run that predates the index
+            FileUtils.deleteDirectory(packageDirectory.toFile());
+         }
+         try {
+            Files.move(temp, packageDirectory, StandardCopyOption.ATOMIC_MOVE);
+         } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, packageDirectory);
+         }
+      } catch (FileAlreadyExistsException e) {
+         // stored by a concurrent run in the meantime
+         logger.debug("Package {} was stored concurrently", packageDirectory);
+      } catch (IOException e) {
+         if (!Files.isRegularFile(packageDirectory.resolve(INDEX_FILE))) {
+            throw e;
+         }
+      }
+   }
+}
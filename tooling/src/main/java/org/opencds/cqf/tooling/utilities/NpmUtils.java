@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.utilities;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.support.ValidationSupportContext;
 import org.hl7.fhir.common.hapi.validation.support.PrePopulatedValidationSupport;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Parameters;
@@ -11,16 +12,49 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 public class NpmUtils {
    private static final Logger logger = LoggerFactory.getLogger(NpmUtils.class);
 
    private NpmUtils() {}
 
+   /**
+    * Validation support for the resources of a set of Npm packages.
+    * <p>
+    * Loading a package only records the index of its resources (url, type and resourceType); each resource is
+    * parsed and added to the support the first time it is requested, by url or as part of a request for all the
+    * resources of its type. Resources of later packages replace resources of earlier packages with the same url.
+    * <p>
+    * Each resource is parsed while holding a lock of its own, so validation threads requesting different resources
+    * parse them concurrently; only adding the parsed resource to (and reading from) the maps of the base class is
+    * done under the shared lock.
+    */
    public static class PackageLoaderValidationSupport extends PrePopulatedValidationSupport {
 
+      private static class PendingResource {
+         private final NpmPackageStore.Entry entry;
+         private final Supplier<byte[]> content;
+         private volatile boolean loaded;
+
+         private PendingResource(NpmPackageStore.Entry entry, Supplier<byte[]> content) {
+            this.entry = entry;
+            this.content = content;
+         }
+      }
+
+      // guards the pending resources by type and the maps of the base class, which are not safe for concurrent use
+      private final Object lock = new Object();
+      private final Map<String, PendingResource> pendingByUrl = new ConcurrentHashMap<>();
+      private final Map<String, List<PendingResource>> pendingByType = new LinkedHashMap<>();
+
       public PackageLoaderValidationSupport(FhirContext fhirContext) {
          super(fhirContext);
       }
@@ -32,14 +66,28 @@ public class NpmUtils {
          }
       }
 
+      /**
+       * Loads a package from the {@link NpmPackageStore}, reading only its index.
+       */
+      public void loadPackage(NpmPackageStore.StoredPackage storedPackage) {
+         for (NpmPackageStore.Entry entry : storedPackage.getResources()) {
+            addPendingResource(entry, () -> storedPackage.readResource(entry));
+         }
+         for (String binaryName : storedPackage.getBinaries()) {
+            addBinary(storedPackage.readBinary(binaryName), binaryName);
+         }
+      }
+
       private void loadResourcesFromPackage(NpmPackage thePackage) {
          NpmPackage.NpmPackageFolder packageFolder = thePackage.getFolders().get("package");
 
          for (String nextFile : packageFolder.listFiles()) {
             if (nextFile.toLowerCase(Locale.US).endsWith(".json")) {
-               String input = new String(packageFolder.getContent().get(nextFile), StandardCharsets.UTF_8);
-               IBaseResource resource = getFhirContext().newJsonParser().parseResource(input);
-               super.addResource(resource);
+               byte[] content = packageFolder.getContent().get(nextFile);
+               NpmPackageStore.Entry entry = NpmPackageStore.Entry.fromContent(nextFile, content);
+               if (entry != null) {
+                  addPendingResource(entry, () -> content);
+               }
             }
          }
       }
@@ -50,15 +98,165 @@ public class NpmUtils {
             addBinary(TextFile.streamToBytes(thePackage.load("other", binaryName)), binaryName);
          }
       }
+
+      private void addPendingResource(NpmPackageStore.Entry entry, Supplier<byte[]> content) {
+         PendingResource pending = new PendingResource(entry, content);
+         synchronized (lock) {
+            if (entry.getUrl() != null) {
+               pendingByUrl.put(entry.getUrl(), pending);
+               if (entry.getVersion() != null) {
+                  pendingByUrl.put(entry.getUrl() + "|" + entry.getVersion(), pending);
+               }
+            }
+            pendingByType.computeIfAbsent(entry.getResourceType(), k -> new ArrayList<>()).add(pending);
+         }
+      }
+
+      // must be called without the shared lock held, so other resources can be parsed meanwhile
+      private void load(PendingResource pending) {
+         if (pending == null || pending.loaded) {
+            return;
+         }
+         synchronized (pending) {
+            if (pending.loaded) {
+               return;
+            }
+            String input = new String(pending.content.get(), StandardCharsets.UTF_8);
+            IBaseResource resource = getFhirContext().newJsonParser().parseResource(input);
+            synchronized (lock) {
+               super.addResource(resource);
+            }
+            pending.loaded = true;
+         }
+      }
+
+      // a resource replaced by one of a later package is not loaded, so it can not replace the later resource
+      private boolean isSuperseded(PendingResource pending) {
+         String url = pending.entry.getUrl();
+         return url != null && pendingByUrl.get(url) != pending;
+      }
+
+      private List<PendingResource> getPending(String resourceType) {
+         synchronized (lock) {
+            return resourceType == null
+                    ? pendingByType.values().stream().flatMap(List::stream).collect(Collectors.toList())
+                    : new ArrayList<>(pendingByType.getOrDefault(resourceType, List.of()));
+         }
+      }
+
+      private void loadUrl(String url) {
+         if (url == null) {
+            return;
+         }
+         PendingResource pending = pendingByUrl.get(url);
+         if (pending == null && url.contains("|")) {
+            pending = pendingByUrl.get(url.substring(0, url.indexOf('|')));
+         }
+         load(pending);
+      }
+
+      private void loadType(String resourceType) {
+         for (PendingResource pending : getPending(resourceType)) {
+            if (!isSuperseded(pending)) {
+               load(pending);
+            }
+         }
+      }
+
+      private void loadAll() {
+         loadType(null);
+      }
+
+      /**
+       * @return The type constrained by each StructureDefinition that is not part of the base specification,
+       * keyed by url, read from the package index without parsing the StructureDefinitions
+       */
+      public Map<String, String> getNonBaseStructureDefinitionTypes() {
+         Map<String, String> types = new LinkedHashMap<>();
+         synchronized (lock) {
+            for (PendingResource pending : pendingByType.getOrDefault("StructureDefinition", List.of())) {
+               String url = pending.entry.getUrl();
+               if (url != null && pending.entry.getType() != null
+                       && !url.startsWith("http://hl7.org/fhir/StructureDefinition/")) {
+                  types.put(url, pending.entry.getType());
+               }
+            }
+         }
+         return types;
+      }
+
+      @Override
+      public IBaseResource fetchStructureDefinition(String theUrl) {
+         loadUrl(theUrl);
+         synchronized (lock) {
+            return super.fetchStructureDefinition(theUrl);
+         }
+      }
+
+      @Override
+      public IBaseResource fetchValueSet(String theUri) {
+         loadUrl(theUri);
+         synchronized (lock) {
+            return super.fetchValueSet(theUri);
+         }
+      }
+
+      @Override
+      public IBaseResource fetchCodeSystem(String theSystem) {
+         loadUrl(theSystem);
+         synchronized (lock) {
+            return super.fetchCodeSystem(theSystem);
+         }
+      }
+
+      @Override
+      public boolean isCodeSystemSupported(ValidationSupportContext theValidationSupportContext, String theSystem) {
+         loadUrl(theSystem);
+         synchronized (lock) {
+            return super.isCodeSystemSupported(theValidationSupportContext, theSystem);
+         }
+      }
+
+      @Override
+      public boolean isValueSetSupported(ValidationSupportContext theValidationSupportContext, String theValueSetUrl) {
+         loadUrl(theValueSetUrl);
+         synchronized (lock) {
+            return super.isValueSetSupported(theValidationSupportContext, theValueSetUrl);
+         }
+      }
+
+      @Override
+      public <T extends IBaseResource> List<T> fetchAllStructureDefinitions() {
+         loadType("StructureDefinition");
+         synchronized (lock) {
+            return super.fetchAllStructureDefinitions();
+         }
+      }
+
+      @Override
+      public List<IBaseResource> fetchAllConformanceResources() {
+         loadAll();
+         synchronized (lock) {
+            return super.fetchAllConformanceResources();
+         }
+      }
    }
 
+   /**
+    * Creates validation support for the packages. Packages are resolved through the shared {@link NpmPackageStore},
+    * so each package is downloaded once and later runs need no network access; if the store is disabled the
+    * packages are downloaded from their urls.
+    */
    public static PackageLoaderValidationSupport getNpmPackageLoaderValidationSupport(FhirContext fhirContext, List<String> packages) {
-      NpmPackage npmPackage;
+      NpmPackageStore store = NpmPackageStore.getShared();
       PackageLoaderValidationSupport validationSupport = new NpmUtils.PackageLoaderValidationSupport(fhirContext);
       for (String packageUrl : packages) {
          try {
-            npmPackage = NpmPackage.fromUrl(packageUrl);
-            validationSupport.loadPackage(npmPackage);
+            if (store.isEnabled()) {
+               validationSupport.loadPackage(store.get(packageUrl));
+            } else {
+               validationSupport.loadPackage(NpmPackage.fromUrl(packageUrl));
+            }
          } catch (IOException e) {
             logger.warn("Encountered an issue when attempting to resolve package from URL: {}", packageUrl, e);
          }
@@ -68,7 +266,8 @@ public class NpmUtils {
 
    public static org.hl7.fhir.r4.context.SimpleWorkerContext getR4WorkerContext(String packageUrl) {
       try {
-         NpmPackage npmPackage = NpmPackage.fromUrl(packageUrl);
+         NpmPackageStore store = NpmPackageStore.getShared();
+         NpmPackage npmPackage = store.isEnabled() ? store.get(packageUrl).toNpmPackage() : NpmPackage.fromUrl(packageUrl);
          org.hl7.fhir.r4.context.SimpleWorkerContext workerContext = org.hl7.fhir.r4.context.SimpleWorkerContext.fromPackage(npmPackage);
          workerContext.setExpansionProfile(new Parameters());
          return workerContext;
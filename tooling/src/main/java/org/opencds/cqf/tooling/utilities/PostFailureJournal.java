@@ -0,0 +1,191 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * An on-disk record of the resources that could not be posted to a FHIR server, one JSON object per line.
+ * <p>
+ * HttpClientUtils.postTaskCollection replaces the entries for the servers it posted to with the failures of that
+ * run, so the journal always holds the resources still missing from each server. PostBundlesInDir can then be
+ * run again with -replay-failures to post only those resources.
+ */
+public class PostFailureJournal {
+    private static final Logger logger = LoggerFactory.getLogger(PostFailureJournal.class);
+
+    public static final String JOURNAL_FILE_NAME = "post-failures.ndjson";
+
+    private final Path path;
+    private final Gson gson = new Gson();
+
+    public PostFailureJournal(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * @return The journal kept in the .cqf-cache folder of the given directory
+     */
+    public static PostFailureJournal forDirectory(String directoryPath) {
+        return new PostFailureJournal(Paths.get(directoryPath, ".cqf-cache", JOURNAL_FILE_NAME));
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * A resource that could not be posted.
+     */
+    public static class Entry {
+        private String fhirServerUrl;
+        private String resourceType;
+        private String id;
+        private int statusCode;
+        private int attempts;
+        private String message;
+        private String timestamp;
+
+        public Entry() {}
+
+        public Entry(String fhirServerUrl, String resourceType, String id, int statusCode, int attempts, String message) {
+            this.fhirServerUrl = fhirServerUrl;
+            this.resourceType = resourceType;
+            this.id = id;
+            this.statusCode = statusCode;
+            this.attempts = attempts;
+            this.message = message;
+            this.timestamp = Instant.now().toString();
+        }
+
+        public String getFhirServerUrl() {
+            return fhirServerUrl;
+        }
+
+        public String getResourceType() {
+            return resourceType;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return The status code of the last response, or -1 if no response was received
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public String getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return The resource type qualified id of the resource (e.g. Bundle/example)
+         */
+        public String getKey() {
+            return resourceType + "/" + id;
+        }
+    }
+
+    /**
+     * @return The entries of the journal; empty if it does not exist
+     */
+    public synchronized List<Entry> read() {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.isRegularFile(path)) {
+            return entries;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    try {
+                        entries.add(gson.fromJson(line, Entry.class));
+                    } catch (JsonParseException e) {
+                        logger.warn("Ignoring unreadable entry in {}: {}", path, line);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read the POST failure journal " + path + ": " + e.getMessage(), e);
+        }
+        return entries;
+    }
+
+    /**
+     * @return The keys (see {@link Entry#getKey()}) of the resources that failed to post to the server
+     */
+    public Set<String> getFailedKeys(String fhirServerUrl) {
+        Set<String> keys = new HashSet<>();
+        for (Entry entry : read()) {
+            if (fhirServerUrl == null || fhirServerUrl.equals(entry.getFhirServerUrl())) {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Replaces the entries for the given servers with the failures. Entries for other servers are kept. The
+     * journal is deleted once it has no entries left.
+     */
+    public synchronized void update(Collection<String> fhirServerUrls, Collection<Entry> failures) {
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : read()) {
+            if (!fhirServerUrls.contains(entry.getFhirServerUrl())) {
+                entries.add(entry);
+            }
+        }
+        entries.addAll(failures);
+
+        try {
+            if (entries.isEmpty()) {
+                Files.deleteIfExists(path);
+                return;
+            }
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), JOURNAL_FILE_NAME, ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Entry entry : entries) {
+                    writer.write(gson.toJson(entry));
+                    writer.write('\n');
+                }
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write the POST failure journal " + path + ": " + e.getMessage(), e);
+        }
+    }
+}
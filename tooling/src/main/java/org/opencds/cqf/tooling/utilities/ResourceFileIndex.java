@@ -0,0 +1,386 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * An index of the resource files in a set of directories, built from the top-level resourceType, id, url, version
+ * and name of each file.
+ * <p>
+ * Those elements are read with a streaming JSON or XML reader, so building the index does not parse any resource;
+ * resources are parsed on demand, e.g. through {@link #lazyResources}. The entries are memoized by path, last
+ * modified time and size, and persisted in .cqf-cache/resource-index.json at the root of the IG (the parent of the
+ * "input" directory), so an unchanged file is not read again on the next run. Persisting can be turned off with
+ * cqf.tooling.resource.index.cache.disabled=true.
+ */
+public class ResourceFileIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ResourceFileIndex.class);
+
+    public static final String CACHE_DISABLED_PROPERTY = "cqf.tooling.resource.index.cache.disabled";
+    public static final String FILE_NAME = "resource-index.json";
+
+    private static final String CACHE_FOLDER = ".cqf-cache";
+    private static final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+    // Entries read by any index in this process, by path; reused while the file is unchanged
+    private static final Map<String, Entry> sniffed = new ConcurrentHashMap<>();
+
+    /**
+     * The indexed elements of a resource file. Files that are not resources (or can not be read) have no
+     * resourceType.
+     */
+    public static class Entry {
+        private String path;
+        private String resourceType;
+        private String id;
+        private String url;
+        private String version;
+        private String name;
+        private long lastModified;
+        private long length;
+
+        public String getPath() { return path; }
+        public String getResourceType() { return resourceType; }
+        public String getId() { return id; }
+        public String getUrl() { return url; }
+        public String getVersion() { return version; }
+        public String getName() { return name; }
+
+        private boolean isCurrent(File file) {
+            return lastModified == file.lastModified() && length == file.length();
+        }
+    }
+
+    private final List<String> directories;
+    private final Map<String, List<Entry>> entriesByType = new HashMap<>();
+    private int fileCount;
+
+    private ResourceFileIndex(List<String> directories) {
+        this.directories = Collections.unmodifiableList(new ArrayList<>(directories));
+    }
+
+    /**
+     * Indexes the JSON and XML files of the directories (recursively), in directory and file order.
+     */
+    public static ResourceFileIndex build(List<String> directories) {
+        ResourceFileIndex index = new ResourceFileIndex(directories);
+        Map<Path, Map<String, Entry>> persisted = new LinkedHashMap<>();
+        for (String directory : directories) {
+            Path cacheFile = resolveCacheFile(directory);
+            Map<String, Entry> cache = cacheFile == null ? null : persisted.computeIfAbsent(cacheFile, ResourceFileIndex::readCache);
+            for (String path : IOUtils.getFilePaths(directory, true)) {
+                IOUtils.Encoding encoding = IOUtils.getEncoding(path);
+                if (encoding != IOUtils.Encoding.JSON && encoding != IOUtils.Encoding.XML) {
+                    continue;
+                }
+                Entry entry = index(path, encoding, cache);
+                index.fileCount++;
+                if (entry.resourceType != null) {
+                    index.entriesByType.computeIfAbsent(entry.resourceType, type -> new ArrayList<>()).add(entry);
+                }
+            }
+        }
+        persisted.forEach(ResourceFileIndex::writeCache);
+        return index;
+    }
+
+    public List<String> getDirectories() {
+        return directories;
+    }
+
+    /**
+     * @return The number of JSON and XML files indexed, resources or not
+     */
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * @return The files whose top-level resource is of the type, in directory and file order
+     */
+    public List<Entry> getEntries(String resourceType) {
+        return entriesByType.getOrDefault(resourceType, Collections.emptyList());
+    }
+
+    private static Entry index(String path, IOUtils.Encoding encoding, Map<String, Entry> cache) {
+        File file = new File(path);
+        Entry entry = sniffed.get(path);
+        if (entry == null || !entry.isCurrent(file)) {
+            Entry persisted = cache == null ? null : cache.get(path);
+            if (persisted != null && persisted.isCurrent(file)) {
+                entry = persisted;
+            } else {
+                entry = sniff(file, encoding);
+            }
+            sniffed.put(path, entry);
+        }
+        if (cache != null) {
+            cache.put(path, entry);
+        }
+        return entry;
+    }
+
+    static Entry sniff(File file, IOUtils.Encoding encoding) {
+        Entry entry = new Entry();
+        entry.path = file.getPath();
+        entry.lastModified = file.lastModified();
+        entry.length = file.length();
+        try {
+            if (encoding == IOUtils.Encoding.JSON) {
+                sniffJson(file, entry);
+            } else {
+                sniffXml(file, entry);
+            }
+        } catch (IOException | XMLStreamException | RuntimeException e) {
+            logger.debug("Unable to index {}: {}", file, e.getMessage());
+            entry.resourceType = null;
+        }
+        return entry;
+    }
+
+    private static void sniffJson(File file, Entry entry) throws IOException {
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String element = reader.nextName();
+                if (reader.peek() != JsonToken.STRING) {
+                    reader.skipValue();
+                    continue;
+                }
+                switch (element) {
+                    case "resourceType": entry.resourceType = reader.nextString(); break;
+                    case "id": entry.id = reader.nextString(); break;
+                    case "url": entry.url = reader.nextString(); break;
+                    case "version": entry.version = reader.nextString(); break;
+                    case "name": entry.name = reader.nextString(); break;
+                    default: reader.skipValue();
+                }
+            }
+        }
+    }
+
+    private static void sniffXml(File file, Entry entry) throws IOException, XMLStreamException {
+        try (InputStream stream = Files.newInputStream(file.toPath())) {
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(stream);
+            try {
+                int depth = 0;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        if (depth == 1) {
+                            entry.resourceType = reader.getLocalName();
+                        } else if (depth == 2) {
+                            String value = reader.getAttributeValue(null, "value");
+                            switch (reader.getLocalName()) {
+                                case "id": entry.id = value; break;
+                                case "url": entry.url = value; break;
+                                case "version": entry.version = value; break;
+                                case "name": entry.name = value; break;
+                                default: break;
+                            }
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * @return A map of the resources at the paths, parsed (through the resource cache of {@link IOUtils#readResource})
+     * when a value is first needed; a file that can not be parsed maps to null. The map is a read-only view of the
+     * paths, other than {@link Map#clear} clearing them.
+     */
+    public static Map<String, IBaseResource> lazyResources(Map<String, String> pathsByKey, FhirContext fhirContext) {
+        return new LazyResourceMap(pathsByKey, fhirContext);
+    }
+
+    private static class LazyResourceMap extends AbstractMap<String, IBaseResource> {
+        private final Map<String, String> paths;
+        private final FhirContext fhirContext;
+
+        LazyResourceMap(Map<String, String> paths, FhirContext fhirContext) {
+            this.paths = paths;
+            this.fhirContext = fhirContext;
+        }
+
+        private IBaseResource read(String path) {
+            if (path == null) {
+                return null;
+            }
+            try {
+                return IOUtils.readResource(path, fhirContext, true);
+            } catch (Exception e) {
+                logger.error("Error reading resource from path: {} \n {}", path, e.getMessage());
+                return null;
+            }
+        }
+
+        @Override
+        public IBaseResource get(Object key) {
+            return read(paths.get(key));
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return paths.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return paths.size();
+        }
+
+        @Override
+        public void clear() {
+            paths.clear();
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return Collections.unmodifiableSet(paths.keySet());
+        }
+
+        @Override
+        public Set<Map.Entry<String, IBaseResource>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Map.Entry<String, IBaseResource>> iterator() {
+                    Iterator<Map.Entry<String, String>> pathIterator = paths.entrySet().iterator();
+                    return new Iterator<>() {
+                        @Override
+                        public boolean hasNext() {
+                            return pathIterator.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, IBaseResource> next() {
+                            Map.Entry<String, String> path = pathIterator.next();
+                            return new Map.Entry<>() {
+                                @Override
+                                public String getKey() { return path.getKey(); }
+                                @Override
+                                public IBaseResource getValue() { return read(path.getValue()); }
+                                @Override
+                                public IBaseResource setValue(IBaseResource value) { throw new UnsupportedOperationException(); }
+                            };
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return paths.size();
+                }
+            };
+        }
+    }
+
+    // Only directories within an IG (below an "input" directory) are persisted, next to the ELM translation cache
+    static Path resolveCacheFile(String directory) {
+        if (Boolean.getBoolean(CACHE_DISABLED_PROPERTY)) {
+            return null;
+        }
+        for (Path current = Paths.get(directory).toAbsolutePath().normalize(); current != null; current = current.getParent()) {
+            if (current.getFileName() != null && current.getFileName().toString().equals("input") && current.getParent() != null) {
+                return current.getParent().resolve(CACHE_FOLDER).resolve(FILE_NAME);
+            }
+        }
+        return null;
+    }
+
+    private static final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+    private static Map<String, Entry> readCache(Path cacheFile) {
+        Map<String, Entry> cache = new TreeMap<>();
+        if (Files.isRegularFile(cacheFile)) {
+            try (Reader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+                Map<String, Entry> persisted = gson.fromJson(reader, new TypeToken<Map<String, Entry>>() { }.getType());
+                if (persisted != null) {
+                    cache.putAll(persisted);
+                }
+            } catch (IOException | JsonParseException e) {
+                logger.debug("Unable to read the resource index {}: {}", cacheFile, e.getMessage());
+            }
+        }
+        return cache;
+    }
+
+    private static void writeCache(Path cacheFile, Map<String, Entry> cache) {
+        // entries of files that no longer exist are dropped
+        Collection<String> removed = new ArrayList<>();
+        for (String path : cache.keySet()) {
+            if (!new File(path).exists()) {
+                removed.add(path);
+            }
+        }
+        cache.keySet().removeAll(removed);
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            Path temp = Files.createTempFile(cacheFile.getParent(), FILE_NAME, ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(cache, writer);
+            }
+            try {
+                Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.debug("Unable to write the resource index {}: {}", cacheFile, e.getMessage());
+        }
+    }
+}
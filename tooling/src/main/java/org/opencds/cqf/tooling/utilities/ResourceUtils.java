@@ -5,9 +5,9 @@ import static org.opencds.cqf.tooling.utilities.CanonicalUtils.getTail;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -22,10 +22,6 @@ import org.apache.commons.lang3.Validate;
 import org.cqframework.cql.cql2elm.CqlTranslator;
 import org.cqframework.cql.cql2elm.CqlTranslatorOptions;
 import org.cqframework.cql.cql2elm.CqlTranslatorOptionsMapper;
-import org.cqframework.cql.cql2elm.DefaultLibrarySourceProvider;
-import org.cqframework.cql.cql2elm.LibraryManager;
-import org.cqframework.cql.cql2elm.ModelManager;
-import org.cqframework.cql.cql2elm.quick.FhirLibrarySourceProvider;
 import org.hl7.elm.r1.IncludeDef;
 import org.hl7.elm.r1.ValueSetDef;
 import org.hl7.elm.r1.VersionedIdentifier;
@@ -36,9 +32,12 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.ICompositeType;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
 import org.hl7.fhir.r4.model.CanonicalType;
+import org.opencds.cqf.tooling.cql.CqlCompilationContext;
+import org.opencds.cqf.tooling.cql.ElmTranslationCache;
 import org.opencds.cqf.tooling.cql.exception.CQLTranslatorException;
 import org.opencds.cqf.tooling.processor.ValueSetsProcessor;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
+import org.opencds.cqf.tooling.utilities.cache.ResourceCaches;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,6 +54,8 @@ import ca.uhn.fhir.util.TerserUtil;
 public class ResourceUtils {
    private static final Logger logger = LoggerFactory.getLogger(ResourceUtils.class);
    private static final String CQF_LIBRARY_EXT_URL = "http://hl7.org/fhir/StructureDefinition/cqf-library";
+   //resolved ValueSet dependencies, keyed by FHIR version, resolution options and absolute CQL path:
+   private static final Map<String, Map<String, IBaseResource>> depValueSetResources = new ConcurrentHashMap<>();
 
    public enum FhirVersion {
       DSTU3("dstu3"), R4("r4");
@@ -291,22 +292,43 @@ public class ResourceUtils {
       }
    }
 
+   /**
+    * Resolves the ValueSets referenced by a CQL library (and, if includeDependencies is set, by the libraries it
+    * includes) against the ValueSets of the IG, keyed by the canonical (url or url|version) used in the CQL.
+    * <p>
+    * Results are memoized per library, so a library included by many others (e.g. through a diamond-shaped include
+    * graph) is only resolved once. The memo is cleared by {@link #cleanUp()} and ValueSetsProcessor.cleanUp().
+    *
+    * @throws CQLTranslatorException if a referenced ValueSet is not available
+    */
    public static Map<String, IBaseResource> getDepValueSetResources(String cqlContentPath, String igPath, FhirContext fhirContext, boolean includeDependencies, Boolean includeVersion) throws CQLTranslatorException {
+      return new HashMap<>(resolveDepValueSetResources(cqlContentPath, fhirContext, includeDependencies, Boolean.TRUE.equals(includeVersion)));
+   }
+
+   private static Map<String, IBaseResource> resolveDepValueSetResources(String cqlContentPath, FhirContext fhirContext, boolean includeDependencies, boolean includeVersion) throws CQLTranslatorException {
+      String key = fhirContext.getVersion().getVersion() + "|" + includeDependencies + "|" + includeVersion + "|"
+              + new File(cqlContentPath).getAbsolutePath();
+      Map<String, IBaseResource> resolved = depValueSetResources.get(key);
+      if (resolved != null) {
+         return resolved;
+      }
+
       Map<String, IBaseResource> valueSetResources = new HashMap<>();
+      CanonicalResourceIndex valueSetIndex = ValueSetsProcessor.getValueSetIndex(fhirContext);
 
       List<String> valueSetDefIDs = getDepELMValueSetDefIDs(cqlContentPath);
-
       for (String valueSetUrl : valueSetDefIDs) {
-         ValueSetsProcessor.getCachedValueSets(fhirContext).entrySet().stream()
-                 .filter(entry -> entry.getKey().equals(valueSetUrl))
-                 .forEach(entry -> valueSetResources.put(entry.getKey(), entry.getValue()));
+         IBaseResource valueSet = valueSetIndex.get(valueSetUrl);
+         if (valueSet != null) {
+            valueSetResources.put(valueSetUrl, valueSet);
+         }
       }
       Set<String> dependencies = new HashSet<>(valueSetDefIDs);
 
       if (includeDependencies) {
          List<String> dependencyCqlPaths = IOUtils.getDependencyCqlPaths(cqlContentPath, includeVersion);
          for (String path : dependencyCqlPaths) {
-            Map<String, IBaseResource> dependencyValueSets = getDepValueSetResources(path, igPath, fhirContext, includeDependencies, includeVersion);
+            Map<String, IBaseResource> dependencyValueSets = resolveDepValueSetResources(path, fhirContext, includeDependencies, includeVersion);
             dependencies.addAll(dependencyValueSets.keySet());
             for (Entry<String, IBaseResource> entry : dependencyValueSets.entrySet()) {
                valueSetResources.putIfAbsent(entry.getKey(), entry.getValue());
@@ -323,7 +345,17 @@ public class ResourceUtils {
         logger.error(missingValueSets.toString());
         throw new CQLTranslatorException(missingValueSets);
       }
-      return valueSetResources;
+
+      resolved = Collections.unmodifiableMap(valueSetResources);
+      depValueSetResources.putIfAbsent(key, resolved);
+      return resolved;
+   }
+
+   /**
+    * Clears the memoized results of {@link #getDepValueSetResources}.
+    */
+   public static void clearDepValueSetResources() {
+      depValueSetResources.clear();
    }
 
    public static List<String> getIncludedLibraryNames(String cqlContentPath, Boolean includeVersion) throws CQLTranslatorException{
@@ -383,9 +415,8 @@ public class ResourceUtils {
       return options;
    }
 
-   private static Map<String, org.hl7.elm.r1.Library> cachedElm = new HashMap<>();
    public static org.hl7.elm.r1.Library getElmFromCql(String cqlContentPath) throws CQLTranslatorException {
-      org.hl7.elm.r1.Library elm = cachedElm.get(cqlContentPath);
+      org.hl7.elm.r1.Library elm = ResourceCaches.elm().get(cqlContentPath);
       if (elm != null) {
          return elm;
       }
@@ -394,33 +425,27 @@ public class ResourceUtils {
 
       CqlTranslatorOptions options = getTranslatorOptions(folder);
 
-      // Setup
-      // Construct DefaultLibrarySourceProvider
-      // Construct FhirLibrarySourceProvider
-      ModelManager modelManager = new ModelManager();
-      LibraryManager libraryManager = new LibraryManager(modelManager);
-      // if (packages != null) {
-      //    libraryManager.getLibrarySourceLoader().registerProvider(new NpmLibrarySourceProvider(packages, reader, logger));
-      // }
-      libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
-      libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(Paths.get(folder)));
-
-      // loadNamespaces(libraryManager);
-
-      // foreach *.cql file
-      // for (File file : new File(folder).listFiles(getCqlFilenameFilter())) {
-      //     translateFile(modelManager, libraryManager, file, options);
-      // }
-
-
-      // ModelManager modelManager = new ModelManager();
-      // GenericLibrarySourceProvider sourceProvider = new GenericLibrarySourceProvider(folder);
-      // LibraryManager libraryManager = new LibraryManager(modelManager);
-      // libraryManager.getLibrarySourceLoader().registerProvider(sourceProvider);
+      ElmTranslationCache translationCache = ElmTranslationCache.forFolder(folder);
+      // Model info and the libraries included from the folder are shared by every translation in the folder
+      CqlCompilationContext compilationContext = CqlCompilationContext.forFolder(folder, options);
+      String cacheKey = translationCache.computeKey(new File(cqlContentPath), options, null,
+              compilationContext.getLibraryManager().getLibrarySourceLoader());
+      ElmTranslationCache.Entry cached = translationCache.get(cacheKey);
+      if (cached != null) {
+         elm = cached.readLibrary();
+         if (elm != null) {
+            ResourceCaches.elm().put(cqlContentPath, elm);
+            return elm;
+         }
+      }
 
-      CqlTranslator translator = IOUtils.translate(cqlContentPath, modelManager, libraryManager, options);
+      CqlTranslator translator = compilationContext.translate(cqlContentPath);
       elm = translator.toELM();
-      cachedElm.put(cqlContentPath, elm);
+      ResourceCaches.elm().put(cqlContentPath, elm);
+      // Do not replace an entry written by the CqlProcessor, which also carries the data requirements
+      if (!translationCache.contains(cacheKey)) {
+         translationCache.put(cacheKey, ElmTranslationCache.Entry.fromTranslator(translator));
+      }
       return elm;
    }
 
@@ -878,6 +903,8 @@ public class ResourceUtils {
 
     public static void cleanUp(){
         outputResourceTracker = new ConcurrentHashMap<>();
-        cachedElm = new HashMap<String, org.hl7.elm.r1.Library>();
+        depValueSetResources.clear();
+        ResourceCaches.elm().invalidateAll();
+        CqlCompilationContext.clear();
     }
 }
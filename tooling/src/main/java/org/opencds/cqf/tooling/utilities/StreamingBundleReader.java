@@ -0,0 +1,213 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * Reads the entry resources of a Bundle file one at a time, so that a Bundle of any size can be split into its
+ * resources with the memory needed for its largest entry.
+ * <p>
+ * The Bundle is read with a streaming JSON (gson) or XML (StAX) reader; only the content of each entry.resource is
+ * buffered and parsed, and it is handed to the consumer before the next entry is read. Unlike
+ * {@link IOUtils#readResource}, the Bundle is not kept in the resource cache.
+ */
+public class StreamingBundleReader {
+    private static final String BUNDLE = "Bundle";
+
+    private static final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+    private static final XMLOutputFactory xmlOutputFactory = createXmlOutputFactory();
+
+    private StreamingBundleReader() {}
+
+    /**
+     * Passes each entry resource of the Bundle at the path to the consumer, in entry order.
+     *
+     * @return The number of resources read
+     * @throws IllegalArgumentException if there is no JSON or XML file at the path, or it is not a Bundle
+     */
+    public static int forEachResource(String path, FhirContext fhirContext, Consumer<IBaseResource> consumer) {
+        File file = new File(path);
+        IOUtils.Encoding encoding = IOUtils.getEncoding(path);
+        if (!file.isFile() || (encoding != IOUtils.Encoding.JSON && encoding != IOUtils.Encoding.XML)) {
+            throw new IllegalArgumentException("Could not find Bundle at path: " + path);
+        }
+
+        IParser parser = IOUtils.getParser(encoding, fhirContext);
+        try {
+            return encoding == IOUtils.Encoding.JSON
+                    ? readJson(file, parser, consumer)
+                    : readXml(file, parser, consumer);
+        } catch (IOException | XMLStreamException e) {
+            throw new RuntimeException(String.format("Error reading Bundle from path %s: %s", path, e.getMessage()), e);
+        }
+    }
+
+    private static int readJson(File file, IParser parser, Consumer<IBaseResource> consumer) throws IOException {
+        int count = 0;
+        String resourceType = null;
+        try (Reader fileReader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+             JsonReader reader = new JsonReader(fileReader)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String element = reader.nextName();
+                if (element.equals("resourceType")) {
+                    resourceType = reader.nextString();
+                    requireBundle(resourceType);
+                } else if (element.equals("entry") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        count += readJsonEntry(reader, parser, consumer);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        requireBundle(resourceType);
+        return count;
+    }
+
+    private static int readJsonEntry(JsonReader reader, IParser parser, Consumer<IBaseResource> consumer) throws IOException {
+        int count = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("resource")) {
+                // only this entry's resource is held in memory, first as a JSON tree and then parsed
+                JsonElement resource = JsonParser.parseReader(reader);
+                consumer.accept(parser.parseResource(resource.toString()));
+                count++;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return count;
+    }
+
+    private static int readXml(File file, IParser parser, Consumer<IBaseResource> consumer) throws IOException, XMLStreamException {
+        int count = 0;
+        try (InputStream stream = Files.newInputStream(file.toPath())) {
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(stream);
+            try {
+                // Bundle (1) > entry (2) > resource (3) > the entry resource (4)
+                int depth = 0;
+                boolean inEntry = false;
+                boolean inResource = false;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        String name = reader.getLocalName();
+                        if (depth == 1) {
+                            requireBundle(name);
+                        } else if (depth == 2) {
+                            inEntry = name.equals("entry");
+                        } else if (depth == 3) {
+                            inResource = inEntry && name.equals("resource");
+                        } else if (depth == 4 && inResource) {
+                            consumer.accept(parser.parseResource(copyElement(reader)));
+                            count++;
+                            // the copy consumed the end of the element
+                            depth--;
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return count;
+    }
+
+    // Copies the element the reader is positioned at, through its end, as a standalone document
+    private static String copyElement(XMLStreamReader reader) throws XMLStreamException {
+        StringWriter buffer = new StringWriter();
+        XMLStreamWriter writer = xmlOutputFactory.createXMLStreamWriter(buffer);
+        int depth = 0;
+        while (true) {
+            switch (reader.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    writer.writeStartElement(nullToEmpty(reader.getPrefix()), reader.getLocalName(), nullToEmpty(reader.getNamespaceURI()));
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        String namespace = reader.getAttributeNamespace(i);
+                        if (namespace == null || namespace.isEmpty()) {
+                            writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        } else {
+                            writer.writeAttribute(nullToEmpty(reader.getAttributePrefix(i)), namespace,
+                                    reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    writer.writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.CDATA:
+                    writer.writeCharacters(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+            if (depth == 0 || !reader.hasNext()) {
+                break;
+            }
+            reader.next();
+        }
+        writer.close();
+        return buffer.toString();
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static void requireBundle(String resourceType) {
+        if (!BUNDLE.equals(resourceType)) {
+            throw new IllegalArgumentException("Expected a Bundle, found " + resourceType);
+        }
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private static XMLOutputFactory createXmlOutputFactory() {
+        XMLOutputFactory factory = XMLOutputFactory.newFactory();
+        // declares the namespaces of the copied elements, including those declared by their ancestors (e.g. on the Bundle)
+        factory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+        return factory;
+    }
+}
@@ -0,0 +1,265 @@
+package org.opencds.cqf.tooling.utilities.cache;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.ToLongBiFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * A least-recently-used {@link ResourceCache} bounded by entry count and by total weight.
+ * <p>
+ * Each entry may carry a "stamp" (for file-backed entries, the last modified time of the file). When the current
+ * stamp for a key no longer matches the stamp recorded at load time, the entry is treated as stale and dropped, so
+ * edits made on disk during a run are picked up on the next read.
+ * <p>
+ * All map operations are guarded by the cache monitor; weighing, stamping and loading happen outside of it so
+ * slow I/O or parsing in one thread does not block readers in others.
+ */
+public class BoundedResourceCache<K, V> implements ResourceCache<K, V> {
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long weight;
+        private final long stamp;
+
+        private Entry(V value, long weight, long stamp) {
+            this.value = value;
+            this.weight = weight;
+            this.stamp = stamp;
+        }
+    }
+
+    private final String name;
+    private final long maximumSize;
+    private final long maximumWeight;
+    private final ToLongBiFunction<? super K, ? super V> weigher;
+    private final ToLongFunction<? super K> stamper;
+
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalWeight;
+    private long hitCount;
+    private long missCount;
+    private long loadCount;
+    private long evictionCount;
+    private long invalidationCount;
+
+    private BoundedResourceCache(Builder<K, V> builder) {
+        this.name = builder.name;
+        this.maximumSize = builder.maximumSize;
+        this.maximumWeight = builder.maximumWeight;
+        this.weigher = builder.weigher;
+        this.stamper = builder.stamper;
+    }
+
+    public static <K, V> Builder<K, V> builder(String name) {
+        return new Builder<>(name);
+    }
+
+    /**
+     * Stamps String keys with the last modified time of the file at that path (0 if the file does not exist).
+     */
+    public static long fileStamp(String path) {
+        return path == null ? 0L : new File(path).lastModified();
+    }
+
+    /**
+     * Weighs String keys by the length in bytes of the file at that path (at least 1).
+     */
+    public static long fileWeight(String path) {
+        return path == null ? 1L : Math.max(1L, new File(path).length());
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public V get(K key) {
+        if (key == null) {
+            return null;
+        }
+        long stamp = stamp(key);
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                missCount++;
+                return null;
+            }
+            if (entry.stamp != stamp) {
+                removeEntry(key, entry);
+                invalidationCount++;
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            return entry.value;
+        }
+    }
+
+    @Override
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        Objects.requireNonNull(loader, "loader can not be null");
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+
+        // Capture the stamp before loading so a change made during the load invalidates the entry on next read
+        long stamp = stamp(key);
+        value = loader.apply(key);
+        if (value != null) {
+            synchronized (this) {
+                loadCount++;
+            }
+            store(key, value, stamp);
+        }
+        return value;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        if (key == null || value == null) {
+            return;
+        }
+        store(key, value, stamp(key));
+    }
+
+    @Override
+    public void replace(K key, V value) {
+        if (key == null || value == null) {
+            return;
+        }
+        long weight = weigh(key, value);
+        synchronized (this) {
+            Entry<V> existing = entries.get(key);
+            if (existing != null) {
+                totalWeight -= existing.weight;
+                entries.put(key, new Entry<>(value, weight, existing.stamp));
+                totalWeight += weight;
+                evict();
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean containsKey(K key) {
+        return entries.containsKey(key);
+    }
+
+    @Override
+    public synchronized void invalidate(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            removeEntry(key, entry);
+        }
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        entries.clear();
+        totalWeight = 0;
+    }
+
+    @Override
+    public synchronized long size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(name, entries.size(), totalWeight, hitCount, missCount, loadCount,
+                evictionCount, invalidationCount);
+    }
+
+    private void store(K key, V value, long stamp) {
+        long weight = weigh(key, value);
+        synchronized (this) {
+            Entry<V> previous = entries.put(key, new Entry<>(value, weight, stamp));
+            if (previous != null) {
+                totalWeight -= previous.weight;
+            }
+            totalWeight += weight;
+            evict();
+        }
+    }
+
+    // Must be called while holding the monitor
+    private void evict() {
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maximumSize || totalWeight > maximumWeight) && iterator.hasNext()) {
+            Map.Entry<K, Entry<V>> eldest = iterator.next();
+            totalWeight -= eldest.getValue().weight;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    // Must be called while holding the monitor
+    private void removeEntry(K key, Entry<V> entry) {
+        entries.remove(key);
+        totalWeight -= entry.weight;
+    }
+
+    private long stamp(K key) {
+        return stamper == null ? 0L : stamper.applyAsLong(key);
+    }
+
+    private long weigh(K key, V value) {
+        return weigher == null ? 1L : Math.max(0L, weigher.applyAsLong(key, value));
+    }
+
+    public static class Builder<K, V> {
+        private final String name;
+        private long maximumSize = Long.MAX_VALUE;
+        private long maximumWeight = Long.MAX_VALUE;
+        private ToLongBiFunction<? super K, ? super V> weigher;
+        private ToLongFunction<? super K> stamper;
+
+        private Builder(String name) {
+            this.name = Objects.requireNonNull(name, "name can not be null");
+        }
+
+        public Builder<K, V> maximumSize(long maximumSize) {
+            if (maximumSize < 0) {
+                throw new IllegalArgumentException("maximumSize must not be negative");
+            }
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Bounds the cache by the total weight of its entries, as computed by the weigher. Without a weigher every
+         * entry weighs 1, which makes this equivalent to {@link #maximumSize(long)}.
+         */
+        public Builder<K, V> maximumWeight(long maximumWeight) {
+            if (maximumWeight < 0) {
+                throw new IllegalArgumentException("maximumWeight must not be negative");
+            }
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        public Builder<K, V> weigher(ToLongBiFunction<? super K, ? super V> weigher) {
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * Sets the function used to validate entries. An entry is stale once the stamp for its key differs from
+         * the stamp captured when it was loaded.
+         */
+        public Builder<K, V> stamper(ToLongFunction<? super K> stamper) {
+            this.stamper = stamper;
+            return this;
+        }
+
+        public BoundedResourceCache<K, V> build() {
+            return new BoundedResourceCache<>(this);
+        }
+    }
+}
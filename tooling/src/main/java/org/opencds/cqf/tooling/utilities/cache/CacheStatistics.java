@@ -0,0 +1,77 @@
+package org.opencds.cqf.tooling.utilities.cache;
+
+/**
+ * An immutable snapshot of the counters maintained by a {@link ResourceCache}.
+ */
+public class CacheStatistics {
+    private final String name;
+    private final long size;
+    private final long weight;
+    private final long hitCount;
+    private final long missCount;
+    private final long loadCount;
+    private final long evictionCount;
+    private final long invalidationCount;
+
+    public CacheStatistics(String name, long size, long weight, long hitCount, long missCount, long loadCount,
+                           long evictionCount, long invalidationCount) {
+        this.name = name;
+        this.size = size;
+        this.weight = weight;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadCount = loadCount;
+        this.evictionCount = evictionCount;
+        this.invalidationCount = invalidationCount;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return The number of entries dropped because they were stale (e.g. the backing file changed)
+     */
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    public long getRequestCount() {
+        return hitCount + missCount;
+    }
+
+    public double getHitRate() {
+        long requests = getRequestCount();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s cache: size=%d, weight=%d, hits=%d, misses=%d, hitRate=%.2f%%, loads=%d, evictions=%d, invalidations=%d",
+                name, size, weight, hitCount, missCount, getHitRate() * 100, loadCount, evictionCount, invalidationCount);
+    }
+}
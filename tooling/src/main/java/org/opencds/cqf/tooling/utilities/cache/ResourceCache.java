@@ -0,0 +1,54 @@
+package org.opencds.cqf.tooling.utilities.cache;
+
+import java.util.function.Function;
+
+/**
+ * A thread-safe cache used by the tooling to hold parsed artifacts (resources, translators, ELM, ...) that are
+ * expensive to produce and may be requested repeatedly during a single run.
+ * <p>
+ * Implementations are free to evict entries at any time, so callers must always be prepared to reload a value.
+ *
+ * @param <K> the key type
+ * @param <V> the cached value type
+ */
+public interface ResourceCache<K, V> {
+
+    /**
+     * @return A descriptive name for the cache, used when reporting statistics
+     */
+    String getName();
+
+    /**
+     * @param key The key to look up
+     * @return The cached value, or null if the key is not present (or no longer valid)
+     */
+    V get(K key);
+
+    /**
+     * Returns the cached value for the key, loading and caching it with the given loader if it is not present.
+     * The loader is invoked outside of any lock, so concurrent callers may load the same key more than once.
+     * Null values returned by the loader are not cached.
+     *
+     * @param key The key to look up
+     * @param loader The function used to produce the value on a cache miss
+     * @return The cached or loaded value
+     */
+    V get(K key, Function<? super K, ? extends V> loader);
+
+    void put(K key, V value);
+
+    /**
+     * Replaces the value for the key only if the key is currently cached.
+     */
+    void replace(K key, V value);
+
+    boolean containsKey(K key);
+
+    void invalidate(K key);
+
+    void invalidateAll();
+
+    long size();
+
+    CacheStatistics getStatistics();
+}
@@ -0,0 +1,111 @@
+package org.opencds.cqf.tooling.utilities.cache;
+
+import java.util.List;
+import java.util.Objects;
+
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.utilities.CanonicalResourceIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.context.FhirVersionEnum;
+
+/**
+ * Holds the shared caches used by IOUtils, ResourceUtils and ValueSetsProcessor.
+ * <p>
+ * Limits can be tuned with the following system properties:
+ * <ul>
+ *     <li>cqf.tooling.cache.resources.maxEntries (default 10000)</li>
+ *     <li>cqf.tooling.cache.resources.maxWeight - total size in bytes of the source files (default 512 MiB)</li>
+ *     <li>cqf.tooling.cache.translators.maxEntries (default 500)</li>
+ *     <li>cqf.tooling.cache.elm.maxEntries (default 1000)</li>
+ * </ul>
+ * Any of the caches can be replaced with a different {@link ResourceCache} implementation through the setters.
+ */
+public class ResourceCaches {
+    private static final Logger logger = LoggerFactory.getLogger(ResourceCaches.class);
+
+    public static final String RESOURCES_MAX_ENTRIES_PROPERTY = "cqf.tooling.cache.resources.maxEntries";
+    public static final String RESOURCES_MAX_WEIGHT_PROPERTY = "cqf.tooling.cache.resources.maxWeight";
+    public static final String TRANSLATORS_MAX_ENTRIES_PROPERTY = "cqf.tooling.cache.translators.maxEntries";
+    public static final String ELM_MAX_ENTRIES_PROPERTY = "cqf.tooling.cache.elm.maxEntries";
+
+    private static volatile ResourceCache<String, IBaseResource> resourceCache = BoundedResourceCache.<String, IBaseResource>builder("resources")
+            .maximumSize(Long.getLong(RESOURCES_MAX_ENTRIES_PROPERTY, 10_000L))
+            .maximumWeight(Long.getLong(RESOURCES_MAX_WEIGHT_PROPERTY, 512L * 1024 * 1024))
+            .weigher((path, resource) -> BoundedResourceCache.fileWeight(path))
+            .stamper(BoundedResourceCache::fileStamp)
+            .build();
+
+    private static volatile ResourceCache<String, CqlTranslator> translatorCache = BoundedResourceCache.<String, CqlTranslator>builder("translators")
+            .maximumSize(Long.getLong(TRANSLATORS_MAX_ENTRIES_PROPERTY, 500L))
+            .stamper(BoundedResourceCache::fileStamp)
+            .build();
+
+    private static volatile ResourceCache<String, org.hl7.elm.r1.Library> elmCache = BoundedResourceCache.<String, org.hl7.elm.r1.Library>builder("elm")
+            .maximumSize(Long.getLong(ELM_MAX_ENTRIES_PROPERTY, 1_000L))
+            .stamper(BoundedResourceCache::fileStamp)
+            .build();
+
+    private static volatile ResourceCache<FhirVersionEnum, CanonicalResourceIndex> valueSetCache = BoundedResourceCache.<FhirVersionEnum, CanonicalResourceIndex>builder("valuesets")
+            .maximumSize(FhirVersionEnum.values().length)
+            .build();
+
+    private ResourceCaches() {}
+
+    /**
+     * @return The cache of parsed resources, keyed by file path
+     */
+    public static ResourceCache<String, IBaseResource> resources() {
+        return resourceCache;
+    }
+
+    /**
+     * @return The cache of CQL translators, keyed by CQL file path
+     */
+    public static ResourceCache<String, CqlTranslator> translators() {
+        return translatorCache;
+    }
+
+    /**
+     * @return The cache of translated ELM libraries, keyed by CQL file path
+     */
+    public static ResourceCache<String, org.hl7.elm.r1.Library> elm() {
+        return elmCache;
+    }
+
+    /**
+     * @return The cache of ValueSets (indexed by url and url|version) available in the IG, one index per FHIR version
+     */
+    public static ResourceCache<FhirVersionEnum, CanonicalResourceIndex> valueSets() {
+        return valueSetCache;
+    }
+
+    public static void setResourceCache(ResourceCache<String, IBaseResource> cache) {
+        resourceCache = Objects.requireNonNull(cache, "cache can not be null");
+    }
+
+    public static void setTranslatorCache(ResourceCache<String, CqlTranslator> cache) {
+        translatorCache = Objects.requireNonNull(cache, "cache can not be null");
+    }
+
+    public static void setElmCache(ResourceCache<String, org.hl7.elm.r1.Library> cache) {
+        elmCache = Objects.requireNonNull(cache, "cache can not be null");
+    }
+
+    public static void setValueSetCache(ResourceCache<FhirVersionEnum, CanonicalResourceIndex> cache) {
+        valueSetCache = Objects.requireNonNull(cache, "cache can not be null");
+    }
+
+    public static List<CacheStatistics> getStatistics() {
+        return List.of(resourceCache.getStatistics(), translatorCache.getStatistics(),
+                elmCache.getStatistics(), valueSetCache.getStatistics());
+    }
+
+    public static void logStatistics() {
+        for (CacheStatistics statistics : getStatistics()) {
+            logger.info("{}", statistics);
+        }
+    }
+}
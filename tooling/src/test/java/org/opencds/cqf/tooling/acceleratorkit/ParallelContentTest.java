@@ -0,0 +1,82 @@
+package org.opencds.cqf.tooling.acceleratorkit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.opencds.cqf.tooling.common.TaskExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that processing an accelerator kit with -parallel=true produces the same files, with the same content,
+ * as the serial run. The time of each run over the three tabs of the kit is logged rather than asserted, as it depends
+ * on the machine.
+ */
+public class ParallelContentTest {
+    private static final Logger logger = LoggerFactory.getLogger(ParallelContentTest.class);
+    private static final String resourcesPath = "src/test/resources";
+    private static final String tempPath = "target/test-output";
+
+    private Path run(String name, boolean parallel) throws IOException {
+        Path outputPath = Path.of(tempPath, "parallel-content-test-" + name).toAbsolutePath();
+        if (outputPath.toFile().exists()) {
+            try (Stream<Path> files = Files.walk(outputPath)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+        Files.createDirectories(outputPath);
+
+        new Processor().execute(new String[] {
+                "-ProcessAcceleratorKit",
+                "-s=ANCM",
+                "-pts=" + Path.of(resourcesPath, "acceleratorkit/WHO-ANC-mini.xlsx").toAbsolutePath(),
+                "-dep=ANC.A. Registration,ANC.B5 Quick check,ANC.End End",
+                "-tc=" + Path.of(resourcesPath, "acceleratorkit/ANC Test Cases-mini.xlsx").toAbsolutePath(),
+                "-op=" + outputPath,
+                "-p=" + parallel
+        });
+        return outputPath;
+    }
+
+    private List<Path> listFiles(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile).map(root::relativize).sorted().collect(Collectors.toList());
+        }
+    }
+
+    // The generated ValueSets are stamped with the time they were created
+    private List<String> readContent(Path file) throws IOException {
+        return Files.readAllLines(file).stream()
+                .filter(line -> !line.trim().startsWith("\"date\"") && !line.trim().startsWith("\"timestamp\""))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void parallelOutputMatchesSerial() throws IOException {
+        long serialStart = System.nanoTime();
+        Path serial = run("serial", false);
+        long serialTime = (System.nanoTime() - serialStart) / 1_000_000;
+        long parallelStart = System.nanoTime();
+        Path parallel = run("parallel", true);
+        long parallelTime = (System.nanoTime() - parallelStart) / 1_000_000;
+        logger.info("Serial run: {} ms, parallel run: {} ms ({} threads)", serialTime, parallelTime,
+                TaskExecutor.getShared().getParallelism());
+
+        List<Path> serialFiles = listFiles(serial);
+        assertFalse(serialFiles.isEmpty());
+        assertEquals(listFiles(parallel), serialFiles);
+        for (Path file : serialFiles) {
+            assertEquals(readContent(parallel.resolve(file)), readContent(serial.resolve(file)), file.toString());
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.opencds.cqf.tooling.common;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TaskExecutorTests {
+    private TaskExecutor executor;
+
+    @BeforeMethod
+    public void setUp() {
+        executor = new TaskExecutor(2, false);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void TestFailuresAreReportedWithoutStoppingOtherTasks() {
+        AtomicInteger completed = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            int index = i;
+            tasks.add(() -> {
+                if (index == 3) {
+                    throw new IllegalStateException("task 3 failed");
+                }
+                completed.incrementAndGet();
+                return null;
+            });
+        }
+
+        TaskReport report = executor.execute("batch", tasks);
+
+        assertFalse(report.isSuccessful());
+        assertEquals(completed.get(), 9);
+        assertEquals(report.getResults().size(), 10);
+        assertEquals(report.getFailures().size(), 1);
+        assertEquals(report.getFailures().get(0).getName(), "batch#3");
+        assertTrue(report.getFailures().get(0).getFailure() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void TestConcurrencyIsBounded() {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maximum = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            tasks.add(() -> {
+                maximum.accumulateAndGet(active.incrementAndGet(), Math::max);
+                Thread.sleep(5);
+                active.decrementAndGet();
+                return null;
+            });
+        }
+
+        assertTrue(executor.execute("bounded", tasks).isSuccessful());
+        assertTrue(maximum.get() <= 2, "ran " + maximum.get() + " tasks at once");
+    }
+
+    @Test
+    public void TestNestedBatchesRunInline() {
+        // With every worker running an outer task, nested batches would deadlock if they were queued on the pool
+        AtomicInteger inner = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            tasks.add(() -> {
+                List<Callable<Void>> nested = new ArrayList<>();
+                for (int j = 0; j < 3; j++) {
+                    nested.add(() -> {
+                        inner.incrementAndGet();
+                        return null;
+                    });
+                }
+                assertTrue(executor.execute("inner", nested).isSuccessful());
+                return null;
+            });
+        }
+
+        assertTrue(executor.execute("outer", tasks).isSuccessful());
+        assertEquals(inner.get(), 12);
+    }
+
+    @Test
+    public void TestStreamedTasksAreProducedAsThePoolHasRoom() {
+        AtomicInteger produced = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger maximumAhead = new AtomicInteger();
+        Iterator<Callable<Void>> tasks = new Iterator<Callable<Void>>() {
+            @Override
+            public boolean hasNext() {
+                return produced.get() < 20;
+            }
+
+            @Override
+            public Callable<Void> next() {
+                maximumAhead.accumulateAndGet(produced.incrementAndGet() - completed.get(), Math::max);
+                return () -> {
+                    Thread.sleep(5);
+                    completed.incrementAndGet();
+                    return null;
+                };
+            }
+        };
+
+        TaskReport report = executor.execute("stream", tasks, false);
+
+        assertTrue(report.isSuccessful());
+        assertEquals(report.getResults().size(), 20);
+        assertEquals(report.getResults().get(19).getName(), "stream#19");
+        assertEquals(completed.get(), 20);
+        // two running and two queued, plus the one being produced
+        assertTrue(maximumAhead.get() <= 5, "produced " + maximumAhead.get() + " tasks ahead");
+    }
+
+    @Test
+    public void TestCancelOnFailure() {
+        TaskExecutor serial = new TaskExecutor(1, false);
+        try {
+            AtomicInteger completed = new AtomicInteger();
+            List<Callable<Void>> tasks = new ArrayList<>();
+            tasks.add(() -> {
+                throw new IllegalStateException("first task failed");
+            });
+            for (int i = 0; i < 10; i++) {
+                tasks.add(() -> {
+                    Thread.sleep(20);
+                    completed.incrementAndGet();
+                    return null;
+                });
+            }
+
+            TaskReport report = serial.execute("cancel", tasks, true);
+
+            assertEquals(report.getFailures().size(), 1);
+            assertFalse(report.getCancelled().isEmpty());
+            assertTrue(completed.get() < 10);
+        } finally {
+            serial.shutdown();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.opencds.cqf.tooling.cql;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.CqlTranslatorOptions;
+import org.cqframework.cql.cql2elm.DefaultLibrarySourceProvider;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.quick.FhirLibrarySourceProvider;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ResourceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Compares translating every library of the refreshIG test IG with a fresh ModelManager/LibraryManager per file
+ * (the previous behavior of ResourceUtils.getElmFromCql) against translating through a shared
+ * {@link CqlCompilationContext}. Timings are logged rather than asserted.
+ */
+public class CqlCompilationContextIT {
+    private static final Logger logger = LoggerFactory.getLogger(CqlCompilationContextIT.class);
+    private static final int ITERATIONS = 3;
+
+    private Path cqlFolder;
+    private List<File> cqlFiles;
+    private String disabledProperty;
+
+    @BeforeClass
+    public void setUp() throws IOException, URISyntaxException {
+        disabledProperty = System.setProperty(ElmTranslationCache.CACHE_DISABLED_PROPERTY, "true");
+        Path source = Paths.get(CqlCompilationContextIT.class
+                .getResource("/org/opencds/cqf/tooling/testfiles/refreshIG/input/cql").toURI());
+        cqlFolder = Files.createTempDirectory("compilation-context").resolve("input").resolve("cql");
+        FileUtils.copyDirectory(source.toFile(), cqlFolder.toFile());
+        cqlFiles = Arrays.stream(cqlFolder.toFile().listFiles((dir, name) -> name.endsWith(".cql")))
+                .sorted().collect(Collectors.toList());
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        if (disabledProperty == null) {
+            System.clearProperty(ElmTranslationCache.CACHE_DISABLED_PROPERTY);
+        } else {
+            System.setProperty(ElmTranslationCache.CACHE_DISABLED_PROPERTY, disabledProperty);
+        }
+        clearCaches();
+        FileUtils.deleteDirectory(cqlFolder.getParent().getParent().toFile());
+    }
+
+    private void clearCaches() {
+        IOUtils.cleanUp();
+        ResourceUtils.cleanUp();
+    }
+
+    @Test
+    public void TestContextIsSharedPerFolderAndOptions() {
+        CqlTranslatorOptions options = ResourceUtils.getTranslatorOptions(cqlFolder.toString());
+        assertSame(CqlCompilationContext.forFolder(cqlFolder.toString(), options),
+                CqlCompilationContext.forFolder(cqlFolder.resolve(".").toString(), options));
+    }
+
+    @Test
+    public void TestSharedContextBenchmark() throws IOException {
+        TreeMap<String, Integer> freshStatements = new TreeMap<>();
+        TreeMap<String, Integer> sharedStatements = new TreeMap<>();
+        long freshNanos = 0;
+        long sharedNanos = 0;
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            for (File file : cqlFiles) {
+                ModelManager modelManager = new ModelManager();
+                LibraryManager libraryManager = new LibraryManager(modelManager);
+                libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+                libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(cqlFolder));
+                CqlTranslator translator = CqlTranslator.fromFile(file, libraryManager);
+                freshStatements.put(file.getName(), translator.toELM().getStatements().getDef().size());
+            }
+            freshNanos += System.nanoTime() - start;
+
+            clearCaches();
+            start = System.nanoTime();
+            for (File file : cqlFiles) {
+                org.hl7.elm.r1.Library elm = ResourceUtils.getElmFromCql(file.getAbsolutePath());
+                sharedStatements.put(file.getName(), elm.getStatements().getDef().size());
+            }
+            sharedNanos += System.nanoTime() - start;
+            clearCaches();
+        }
+
+        logger.info("Translated {} libraries {} times: fresh managers {} ms, shared context {} ms",
+                cqlFiles.size(), ITERATIONS, freshNanos / 1_000_000, sharedNanos / 1_000_000);
+        assertEquals(sharedStatements, freshStatements);
+    }
+}
@@ -0,0 +1,87 @@
+package org.opencds.cqf.tooling.cql;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CqlDependencyGraphTests {
+    private Path cqlFolder;
+    private File measure;
+    private File common;
+    private File helpers;
+    private File standalone;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        cqlFolder = Files.createTempDirectory("cql-graph");
+        measure = write("Measure.cql", "library Measure version '1.0.0'\n\ninclude FHIRHelpers version '4.0.1'\n"
+                + "include Common version '1.0.0' called C\n\ndefine \"Two\": C.\"One\" + 1\n");
+        common = write("Common.cql", "library Common version '1.0.0'\n\ninclude FHIRHelpers version '4.0.1'\n\ndefine \"One\": 1\n");
+        helpers = write("FHIRHelpers-4.0.1.cql", "library FHIRHelpers version '4.0.1'\n");
+        standalone = write("Standalone.cql", "library \"Standalone Library\"\n\ninclude Unknown\n");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(cqlFolder.toFile());
+    }
+
+    private File write(String name, String content) throws IOException {
+        Path path = cqlFolder.resolve(name);
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path.toFile().getAbsoluteFile();
+    }
+
+    @Test
+    public void TestIncludesAreOrderedFirst() throws IOException {
+        CqlDependencyGraph graph = CqlDependencyGraph.build(Arrays.asList(measure, common, helpers, standalone));
+
+        assertEquals(graph.getFiles(), Arrays.asList(helpers, common, measure, standalone));
+        assertEquals(graph.getDependencies(measure), Arrays.asList(helpers, common));
+        assertEquals(graph.getDependencies(standalone), Collections.emptyList());
+    }
+
+    @Test
+    public void TestCyclesArePlacedLast() throws IOException {
+        File first = write("First.cql", "library First\n\ninclude Second\n");
+        File second = write("Second.cql", "library Second\n\ninclude First\n");
+        CqlDependencyGraph graph = CqlDependencyGraph.build(Arrays.asList(first, second, helpers));
+
+        assertEquals(graph.getFiles(), Arrays.asList(helpers, first, second));
+    }
+
+    @Test
+    public void TestExecuteRunsIncludesBeforeDependents() throws IOException {
+        CqlDependencyGraph graph = CqlDependencyGraph.build(Arrays.asList(measure, common, helpers, standalone));
+        List<File> completed = new CopyOnWriteArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            graph.execute(file -> {
+                for (File dependency : graph.getDependencies(file)) {
+                    assertTrue(completed.contains(dependency), file + " ran before " + dependency);
+                }
+                completed.add(file);
+            }, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(completed.size(), 4);
+    }
+}
@@ -0,0 +1,140 @@
+package org.opencds.cqf.tooling.cql;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.cqframework.cql.cql2elm.CqlTranslatorOptions;
+import org.cqframework.cql.cql2elm.DefaultLibrarySourceProvider;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.LibrarySourceLoader;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.quick.FhirLibrarySourceProvider;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ElmTranslationCacheTests {
+    private Path igRoot;
+    private Path cqlFolder;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        igRoot = Files.createTempDirectory("elm-cache-ig");
+        cqlFolder = Files.createDirectories(igRoot.resolve("input").resolve("cql"));
+        write("Common.cql", "library Common version '1.0.0'\n\ndefine \"One\": 1\n");
+        write("Measure.cql", "library Measure version '1.0.0'\n\ninclude Common version '1.0.0' called C\n"
+                + "include FHIRHelpers version '4.0.1'\n\ndefine \"Two\": C.\"One\" + 1\n");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(igRoot.toFile());
+    }
+
+    private File write(String name, String content) throws IOException {
+        return write(cqlFolder, name, content);
+    }
+
+    private static File write(Path folder, String name, String content) throws IOException {
+        Path path = folder.resolve(name);
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path.toFile();
+    }
+
+    // The providers the translator uses for the folders, as registered by CqlProcessor
+    private static LibrarySourceLoader sourceLoader(Path... folders) {
+        LibraryManager libraryManager = new LibraryManager(new ModelManager());
+        for (Path folder : folders) {
+            libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(folder));
+        }
+        libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+        return libraryManager.getLibrarySourceLoader();
+    }
+
+    @Test
+    public void TestCacheDirectoryIsUnderIgRoot() {
+        assertEquals(ElmTranslationCache.resolveCacheDirectory(cqlFolder.toString()),
+                igRoot.toAbsolutePath().normalize().resolve(".cqf-cache").resolve("elm"));
+    }
+
+    @Test
+    public void TestIncludeChangeCascades() throws IOException {
+        ElmTranslationCache cache = ElmTranslationCache.forFolder(cqlFolder.toString());
+        CqlTranslatorOptions options = CqlTranslatorOptions.defaultOptions();
+        File measure = cqlFolder.resolve("Measure.cql").toFile();
+        LibrarySourceLoader sourceLoader = sourceLoader(cqlFolder);
+
+        String original = cache.computeKey(measure, options, null, sourceLoader);
+        assertNotNull(original);
+        assertEquals(cache.computeKey(measure, options, null, sourceLoader), original);
+        assertNotEquals(cache.computeKey(measure, options, "http://example.org", sourceLoader), original);
+
+        File common = write("Common.cql", "library Common version '1.0.0'\n\ndefine \"One\": 2\n");
+        common.setLastModified(common.lastModified() + 10_000);
+        assertNotEquals(cache.computeKey(measure, options, null, sourceLoader), original);
+    }
+
+    @Test
+    public void TestIncludeFromAnotherFolderChangeCascades() throws IOException {
+        Path sharedFolder = Files.createDirectories(igRoot.resolve("shared").resolve("cql"));
+        write(sharedFolder, "Shared.cql", "library Shared\n\ndefine \"Three\": 3\n");
+        File measure = write("SharedMeasure.cql", "library SharedMeasure version '1.0.0'\n\ninclude Shared called S\n\n"
+                + "define \"Four\": S.\"Three\" + 1\n");
+        ElmTranslationCache cache = ElmTranslationCache.forFolder(cqlFolder.toString());
+        CqlTranslatorOptions options = CqlTranslatorOptions.defaultOptions();
+        LibrarySourceLoader sourceLoader = sourceLoader(cqlFolder, sharedFolder);
+
+        String original = cache.computeKey(measure, options, null, sourceLoader);
+        assertNotNull(original);
+
+        write(sharedFolder, "Shared.cql", "library Shared\n\ndefine \"Three\": 4\n");
+        assertNotEquals(cache.computeKey(measure, options, null, sourceLoader), original);
+    }
+
+    @Test
+    public void TestUnresolvedIncludeIsNotCached() throws IOException {
+        File measure = write("MissingMeasure.cql", "library MissingMeasure version '1.0.0'\n\ninclude Missing called M\n\n"
+                + "define \"Five\": 5\n");
+        ElmTranslationCache cache = ElmTranslationCache.forFolder(cqlFolder.toString());
+        CqlTranslatorOptions options = CqlTranslatorOptions.defaultOptions();
+
+        assertNull(cache.computeKey(measure, options, null, sourceLoader(cqlFolder)));
+        // FHIRHelpers is only found through the source loader
+        assertNull(cache.computeKey(cqlFolder.resolve("Measure.cql").toFile(), options, null, null));
+    }
+
+    @Test
+    public void TestEntryRoundTrip() {
+        ElmTranslationCache cache = ElmTranslationCache.forFolder(cqlFolder.toString());
+        VersionedIdentifier identifier = new VersionedIdentifier().withId("Common").withVersion("1.0.0");
+        ElmTranslationCache.Entry entry = new ElmTranslationCache.Entry(identifier, "<library/>", "{}");
+        entry.addMessages(List.of(new ValidationMessage(ValidationMessage.Source.Publisher, ValidationMessage.IssueType.INFORMATIONAL,
+                3, 4, "Common", "Something to note", ValidationMessage.IssueSeverity.WARNING)));
+        entry.setRequirements("{\"resourceType\":\"Library\"}");
+
+        assertNull(cache.get("key"));
+        cache.put("key", entry);
+
+        ElmTranslationCache.Entry cached = cache.get("key");
+        assertNotNull(cached);
+        assertEquals(cached.getIdentifier().getId(), "Common");
+        assertEquals(cached.getIdentifier().getVersion(), "1.0.0");
+        assertEquals(cached.getElmXml(), "<library/>");
+        assertEquals(cached.getRequirements(), "{\"resourceType\":\"Library\"}");
+        assertEquals(cached.getMessages().size(), 1);
+        assertEquals(cached.getMessages().get(0).getLevel(), ValidationMessage.IssueSeverity.WARNING);
+        assertEquals(cached.getMessages().get(0).getLine(), 3);
+    }
+}
@@ -2,6 +2,7 @@ package org.opencds.cqf.tooling.measure.comparer;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.parser.IParser;
 import org.hl7.fhir.Parameters;
 import org.hl7.fhir.ParametersParameter;
 import org.hl7.fhir.dstu3.model.MeasureReport;
@@ -12,8 +13,12 @@ import org.opencds.cqf.tooling.measure.adapters.IMeasureReportAdapter;
 import org.opencds.cqf.tooling.measure.adapters.R4MeasureReportAdapter;
 import org.opencds.cqf.tooling.utilities.FhirContextCache;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.SortedMap;
 
 import static org.testng.Assert.*;
 
@@ -354,4 +359,96 @@ public class MeasureReportComparerTest {
 
         assertTrue(resultContainsAllExpectedParameters, "Mismatched measureScore test");
     }
-}
\ No newline at end of file
+
+    private org.hl7.fhir.r4.model.MeasureReport GetR4StratifiedMeasureReportWithId(String id, int numeratorCount, int stratumNumeratorCount) {
+        org.hl7.fhir.r4.model.MeasureReport report = GetR4BasicMeasureReportWithId(id);
+        org.hl7.fhir.r4.model.MeasureReport.MeasureReportGroupComponent group = report.getGroupFirstRep();
+        group.addPopulation().setCode(new org.hl7.fhir.r4.model.CodeableConcept(new org.hl7.fhir.r4.model.Coding(null, "denominator", null))).setCount(1);
+        group.addPopulation().setCode(new org.hl7.fhir.r4.model.CodeableConcept(new org.hl7.fhir.r4.model.Coding(null, "numerator", null))).setCount(numeratorCount);
+        org.hl7.fhir.r4.model.MeasureReport.StratifierGroupComponent stratum = group.addStratifier().setId("gender").addStratum();
+        stratum.setValue(new org.hl7.fhir.r4.model.CodeableConcept().setText("female"));
+        stratum.addPopulation().setCode(new org.hl7.fhir.r4.model.CodeableConcept(new org.hl7.fhir.r4.model.Coding(null, "numerator", null))).setCount(stratumNumeratorCount);
+
+        return report;
+    }
+
+    @Test
+    public void TestR4DiffPopulationsAndStrata() {
+        Setup();
+
+        String testCaseId = "R4StratifiedComparerTestMeasureReport";
+        IMeasureReportAdapter expected = new R4MeasureReportAdapter(GetR4StratifiedMeasureReportWithId(testCaseId, 1, 1));
+
+        MeasureReportDiff matching = comparer.diff(new R4MeasureReportAdapter(GetR4StratifiedMeasureReportWithId(testCaseId, 1, 1)), expected);
+        assertTrue(matching.isMatch(), matching.toString());
+        // report type, measure, patient, group count, group score, two populations and one stratum population
+        assertEquals(matching.getComparisons(), 8);
+
+        MeasureReportDiff mismatched = comparer.diff(new R4MeasureReportAdapter(GetR4StratifiedMeasureReportWithId(testCaseId, 0, 0)), expected);
+        assertFalse(mismatched.isMatch());
+        assertEquals(mismatched.getDifferences().size(), 2);
+        assertTrue(mismatched.hasDifference("Group[group-1].population[numerator].count"));
+        assertTrue(mismatched.hasDifference("Group[group-1].stratifier[gender].stratum[female].population[numerator].count"));
+
+        List<ParametersParameter> resultParameters = comparer.compare(new R4MeasureReportAdapter(GetR4StratifiedMeasureReportWithId(testCaseId, 0, 0)), expected).getParameter();
+        assertTrue(resultParameters.contains(getTestParameter("Group[group-1].score", true)));
+        assertTrue(resultParameters.contains(getTestParameter("Group[group-1].population[numerator].count", false)));
+        assertTrue(resultParameters.contains(getTestParameter("Measure '" + testCaseId + "' Test Passed", false)));
+    }
+
+    private org.hl7.fhir.r4.model.MeasureReport GetR4MeasureReportWithoutGroupIds(String id, double secondScore) {
+        org.hl7.fhir.r4.model.MeasureReport report = GetR4BasicMeasureReportWithId(id);
+        report.getGroupFirstRep().setId((String) null);
+        report.addGroup().setMeasureScore(new Quantity(secondScore));
+
+        return report;
+    }
+
+    @Test
+    public void TestR4GroupsWithoutIdsAreMatchedByPosition() {
+        Setup();
+
+        String testCaseId = "R4NoGroupIdsComparerTestMeasureReport";
+        IMeasureReportAdapter expected = new R4MeasureReportAdapter(GetR4MeasureReportWithoutGroupIds(testCaseId, 0.5));
+
+        MeasureReportDiff matching = comparer.diff(new R4MeasureReportAdapter(GetR4MeasureReportWithoutGroupIds(testCaseId, 0.5)), expected);
+        assertTrue(matching.isMatch(), matching.toString());
+
+        MeasureReportDiff mismatched = comparer.diff(new R4MeasureReportAdapter(GetR4MeasureReportWithoutGroupIds(testCaseId, 0.0)), expected);
+        assertFalse(mismatched.isMatch());
+        assertEquals(mismatched.getDifferences().size(), 1);
+        assertTrue(mismatched.hasDifference("Group[1].score"));
+
+        List<ParametersParameter> resultParameters = comparer.compare(new R4MeasureReportAdapter(GetR4MeasureReportWithoutGroupIds(testCaseId, 0.0)), expected).getParameter();
+        assertTrue(resultParameters.contains(getTestParameter("Group[0].score", true)));
+        assertTrue(resultParameters.contains(getTestParameter("Group[1].score", false)));
+    }
+
+    @Test
+    public void TestR4BatchCompareDirectories() throws IOException {
+        FhirContext fhirContext = FhirContextCache.getContext(FhirVersionEnum.R4);
+        Path expectedDirectory = Files.createTempDirectory("expected-reports");
+        Path actualDirectory = Files.createTempDirectory("actual-reports");
+        IParser parser = fhirContext.newJsonParser();
+
+        Files.createDirectories(expectedDirectory.resolve("measure"));
+        Files.createDirectories(actualDirectory.resolve("measure"));
+        Files.writeString(expectedDirectory.resolve("measure/match.json"), parser.encodeResourceToString(GetR4StratifiedMeasureReportWithId("match", 1, 1)));
+        Files.writeString(actualDirectory.resolve("measure/match.json"), parser.encodeResourceToString(GetR4StratifiedMeasureReportWithId("match", 1, 1)));
+        Files.writeString(expectedDirectory.resolve("measure/mismatch.json"), parser.encodeResourceToString(GetR4StratifiedMeasureReportWithId("mismatch", 1, 1)));
+        Files.writeString(actualDirectory.resolve("measure/mismatch.json"), parser.encodeResourceToString(GetR4StratifiedMeasureReportWithId("mismatch", 1, 0)));
+        Files.writeString(expectedDirectory.resolve("measure/missing.json"), parser.encodeResourceToString(GetR4BasicMeasureReportWithId("missing")));
+
+        MeasureReportBatchComparer batchComparer = new MeasureReportBatchComparer(fhirContext);
+        SortedMap<String, MeasureReportBatchComparer.Result> results = batchComparer.compareDirectories(expectedDirectory, actualDirectory);
+
+        assertEquals(results.size(), 3);
+        assertTrue(results.get("measure/match.json").isMatch());
+        assertEquals(results.get("measure/mismatch.json").getDiff().getDifferences().size(), 1);
+        assertNotNull(results.get("measure/missing.json").getError());
+
+        Path reportPath = actualDirectory.resolve(MeasureReportBatchComparer.JSON_FILE_NAME);
+        batchComparer.writeJson(reportPath);
+        assertTrue(Files.readString(reportPath).contains("\"matched\": 1"));
+    }
+}
@@ -0,0 +1,247 @@
+package org.opencds.cqf.tooling.measure.evaluator;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hl7.fhir.Parameters;
+import org.hl7.fhir.ParametersParameter;
+import org.hl7.fhir.r4.model.Attachment;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.DateType;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Expression;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.opencds.cqf.tooling.measure.MeasureTestProcessor;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class CqlMeasureEvaluatorTest {
+
+    private static final String VALUESET_URL = "http://example.org/fhir/ValueSet/screening-tests";
+
+    private static final String CQL = String.join("\n",
+            "library ScreeningMeasure version '1.0.0'",
+            "using FHIR version '4.0.1'",
+            "include FHIRHelpers version '4.0.1'",
+            "valueset \"Screening Tests\": '" + VALUESET_URL + "'",
+            "parameter \"Measurement Period\" Interval<DateTime>",
+            "context Patient",
+            "define \"Initial Population\": AgeInYearsAt(date from start of \"Measurement Period\") >= 18",
+            "define \"Denominator\": \"Initial Population\"",
+            "define \"Numerator\": exists [Observation: \"Screening Tests\"]",
+            "define \"Age Group\": if AgeInYearsAt(date from start of \"Measurement Period\") >= 65 then 'senior' else 'adult'");
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    private Bundle getContentBundle() {
+        Library library = new Library();
+        library.setId("ScreeningMeasure");
+        library.setUrl("http://example.org/fhir/Library/ScreeningMeasure");
+        library.setName("ScreeningMeasure");
+        library.setVersion("1.0.0");
+        library.setStatus(Enumerations.PublicationStatus.ACTIVE);
+        library.addContent(new Attachment().setContentType("text/cql").setData(CQL.getBytes(StandardCharsets.UTF_8)));
+
+        Measure measure = new Measure();
+        measure.setId("ScreeningMeasure");
+        measure.setUrl("http://example.org/fhir/Measure/ScreeningMeasure");
+        measure.addLibrary(library.getUrl());
+        measure.setScoring(new CodeableConcept(new Coding("http://terminology.hl7.org/CodeSystem/measure-scoring", "proportion", null)));
+        Measure.MeasureGroupComponent group = measure.addGroup();
+        group.setId("group-1");
+        for (String population : new String[] { "initial-population", "denominator", "numerator" }) {
+            String expression = population.equals("initial-population") ? "Initial Population"
+                    : population.equals("denominator") ? "Denominator" : "Numerator";
+            group.addPopulation()
+                    .setCode(new CodeableConcept(new Coding("http://terminology.hl7.org/CodeSystem/measure-population", population, null)))
+                    .setCriteria(new Expression().setLanguage("text/cql.identifier").setExpression(expression));
+        }
+
+        ValueSet valueSet = new ValueSet();
+        valueSet.setId("screening-tests");
+        valueSet.setUrl(VALUESET_URL);
+        valueSet.getCompose().addInclude().setSystem("http://loinc.org").addConcept().setCode("24604-1");
+
+        Bundle bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        bundle.addEntry().setResource(library);
+        bundle.addEntry().setResource(measure);
+        bundle.addEntry().setResource(valueSet);
+        return bundle;
+    }
+
+    private Bundle getTestBundle(String patientId, String observationCode, Double expectedScore) {
+        Patient patient = new Patient();
+        patient.setId(patientId);
+        patient.setBirthDateElement(new DateType("1970-06-01"));
+
+        Observation observation = new Observation();
+        observation.setId(patientId + "-observation");
+        observation.setStatus(Observation.ObservationStatus.FINAL);
+        observation.setSubject(new Reference("Patient/" + patientId));
+        observation.setCode(new CodeableConcept(new Coding("http://loinc.org", observationCode, null)));
+
+        MeasureReport expected = new MeasureReport();
+        expected.setId(patientId + "-expected");
+        expected.setStatus(MeasureReport.MeasureReportStatus.COMPLETE);
+        expected.setType(MeasureReport.MeasureReportType.INDIVIDUAL);
+        expected.setMeasure("Measure/ScreeningMeasure");
+        expected.setSubject(new Reference("Patient/" + patientId));
+        expected.setPeriod(new Period().setStartElement(new org.hl7.fhir.r4.model.DateTimeType("2019-01-01"))
+                .setEndElement(new org.hl7.fhir.r4.model.DateTimeType("2019-12-31")));
+        expected.addGroup().setId("group-1").setMeasureScore(new Quantity(expectedScore));
+
+        Bundle bundle = new Bundle();
+        bundle.setId("tests-" + patientId);
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        bundle.addEntry().setResource(patient);
+        bundle.addEntry().setResource(observation);
+        bundle.addEntry().setResource(expected);
+        return bundle;
+    }
+
+    @Test
+    public void TestEvaluateNumeratorAndDenominatorPatients() {
+        CqlMeasureEvaluator evaluator = new CqlMeasureEvaluator(fhirContext, getContentBundle());
+        Bundle numeratorTest = getTestBundle("numer-patient", "24604-1", 1.0);
+        Bundle denominatorTest = getTestBundle("denom-patient", "1234-5", 0.0);
+        MeasureReport expected = (MeasureReport) numeratorTest.getEntry().get(2).getResource();
+
+        MeasureReport numerator = (MeasureReport) evaluator.evaluate("ScreeningMeasure", "numer-patient",
+                expected.getPeriod().getStart(), expected.getPeriod().getEnd(), numeratorTest);
+        assertEquals(numerator.getSubject().getReference(), "Patient/numer-patient");
+        assertEquals(numerator.getGroupFirstRep().getPopulation().size(), 3);
+        assertEquals(numerator.getGroupFirstRep().getPopulation().get(2).getCount(), 1);
+        assertEquals(numerator.getGroupFirstRep().getMeasureScore().getValue().compareTo(BigDecimal.ONE), 0);
+
+        // the observation of the other patient bundle is not in scope for this patient
+        MeasureReport denominator = (MeasureReport) evaluator.evaluate("ScreeningMeasure", "denom-patient",
+                expected.getPeriod().getStart(), expected.getPeriod().getEnd(), denominatorTest);
+        assertEquals(denominator.getGroupFirstRep().getPopulation().get(1).getCount(), 1);
+        assertEquals(denominator.getGroupFirstRep().getPopulation().get(2).getCount(), 0);
+        assertEquals(denominator.getGroupFirstRep().getMeasureScore().getValue().compareTo(BigDecimal.ZERO), 0);
+    }
+
+    @Test
+    public void TestPatientOutsideInitialPopulationHasNoScore() {
+        CqlMeasureEvaluator evaluator = new CqlMeasureEvaluator(fhirContext, getContentBundle());
+        Bundle test = getTestBundle("child-patient", "24604-1", 0.0);
+        ((Patient) test.getEntry().get(0).getResource()).setBirthDateElement(new DateType("2015-01-01"));
+        MeasureReport expected = (MeasureReport) test.getEntry().get(2).getResource();
+
+        MeasureReport report = (MeasureReport) evaluator.evaluate("ScreeningMeasure", "child-patient",
+                expected.getPeriod().getStart(), expected.getPeriod().getEnd(), test);
+        assertEquals(report.getGroupFirstRep().getPopulation().get(0).getCount(), 0);
+        assertNull(report.getGroupFirstRep().getMeasureScore().getValue());
+    }
+
+    @Test
+    public void TestStratifierReportsThePatientStratum() {
+        Bundle content = getContentBundle();
+        ((Measure) content.getEntry().get(1).getResource()).getGroupFirstRep().addStratifier()
+                .setCode(new CodeableConcept(new Coding(null, "age-group", null)))
+                .setCriteria(new Expression().setLanguage("text/cql.identifier").setExpression("Age Group"));
+        CqlMeasureEvaluator evaluator = new CqlMeasureEvaluator(fhirContext, content);
+        Bundle test = getTestBundle("numer-patient", "24604-1", 1.0);
+        MeasureReport expected = (MeasureReport) test.getEntry().get(2).getResource();
+
+        MeasureReport report = (MeasureReport) evaluator.evaluate("ScreeningMeasure", "numer-patient",
+                expected.getPeriod().getStart(), expected.getPeriod().getEnd(), test);
+        MeasureReport.MeasureReportGroupStratifierComponent stratifier = report.getGroupFirstRep().getStratifierFirstRep();
+        assertEquals(stratifier.getId(), "age-group");
+        assertEquals(stratifier.getStratum().size(), 1);
+        assertEquals(stratifier.getStratumFirstRep().getValue().getText(), "adult");
+        assertEquals(stratifier.getStratumFirstRep().getPopulation().size(), 3);
+        assertEquals(stratifier.getStratumFirstRep().getPopulation().get(2).getCount(), 1);
+        assertEquals(stratifier.getStratumFirstRep().getMeasureScore().getValue().compareTo(BigDecimal.ONE), 0);
+    }
+
+    @Test
+    public void TestMeasureObservationsAreRefused() {
+        Bundle content = getContentBundle();
+        ((Measure) content.getEntry().get(1).getResource()).getGroupFirstRep().addPopulation()
+                .setCode(new CodeableConcept(new Coding("http://terminology.hl7.org/CodeSystem/measure-population", "measure-observation", null)))
+                .setCriteria(new Expression().setLanguage("text/cql.identifier").setExpression("Age Group"));
+        CqlMeasureEvaluator evaluator = new CqlMeasureEvaluator(fhirContext, content);
+        Bundle test = getTestBundle("numer-patient", "24604-1", 1.0);
+        MeasureReport expected = (MeasureReport) test.getEntry().get(2).getResource();
+
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> evaluator.evaluate("ScreeningMeasure",
+                "numer-patient", expected.getPeriod().getStart(), expected.getPeriod().getEnd(), test));
+        assertTrue(e.getMessage().contains("measure observations"));
+    }
+
+    @Test
+    public void TestConcurrentEvaluationsMatchSequential() throws InterruptedException, ExecutionException {
+        CqlMeasureEvaluator evaluator = new CqlMeasureEvaluator(fhirContext, getContentBundle());
+        List<Bundle> tests = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            tests.add(i % 2 == 0 ? getTestBundle("numer-patient-" + i, "24604-1", 1.0) : getTestBundle("denom-patient-" + i, "1234-5", 0.0));
+        }
+        MeasureReport expected = (MeasureReport) tests.get(0).getEntry().get(2).getResource();
+
+        List<BigDecimal> sequential = new ArrayList<>();
+        for (Bundle test : tests) {
+            sequential.add(evaluate(evaluator, test, expected));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<BigDecimal>> concurrent = new ArrayList<>();
+            for (Bundle test : tests) {
+                concurrent.add(executor.submit(() -> evaluate(evaluator, test, expected)));
+            }
+            for (int i = 0; i < tests.size(); i++) {
+                assertEquals(concurrent.get(i).get().compareTo(sequential.get(i)), 0, "Test case " + tests.get(i).getId());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private BigDecimal evaluate(CqlMeasureEvaluator evaluator, Bundle test, MeasureReport expected) {
+        String patientId = test.getEntry().get(0).getResource().getIdElement().getIdPart();
+        MeasureReport report = (MeasureReport) evaluator.evaluate("ScreeningMeasure", patientId,
+                expected.getPeriod().getStart(), expected.getPeriod().getEnd(), test);
+        return report.getGroupFirstRep().getMeasureScore().getValue();
+    }
+
+    @Test
+    public void TestMeasureTestProcessorRunsWithoutFhirServer() {
+        MeasureTestProcessor processor = new MeasureTestProcessor(fhirContext);
+        Bundle content = getContentBundle();
+
+        for (Bundle test : new Bundle[] { getTestBundle("numer-patient", "24604-1", 1.0), getTestBundle("denom-patient", "1234-5", 0.0) }) {
+            Parameters results = processor.executeTest(test, content, null);
+            boolean passed = false;
+            for (ParametersParameter parameter : results.getParameter()) {
+                if (parameter.getName().getValue().contains(MeasureTestProcessor.TestPassedKey)) {
+                    passed = parameter.getValueBoolean().isValue();
+                }
+            }
+            assertTrue(passed, "Test case " + test.getId() + " did not pass");
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.opencds.cqf.tooling.npm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.opencds.cqf.tooling.utilities.cache.CacheStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class NpmPackageIndexTests implements IWorkerContext.ILoggingService {
+    private static final Logger logger = LoggerFactory.getLogger(NpmPackageIndexTests.class);
+    private static final String CANONICAL = "http://example.org/fhir";
+    private static final String COMMON_SOURCE = "library Common version '1.0.0'\n\ndefine \"One\": 1\n";
+    private static final String LARGE_SOURCE = "library Large version '1.0.0'\n\n" + "// padding\n".repeat(100);
+    private static final String MODEL_INFO = "<modelInfo xmlns=\"urn:hl7-org:elm-modelinfo:r1\" name=\"Example\" version=\"1.0.0\"/>";
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+    private NpmPackage npmPackage;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(bytes))) {
+            addEntry(tar, "package/package.json", "{\"name\":\"example.fhir.test\",\"version\":\"1.0.0\",\"canonical\":\""
+                    + CANONICAL + "\",\"fhirVersions\":[\"4.0.1\"],\"dependencies\":{}}");
+            addLibrary(tar, "Common", "text/cql", COMMON_SOURCE);
+            addLibrary(tar, "Large", "text/cql", LARGE_SOURCE);
+            addLibrary(tar, "Example-ModelInfo", "application/xml", MODEL_INFO);
+        }
+        npmPackage = NpmPackage.fromPackage(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    private void addLibrary(TarArchiveOutputStream tar, String id, String contentType, String content) throws IOException {
+        Library library = new Library();
+        library.setId(id);
+        library.setUrl(CANONICAL + "/Library/" + id);
+        library.setVersion("1.0.0");
+        library.setStatus(Enumerations.PublicationStatus.ACTIVE);
+        library.addContent().setContentType(contentType).setData(content.getBytes(StandardCharsets.UTF_8));
+        addEntry(tar, "package/Library-" + id + ".json", fhirContext.newJsonParser().encodeResourceToString(library));
+    }
+
+    private void addEntry(TarArchiveOutputStream tar, String name, String content) throws IOException {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(data.length);
+        tar.putArchiveEntry(entry);
+        tar.write(data);
+        tar.closeArchiveEntry();
+    }
+
+    // Counts the Libraries read from the package, i.e. the lookups the index did not answer from its cache
+    private static class CountingReader implements ILibraryReader {
+        private final ILibraryReader reader = new LibraryLoader("4.0.1");
+        private final AtomicInteger reads = new AtomicInteger();
+
+        @Override
+        public org.hl7.fhir.r5.model.Library readLibrary(InputStream stream) throws IOException {
+            reads.incrementAndGet();
+            return reader.readLibrary(stream);
+        }
+    }
+
+    @Test
+    public void TestLibrarySourceIsResolvedOnce() {
+        CountingReader reader = new CountingReader();
+        NpmPackageIndex index = new NpmPackageIndex(List.of(npmPackage), reader, this);
+
+        NpmPackageIndex.Entry entry = index.getLibrarySource(null, "Common", "1.0.0");
+        assertNotNull(entry);
+        assertEquals(entry.getSystem(), CANONICAL);
+        assertEquals(new String(entry.getContent(), StandardCharsets.UTF_8), COMMON_SOURCE);
+
+        assertEquals(index.getLibrarySource(null, "Common", "1.0.0").getContent(), entry.getContent());
+        assertEquals(reader.reads.get(), 1);
+        assertEquals(index.getStatistics().getHitCount(), 1);
+
+        // The namespace is part of the lookup
+        assertNotNull(index.getLibrarySource(CANONICAL, "Common", "1.0.0"));
+        assertEquals(reader.reads.get(), 2);
+    }
+
+    @Test
+    public void TestMissIsCached() {
+        CountingReader reader = new CountingReader();
+        NpmPackageIndex index = new NpmPackageIndex(List.of(npmPackage), reader, this);
+
+        assertNull(index.getLibrarySource(null, "Missing", "1.0.0"));
+        assertNull(index.getLibrarySource(null, "Missing", "1.0.0"));
+        // The version is part of the lookup
+        assertNull(index.getLibrarySource(null, "Common", "2.0.0"));
+
+        CacheStatistics statistics = index.getStatistics();
+        assertEquals(statistics.getLoadCount(), 2);
+        assertEquals(statistics.getHitCount(), 1);
+        assertEquals(reader.reads.get(), 0);
+    }
+
+    @Test
+    public void TestModelInfoLookup() {
+        NpmPackageIndex index = new NpmPackageIndex(List.of(npmPackage), new CountingReader(), this);
+
+        NpmPackageIndex.Entry entry = index.getModelInfo(null, "Example", "1.0.0");
+        assertNotNull(entry);
+        assertEquals(new String(entry.getContent(), StandardCharsets.UTF_8), MODEL_INFO);
+        // A ModelInfo is not a library source, and a library source is not a ModelInfo
+        assertNull(index.getLibrarySource(null, "Example-ModelInfo", "1.0.0"));
+        assertNull(index.getModelInfo(null, "Common", "1.0.0"));
+    }
+
+    @Test
+    public void TestEntriesAreEvictedAtTheWeightBound() {
+        // Room for either library, but not for both
+        int maxWeight = COMMON_SOURCE.getBytes(StandardCharsets.UTF_8).length + LARGE_SOURCE.getBytes(StandardCharsets.UTF_8).length - 1;
+        CountingReader reader = new CountingReader();
+        NpmPackageIndex index;
+        System.setProperty(NpmPackageIndex.MAX_WEIGHT_PROPERTY, Integer.toString(maxWeight));
+        try {
+            index = new NpmPackageIndex(List.of(npmPackage), reader, this);
+        } finally {
+            System.clearProperty(NpmPackageIndex.MAX_WEIGHT_PROPERTY);
+        }
+
+        assertNotNull(index.getLibrarySource(null, "Common", "1.0.0"));
+        assertNotNull(index.getLibrarySource(null, "Large", "1.0.0"));
+        assertEquals(index.getStatistics().getEvictionCount(), 1);
+
+        // Common was evicted to make room for Large, so it is read from the package again
+        assertNotNull(index.getLibrarySource(null, "Common", "1.0.0"));
+        assertEquals(reader.reads.get(), 3);
+        assertEquals(index.getStatistics().getHitCount(), 0);
+    }
+
+    @Override
+    public void logMessage(String msg) {
+        logger.info(msg);
+    }
+
+    @Override
+    public void logDebugMessage(IWorkerContext.ILoggingService.LogCategory category, String msg) {
+        logMessage(msg);
+    }
+
+    @Override
+    public boolean isDebugLogging() {
+        return false;
+    }
+}
@@ -0,0 +1,107 @@
+package org.opencds.cqf.tooling.operations.stripcontent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Measure;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class StripContentExecutorTests {
+    private static final String SOFTWARE_SYSTEM_URL = "http://hl7.org/fhir/us/cqfmeasures/StructureDefinition/cqfm-softwaresystem";
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    private Path inputPath() throws URISyntaxException {
+        return Path.of(StripContentExecutorTests.class.getResource("/org/opencds/cqf/tooling/operation/strip-resources").toURI());
+    }
+
+    private <T extends org.hl7.fhir.r4.model.Resource> T read(Class<T> type, Path path) throws IOException {
+        return fhirContext.newJsonParser().parseResource(type, Files.readString(path));
+    }
+
+    @Test
+    public void TestParallelStripFlattensDirectories() throws URISyntaxException, IOException {
+        var outputPath = Path.of("target", "test-output", "strip-content-parallel");
+        FileUtils.deleteQuietly(outputPath.toFile());
+        new StripContentExecutor(new StripContentParams()
+                .inputDirectory(inputPath().toString())
+                .outputDirectory(outputPath.toString())
+                .fhirVersion("r4")).execute();
+
+        assertTrue(outputPath.resolve("LibraryMATGlobalCommonFunctionsFHIR4.json").toFile().exists());
+        assertFalse(outputPath.resolve("inner").toFile().exists());
+
+        var measure = read(Measure.class, outputPath.resolve("MeasureBeastCancerScreeningFHIR.json"));
+        assertFalse(measure.hasText());
+        assertEquals(measure.getExtension().size(), 1);
+        assertEquals(measure.getRelatedArtifact().size(), 0);
+
+        var library = read(Library.class, outputPath.resolve("LibraryBreastCancerScreeningFHIR.json"));
+        assertEquals(library.getContent().size(), 1);
+        assertFalse(library.hasParameter());
+        assertFalse(library.hasDataRequirement());
+        assertTrue(library.getExtension().stream().noneMatch(x -> SOFTWARE_SYSTEM_URL.equals(x.getUrl())));
+    }
+
+    @Test
+    public void TestNativeStripMatchesR5Conversion() throws URISyntaxException, IOException {
+        var stripper = new ContentStripperR4();
+        var outputPath = Files.createTempDirectory("strip-content");
+        List<Path> inputs;
+        try (Stream<Path> paths = Files.walk(inputPath())) {
+            inputs = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        assertFalse(inputs.isEmpty());
+        for (Path input : inputs) {
+            var name = input.getFileName().toString();
+            File nativeFile = outputPath.resolve("native").resolve(name).toFile();
+            File convertedFile = outputPath.resolve("converted").resolve(name).toFile();
+            // both paths export the CQL to the same directory, so the content urls are the same
+            var cqlExportDirectory = outputPath.resolve("cql").toFile();
+            stripper.stripFile(input.toFile(), convertedFile, ContentStripperOptions.defaultOptions()
+                    .cqlExportDirectory(cqlExportDirectory).convertToR5(true));
+            var convertedCql = readCqlExports(cqlExportDirectory);
+            stripper.stripFile(input.toFile(), nativeFile, ContentStripperOptions.defaultOptions()
+                    .cqlExportDirectory(cqlExportDirectory));
+            assertEquals(readCqlExports(cqlExportDirectory), convertedCql, name);
+
+            var parser = fhirContext.newJsonParser().setPrettyPrint(true);
+            var nativeResource = parser.parseResource(Files.readString(nativeFile.toPath()));
+            var convertedResource = parser.parseResource(Files.readString(convertedFile.toPath()));
+            // compared encoded first so a difference is reported with the content
+            assertEquals(parser.encodeResourceToString(nativeResource), parser.encodeResourceToString(convertedResource), name);
+            assertTrue(((org.hl7.fhir.r4.model.Base) nativeResource).equalsDeep((org.hl7.fhir.r4.model.Base) convertedResource), name);
+        }
+
+        var nativeLibrary = read(Library.class, outputPath.resolve("native").resolve("LibraryBreastCancerScreeningFHIR.json"));
+        assertFalse(nativeLibrary.getContentFirstRep().hasData());
+    }
+
+    private Map<String, String> readCqlExports(File cqlExportDirectory) throws IOException {
+        Map<String, String> exports = new TreeMap<>();
+        if (cqlExportDirectory.isDirectory()) {
+            try (Stream<Path> paths = Files.list(cqlExportDirectory.toPath())) {
+                for (Path path : paths.collect(Collectors.toList())) {
+                    exports.put(path.getFileName().toString(), Files.readString(path));
+                }
+            }
+        }
+        return exports;
+    }
+}
@@ -6,10 +6,16 @@ import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Enumerations;
 import org.hl7.fhir.r4.model.OperationOutcome;
 import org.hl7.fhir.r4.model.Patient;
+import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class DataProfileConformanceIT {
 
@@ -56,6 +62,48 @@ public class DataProfileConformanceIT {
       Assert.assertFalse(patient.hasContained());
    }
 
+   @Test
+   void testValidateDirectoryConcurrently() throws IOException {
+      Path patientData = Files.createTempDirectory("profile-conformance");
+      IOUtils.writeResource(invalidQiCorePatient(), patientData.toString(), IOUtils.Encoding.JSON, fhirContext);
+      IOUtils.writeResource(validQiCorePatient(), patientData.toString(), IOUtils.Encoding.JSON, fhirContext);
+
+      DataProfileConformance dpc = new DataProfileConformance();
+      dpc.setFhirContext(fhirContext);
+      dpc.setThreads(2);
+      dpc.setPackageUrlsList(List.of("http://hl7.org/fhir/us/qicore/4.1.1/package.tgz"));
+      dpc.setGeneralValidator();
+
+      List<IBaseResource> validated = new CopyOnWriteArrayList<>();
+      ValidationSummary summary = dpc.validateDirectory(patientData.toString(), validated::add);
+      Assert.assertEquals(validated.size(), 2);
+      Assert.assertEquals(summary.getTotal().getResources(), 2);
+      Assert.assertEquals(summary.getTotal().getValid(), 1);
+      Assert.assertEquals(summary.getTotal().getInvalid(), 1);
+      Assert.assertEquals(summary.getFailures(), 0);
+      ValidationSummary.Counts qiCorePatient = summary.getByProfile().get("http://hl7.org/fhir/us/qicore/StructureDefinition/qicore-patient");
+      Assert.assertNotNull(qiCorePatient);
+      Assert.assertEquals(qiCorePatient.getResources(), 2);
+      Assert.assertEquals(qiCorePatient.getInvalid(), 1);
+   }
+
+   @Test
+   void testSinkFailureIsNotCountedTwice() {
+      DataProfileConformance dpc = new DataProfileConformance();
+      dpc.setFhirContext(fhirContext);
+      dpc.setPackageUrlsList(List.of("http://hl7.org/fhir/us/qicore/4.1.1/package.tgz"));
+      dpc.setGeneralValidator();
+
+      ValidationSummary summary = dpc.validateResources(List.<Callable<IBaseResource>>of(
+              this::validQiCorePatient, this::invalidQiCorePatient).iterator(), resource -> {
+         throw new IllegalStateException("Unable to write " + resource.getIdElement().getIdPart());
+      });
+      Assert.assertEquals(summary.getTotal().getResources(), 2);
+      Assert.assertEquals(summary.getTotal().getValid(), 1);
+      Assert.assertEquals(summary.getTotal().getInvalid(), 1);
+      Assert.assertEquals(summary.getFailures(), 0);
+   }
+
    private Patient invalidQiCorePatient() {
       // missing identifier and name
       Patient patient = new Patient();
@@ -0,0 +1,95 @@
+package org.opencds.cqf.tooling.operations.validation;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.validation.ResultSeverityEnum;
+import ca.uhn.fhir.validation.SingleValidationMessage;
+import ca.uhn.fhir.validation.ValidationResult;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class ValidationSummaryTests {
+
+   private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+   private ValidationResult result(ResultSeverityEnum... severities) {
+      List<SingleValidationMessage> messages = new ArrayList<>();
+      for (ResultSeverityEnum severity : severities) {
+         SingleValidationMessage message = new SingleValidationMessage();
+         message.setSeverity(severity);
+         message.setMessage("issue");
+         messages.add(message);
+      }
+      return new ValidationResult(fhirContext, messages);
+   }
+
+   @Test
+   public void TestCountsByProfileAndSeverity() {
+      ValidationSummary summary = new ValidationSummary();
+      List<String> patientProfiles = List.of("http://example.org/StructureDefinition/patient-a",
+              "http://example.org/StructureDefinition/patient-b");
+      summary.record("Patient", patientProfiles, result(ResultSeverityEnum.ERROR, ResultSeverityEnum.WARNING));
+      summary.record("Patient", patientProfiles, result(ResultSeverityEnum.WARNING));
+      summary.record("Observation", Collections.emptyList(), result());
+      summary.recordFailure();
+
+      Assert.assertEquals(summary.getTotal().getResources(), 3);
+      Assert.assertEquals(summary.getTotal().getValid(), 2);
+      Assert.assertEquals(summary.getTotal().getInvalid(), 1);
+      Assert.assertEquals(summary.getTotal().getIssues(ResultSeverityEnum.ERROR), 1);
+      Assert.assertEquals(summary.getTotal().getIssues(ResultSeverityEnum.WARNING), 2);
+      Assert.assertEquals(summary.getFailures(), 1);
+
+      Assert.assertEquals(summary.getByProfile().size(), 3);
+      ValidationSummary.Counts patientA = summary.getByProfile().get("http://example.org/StructureDefinition/patient-a");
+      Assert.assertEquals(patientA.getResources(), 2);
+      Assert.assertEquals(patientA.getInvalid(), 1);
+      Assert.assertEquals(patientA.getIssues(ResultSeverityEnum.WARNING), 2);
+      Assert.assertEquals(summary.getByProfile().get("http://hl7.org/fhir/StructureDefinition/Observation").getValid(), 1);
+   }
+
+   @Test
+   public void TestConcurrentRecording() throws InterruptedException {
+      ValidationSummary summary = new ValidationSummary();
+      List<String> profiles = List.of("http://example.org/StructureDefinition/patient");
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      for (int i = 0; i < 1000; i++) {
+         boolean invalid = i % 10 == 0;
+         executor.execute(() -> summary.record("Patient", profiles,
+                 invalid ? result(ResultSeverityEnum.ERROR) : result()));
+      }
+      executor.shutdown();
+      Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+      Assert.assertEquals(summary.getTotal().getResources(), 1000);
+      Assert.assertEquals(summary.getTotal().getInvalid(), 100);
+      Assert.assertEquals(summary.getByProfile().get("http://example.org/StructureDefinition/patient").getIssues(ResultSeverityEnum.ERROR), 100);
+   }
+
+   @Test
+   public void TestWriteSummary() throws IOException {
+      ValidationSummary summary = new ValidationSummary();
+      summary.record("Patient", List.of("http://example.org/StructureDefinition/patient"), result(ResultSeverityEnum.ERROR));
+
+      Path path = Files.createTempDirectory("validation-summary").resolve(ValidationSummary.FILE_NAME);
+      summary.write(path);
+
+      JsonObject json = JsonParser.parseString(Files.readString(path, StandardCharsets.UTF_8)).getAsJsonObject();
+      Assert.assertEquals(json.getAsJsonObject("total").get("invalid").getAsLong(), 1);
+      Assert.assertEquals(json.getAsJsonObject("byProfile")
+              .getAsJsonObject("http://example.org/StructureDefinition/patient")
+              .getAsJsonObject("issuesBySeverity").get("error").getAsLong(), 1);
+   }
+}
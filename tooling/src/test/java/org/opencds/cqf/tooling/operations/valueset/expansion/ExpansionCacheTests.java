@@ -0,0 +1,82 @@
+package org.opencds.cqf.tooling.operations.valueset.expansion;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+public class ExpansionCacheTests {
+   private static final String TX_SERVER = "http://tx.example.org/fhir";
+
+   private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+   private ValueSet valueSet(String code) {
+      ValueSet valueSet = new ValueSet();
+      valueSet.setId("example");
+      valueSet.setUrl("http://example.org/fhir/ValueSet/example");
+      valueSet.getCompose().addInclude().setSystem("http://loinc.org").addConcept().setCode(code);
+      return valueSet;
+   }
+
+   private ValueSet expansion(String code) {
+      ValueSet expanded = valueSet(code);
+      expanded.getExpansion().addContains().setSystem("http://loinc.org").setCode(code);
+      return expanded;
+   }
+
+   @Test
+   public void TestKeyDependsOnDefinitionAndServer() throws IOException {
+      ExpansionCache cache = new ExpansionCache(Files.createTempDirectory("expansion-cache"), Duration.ofHours(1));
+      String key = cache.computeKey(fhirContext, valueSet("1234-5"), TX_SERVER);
+
+      ValueSet withMetadata = valueSet("1234-5");
+      withMetadata.setId("other");
+      withMetadata.getMeta().setVersionId("2");
+      withMetadata.getExpansion().addContains().setCode("1234-5");
+      assertEquals(cache.computeKey(fhirContext, withMetadata, TX_SERVER + "/"), key);
+      assertNotEquals(cache.computeKey(fhirContext, valueSet("6789-0"), TX_SERVER), key);
+      assertNotEquals(cache.computeKey(fhirContext, valueSet("1234-5"), "http://tx.fhir.org/r4"), key);
+   }
+
+   @Test
+   public void TestEntriesExpireAndCanBeInvalidated() throws IOException {
+      Path directory = Files.createTempDirectory("expansion-cache");
+      ExpansionCache cache = new ExpansionCache(directory, Duration.ofHours(1));
+      String first = cache.computeKey(fhirContext, valueSet("1234-5"), TX_SERVER);
+      String second = cache.computeKey(fhirContext, valueSet("6789-0"), TX_SERVER);
+
+      assertNull(cache.get(first, fhirContext));
+      cache.put(first, expansion("1234-5"), fhirContext);
+      cache.put(second, expansion("6789-0"), fhirContext);
+      ValueSet cached = (ValueSet) cache.get(first, fhirContext);
+      assertNotNull(cached);
+      assertEquals(cached.getExpansion().getContainsFirstRep().getCode(), "1234-5");
+
+      Files.setLastModifiedTime(directory.resolve(first + ".json"),
+              FileTime.fromMillis(System.currentTimeMillis() - Duration.ofHours(2).toMillis()));
+      assertNull(cache.get(first, fhirContext));
+
+      assertEquals(cache.invalidateAll(), 1);
+      assertNull(cache.get(second, fhirContext));
+      assertEquals(cache.getStatistics().getHitCount(), 1);
+      assertEquals(cache.getStatistics().getMissCount(), 3);
+      assertEquals(cache.getStatistics().getEvictionCount(), 1);
+      assertEquals(cache.getStatistics().getSize(), 0);
+   }
+
+   @Test
+   public void TestZeroTimeToLiveDisablesCache() throws IOException {
+      ExpansionCache cache = new ExpansionCache(Files.createTempDirectory("expansion-cache"), Duration.ZERO);
+      assertNull(cache.computeKey(fhirContext, valueSet("1234-5"), TX_SERVER));
+   }
+}
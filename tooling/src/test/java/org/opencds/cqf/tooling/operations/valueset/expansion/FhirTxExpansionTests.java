@@ -0,0 +1,147 @@
+package org.opencds.cqf.tooling.operations.valueset.expansion;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.opencds.cqf.tooling.utilities.HttpRetryPolicy;
+import org.opencds.cqf.tooling.utilities.cache.CacheStatistics;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class FhirTxExpansionTests {
+   private static final String EXPAND_URL = "/fhir/ValueSet/$expand";
+
+   private final FhirContext fhirContext = FhirContext.forR4Cached();
+   private WireMockServer server;
+
+   @BeforeMethod
+   public void setUp() {
+      server = new WireMockServer(options().dynamicPort());
+      server.start();
+   }
+
+   @AfterMethod
+   public void tearDown() {
+      server.stop();
+   }
+
+   private String expansion() {
+      ValueSet expanded = new ValueSet();
+      expanded.getExpansion().addContains().setSystem("http://loinc.org").setCode("1234-5");
+      return fhirContext.newJsonParser().encodeResourceToString(expanded);
+   }
+
+   private void writeValueSet(Path directory, String id) throws IOException {
+      ValueSet valueSet = new ValueSet();
+      valueSet.setId(id);
+      valueSet.setUrl("http://example.org/fhir/ValueSet/" + id);
+      valueSet.setVersion("1.0.0");
+      Files.write(directory.resolve(id + ".json"),
+              fhirContext.newJsonParser().encodeResourceToString(valueSet).getBytes(StandardCharsets.UTF_8));
+   }
+
+   private FhirTxExpansion expansionOperation(Path input, Path output) throws IOException {
+      FhirTxExpansion fhirTxExpansion = new FhirTxExpansion();
+      fhirTxExpansion.setPathToValueSet(input.toString());
+      fhirTxExpansion.setFhirServer("http://localhost:" + server.port() + "/fhir");
+      fhirTxExpansion.setEncoding("json");
+      fhirTxExpansion.setVersion("r4");
+      fhirTxExpansion.setOutputPath(output.toString());
+      fhirTxExpansion.setMaxConcurrentRequests(2);
+      fhirTxExpansion.setResume(false);
+      fhirTxExpansion.setRetryPolicy(new HttpRetryPolicy(2, 1, 10));
+      fhirTxExpansion.setExpansionCache(new ExpansionCache(Files.createTempDirectory("expansion-cache"), Duration.ofHours(1)));
+      return fhirTxExpansion;
+   }
+
+   @Test
+   public void TestResumeSkipsCompletedValueSets() throws IOException {
+      server.stubFor(post(urlEqualTo(EXPAND_URL)).willReturn(aResponse().withStatus(200)
+              .withHeader("Content-Type", "application/fhir+json").withBody(expansion())));
+      Path input = Files.createTempDirectory("valuesets");
+      Path output = Files.createTempDirectory("expansions");
+      writeValueSet(input, "first");
+      writeValueSet(input, "second");
+      writeValueSet(input, "third");
+      try (ExpansionCheckpoint checkpoint = new ExpansionCheckpoint(output.resolve(ExpansionCheckpoint.FILE_NAME))) {
+         checkpoint.markCompleted("http://example.org/fhir/ValueSet/first|1.0.0");
+      }
+
+      FhirTxExpansion fhirTxExpansion = expansionOperation(input, output);
+      fhirTxExpansion.setResume(true);
+      fhirTxExpansion.execute();
+
+      server.verify(2, postRequestedFor(urlEqualTo(EXPAND_URL)));
+      assertEquals(fhirTxExpansion.getExpandedCount(), 2);
+      assertEquals(fhirTxExpansion.getSkippedCount(), 1);
+      assertTrue(Files.exists(output.resolve("second.json")));
+      assertTrue(Files.exists(output.resolve("third.json")));
+      assertFalse(Files.exists(output.resolve(ExpansionCheckpoint.FILE_NAME)));
+   }
+
+   @Test
+   public void TestTransientFailuresAreRetried() throws IOException {
+      server.stubFor(post(urlEqualTo(EXPAND_URL)).inScenario("unavailable")
+              .whenScenarioStateIs(Scenario.STARTED)
+              .willReturn(aResponse().withStatus(503))
+              .willSetStateTo("available"));
+      server.stubFor(post(urlEqualTo(EXPAND_URL)).inScenario("unavailable")
+              .whenScenarioStateIs("available")
+              .willReturn(aResponse().withStatus(200)
+                      .withHeader("Content-Type", "application/fhir+json").withBody(expansion())));
+      Path input = Files.createTempDirectory("valuesets");
+      Path output = Files.createTempDirectory("expansions");
+      writeValueSet(input, "first");
+
+      FhirTxExpansion fhirTxExpansion = expansionOperation(input, output);
+      fhirTxExpansion.execute();
+
+      server.verify(2, postRequestedFor(urlEqualTo(EXPAND_URL)));
+      assertEquals(fhirTxExpansion.getExpandedCount(), 1);
+      assertEquals(fhirTxExpansion.getFailedCount(), 0);
+      assertTrue(Files.exists(output.resolve("first.json")));
+   }
+
+   @Test
+   public void TestUnchangedDefinitionsAreServedFromCache() throws IOException {
+      server.stubFor(post(urlEqualTo(EXPAND_URL)).willReturn(aResponse().withStatus(200)
+              .withHeader("Content-Type", "application/fhir+json").withBody(expansion())));
+      Path input = Files.createTempDirectory("valuesets");
+      writeValueSet(input, "first");
+      writeValueSet(input, "second");
+
+      FhirTxExpansion fhirTxExpansion = expansionOperation(input, Files.createTempDirectory("expansions"));
+      fhirTxExpansion.execute();
+      fhirTxExpansion.setOutputPath(Files.createTempDirectory("expansions").toString());
+      fhirTxExpansion.execute();
+
+      server.verify(2, postRequestedFor(urlEqualTo(EXPAND_URL)));
+      CacheStatistics statistics = fhirTxExpansion.getExpansionCache().getStatistics();
+      assertEquals(statistics.getHitCount(), 2);
+      assertEquals(statistics.getMissCount(), 2);
+      assertEquals(statistics.getSize(), 2);
+      assertTrue(Files.exists(Paths.get(fhirTxExpansion.getOutputPath(), "first.json")));
+
+      fhirTxExpansion.setInvalidateCache(true);
+      fhirTxExpansion.execute();
+      server.verify(4, postRequestedFor(urlEqualTo(EXPAND_URL)));
+   }
+}
@@ -0,0 +1,132 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.cql.ElmTranslationCache;
+import org.opencds.cqf.tooling.cql.exception.CQLTranslatorException;
+import org.opencds.cqf.tooling.library.LibraryProcessor;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ResourceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Compares resolving the ValueSets and dependency Libraries of the refreshIG test IG measure twice (once for the
+ * bundle and once for the "-files" folder, the previous behavior of AbstractResourceProcessor.bundleResources)
+ * against resolving a single {@link ArtifactDependencyClosure}. Timings are logged rather than asserted.
+ */
+public class ArtifactDependencyClosureIT {
+    private static final Logger logger = LoggerFactory.getLogger(ArtifactDependencyClosureIT.class);
+    private static final int ITERATIONS = 10;
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+    private Path igPath;
+    private String resourceDirectory;
+    private String librarySourcePath;
+    private String cqlSourcePath;
+    private String disabledProperty;
+
+    @BeforeClass
+    public void setUp() throws IOException, URISyntaxException {
+        disabledProperty = System.setProperty(ElmTranslationCache.CACHE_DISABLED_PROPERTY, "true");
+        Path source = Paths.get(ArtifactDependencyClosureIT.class
+                .getResource("/org/opencds/cqf/tooling/testfiles/refreshIG").toURI());
+        igPath = Files.createTempDirectory("dependency-closure").resolve("refreshIG");
+        FileUtils.copyDirectory(source.toFile(), igPath.toFile());
+
+        resourceDirectory = igPath.resolve("input").toString();
+        IOUtils.resourceDirectories.add(resourceDirectory);
+        librarySourcePath = igPath.resolve("input/resources/library/BreastCancerScreeningFHIR.json").toString();
+        cqlSourcePath = igPath.resolve("input/cql/BreastCancerScreeningFHIR.cql").toString();
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        if (disabledProperty == null) {
+            System.clearProperty(ElmTranslationCache.CACHE_DISABLED_PROPERTY);
+        } else {
+            System.setProperty(ElmTranslationCache.CACHE_DISABLED_PROPERTY, disabledProperty);
+        }
+        IOUtils.resourceDirectories.remove(resourceDirectory);
+        IOUtils.cleanUp();
+        ValueSetsProcessor.cleanUp();
+        ResourceUtils.cleanUp();
+        FileUtils.deleteDirectory(igPath.getParent().toFile());
+    }
+
+    // The previous behavior: the bundle and the -files folder each resolve the ValueSets and Libraries
+    private Map<String, IBaseResource> resolveTwice(Map<String, IBaseResource> filesResources) {
+        Map<String, IBaseResource> bundleResources = new HashMap<>();
+        try {
+            ValueSetsProcessor.bundleValueSets(cqlSourcePath, igPath.toString(), fhirContext, bundleResources, IOUtils.Encoding.JSON, true, false);
+        } catch (CQLTranslatorException e) {
+            logger.debug("Missing ValueSets: {}", e.getErrors());
+        }
+        new LibraryProcessor().bundleLibraryDependencies(librarySourcePath, fhirContext, bundleResources, IOUtils.Encoding.JSON, false);
+
+        try {
+            filesResources.putAll(ResourceUtils.getDepValueSetResources(cqlSourcePath, igPath.toString(), fhirContext, true, false));
+        } catch (CQLTranslatorException e) {
+            logger.debug("Missing ValueSets: {}", e.getErrors());
+        }
+        filesResources.putAll(ResourceUtils.getDepLibraryResources(librarySourcePath, fhirContext, IOUtils.Encoding.JSON, false, logger));
+        return bundleResources;
+    }
+
+    private Map<String, IBaseResource> resolveOnce(Map<String, IBaseResource> filesResources) {
+        ArtifactDependencyClosure closure = ArtifactDependencyClosure.resolve(librarySourcePath, cqlSourcePath, igPath.toString(),
+                fhirContext, IOUtils.Encoding.JSON, true, true, false);
+        Map<String, IBaseResource> bundleResources = new HashMap<>();
+        closure.addTo(bundleResources);
+        filesResources.putAll(closure.getValueSets());
+        filesResources.putAll(closure.getDirectLibraries());
+        return bundleResources;
+    }
+
+    @Test
+    public void TestSingleClosureBenchmark() {
+        // warm the resource, terminology and ELM caches shared by both approaches
+        resolveTwice(new HashMap<>());
+
+        long twiceNanos = 0;
+        long onceNanos = 0;
+        Map<String, IBaseResource> twiceBundle = null;
+        Map<String, IBaseResource> twiceFiles = new HashMap<>();
+        Map<String, IBaseResource> onceBundle = null;
+        Map<String, IBaseResource> onceFiles = new HashMap<>();
+        for (int i = 0; i < ITERATIONS; i++) {
+            ResourceUtils.clearDepValueSetResources();
+            long start = System.nanoTime();
+            twiceBundle = resolveTwice(twiceFiles);
+            twiceNanos += System.nanoTime() - start;
+
+            ResourceUtils.clearDepValueSetResources();
+            start = System.nanoTime();
+            onceBundle = resolveOnce(onceFiles);
+            onceNanos += System.nanoTime() - start;
+        }
+
+        logger.info("Resolved the dependencies of BreastCancerScreeningFHIR {} times: bundle and files separately {} ms, single closure {} ms",
+                ITERATIONS, twiceNanos / 1_000_000, onceNanos / 1_000_000);
+        assertFalse(onceBundle.isEmpty());
+        assertEquals(new TreeSet<>(onceBundle.keySet()), new TreeSet<>(twiceBundle.keySet()));
+        assertEquals(new TreeSet<>(onceFiles.keySet()), new TreeSet<>(twiceFiles.keySet()));
+    }
+}
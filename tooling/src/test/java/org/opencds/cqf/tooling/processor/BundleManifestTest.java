@@ -0,0 +1,116 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.Reference;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class BundleManifestTest {
+
+    private static final String OPTIONS = "deps=true|terminology=false";
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    private Path createIg() throws IOException {
+        Path igPath = Files.createTempDirectory("bundle-manifest");
+        Files.createDirectories(igPath.resolve("input/cql"));
+        Files.createDirectories(igPath.resolve("input/tests/measure/EXM125/patient-1"));
+        Files.writeString(igPath.resolve("input/cql/EXM125.cql"), "library EXM125");
+        Files.writeString(igPath.resolve("input/cql/EXM130.cql"), "library EXM130");
+        Files.writeString(igPath.resolve("input/cql/FHIRHelpers.cql"), "library FHIRHelpers");
+        Files.writeString(igPath.resolve("input/tests/measure/EXM125/patient-1/Patient-1.json"), "{}");
+        return igPath;
+    }
+
+    private void recordBundles(BundleManifest manifest, Path igPath) {
+        manifest.record("measure/EXM125", OPTIONS, List.of(igPath.resolve("input/cql/EXM125.cql").toString(),
+                igPath.resolve("input/cql/FHIRHelpers.cql").toString(), igPath.resolve("input/tests/measure/EXM125").toString()));
+        manifest.record("measure/EXM130", OPTIONS, List.of(igPath.resolve("input/cql/EXM130.cql").toString(),
+                igPath.resolve("input/cql/FHIRHelpers.cql").toString()));
+    }
+
+    @Test
+    public void TestUnchangedBundlesAreUpToDateAfterReload() throws IOException {
+        Path igPath = createIg();
+        BundleManifest manifest = BundleManifest.load(igPath.toString(), fhirContext);
+        assertFalse(manifest.isUpToDate("measure/EXM125", OPTIONS));
+
+        recordBundles(manifest, igPath);
+        manifest.save();
+        assertTrue(Files.isRegularFile(BundleManifest.getDefaultPath(igPath.toString())));
+
+        BundleManifest reloaded = BundleManifest.load(igPath.toString(), fhirContext);
+        assertEquals(reloaded.size(), 2);
+        assertTrue(reloaded.isUpToDate("measure/EXM125", OPTIONS));
+        assertTrue(reloaded.isUpToDate("measure/EXM130", OPTIONS));
+        assertFalse(reloaded.isUpToDate("measure/EXM125", "deps=false|terminology=false"));
+    }
+
+    @Test
+    public void TestChangedInputOnlyInvalidatesDependentBundles() throws IOException {
+        Path igPath = createIg();
+        BundleManifest manifest = BundleManifest.load(igPath.toString(), fhirContext);
+        recordBundles(manifest, igPath);
+        manifest.save();
+
+        Files.writeString(igPath.resolve("input/cql/EXM130.cql"), "library EXM130 version '2.0.0'");
+        BundleManifest reloaded = BundleManifest.load(igPath.toString(), fhirContext);
+        assertTrue(reloaded.isUpToDate("measure/EXM125", OPTIONS));
+        assertEquals(reloaded.getChangedInputs("measure/EXM130", OPTIONS), List.of("input/cql/EXM130.cql"));
+
+        Set<String> dependents = reloaded.getBundlesDependingOn(igPath.resolve("input/cql/FHIRHelpers.cql").toString());
+        assertEquals(dependents, Set.of("measure/EXM125", "measure/EXM130"));
+    }
+
+    @Test
+    public void TestAddedTestCaseInvalidatesBundle() throws IOException {
+        Path igPath = createIg();
+        BundleManifest manifest = BundleManifest.load(igPath.toString(), fhirContext);
+        recordBundles(manifest, igPath);
+        manifest.save();
+
+        Files.createDirectories(igPath.resolve("input/tests/measure/EXM125/patient-2"));
+        Files.writeString(igPath.resolve("input/tests/measure/EXM125/patient-2/Patient-2.json"), "{}");
+        BundleManifest reloaded = BundleManifest.load(igPath.toString(), fhirContext);
+        assertEquals(reloaded.getChangedInputs("measure/EXM125", OPTIONS), List.of("input/tests/measure/EXM125"));
+        assertTrue(reloaded.isUpToDate("measure/EXM130", OPTIONS));
+    }
+
+    @Test
+    public void TestRefreshedDateAndStampDoNotInvalidateBundle() throws IOException {
+        Path igPath = createIg();
+        Path measurePath = igPath.resolve("input/resources/measure/measure-EXM125.json");
+        Files.createDirectories(measurePath.getParent());
+        Measure measure = new Measure();
+        measure.setId("EXM125");
+        measure.setName("EXM125");
+        measure.setDate(new Date(0));
+        Files.writeString(measurePath, fhirContext.newJsonParser().encodeResourceToString(measure));
+
+        BundleManifest manifest = BundleManifest.load(igPath.toString(), fhirContext);
+        manifest.record("measure/EXM125", OPTIONS, List.of(measurePath.toString()));
+        manifest.save();
+
+        measure.setDate(new Date());
+        measure.addExtension("http://hl7.org/fhir/us/cqfmeasures/StructureDefinition/cqfm-softwaresystem", new Reference("Device/cqf-tooling"));
+        Files.writeString(measurePath, fhirContext.newJsonParser().setPrettyPrint(true).encodeResourceToString(measure));
+        assertTrue(BundleManifest.load(igPath.toString(), fhirContext).isUpToDate("measure/EXM125", OPTIONS));
+
+        measure.setName("EXM125v2");
+        Files.writeString(measurePath, fhirContext.newJsonParser().encodeResourceToString(measure));
+        assertEquals(BundleManifest.load(igPath.toString(), fhirContext).getChangedInputs("measure/EXM125", OPTIONS),
+                List.of("input/resources/measure/measure-EXM125.json"));
+    }
+}
@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.processor;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
 
@@ -174,6 +175,73 @@ public class IGProcessorTest extends RefreshTest {
 		}
 	}
 
+	@Test
+	void testIncrementalRefreshIGLeavesBundlesUnchanged() throws Exception {
+		copyResourcesToTargetDir("target" + separator + "refreshIG", "testfiles/refreshIG");
+		processor.publishIG(getIncrementalParameters());
+
+		// the second refresh updates the date and stamp of the refreshed resources, but nothing they are bundled from
+		resetRefresh();
+		processor.publishIG(getIncrementalParameters());
+
+		String output = console.toString();
+		assertTrue(output.contains("0 Measure(s) successfully bundled:"), output);
+		assertFalse(output.contains("0 Measure(s) unchanged since the last bundle:"), output);
+		assertTrue(output.contains(" UNCHANGED"), output);
+	}
+
+	@Test
+	void testIncrementalRefreshIGRebuildsBundlesWhenLinkingChanges() throws Exception {
+		copyResourcesToTargetDir("target" + separator + "refreshIG", "testfiles/refreshIG");
+		Path filesPath = Paths.get("target", "refreshIG", "bundles", "measure", "BreastCancerScreeningFHIR", "BreastCancerScreeningFHIR-files");
+		Path libraryDeps = filesPath.resolve("library-deps-BreastCancerScreeningFHIR-bundle.json");
+		processor.publishIG(getIncrementalParameters());
+		assertTrue(Files.exists(libraryDeps));
+
+		// linked bundle files place the dependencies as a file per resource, so the bundles are rebuilt
+		resetRefresh();
+		RefreshIGParameters linkedParams = getIncrementalParameters();
+		linkedParams.linkBundleFiles = true;
+		processor.publishIG(linkedParams);
+		String output = console.toString();
+		assertFalse(output.contains("0 Measure(s) successfully bundled:"), output);
+		assertFalse(Files.exists(libraryDeps));
+		try (DirectoryStream<Path> libraries = Files.newDirectoryStream(filesPath, "Library-*.json")) {
+			assertTrue(libraries.iterator().hasNext(), "no dependency Library files in " + filesPath);
+		}
+
+		// and rebuilt again when linking is dropped
+		resetRefresh();
+		processor.publishIG(getIncrementalParameters());
+		output = console.toString();
+		assertFalse(output.contains("0 Measure(s) successfully bundled:"), output);
+		assertTrue(Files.exists(libraryDeps));
+	}
+
+	private void resetRefresh() {
+		IOUtils.resourceDirectories = new ArrayList<>();
+		IOUtils.clearDevicePaths();
+		IOUtils.cleanUp();
+		ValueSetsProcessor.cleanUp();
+		console.reset();
+	}
+
+	private RefreshIGParameters getIncrementalParameters() {
+		RefreshIGParameters params = new RefreshIGParameters();
+		params.ini = INI_LOC;
+		params.outputEncoding = IOUtils.Encoding.JSON;
+		params.resourceDirs = new ArrayList<>();
+		params.includeELM = false;
+		params.includeTerminology = false;
+		params.includeDependencies = true;
+		params.includePatientScenarios = true;
+		params.versioned = false;
+		params.shouldApplySoftwareSystemStamp = true;
+		params.addBundleTimestamp = false;
+		params.incrementalBundle = true;
+		return params;
+	}
+
 	private void testTimestamp(Map<?, ?> bundledJson) throws ParseException {
 		String timeStamp = (String)bundledJson.get("timestamp");
 		assertNotNull(timeStamp);
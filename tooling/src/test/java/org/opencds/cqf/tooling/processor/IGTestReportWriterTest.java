@@ -0,0 +1,79 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.opencds.cqf.tooling.processor.IGTestProcessor.TestCaseResultSummary;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class IGTestReportWriterTest {
+
+    private List<TestCaseResultSummary> getResults() {
+        IGTestProcessor processor = new IGTestProcessor();
+
+        TestCaseResultSummary passed = processor.new TestCaseResultSummary("measure", "EXM125", "tests-numer-EXM125");
+        passed.setTestPassed(true);
+        passed.setDurationMillis(1200);
+
+        TestCaseResultSummary failed = processor.new TestCaseResultSummary("measure", "EXM125", "tests-denom-EXM125");
+        failed.setTestPassed(false);
+        failed.setMessage("Did not match expected value: Group[group-1].score");
+        failed.setDurationMillis(800);
+
+        TestCaseResultSummary error = processor.new TestCaseResultSummary("measure", "EXM130", "tests-numer-EXM130");
+        error.setTestPassed(false);
+        error.setError(true);
+        error.setMessage("Measure EXM130 is not in the content bundle <bundle>");
+
+        return List.of(passed, failed, error);
+    }
+
+    @Test
+    public void TestJUnitXmlReport() throws Exception {
+        Path path = Files.createTempDirectory("ig-test-report").resolve(IGTestReportWriter.JUNIT_FILE_NAME);
+        new IGTestReportWriter(getResults(), 1500).writeJUnitXml(path);
+
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(path.toFile());
+        Element testSuites = document.getDocumentElement();
+        assertEquals(testSuites.getAttribute("tests"), "3");
+        assertEquals(testSuites.getAttribute("failures"), "1");
+        assertEquals(testSuites.getAttribute("errors"), "1");
+        assertEquals(testSuites.getAttribute("time"), "1.500");
+
+        assertEquals(document.getElementsByTagName("testsuite").getLength(), 2);
+        Element firstSuite = (Element) document.getElementsByTagName("testsuite").item(0);
+        assertEquals(firstSuite.getAttribute("name"), "measure/EXM125");
+        assertEquals(firstSuite.getAttribute("time"), "2.000");
+        assertEquals(document.getElementsByTagName("testcase").getLength(), 3);
+        Element error = (Element) document.getElementsByTagName("error").item(0);
+        assertEquals(error.getAttribute("message"), "Measure EXM130 is not in the content bundle <bundle>");
+    }
+
+    @Test
+    public void TestJsonReport() throws IOException {
+        Path path = Files.createTempDirectory("ig-test-report").resolve(IGTestReportWriter.JSON_FILE_NAME);
+        new IGTestReportWriter(getResults(), 1500).writeJson(path);
+
+        JsonObject report = JsonParser.parseString(new String(Files.readAllBytes(path), StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals(report.get("tests").getAsInt(), 3);
+        assertEquals(report.get("passed").getAsInt(), 1);
+        assertEquals(report.get("failed").getAsInt(), 1);
+        assertEquals(report.get("errors").getAsInt(), 1);
+        JsonObject failed = report.getAsJsonArray("testCases").get(1).getAsJsonObject();
+        assertEquals(failed.get("durationMillis").getAsLong(), 800);
+        assertTrue(failed.get("message").getAsString().contains("Group[group-1].score"));
+    }
+}
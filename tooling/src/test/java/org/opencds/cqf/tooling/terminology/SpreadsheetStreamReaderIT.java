@@ -0,0 +1,87 @@
+package org.opencds.cqf.tooling.terminology;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+/**
+ * Compares the time and peak heap used to read every cell of the test spreadsheets with the workbook model and with
+ * the {@link SpreadsheetStreamReader}. Timings and heap use are logged rather than asserted, as they depend on the JVM;
+ * the cells read are asserted to be the same.
+ */
+public class SpreadsheetStreamReaderIT {
+    private static final Logger logger = LoggerFactory.getLogger(SpreadsheetStreamReaderIT.class);
+    private static final int ITERATIONS = 5;
+
+    @Test
+    public void TestBenchmarkAgainstWorkbook() throws IOException {
+        // warm up both readers so class loading is not measured
+        Map<String, Map<String, List<String>>> expected = new LinkedHashMap<>();
+        for (String path : SpreadsheetStreamReaderTests.SPREADSHEETS) {
+            expected.put(path, SpreadsheetStreamReaderTests.readWithWorkbook(path));
+            SpreadsheetStreamReaderTests.readWithStreamReader(path);
+        }
+
+        Map<String, Map<String, List<String>>> fromWorkbook = new LinkedHashMap<>();
+        long[] workbook = measure(() -> {
+            for (int i = 0; i < ITERATIONS; i++) {
+                for (String path : SpreadsheetStreamReaderTests.SPREADSHEETS) {
+                    try {
+                        fromWorkbook.put(path, SpreadsheetStreamReaderTests.readWithWorkbook(path));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        });
+        Map<String, Map<String, List<String>>> fromStream = new LinkedHashMap<>();
+        long[] streamed = measure(() -> {
+            for (int i = 0; i < ITERATIONS; i++) {
+                for (String path : SpreadsheetStreamReaderTests.SPREADSHEETS) {
+                    fromStream.put(path, SpreadsheetStreamReaderTests.readWithStreamReader(path));
+                }
+            }
+        });
+
+        logger.info("Workbook model: {} ms, peak heap {} KiB", workbook[0], workbook[1] / 1024);
+        logger.info("Stream reader:  {} ms, peak heap {} KiB", streamed[0], streamed[1] / 1024);
+        assertEquals(fromWorkbook, expected);
+        assertEquals(fromStream, expected);
+    }
+
+    // Returns the elapsed milliseconds and the growth of the peak heap use (over the use before the task) in bytes
+    private static long[] measure(Runnable task) {
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                heapPools.add(pool);
+            }
+        }
+        long baseline = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+            baseline += pool.getUsage().getUsed();
+        }
+
+        long start = System.nanoTime();
+        task.run();
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        return new long[] { elapsed, Math.max(0, peak - baseline) };
+    }
+}
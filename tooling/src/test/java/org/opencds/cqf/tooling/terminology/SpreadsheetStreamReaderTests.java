@@ -0,0 +1,113 @@
+package org.opencds.cqf.tooling.terminology;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class SpreadsheetStreamReaderTests {
+    static final String[] SPREADSHEETS = {
+            "src/test/resources/acceleratorkit/WHO-ANC-mini.xlsx",
+            "src/test/resources/acceleratorkit/DTR.xlsx",
+            "src/test/resources/acceleratorkit/ANC Test Cases-mini.xlsx",
+            "src/test/resources/org/opencds/cqf/tooling/testfiles/SpreadsheetToCQLOperation/CQLv151ChangesApplied.xlsx"
+    };
+
+    @DataProvider
+    public Object[][] spreadsheets() {
+        Object[][] result = new Object[SPREADSHEETS.length][];
+        for (int i = 0; i < SPREADSHEETS.length; i++) {
+            result[i] = new Object[] { SPREADSHEETS[i] };
+        }
+        return result;
+    }
+
+    static Map<String, List<String>> readWithWorkbook(String path) throws IOException {
+        Map<String, List<String>> sheets = new LinkedHashMap<>();
+        try (Workbook workbook = SpreadsheetHelper.getWorkbook(path)) {
+            for (Sheet sheet : workbook) {
+                List<String> rows = new ArrayList<>();
+                for (Row row : sheet) {
+                    StringBuilder cells = new StringBuilder();
+                    for (Cell cell : row) {
+                        String value = SpreadsheetHelper.getCellAsString(row, cell.getColumnIndex());
+                        if (value != null && !value.isEmpty()) {
+                            cells.append(cell.getColumnIndex()).append('=').append(value).append('|');
+                        }
+                    }
+                    if (cells.length() > 0) {
+                        rows.add(row.getRowNum() + ":" + cells);
+                    }
+                }
+                sheets.put(sheet.getSheetName(), rows);
+            }
+        }
+        return sheets;
+    }
+
+    static Map<String, List<String>> readWithStreamReader(String path) {
+        Map<String, List<String>> sheets = new LinkedHashMap<>();
+        try (SpreadsheetStreamReader reader = new SpreadsheetStreamReader(path)) {
+            for (String sheetName : reader.getSheetNames()) {
+                List<String> rows = new ArrayList<>();
+                reader.readSheet(sheetName, row -> {
+                    StringBuilder cells = new StringBuilder();
+                    for (Integer columnIndex : row.getCells().keySet()) {
+                        String value = row.getCellAsString(columnIndex);
+                        if (value != null && !value.isEmpty()) {
+                            cells.append(columnIndex).append('=').append(value).append('|');
+                        }
+                    }
+                    if (cells.length() > 0) {
+                        rows.add(row.getRowNum() + ":" + cells);
+                    }
+                });
+                sheets.put(sheetName, rows);
+            }
+        }
+        return sheets;
+    }
+
+    @Test(dataProvider = "spreadsheets")
+    public void TestStreamedRowsMatchWorkbook(String path) throws IOException {
+        Map<String, List<String>> expected = readWithWorkbook(path);
+        Map<String, List<String>> actual = readWithStreamReader(path);
+        assertEquals(actual.keySet(), expected.keySet());
+        for (String sheetName : expected.keySet()) {
+            assertEquals(actual.get(sheetName), expected.get(sheetName), sheetName);
+        }
+    }
+
+    @Test
+    public void TestHeaderIndexAndSheetLookup() {
+        try (SpreadsheetStreamReader reader = new SpreadsheetStreamReader(SPREADSHEETS[0])) {
+            assertTrue(reader.hasSheet("CONFIG"));
+            assertFalse(reader.readSheet("No Such Sheet", row -> { }));
+
+            List<SheetRow> rows = new ArrayList<>();
+            reader.readSheet("ANC.A. Registration", row -> {
+                if (row.getRowNum() == 1) {
+                    rows.add(row);
+                }
+            });
+            assertEquals(rows.size(), 1);
+            Map<String, Integer> headers = rows.get(0).getHeaderIndex(String::toLowerCase);
+            assertTrue(headers.containsKey("[anc] data element id"));
+            int column = headers.get("[anc] data element id");
+            assertEquals(rows.get(0).getCellAsString(column), "[ANC] Data Element ID");
+            assertEquals(rows.get(0).getCellAsString(-1), null);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class BundleCoalescerTests {
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+    private WireMockServer server;
+    private String fhirUri;
+
+    @BeforeMethod
+    public void setUp() {
+        server = new WireMockServer(options().dynamicPort());
+        server.start();
+        fhirUri = "http://localhost:" + server.port() + "/fhir";
+        HttpClientUtils.setRetryPolicy(HttpRetryPolicy.none());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        server.stop();
+        HttpClientUtils.setRetryPolicy(null);
+    }
+
+    private Bundle bundle(String... libraryIds) {
+        Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+        for (String id : libraryIds) {
+            Library library = new Library();
+            library.setId("http://example.org/fhir/Library/" + id + "/_history/1");
+            library.setName(id);
+            bundle.addEntry().setResource(library);
+        }
+        return bundle;
+    }
+
+    private String batchResponse(String... statuses) {
+        Bundle response = new Bundle().setType(Bundle.BundleType.BATCHRESPONSE);
+        for (String status : statuses) {
+            Bundle.BundleEntryResponseComponent entryResponse = response.addEntry().getResponse().setStatus(status);
+            if (!status.startsWith("2")) {
+                OperationOutcome outcome = new OperationOutcome();
+                outcome.addIssue().setDiagnostics("Library is invalid");
+                entryResponse.setOutcome(outcome);
+            }
+        }
+        return fhirContext.newJsonParser().encodeResourceToString(response);
+    }
+
+    @Test
+    public void TestResourcesAreDeduplicatedAndCapped() {
+        BundleCoalescer coalescer = new BundleCoalescer(fhirContext, false, 2, BundleCoalescer.DEFAULT_MAX_BYTES);
+        coalescer.addBundle(bundle("a", "b"));
+        coalescer.addBundle(bundle("b", "c"));
+        coalescer.addResource(new Library());
+
+        assertEquals(coalescer.getResourceCount(), 3);
+        assertEquals(coalescer.getDuplicateCount(), 1);
+        assertEquals(coalescer.getSkippedCount(), 1);
+
+        List<IBaseResource> bundles = coalescer.getBundles();
+        assertEquals(bundles.size(), 2);
+        Bundle first = (Bundle) bundles.get(0);
+        assertEquals(first.getType(), Bundle.BundleType.BATCH);
+        assertEquals(first.getEntry().size(), 2);
+        assertEquals(first.getEntry().get(0).getRequest().getMethod(), Bundle.HTTPVerb.PUT);
+        assertEquals(first.getEntry().get(0).getRequest().getUrl(), "Library/a");
+        assertEquals(((Bundle) bundles.get(1)).getEntry().get(0).getRequest().getUrl(), "Library/c");
+    }
+
+    @Test
+    public void TestBundlesAreCappedBySize() {
+        long librarySize = fhirContext.newJsonParser().encodeResourceToString(bundle("a").getEntryFirstRep().getResource()).length();
+        BundleCoalescer coalescer = new BundleCoalescer(fhirContext, true, 100, librarySize * 2);
+        coalescer.addBundle(bundle("a", "b", "c", "d", "e"));
+
+        List<IBaseResource> bundles = coalescer.getBundles();
+        assertEquals(bundles.size(), 3);
+        assertEquals(((Bundle) bundles.get(0)).getType(), Bundle.BundleType.TRANSACTION);
+    }
+
+    @Test
+    public void TestEntryOutcomesAreReported() throws IOException {
+        server.stubFor(post(urlEqualTo("/fhir")).willReturn(aResponse().withStatus(200)
+                .withHeader("Content-Type", "application/fhir+json")
+                .withBody(batchResponse("201 Created", "400 Bad Request", "200 OK"))));
+        Path journalDir = Files.createTempDirectory("coalesce");
+        PostFailureJournal journal = PostFailureJournal.forDirectory(journalDir.toString());
+
+        BundleCoalescer coalescer = new BundleCoalescer(fhirContext, false);
+        coalescer.addBundle(bundle("a", "b"));
+        coalescer.addBundle(bundle("c"));
+        assertEquals(coalescer.post(fhirUri, IOUtils.Encoding.JSON), 1);
+        HttpClientUtils.postTaskCollection(journal);
+
+        server.verify(1, postRequestedFor(urlEqualTo("/fhir")));
+        List<BundleCoalescer.EntryOutcome> outcomes = coalescer.getOutcomes();
+        assertEquals(outcomes.size(), 3);
+        assertTrue(outcomes.get(0).isSuccessful());
+        assertFalse(outcomes.get(1).isSuccessful());
+        assertEquals(outcomes.get(1).getKey(), "Library/b");
+        assertEquals(outcomes.get(1).getStatusCode(), 400);
+        assertEquals(outcomes.get(1).getMessage(), "Library is invalid");
+        assertEquals(journal.getFailedKeys(fhirUri), Collections.singleton("Library/b"));
+    }
+
+    @Test
+    public void TestFailedTransactionJournalsEveryEntry() throws IOException {
+        server.stubFor(post(urlEqualTo("/fhir")).willReturn(aResponse().withStatus(422)));
+        Path journalDir = Files.createTempDirectory("coalesce");
+        PostFailureJournal journal = PostFailureJournal.forDirectory(journalDir.toString());
+
+        BundleCoalescer coalescer = new BundleCoalescer(fhirContext, true);
+        coalescer.addBundle(bundle("a", "b"));
+        coalescer.post(fhirUri, IOUtils.Encoding.JSON);
+        HttpClientUtils.postTaskCollection(journal);
+
+        assertTrue(coalescer.getOutcomes().isEmpty());
+        assertEquals(journal.getFailedKeys(fhirUri), new HashSet<>(List.of("Library/a", "Library/b")));
+    }
+
+    @Test
+    public void TestCoalescingReducesRequests() throws IOException {
+        // Against a mock endpoint with a fixed per-request latency, 200 single-resource bundles take 200 requests
+        // one by one and 1 request once coalesced
+        String[] statuses = new String[200];
+        Arrays.fill(statuses, "200 OK");
+        server.stubFor(post(urlEqualTo("/fhir")).willReturn(aResponse().withStatus(200).withFixedDelay(20)
+                .withBody(batchResponse(statuses))));
+        BundleCoalescer coalescer = new BundleCoalescer(fhirContext, false);
+        for (int i = 0; i < 200; i++) {
+            coalescer.addBundle(bundle("library-" + i));
+        }
+
+        coalescer.post(fhirUri, IOUtils.Encoding.JSON);
+        HttpClientUtils.postTaskCollection(null);
+
+        server.verify(1, postRequestedFor(urlEqualTo("/fhir")));
+        assertTrue(coalescer.getOutcomes().stream().allMatch(BundleCoalescer.EntryOutcome::isSuccessful));
+    }
+}
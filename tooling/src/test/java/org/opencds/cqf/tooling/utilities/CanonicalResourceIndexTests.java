@@ -0,0 +1,50 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import org.hl7.fhir.r4.model.ValueSet;
+import org.testng.annotations.Test;
+
+public class CanonicalResourceIndexTests {
+    private static final String URL = "http://example.org/fhir/ValueSet/example";
+
+    private ValueSet valueSet(String version) {
+        ValueSet valueSet = new ValueSet();
+        valueSet.setUrl(URL);
+        valueSet.setVersion(version);
+        return valueSet;
+    }
+
+    @Test
+    public void TestLookupByUrlAndVersion() {
+        ValueSet first = valueSet("1.0.0");
+        ValueSet second = valueSet("2.0.0");
+        CanonicalResourceIndex index = new CanonicalResourceIndex();
+        index.add(first.getUrl(), first.getVersion(), first);
+        index.add(second.getUrl(), second.getVersion(), second);
+
+        assertEquals(index.size(), 1);
+        assertSame(index.get(URL), first);
+        assertSame(index.get(URL + "|"), first);
+        assertSame(index.get(URL + "|1.0.0"), first);
+        assertSame(index.get(URL + "|2.0.0"), second);
+        assertNull(index.get(URL + "|3.0.0"));
+        assertFalse(index.contains("http://example.org/fhir/ValueSet/other"));
+        assertSame(index.getByUrl().get(URL), first);
+    }
+
+    @Test
+    public void TestUnversionedResourcesAreOnlyFoundByUrl() {
+        ValueSet unversioned = valueSet(null);
+        CanonicalResourceIndex index = new CanonicalResourceIndex();
+        index.add(unversioned.getUrl(), unversioned.getVersion(), unversioned);
+        index.add(null, null, new ValueSet());
+
+        assertEquals(index.size(), 1);
+        assertSame(index.get(URL), unversioned);
+        assertNull(index.get(URL + "|1.0.0"));
+    }
+}
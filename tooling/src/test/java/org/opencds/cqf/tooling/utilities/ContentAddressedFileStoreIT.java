@@ -0,0 +1,110 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FilenameUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Compares the time and disk space used to place the dependency Libraries and ValueSets shared by the artifacts of an
+ * IG as bundles per artifact and as files linked from a {@link ContentAddressedFileStore}. Timings and sizes are
+ * logged rather than asserted, as they depend on the file system; every artifact is asserted to get every dependency.
+ */
+public class ContentAddressedFileStoreIT {
+    private static final Logger logger = LoggerFactory.getLogger(ContentAddressedFileStoreIT.class);
+    private static final int ARTIFACTS = 50;
+    private static final int VALUE_SETS = 40;
+    private static final int LIBRARIES = 5;
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    @Test
+    public void TestBenchmarkSharedDependencies() throws IOException {
+        List<IBaseResource> valueSets = new ArrayList<>();
+        for (int i = 0; i < VALUE_SETS; i++) {
+            ValueSet valueSet = new ValueSet();
+            valueSet.setId("value-set-" + i);
+            valueSet.setUrl("http://example.org/fhir/ValueSet/value-set-" + i);
+            valueSet.setStatus(Enumerations.PublicationStatus.ACTIVE);
+            for (int code = 0; code < 100; code++) {
+                valueSet.getExpansion().addContains().setSystem("http://loinc.org").setCode(i + "-" + code).setDisplay("Code " + code);
+            }
+            valueSets.add(valueSet);
+        }
+        List<IBaseResource> libraries = new ArrayList<>();
+        for (int i = 0; i < LIBRARIES; i++) {
+            Library library = new Library();
+            library.setId("library-" + i);
+            library.setUrl("http://example.org/fhir/Library/library-" + i);
+            library.addContent().setContentType("text/cql").setData(("library Library" + i + " version '1.0.0'\n".repeat(200)).getBytes());
+            libraries.add(library);
+        }
+
+        Path bundled = Files.createTempDirectory("bundled-dependencies");
+        long bundledStart = System.nanoTime();
+        for (int i = 0; i < ARTIFACTS; i++) {
+            String filesPath = Files.createDirectories(bundled.resolve("EXM" + i + "-files")).toString();
+            IOUtils.writeBundle(BundleUtils.bundleArtifacts("valuesets-EXM" + i + "-bundle", valueSets, fhirContext, false), filesPath, IOUtils.Encoding.JSON, fhirContext);
+            IOUtils.writeBundle(BundleUtils.bundleArtifacts("library-deps-EXM" + i, libraries, fhirContext, false), filesPath, IOUtils.Encoding.JSON, fhirContext);
+        }
+        long bundledTime = (System.nanoTime() - bundledStart) / 1_000_000;
+
+        Path linked = Files.createTempDirectory("linked-dependencies");
+        ContentAddressedFileStore store = ContentAddressedFileStore.forIg(linked.toString());
+        long linkedStart = System.nanoTime();
+        for (int i = 0; i < ARTIFACTS; i++) {
+            String filesPath = Files.createDirectories(linked.resolve("bundles/EXM" + i + "-files")).toString();
+            for (List<IBaseResource> resources : List.of(valueSets, libraries)) {
+                for (IBaseResource resource : resources) {
+                    String fileName = IOUtils.formatFileName(resource.fhirType() + "-" + resource.getIdElement().getIdPart(), IOUtils.Encoding.JSON, fhirContext);
+                    assertTrue(store.writeFile(IOUtils.encodeResource(resource, IOUtils.Encoding.JSON, fhirContext, true), FilenameUtils.concat(filesPath, fileName)));
+                }
+            }
+        }
+        long linkedTime = (System.nanoTime() - linkedStart) / 1_000_000;
+
+        logger.info("Bundles per artifact: {} ms, {} KiB on disk", bundledTime, diskSize(bundled) / 1024);
+        logger.info("Linked from the store: {} ms, {} KiB on disk ({} linked, {} copied)", linkedTime, diskSize(linked) / 1024,
+                store.getLinkedCount(), store.getCopiedCount());
+        assertEquals(store.getStoredCount(), VALUE_SETS + LIBRARIES);
+        try (Stream<Path> files = Files.list(linked.resolve("bundles/EXM0-files"))) {
+            assertEquals(files.count(), VALUE_SETS + LIBRARIES);
+        }
+    }
+
+    // The size of the distinct files under the path, counting linked files once
+    private static long diskSize(Path path) throws IOException {
+        Set<Object> seen = new HashSet<>();
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    Object key = attributes.fileKey() != null ? attributes.fileKey() : file;
+                    return seen.add(key) ? attributes.size() : 0;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).sum();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.annotations.Test;
+
+public class ContentAddressedFileStoreTests {
+
+    @Test
+    public void TestSharedContentIsStoredOnce() throws IOException {
+        Path igPath = Files.createTempDirectory("content-store");
+        Path cql = Files.writeString(igPath.resolve("FHIRHelpers.cql"), "library FHIRHelpers version '4.0.1'");
+        Path copy = Files.writeString(igPath.resolve("FHIRHelpers-copy.cql"), "library FHIRHelpers version '4.0.1'");
+        Path first = Files.createDirectories(igPath.resolve("bundles/measure/EXM125/EXM125-files"));
+        Path second = Files.createDirectories(igPath.resolve("bundles/measure/EXM130/EXM130-files"));
+
+        ContentAddressedFileStore store = ContentAddressedFileStore.forIg(igPath.toString());
+        assertTrue(store.copyFile(cql.toString(), first.resolve("FHIRHelpers.cql").toString()));
+        assertTrue(store.copyFile(copy.toString(), second.resolve("FHIRHelpers.cql").toString()));
+        // placing the file again replaces it
+        assertTrue(store.copyFile(cql.toString(), second.resolve("FHIRHelpers.cql").toString()));
+
+        assertEquals(store.getStoredCount(), 1);
+        assertEquals(store.getLinkedCount() + store.getCopiedCount(), 3);
+        assertEquals(Files.readString(first.resolve("FHIRHelpers.cql")), "library FHIRHelpers version '4.0.1'");
+        assertEquals(Files.readString(second.resolve("FHIRHelpers.cql")), "library FHIRHelpers version '4.0.1'");
+        if (store.getLinkedCount() > 0) {
+            assertTrue(Files.isSameFile(first.resolve("FHIRHelpers.cql"), second.resolve("FHIRHelpers.cql")));
+        }
+        // the source is never linked, so editing it does not change the bundles
+        assertFalse(Files.isSameFile(cql, first.resolve("FHIRHelpers.cql")));
+    }
+
+    @Test
+    public void TestChangedSourceIsStoredAgain() throws IOException {
+        Path igPath = Files.createTempDirectory("content-store");
+        Path cql = Files.writeString(igPath.resolve("EXM125.cql"), "library EXM125 version '1.0.0'");
+        Path dest = Files.createDirectories(igPath.resolve("bundles/EXM125-files")).resolve("EXM125.cql");
+
+        ContentAddressedFileStore store = ContentAddressedFileStore.forIg(igPath.toString());
+        assertTrue(store.copyFile(cql.toString(), dest.toString()));
+        Files.writeString(cql, "library EXM125 version '2.0.0'");
+        assertTrue(cql.toFile().setLastModified(cql.toFile().lastModified() + 2000));
+        assertTrue(store.copyFile(cql.toString(), dest.toString()));
+
+        assertEquals(store.getStoredCount(), 2);
+        assertEquals(Files.readString(dest), "library EXM125 version '2.0.0'");
+    }
+
+    @Test
+    public void TestWrittenContentIsStoredOnce() throws IOException {
+        Path igPath = Files.createTempDirectory("content-store");
+        Path first = Files.createDirectories(igPath.resolve("bundles/measure/EXM125/EXM125-files"));
+        Path second = Files.createDirectories(igPath.resolve("bundles/measure/EXM130/EXM130-files"));
+        byte[] valueSet = "{ \"resourceType\": \"ValueSet\", \"id\": \"screening-tests\" }".getBytes(StandardCharsets.UTF_8);
+
+        ContentAddressedFileStore store = ContentAddressedFileStore.forIg(igPath.toString());
+        assertTrue(store.writeFile(valueSet, first.resolve("ValueSet-screening-tests.json").toString()));
+        assertTrue(store.writeFile(valueSet.clone(), second.resolve("ValueSet-screening-tests.json").toString()));
+
+        assertEquals(store.getStoredCount(), 1);
+        assertEquals(Files.readAllBytes(second.resolve("ValueSet-screening-tests.json")), valueSet);
+        assertFalse(store.writeFile(null, first.resolve("ValueSet-missing.json").toString()));
+    }
+
+    @Test
+    public void TestStoredFileModifiedInPlaceIsStoredAgain() throws IOException {
+        Path igPath = Files.createTempDirectory("content-store");
+        Path cql = Files.writeString(igPath.resolve("FHIRHelpers.cql"), "library FHIRHelpers version '4.0.1'");
+        Path first = Files.createDirectories(igPath.resolve("bundles/EXM125-files")).resolve("FHIRHelpers.cql");
+        Path second = Files.createDirectories(igPath.resolve("bundles/EXM130-files")).resolve("FHIRHelpers.cql");
+
+        ContentAddressedFileStore store = ContentAddressedFileStore.forIg(igPath.toString());
+        assertTrue(store.copyFile(cql.toString(), first.toString()));
+        // an edit of the same size through the link changes the stored content too
+        Files.writeString(first, "library FHIRHelpers version '4.0.2'");
+        assertTrue(first.toFile().setLastModified(first.toFile().lastModified() + 2000));
+        assertTrue(store.copyFile(cql.toString(), second.toString()));
+
+        assertEquals(Files.readString(second), "library FHIRHelpers version '4.0.1'");
+        assertEquals(store.getStoredCount(), store.getLinkedCount() > 0 ? 2 : 1);
+    }
+
+    @Test
+    public void TestMissingSourceIsNotPlaced() throws IOException {
+        Path igPath = Files.createTempDirectory("content-store");
+        ContentAddressedFileStore store = ContentAddressedFileStore.forIg(igPath.toString());
+        assertFalse(store.copyFile(igPath.resolve("missing.cql").toString(), igPath.resolve("dest.cql").toString()));
+        assertFalse(store.copyFile(null, igPath.resolve("dest.cql").toString()));
+    }
+}
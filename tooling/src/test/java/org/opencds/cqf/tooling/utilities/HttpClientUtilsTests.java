@@ -0,0 +1,177 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.matchingJsonPath;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.http.client.utils.DateUtils;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class HttpClientUtilsTests {
+    private static final int RESPONSE_DELAY_MILLIS = 300;
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+    private WireMockServer server;
+    private String fhirUri;
+
+    @BeforeMethod
+    public void setUp() {
+        server = new WireMockServer(options().dynamicPort());
+        server.start();
+        server.stubFor(post(urlEqualTo("/fhir")).willReturn(aResponse().withStatus(200)
+                .withFixedDelay(RESPONSE_DELAY_MILLIS).withBody("{\"resourceType\":\"Bundle\",\"type\":\"batch-response\"}")));
+        fhirUri = "http://localhost:" + server.port() + "/fhir";
+        HttpClientUtils.setRetryPolicy(new HttpRetryPolicy(2, 10, 20));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        server.stop();
+        HttpClientUtils.setMaxConcurrentPosts(10);
+        HttpClientUtils.setRetryPolicy(null);
+    }
+
+    private Bundle bundle(String id) {
+        Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+        bundle.setId(id);
+        Patient patient = new Patient();
+        patient.setId(id + "-patient");
+        patient.addName().setFamily("Ünïcödé");
+        bundle.addEntry().setResource(patient);
+        return bundle;
+    }
+
+    @Test
+    public void TestPostsAreMadeConcurrently() throws IOException {
+        HttpClientUtils.setMaxConcurrentPosts(5);
+        for (int i = 0; i < 10; i++) {
+            HttpClientUtils.post(fhirUri, bundle("bundle-" + i), IOUtils.Encoding.JSON, fhirContext);
+        }
+        assertTrue(HttpClientUtils.hasPostTasksInQueue());
+
+        long start = System.currentTimeMillis();
+        HttpClientUtils.postTaskCollection();
+        long elapsed = System.currentTimeMillis() - start;
+
+        server.verify(10, postRequestedFor(urlEqualTo("/fhir")));
+        assertFalse(HttpClientUtils.hasPostTasksInQueue());
+        // One at a time would take at least 10 x the response delay
+        assertTrue(elapsed < 10L * RESPONSE_DELAY_MILLIS, "posts took " + elapsed + " ms");
+    }
+
+    @Test
+    public void TestResourceIsEncodedAsUtf8() throws IOException {
+        HttpClientUtils.post(fhirUri, bundle("encoded"), IOUtils.Encoding.JSON, fhirContext);
+        HttpClientUtils.postTaskCollection();
+
+        List<LoggedRequest> requests = server.findAll(postRequestedFor(urlEqualTo("/fhir")));
+        assertEquals(requests.size(), 1);
+        assertTrue(requests.get(0).getHeader("Content-Type").startsWith("application/json"));
+        Bundle posted = (Bundle) fhirContext.newJsonParser().parseResource(
+                new String(requests.get(0).getBody(), StandardCharsets.UTF_8));
+        assertEquals(posted.getIdElement().getIdPart(), "encoded");
+        assertEquals(((Patient) posted.getEntryFirstRep().getResource()).getNameFirstRep().getFamily(), "Ünïcödé");
+    }
+
+    @Test
+    public void TestEntityIsRepeatable() throws IOException {
+        HttpClientUtils.FhirResourceEntity entity = new HttpClientUtils.FhirResourceEntity(bundle("repeat"),
+                IOUtils.Encoding.XML, fhirContext);
+        assertTrue(entity.isRepeatable());
+        try (InputStream first = entity.getContent(); InputStream second = entity.getContent()) {
+            String content = new String(first.readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(content.startsWith("<Bundle"));
+            assertEquals(new String(second.readAllBytes(), StandardCharsets.UTF_8), content);
+        }
+    }
+
+    @Test
+    public void TestTransientFailuresAreRetried() throws IOException {
+        server.stubFor(post(urlEqualTo("/fhir")).inScenario("retry").whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse().withStatus(503).withHeader("Retry-After", "0"))
+                .willSetStateTo("available"));
+        server.stubFor(post(urlEqualTo("/fhir")).inScenario("retry").whenScenarioStateIs("available")
+                .willReturn(aResponse().withStatus(200)));
+        Path journalDir = Files.createTempDirectory("journal");
+        PostFailureJournal journal = PostFailureJournal.forDirectory(journalDir.toString());
+
+        HttpClientUtils.post(fhirUri, bundle("retried"), IOUtils.Encoding.JSON, fhirContext);
+        HttpClientUtils.postTaskCollection(journal);
+
+        server.verify(2, postRequestedFor(urlEqualTo("/fhir")));
+        assertTrue(journal.read().isEmpty());
+        assertFalse(Files.exists(journal.getPath()));
+    }
+
+    @Test
+    public void TestPermanentFailuresAreJournaled() throws IOException {
+        server.stubFor(post(urlEqualTo("/fhir")).withRequestBody(matchingJsonPath("$.id", equalTo("rejected")))
+                .willReturn(aResponse().withStatus(400)));
+        Path journalDir = Files.createTempDirectory("journal");
+        PostFailureJournal journal = PostFailureJournal.forDirectory(journalDir.toString());
+        // An entry for another server is kept, an outdated entry for this server is replaced
+        journal.update(Collections.emptyList(), List.of(
+                new PostFailureJournal.Entry("http://other/fhir", "Bundle", "elsewhere", 500, 3, "failed"),
+                new PostFailureJournal.Entry(fhirUri, "Bundle", "accepted", 500, 3, "failed")));
+
+        HttpClientUtils.post(fhirUri, bundle("accepted"), IOUtils.Encoding.JSON, fhirContext);
+        HttpClientUtils.post(fhirUri, bundle("rejected"), IOUtils.Encoding.JSON, fhirContext);
+        HttpClientUtils.postTaskCollection(journal);
+
+        // 400 is not retried
+        server.verify(2, postRequestedFor(urlEqualTo("/fhir")));
+        assertEquals(journal.getFailedKeys(fhirUri), Collections.singleton("Bundle/rejected"));
+        assertEquals(journal.getFailedKeys("http://other/fhir"), Collections.singleton("Bundle/elsewhere"));
+        PostFailureJournal.Entry rejected = journal.read().stream().filter(e -> e.getId().equals("rejected")).findFirst().get();
+        assertEquals(rejected.getStatusCode(), 400);
+        assertEquals(rejected.getAttempts(), 1);
+    }
+
+    @Test
+    public void TestRetryAfterIsHonored() {
+        long now = System.currentTimeMillis();
+        assertEquals(HttpRetryPolicy.parseRetryAfter("120", now), 120_000L);
+        // HTTP-dates have a resolution of one second
+        long untilDate = HttpRetryPolicy.parseRetryAfter(DateUtils.formatDate(new Date(now + 5_000)), now);
+        assertTrue(untilDate > 3_000 && untilDate <= 5_000, "delay " + untilDate);
+        assertEquals(HttpRetryPolicy.parseRetryAfter("soon", now), -1L);
+        assertEquals(HttpRetryPolicy.parseRetryAfter(null, now), -1L);
+
+        HttpRetryPolicy policy = new HttpRetryPolicy(3, 100, 1_000);
+        assertEquals(policy.getDelayMillis(0, 429, "2"), 2_000L);
+        for (int retry = 0; retry < 6; retry++) {
+            long delay = policy.getDelayMillis(retry, 503, null);
+            long expected = Math.min(1_000, 100L << retry);
+            assertTrue(delay >= expected / 2 && delay <= expected, "retry " + retry + " delay " + delay);
+        }
+        assertFalse(policy.isRetryable(400));
+        assertTrue(policy.canRetry(2));
+        assertFalse(policy.canRetry(3));
+    }
+}
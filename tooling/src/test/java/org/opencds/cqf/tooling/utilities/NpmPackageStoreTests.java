@@ -0,0 +1,182 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.StructureDefinition;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class NpmPackageStoreTests {
+    private static final String PACKAGE_PATH = "/example.fhir.test/1.0.0/package.tgz";
+    private static final String PROFILE_URL = "http://example.org/fhir/StructureDefinition/example-patient";
+    private static final String VALUESET_URL = "http://example.org/fhir/ValueSet/example";
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+    private WireMockServer server;
+    private Path storeDirectory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        server = new WireMockServer(options().dynamicPort());
+        server.start();
+        server.stubFor(get(urlEqualTo(PACKAGE_PATH)).willReturn(aResponse().withStatus(200).withBody(examplePackage())));
+        storeDirectory = Files.createTempDirectory("npm-package-store");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        server.stop();
+    }
+
+    private String packageUrl() {
+        return server.baseUrl() + PACKAGE_PATH;
+    }
+
+    private byte[] examplePackage() throws IOException {
+        StructureDefinition profile = new StructureDefinition();
+        profile.setId("example-patient");
+        profile.setUrl(PROFILE_URL);
+        profile.setVersion("1.0.0");
+        profile.setName("ExamplePatient");
+        profile.setStatus(Enumerations.PublicationStatus.ACTIVE);
+        profile.setKind(StructureDefinition.StructureDefinitionKind.RESOURCE);
+        profile.setAbstract(false);
+        profile.setType("Patient");
+        profile.setBaseDefinition("http://hl7.org/fhir/StructureDefinition/Patient");
+        profile.setDerivation(StructureDefinition.TypeDerivationRule.CONSTRAINT);
+        profile.getDifferential().addElement().setId("Patient").setPath("Patient");
+
+        ValueSet valueSet = new ValueSet();
+        valueSet.setId("example");
+        valueSet.setUrl(VALUESET_URL);
+        valueSet.setVersion("1.0.0");
+        valueSet.setStatus(Enumerations.PublicationStatus.ACTIVE);
+        valueSet.getCompose().addInclude().setSystem("http://loinc.org").addConcept().setCode("1234-5");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(bytes))) {
+            addEntry(tar, "package/package.json",
+                    "{\"name\":\"example.fhir.test\",\"version\":\"1.0.0\",\"fhirVersions\":[\"4.0.1\"],\"dependencies\":{}}");
+            addEntry(tar, "package/StructureDefinition-example-patient.json",
+                    fhirContext.newJsonParser().encodeResourceToString(profile));
+            addEntry(tar, "package/ValueSet-example.json", fhirContext.newJsonParser().encodeResourceToString(valueSet));
+            addEntry(tar, "package/other/spec.internals", "{}");
+        }
+        return bytes.toByteArray();
+    }
+
+    private void addEntry(TarArchiveOutputStream tar, String name, String content) throws IOException {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(data.length);
+        tar.putArchiveEntry(entry);
+        tar.write(data);
+        tar.closeArchiveEntry();
+    }
+
+    @Test
+    public void TestPackageIsDownloadedOnceAndIndexed() throws IOException {
+        NpmPackageStore store = new NpmPackageStore(storeDirectory);
+        assertFalse(store.contains(packageUrl()));
+
+        NpmPackageStore.StoredPackage stored = store.get(packageUrl());
+        assertTrue(store.contains(packageUrl()));
+        assertEquals(stored.getResources().size(), 2);
+        NpmPackageStore.Entry profile = stored.getResources().stream()
+                .filter(entry -> entry.getResourceType().equals("StructureDefinition")).findFirst().orElse(null);
+        assertNotNull(profile);
+        assertEquals(profile.getUrl(), PROFILE_URL);
+        assertEquals(profile.getType(), "Patient");
+        assertNotNull(stored.toNpmPackage());
+
+        // a new run reads the store without going to the network
+        server.stop();
+        NpmPackageStore.StoredPackage warm = new NpmPackageStore(storeDirectory).get(packageUrl());
+        assertEquals(warm.getResources().size(), 2);
+        assertEquals(server.findAll(getRequestedFor(urlEqualTo(PACKAGE_PATH))).size(), 1);
+    }
+
+    @Test
+    public void TestResourcesAreLoadedOnFirstAccess() throws IOException {
+        NpmPackageStore.StoredPackage stored = new NpmPackageStore(storeDirectory).get(packageUrl());
+        NpmUtils.PackageLoaderValidationSupport validationSupport = new NpmUtils.PackageLoaderValidationSupport(fhirContext);
+        validationSupport.loadPackage(stored);
+
+        Map<String, String> profiles = validationSupport.getNonBaseStructureDefinitionTypes();
+        assertEquals(profiles.size(), 1);
+        assertEquals(profiles.get(PROFILE_URL), "Patient");
+
+        assertNotNull(validationSupport.fetchValueSet(VALUESET_URL));
+        assertNotNull(validationSupport.fetchStructureDefinition(PROFILE_URL + "|1.0.0"));
+        assertNull(validationSupport.fetchValueSet("http://example.org/fhir/ValueSet/missing"));
+        assertEquals(validationSupport.fetchAllStructureDefinitions().size(), 1);
+        assertNotNull(validationSupport.fetchBinary("spec.internals"));
+    }
+
+    @Test
+    public void TestResourcesAreLoadedConcurrently() throws Exception {
+        NpmPackageStore.StoredPackage stored = new NpmPackageStore(storeDirectory).get(packageUrl());
+        NpmUtils.PackageLoaderValidationSupport validationSupport = new NpmUtils.PackageLoaderValidationSupport(fhirContext);
+        validationSupport.loadPackage(stored);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                boolean profile = i % 2 == 0;
+                results.add(executor.submit(() -> profile
+                        ? validationSupport.fetchStructureDefinition(PROFILE_URL) != null
+                        : validationSupport.fetchValueSet(VALUESET_URL) != null));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // each resource is parsed and added once
+        assertEquals(validationSupport.fetchAllStructureDefinitions().size(), 1);
+    }
+
+    @Test
+    public void TestInvalidateRemovesPackage() throws IOException {
+        NpmPackageStore store = new NpmPackageStore(storeDirectory);
+        store.get(packageUrl());
+        store.invalidate(packageUrl());
+        assertFalse(store.contains(packageUrl()));
+
+        store.get(packageUrl());
+        assertEquals(server.findAll(getRequestedFor(urlEqualTo(PACKAGE_PATH))).size(), 2);
+    }
+}
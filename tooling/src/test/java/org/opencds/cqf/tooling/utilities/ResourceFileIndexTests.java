@@ -0,0 +1,107 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Library;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class ResourceFileIndexTests {
+    private static final String LIBRARY_JSON = "{\"resourceType\":\"Library\",\"meta\":{\"profile\":[\"x\"]},\"id\":\"Example\","
+            + "\"extension\":[{\"url\":\"http://example.org/ext\",\"valueString\":\"nested\"}],"
+            + "\"url\":\"http://example.org/fhir/Library/Example\",\"version\":\"1.0.0\",\"name\":\"Example\",\"status\":\"draft\"}";
+    private static final String MEASURE_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<Measure xmlns=\"http://hl7.org/fhir\"><id value=\"EXM1\"/>"
+            + "<extension url=\"http://example.org/ext\"><valueString value=\"nested\"/></extension>"
+            + "<url value=\"http://example.org/fhir/Measure/EXM1\"/><name value=\"EXM1\"/><status value=\"draft\"/></Measure>";
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    @AfterMethod
+    public void tearDown() {
+        IOUtils.cleanUp();
+    }
+
+    private Path createIg() throws IOException {
+        Path igPath = Files.createTempDirectory("resource-index");
+        Path resources = Files.createDirectories(igPath.resolve("input/resources"));
+        Files.writeString(resources.resolve("library-Example.json"), LIBRARY_JSON);
+        Files.writeString(resources.resolve("measure-EXM1.xml"), MEASURE_XML);
+        Files.writeString(resources.resolve("not-a-resource.json"), "[1, 2, 3]");
+        Files.writeString(resources.resolve("broken.json"), "{\"resourceType\": ");
+        Files.writeString(resources.resolve("Example.cql"), "library Example version '1.0.0'");
+        return igPath;
+    }
+
+    @Test
+    public void TestTopLevelElementsAreIndexedByType() throws IOException {
+        Path igPath = createIg();
+        ResourceFileIndex index = ResourceFileIndex.build(List.of(igPath.resolve("input").toString()));
+
+        assertEquals(index.getFileCount(), 4);
+        List<ResourceFileIndex.Entry> libraries = index.getEntries("Library");
+        assertEquals(libraries.size(), 1);
+        assertEquals(libraries.get(0).getId(), "Example");
+        assertEquals(libraries.get(0).getUrl(), "http://example.org/fhir/Library/Example");
+        assertEquals(libraries.get(0).getVersion(), "1.0.0");
+        assertEquals(libraries.get(0).getName(), "Example");
+
+        List<ResourceFileIndex.Entry> measures = index.getEntries("Measure");
+        assertEquals(measures.size(), 1);
+        assertEquals(measures.get(0).getId(), "EXM1");
+        assertEquals(measures.get(0).getUrl(), "http://example.org/fhir/Measure/EXM1");
+        assertNull(measures.get(0).getVersion());
+        assertTrue(index.getEntries("ValueSet").isEmpty());
+    }
+
+    @Test
+    public void TestIndexIsPersistedAndRefreshedWhenFilesChange() throws IOException {
+        Path igPath = createIg();
+        String directory = igPath.resolve("input").toString();
+        ResourceFileIndex.build(List.of(directory));
+        assertTrue(Files.isRegularFile(igPath.resolve(".cqf-cache").resolve(ResourceFileIndex.FILE_NAME)));
+
+        Path library = igPath.resolve("input/resources/library-Example.json");
+        Files.writeString(library, LIBRARY_JSON.replace("\"id\":\"Example\"", "\"id\":\"Renamed\""));
+        // make sure the change is seen even where the file system has a coarse modification time
+        assertTrue(library.toFile().setLastModified(library.toFile().lastModified() + 2000));
+        IOUtils.cleanUp();
+
+        ResourceFileIndex index = ResourceFileIndex.build(List.of(directory));
+        assertEquals(index.getEntries("Library").get(0).getId(), "Renamed");
+    }
+
+    @Test
+    public void TestLazyResourcesAreParsedOnDemand() throws IOException {
+        Path igPath = createIg();
+        IOUtils.resourceDirectories.add(igPath.resolve("input").toString());
+        try {
+            Map<String, IBaseResource> libraries = IOUtils.getLibraries(fhirContext);
+            assertEquals(libraries.size(), 1);
+            assertTrue(libraries.containsKey("Example"));
+            assertEquals(((Library) libraries.get("Example")).getName(), "Example");
+            assertEquals(IOUtils.getLibraryByUrl(fhirContext, "http://example.org/fhir/Library/Example").getIdElement().getIdPart(), "Example");
+            assertEquals(IOUtils.getMeasurePathMap(fhirContext).keySet(), Set.of("EXM1"));
+            assertFalse(IOUtils.getMeasures(fhirContext).isEmpty());
+
+            Map<String, IBaseResource> copy = new LinkedHashMap<>(IOUtils.getMeasures(fhirContext));
+            assertEquals(copy.get("EXM1").fhirType(), "Measure");
+        } finally {
+            IOUtils.resourceDirectories.remove(igPath.resolve("input").toString());
+        }
+    }
+}
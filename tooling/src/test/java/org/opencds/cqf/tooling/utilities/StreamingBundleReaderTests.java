@@ -0,0 +1,97 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Narrative;
+import org.hl7.fhir.r4.model.Patient;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class StreamingBundleReaderTests {
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    private Bundle createBundle() {
+        Patient patient = new Patient();
+        patient.setId("patient-1");
+        patient.addName().setFamily("Example");
+        patient.getText().setStatus(Narrative.NarrativeStatus.GENERATED);
+        patient.getText().setDivAsString("<div xmlns=\"http://www.w3.org/1999/xhtml\"><p>Example &amp; patient</p></div>");
+
+        Library library = new Library();
+        library.setId("library-1");
+        library.setUrl("http://example.org/fhir/Library/library-1");
+        library.addContent().setContentType("text/cql").setData("library Example".getBytes());
+
+        Bundle nested = new Bundle();
+        nested.setId("nested");
+        nested.addEntry().setResource(new Patient().setId("patient-2"));
+
+        Bundle bundle = new Bundle();
+        bundle.setId("bundle");
+        bundle.setType(Bundle.BundleType.COLLECTION);
+        bundle.addEntry().setFullUrl("Patient/patient-1").setResource(patient);
+        bundle.addEntry().setFullUrl("urn:uuid:no-resource");
+        bundle.addEntry().setResource(library);
+        bundle.addEntry().setResource(nested);
+        return bundle;
+    }
+
+    private List<IBaseResource> read(Path path) {
+        List<IBaseResource> resources = new ArrayList<>();
+        int count = StreamingBundleReader.forEachResource(path.toString(), fhirContext, resources::add);
+        assertEquals(count, resources.size());
+        return resources;
+    }
+
+    private void assertEntries(List<IBaseResource> resources) {
+        assertEquals(resources.size(), 3);
+        Patient patient = (Patient) resources.get(0);
+        assertEquals(patient.getIdElement().getIdPart(), "patient-1");
+        assertEquals(patient.getNameFirstRep().getFamily(), "Example");
+        assertTrue(patient.getText().getDivAsString().contains("Example &amp; patient"));
+        Library library = (Library) resources.get(1);
+        assertEquals(library.getUrl(), "http://example.org/fhir/Library/library-1");
+        assertEquals(new String(library.getContentFirstRep().getData()), "library Example");
+        // nested bundles are entries like any other resource
+        assertEquals(((Bundle) resources.get(2)).getEntry().size(), 1);
+    }
+
+    @Test
+    public void TestJsonBundleEntriesAreRead() throws IOException {
+        Path path = Files.createTempFile("bundle", ".json");
+        Files.writeString(path, fhirContext.newJsonParser().setPrettyPrint(true).encodeResourceToString(createBundle()));
+        assertEntries(read(path));
+    }
+
+    @Test
+    public void TestXmlBundleEntriesAreRead() throws IOException {
+        Path path = Files.createTempFile("bundle", ".xml");
+        Files.writeString(path, fhirContext.newXmlParser().setPrettyPrint(true).encodeResourceToString(createBundle()));
+        assertEntries(read(path));
+    }
+
+    @Test
+    public void TestOnlyBundlesAreRead() throws IOException {
+        Path json = Files.createTempFile("patient", ".json");
+        Files.writeString(json, fhirContext.newJsonParser().encodeResourceToString(new Patient().setId("patient-1")));
+        expectThrows(IllegalArgumentException.class, () -> read(json));
+
+        Path xml = Files.createTempFile("patient", ".xml");
+        Files.writeString(xml, fhirContext.newXmlParser().encodeResourceToString(new Patient().setId("patient-1")));
+        expectThrows(IllegalArgumentException.class, () -> read(xml));
+
+        expectThrows(IllegalArgumentException.class, () -> read(json.resolveSibling("missing-bundle.json")));
+    }
+}
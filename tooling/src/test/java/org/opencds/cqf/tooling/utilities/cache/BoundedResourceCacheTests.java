@@ -0,0 +1,94 @@
+package org.opencds.cqf.tooling.utilities.cache;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class BoundedResourceCacheTests {
+
+    @Test
+    public void TestHitsAndMisses() {
+        ResourceCache<String, String> cache = BoundedResourceCache.<String, String>builder("test").build();
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(cache.get("a", key -> key + loads.incrementAndGet()), "a1");
+        assertEquals(cache.get("a", key -> key + loads.incrementAndGet()), "a1");
+
+        CacheStatistics statistics = cache.getStatistics();
+        assertEquals(statistics.getHitCount(), 1);
+        assertEquals(statistics.getMissCount(), 1);
+        assertEquals(statistics.getLoadCount(), 1);
+        assertEquals(loads.get(), 1);
+    }
+
+    @Test
+    public void TestSizeEvictionIsLeastRecentlyUsed() {
+        ResourceCache<String, String> cache = BoundedResourceCache.<String, String>builder("test").maximumSize(2).build();
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.get("a");
+        cache.put("c", "C");
+
+        assertTrue(cache.containsKey("a"));
+        assertFalse(cache.containsKey("b"));
+        assertTrue(cache.containsKey("c"));
+        assertEquals(cache.getStatistics().getEvictionCount(), 1);
+    }
+
+    @Test
+    public void TestWeightEviction() {
+        ResourceCache<String, String> cache = BoundedResourceCache.<String, String>builder("test")
+                .maximumWeight(10).weigher((key, value) -> value.length()).build();
+        cache.put("a", "12345");
+        cache.put("b", "12345");
+        assertEquals(cache.size(), 2);
+
+        cache.put("c", "1");
+        assertEquals(cache.size(), 2);
+        assertFalse(cache.containsKey("a"));
+        assertEquals(cache.getStatistics().getWeight(), 6);
+    }
+
+    @Test
+    public void TestNullValuesAreNotCached() {
+        ResourceCache<String, String> cache = BoundedResourceCache.<String, String>builder("test").build();
+        assertNull(cache.get("a", key -> null));
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void TestReplaceOnlyUpdatesPresentKeys() {
+        ResourceCache<String, String> cache = BoundedResourceCache.<String, String>builder("test").build();
+        cache.replace("a", "A");
+        assertFalse(cache.containsKey("a"));
+
+        cache.put("a", "A");
+        cache.replace("a", "B");
+        assertEquals(cache.get("a"), "B");
+    }
+
+    @Test
+    public void TestFileModificationInvalidatesEntry() throws IOException {
+        File file = File.createTempFile("cache", ".json");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "first".getBytes(StandardCharsets.UTF_8));
+
+        ResourceCache<String, String> cache = BoundedResourceCache.<String, String>builder("test")
+                .stamper(BoundedResourceCache::fileStamp).build();
+        cache.put(file.getPath(), "first");
+        assertEquals(cache.get(file.getPath()), "first");
+
+        assertTrue(file.setLastModified(file.lastModified() + 10_000));
+        assertNull(cache.get(file.getPath()));
+        assertEquals(cache.getStatistics().getInvalidationCount(), 1);
+    }
+}